@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted for every request recorded in {@link RequestStats}, when enabled in the
+ * JFR recording settings, e.g. {@code -XX:StartFlightRecording:+io.airlift.http.client.Request#enabled=true}.
+ */
+@Name("io.airlift.http.client.Request")
+@Label("HTTP Client Request")
+@Description("A request sent by the HTTP client")
+@Category({"Airlift", "HTTP"})
+@Enabled(false)
+@StackTrace(false)
+final class RequestJfrEvent
+        extends Event
+{
+    @Label("Method")
+    String method;
+
+    @Label("Response Code")
+    int responseCode;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestSize;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseSize;
+
+    @Label("Request Time")
+    @Timespan
+    long requestTime;
+
+    @Label("Response Time")
+    @Timespan
+    long responseTime;
+}
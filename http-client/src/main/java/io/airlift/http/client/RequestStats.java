@@ -24,6 +24,7 @@ import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
 import static io.airlift.http.client.HttpStatus.familyForStatusCode;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class RequestStats
 {
@@ -77,6 +78,17 @@ public class RequestStats
                 serverErrorResponse.update(1);
                 break;
         }
+
+        RequestJfrEvent event = new RequestJfrEvent();
+        if (event.isEnabled()) {
+            event.method = method;
+            event.responseCode = responseCode;
+            event.requestSize = requestSizeInBytes;
+            event.responseSize = responseSizeInBytes;
+            event.requestTime = requestProcessingTime.roundTo(NANOSECONDS);
+            event.responseTime = responseProcessingTime.roundTo(NANOSECONDS);
+            event.commit();
+        }
     }
 
     public void recordRequestFailed()
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import io.airlift.units.Duration;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestRequestStats
+{
+    @Test
+    @Timeout(60)
+    public void testJfrEvent()
+            throws Exception
+    {
+        RequestStats stats = new RequestStats();
+        BlockingQueue<RecordedEvent> events = new LinkedBlockingQueue<>();
+        try (RecordingStream recordingStream = new RecordingStream()) {
+            recordingStream.enable("io.airlift.http.client.Request");
+            recordingStream.onEvent("io.airlift.http.client.Request", events::add);
+            recordingStream.startAsync();
+
+            // events are streamed in batches, so record until one arrives
+            RecordedEvent event = null;
+            while (event == null) {
+                stats.recordResponseReceived("GET", 200, 100, 200, new Duration(5, MILLISECONDS), new Duration(3, MILLISECONDS));
+                event = events.poll(100, MILLISECONDS);
+            }
+
+            assertThat(event.getString("method")).isEqualTo("GET");
+            assertThat(event.getInt("responseCode")).isEqualTo(200);
+            assertThat(event.getLong("requestSize")).isEqualTo(100);
+            assertThat(event.getLong("responseSize")).isEqualTo(200);
+            assertThat(event.getLong("requestTime")).isEqualTo(MILLISECONDS.toNanos(5));
+            assertThat(event.getLong("responseTime")).isEqualTo(MILLISECONDS.toNanos(3));
+        }
+    }
+}
@@ -60,13 +60,14 @@ class DelimitedRequestLog
             long maxFileSizeInBytes,
             TraceTokenManager traceTokenManager,
             EventClient eventClient,
-            boolean compressionEnabled)
+            boolean compressionEnabled,
+            boolean cpuTimeTrackingEnabled)
     {
         this.traceTokenManager = traceTokenManager;
         this.eventClient = eventClient;
 
         ContextBase context = new ContextBase();
-        HttpLogLayout httpLogLayout = new HttpLogLayout();
+        HttpLogLayout httpLogLayout = new HttpLogLayout(cpuTimeTrackingEnabled);
 
         recoverTempFiles(filename);
 
@@ -40,6 +40,6 @@ public class DispatchingRequestLogHandler
         if (logger != null) {
             logger.log(request, response, timings);
         }
-        stats.record(Request.getContentBytesRead(request), Response.getContentBytesWritten(response), timings.timeToCompletion());
+        stats.record(Request.getContentBytesRead(request), Response.getContentBytesWritten(response), timings.timeToCompletion(), timings.handlingCpuTime());
     }
 }
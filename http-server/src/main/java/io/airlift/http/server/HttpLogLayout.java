@@ -13,6 +13,18 @@ public class HttpLogLayout
 {
     private static final DateTimeFormatter ISO_FORMATTER = ISO_OFFSET_DATE_TIME.withZone(ZoneId.systemDefault());
 
+    private final boolean cpuTimeTrackingEnabled;
+
+    public HttpLogLayout()
+    {
+        this(false);
+    }
+
+    public HttpLogLayout(boolean cpuTimeTrackingEnabled)
+    {
+        this.cpuTimeTrackingEnabled = cpuTimeTrackingEnabled;
+    }
+
     @Override
     public String doLayout(HttpRequestEvent event)
     {
@@ -55,9 +67,25 @@ public class HttpLogLayout
                 .append('\t')
                 .append(event.timeFromFirstToLastContent())
                 .append('\t')
-                .append(contentInterarrivalStats)
-                .append('\n');
+                .append(contentInterarrivalStats);
+
+        // the CPU time columns are only present when CPU time is tracked
+        if (cpuTimeTrackingEnabled) {
+            builder.append('\t')
+                    .append(formatMillis(event.handlingCpuTime()))
+                    .append('\t')
+                    .append(formatMillis(event.handlingUserTime()));
+        }
+        builder.append('\n');
 
         return builder.toString();
     }
+
+    private static String formatMillis(Double millis)
+    {
+        if (millis == null) {
+            return null;
+        }
+        return format("%.3f", millis);
+    }
 }
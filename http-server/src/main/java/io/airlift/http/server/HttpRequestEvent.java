@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import io.airlift.event.client.EventField;
 import io.airlift.event.client.EventType;
 import io.airlift.http.server.jetty.RequestTiming;
+import io.airlift.stats.CpuTimer.CpuDuration;
 import io.airlift.tracetoken.TraceTokenManager;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
@@ -31,6 +32,7 @@ import java.util.Enumeration;
 
 import static io.airlift.event.client.EventField.EventFieldMapping.TIMESTAMP;
 import static io.airlift.http.server.TraceTokenFilter.TRACETOKEN_HEADER;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @EventType("HttpRequest")
 public record HttpRequestEvent(
@@ -55,7 +57,9 @@ public record HttpRequestEvent(
         @EventField long timeToCompletion,
         @EventField long timeFromFirstToLastContent,
         @EventField DoubleSummaryStats responseContentInterarrivalStats,
-        @EventField String protocolVersion)
+        @EventField String protocolVersion,
+        @EventField Double handlingCpuTime,
+        @EventField Double handlingUserTime)
 {
     public static HttpRequestEvent createHttpRequestEvent(Request request, Response response, TraceTokenManager traceTokenManager, RequestTiming timing)
     {
@@ -120,6 +124,17 @@ public record HttpRequestEvent(
             protocol = protocol.toLowerCase();
         }
 
+        // CPU and user time in milliseconds, only present when CPU time tracking is enabled
+        Double handlingCpuTime = null;
+        Double handlingUserTime = null;
+        CpuDuration cpuDuration = timing.handlingCpuTime();
+        if (cpuDuration != null) {
+            handlingCpuTime = cpuDuration.getCpu().getValue(MILLISECONDS);
+            handlingUserTime = cpuDuration.getUserIfPresent()
+                    .map(user -> user.getValue(MILLISECONDS))
+                    .orElse(null);
+        }
+
         return new HttpRequestEvent(
                 timing.requestStarted(),
                 token,
@@ -142,6 +157,8 @@ public record HttpRequestEvent(
                 timing.timeToCompletion().toMillis(),
                 timing.timeToLastByte().toMillis() - timing.timeToFirstByte().toMillis(),
                 timing.responseContentInterarrivalStats(),
-                request.getConnectionMetaData().getHttpVersion().asString());
+                request.getConnectionMetaData().getHttpVersion().asString(),
+                handlingCpuTime,
+                handlingUserTime);
     }
 }
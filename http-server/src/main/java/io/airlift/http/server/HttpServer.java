@@ -159,6 +159,9 @@ public class HttpServer
             Executor executor = getNamedVirtualThreadsExecutor("http-worker#v");
             verify(executor != null, "Could not create virtual threads executor");
             log.info("Virtual threads support is enabled");
+            if (config.isCpuTimeTrackingEnabled()) {
+                log.warn("CPU time tracking is enabled, but the CPU time of requests handled on virtual threads is not recorded");
+            }
             threadPool.setVirtualThreadsExecutor(executor);
         }
         server = new Server(threadPool);
@@ -352,7 +355,7 @@ public class HttpServer
         }
 
         DispatchingRequestLogHandler dispatchingHandler = new DispatchingRequestLogHandler(requestLog, stats);
-        EventsHandler eventsHandler = new RequestTimingEventHandler(rootHandlers);
+        EventsHandler eventsHandler = new RequestTimingEventHandler(rootHandlers, config.isCpuTimeTrackingEnabled());
 
         server.setRequestLog(dispatchingHandler);
         server.setHandler(eventsHandler);
@@ -497,7 +500,8 @@ public class HttpServer
                 config.getLogMaxFileSize().toBytes(),
                 tokenManager,
                 eventClient,
-                config.isLogCompressionEnabled());
+                config.isLogCompressionEnabled(),
+                config.isCpuTimeTrackingEnabled());
     }
 
     @VisibleForTesting
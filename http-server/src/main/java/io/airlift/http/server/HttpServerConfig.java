@@ -63,6 +63,7 @@ public class HttpServerConfig
     private boolean logCompressionEnabled = true;
 
     private boolean processForwarded;
+    private boolean cpuTimeTrackingEnabled;
 
     private Integer httpAcceptorThreads;
     private Integer httpSelectorThreads;
@@ -187,6 +188,19 @@ public class HttpServerConfig
         return this;
     }
 
+    public boolean isCpuTimeTrackingEnabled()
+    {
+        return cpuTimeTrackingEnabled;
+    }
+
+    @Config("http-server.cpu-time-tracking.enabled")
+    @ConfigDescription("Record the CPU and user time spent handling each request in the request stats and log")
+    public HttpServerConfig setCpuTimeTrackingEnabled(boolean cpuTimeTrackingEnabled)
+    {
+        this.cpuTimeTrackingEnabled = cpuTimeTrackingEnabled;
+        return this;
+    }
+
     @Min(1)
     public Integer getHttpAcceptorThreads()
     {
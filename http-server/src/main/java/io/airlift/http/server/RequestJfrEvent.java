@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted for every request recorded in {@link RequestStats}, when enabled in the
+ * JFR recording settings, e.g. {@code -XX:StartFlightRecording:+io.airlift.http.server.Request#enabled=true}.
+ */
+@Name("io.airlift.http.server.Request")
+@Label("HTTP Server Request")
+@Description("A request handled by the HTTP server")
+@Category({"Airlift", "HTTP"})
+@Enabled(false)
+@StackTrace(false)
+final class RequestJfrEvent
+        extends Event
+{
+    @Label("Request Size")
+    @DataAmount
+    long requestSize;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseSize;
+
+    @Label("Processing Time")
+    @Timespan
+    long processingTime;
+
+    @Label("CPU Time")
+    @Description("CPU time of the handling thread, or 0 if not tracked")
+    @Timespan
+    long cpuTime;
+}
@@ -17,17 +17,23 @@ package io.airlift.http.server;
 
 import com.google.inject.Inject;
 import io.airlift.stats.CounterStat;
+import io.airlift.stats.CpuTimer.CpuDuration;
 import io.airlift.stats.DistributionStat;
 import io.airlift.stats.TimeStat;
 import io.airlift.units.Duration;
+import jakarta.annotation.Nullable;
 import org.weakref.jmx.Flatten;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 public class RequestStats
 {
     private final CounterStat request;
     private final TimeStat requestTime;
+    private final TimeStat requestCpuTime;
+    private final TimeStat requestUserTime;
     private final DistributionStat readBytes;
     private final DistributionStat writtenBytes;
 
@@ -36,16 +42,36 @@ public class RequestStats
     {
         request = new CounterStat();
         requestTime = new TimeStat();
+        requestCpuTime = new TimeStat();
+        requestUserTime = new TimeStat();
         readBytes = new DistributionStat();
         writtenBytes = new DistributionStat();
     }
 
     public void record(long requestSizeInBytes, long responseSizeInBytes, Duration requestProcessingTime)
+    {
+        record(requestSizeInBytes, responseSizeInBytes, requestProcessingTime, null);
+    }
+
+    public void record(long requestSizeInBytes, long responseSizeInBytes, Duration requestProcessingTime, @Nullable CpuDuration requestCpuDuration)
     {
         request.update(1);
         requestTime.add(requestProcessingTime);
         readBytes.add(requestSizeInBytes);
         writtenBytes.add(responseSizeInBytes);
+        if (requestCpuDuration != null) {
+            requestCpuTime.add(requestCpuDuration.getCpu());
+            requestCpuDuration.getUserIfPresent().ifPresent(requestUserTime::add);
+        }
+
+        RequestJfrEvent event = new RequestJfrEvent();
+        if (event.isEnabled()) {
+            event.requestSize = requestSizeInBytes;
+            event.responseSize = responseSizeInBytes;
+            event.processingTime = requestProcessingTime.roundTo(NANOSECONDS);
+            event.cpuTime = requestCpuDuration == null ? 0 : requestCpuDuration.getCpu().roundTo(NANOSECONDS);
+            event.commit();
+        }
     }
 
     @Managed
@@ -62,6 +88,20 @@ public class RequestStats
         return requestTime;
     }
 
+    @Managed
+    @Nested
+    public TimeStat getRequestCpuTime()
+    {
+        return requestCpuTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getRequestUserTime()
+    {
+        return requestUserTime;
+    }
+
     @Managed
     @Nested
     public DistributionStat getReadBytes()
@@ -3,6 +3,8 @@ package io.airlift.http.server;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
 import io.airlift.http.server.jetty.RequestTiming;
+import io.airlift.stats.CpuTimer;
+import io.airlift.stats.CpuTimer.CpuDuration;
 import io.airlift.units.Duration;
 import jakarta.annotation.Nullable;
 import org.eclipse.jetty.http.HttpFields;
@@ -29,12 +31,22 @@ class RequestTimingEventHandler
     static final String REQUEST_HANDLE_ENDED_ATTRIBUTE = RequestTimingEventHandler.class.getName() + ".handle_end";
     static final String RESPONSE_CONTENT_WRITE_BEGIN_ATTRIBUTE = RequestTimingEventHandler.class.getName() + ".content_write_begin";
     static final String RESPONSE_CONTENT_WRITE_END_ATTRIBUTE = RequestTimingEventHandler.class.getName() + ".content_write_end";
+    static final String REQUEST_HANDLE_CPU_TIMER_ATTRIBUTE = RequestTimingEventHandler.class.getName() + ".handle_cpu_timer";
+    static final String REQUEST_HANDLE_CPU_TIME_ATTRIBUTE = RequestTimingEventHandler.class.getName() + ".handle_cpu_time";
 
     private static final Object MARKER = new Object();
 
+    private final boolean cpuTimeTrackingEnabled;
+
     public RequestTimingEventHandler(Handler handler)
+    {
+        this(handler, false);
+    }
+
+    public RequestTimingEventHandler(Handler handler, boolean cpuTimeTrackingEnabled)
     {
         super(handler);
+        this.cpuTimeTrackingEnabled = cpuTimeTrackingEnabled;
     }
 
     @Override
@@ -56,6 +68,20 @@ class RequestTimingEventHandler
     {
         // Called before handing over request down in the stack
         request.setAttribute(REQUEST_HANDLE_STARTED_ATTRIBUTE, NanoTime.now());
+        // CPU time is only measured on platform threads, see CpuTimer#isCurrentThreadCpuTimeAvailable
+        if (cpuTimeTrackingEnabled && CpuTimer.isCurrentThreadCpuTimeAvailable()) {
+            request.setAttribute(REQUEST_HANDLE_CPU_TIMER_ATTRIBUTE, new CpuTimer());
+        }
+    }
+
+    @Override
+    protected void onAfterHandling(Request request, boolean handled, Throwable failure)
+    {
+        // Called on the same thread as onBeforeHandling, once the handler returns.
+        // Work done asynchronously on other threads after that is not accounted for.
+        if (request.getAttribute(REQUEST_HANDLE_CPU_TIMER_ATTRIBUTE) instanceof CpuTimer cpuTimer) {
+            request.setAttribute(REQUEST_HANDLE_CPU_TIME_ATTRIBUTE, cpuTimer.elapsedTime());
+        }
     }
 
     @Override
@@ -76,7 +102,8 @@ class RequestTimingEventHandler
                 elapsedMillis(requestStarted, getFirstByte(request.asAttributeMap())), // Time from the start of the request until before first write
                 elapsedMillis(requestStarted, getLastByte(request.asAttributeMap())), // Time from the start of the request until after last write
                 elapsedMillis(requestStarted, getRequestBeginToEnd(request.asAttributeMap())), // Time from the start of the request until it's completed
-                processContentTimestamps(getContentWriteBeginTimestamps(request.asAttributeMap())));
+                processContentTimestamps(getContentWriteBeginTimestamps(request.asAttributeMap())),
+                (CpuDuration) request.getAttribute(REQUEST_HANDLE_CPU_TIME_ATTRIBUTE)); // CPU time spent by the handling thread, if tracked
     }
 
     private static long getFirstByte(Map<String, Object> attributes)
@@ -14,7 +14,9 @@
 package io.airlift.http.server.jetty;
 
 import io.airlift.http.server.DoubleSummaryStats;
+import io.airlift.stats.CpuTimer.CpuDuration;
 import io.airlift.units.Duration;
+import jakarta.annotation.Nullable;
 
 import java.time.Instant;
 
@@ -28,8 +30,21 @@ public record RequestTiming(
         Duration timeToFirstByte,
         Duration timeToLastByte,
         Duration timeToCompletion,
-        DoubleSummaryStats responseContentInterarrivalStats)
+        DoubleSummaryStats responseContentInterarrivalStats,
+        @Nullable CpuDuration handlingCpuTime)
 {
+    public RequestTiming(
+            Instant requestStarted,
+            Duration timeToDispatch,
+            Duration timeToHandling,
+            Duration timeToFirstByte,
+            Duration timeToLastByte,
+            Duration timeToCompletion,
+            DoubleSummaryStats responseContentInterarrivalStats)
+    {
+        this(requestStarted, timeToDispatch, timeToHandling, timeToFirstByte, timeToLastByte, timeToCompletion, responseContentInterarrivalStats, null);
+    }
+
     public RequestTiming
     {
         requireNonNull(requestStarted, "requestStarted is null");
@@ -18,6 +18,7 @@ package io.airlift.http.server;
 import com.google.common.collect.ImmutableList;
 import io.airlift.event.client.InMemoryEventClient;
 import io.airlift.http.server.jetty.RequestTiming;
+import io.airlift.stats.CpuTimer.CpuDuration;
 import io.airlift.tracetoken.TraceTokenManager;
 import io.airlift.units.Duration;
 import org.eclipse.jetty.http.HttpURI;
@@ -94,6 +95,7 @@ public class TestDelimitedRequestLog
                     Long.MAX_VALUE,
                     tokenManager,
                     eventClient,
+                    false,
                     false);
             String token = "test-trace-token";
             when(request.getConnectionMetaData().getHttpVersion()).thenReturn(HTTP_2);
@@ -152,10 +154,11 @@ public class TestDelimitedRequestLog
             stats.accept(1);
             stats.accept(3);
             DoubleSummaryStats responseContentInterarrivalStats = new DoubleSummaryStats(stats);
+            CpuDuration handlingCpuTime = new CpuDuration(new Duration(40, MILLISECONDS), new Duration(12.5, MILLISECONDS), new Duration(10, MILLISECONDS));
 
             TraceTokenManager tokenManager = new TraceTokenManager();
             InMemoryEventClient eventClient = new InMemoryEventClient();
-            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, tokenManager, eventClient, false);
+            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, tokenManager, eventClient, false, true);
 
             when(principal.getName()).thenReturn(user);
             when(request.getHeaders().get("User-Agent")).thenReturn(agent);
@@ -175,7 +178,7 @@ public class TestDelimitedRequestLog
             when(response.getHeaders().get("Content-Type")).thenReturn(responseContentType);
 
             tokenManager.createAndRegisterNewRequestToken();
-            RequestTiming timings = timings(timeToDispatch, timeToHandle, timeToFirstByte, timeToLastByte, beginToEndMillis, responseContentInterarrivalStats);
+            RequestTiming timings = timings(timeToDispatch, timeToHandle, timeToFirstByte, timeToLastByte, beginToEndMillis, responseContentInterarrivalStats, handlingCpuTime);
 
             logger.log(request, response, timings);
             logger.stop();
@@ -203,9 +206,11 @@ public class TestDelimitedRequestLog
             assertThat(event.timeToHandle()).isEqualTo(timeToHandle);
             assertThat(event.timeFromFirstToLastContent()).isEqualTo(event.timeToLastByte() - event.timeToFirstByte());
             assertThat(event.responseContentInterarrivalStats()).isEqualTo(responseContentInterarrivalStats);
+            assertThat(event.handlingCpuTime()).isEqualTo(12.5);
+            assertThat(event.handlingUserTime()).isEqualTo(10.0);
 
             String actual = asCharSource(file, UTF_8).read();
-            String expected = String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n",
+            String expected = String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n",
                     ISO_FORMATTER.format(timings.requestStarted()),
                     ip,
                     method,
@@ -221,12 +226,34 @@ public class TestDelimitedRequestLog
                     timeToDispatch,
                     beginToEndMillis,
                     firstToLastContentTimeInMillis,
-                    format("%.2f, %.2f, %.2f, %d", stats.getMin(), stats.getAverage(), stats.getMax(), stats.getCount()));
+                    format("%.2f, %.2f, %.2f, %d", stats.getMin(), stats.getAverage(), stats.getMax(), stats.getCount()),
+                    format("%.3f", 12.5),
+                    format("%.3f", 10.0));
 
             assertThat(actual).isEqualTo(expected);
         }
     }
 
+    @Test
+    public void testWriteLogWithoutCpuTimeTracking()
+            throws Exception
+    {
+        try (MockedStatic<Request> ignored = mockStatic(Request.class, RETURNS_DEEP_STUBS)) {
+            Request request = mock(Request.class, RETURNS_DEEP_STUBS);
+            Response response = mock(Response.class, RETURNS_DEEP_STUBS);
+            when(request.getConnectionMetaData().getHttpVersion()).thenReturn(HTTP_2);
+
+            InMemoryEventClient eventClient = new InMemoryEventClient();
+            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false, false);
+            logger.log(request, response, timings(0, 0, 0, 0, 0, new DoubleSummaryStats(new DoubleSummaryStatistics())));
+            logger.stop();
+
+            // the line ends with the content interarrival stats, without the CPU time columns
+            String actual = asCharSource(file, UTF_8).read();
+            assertThat(actual.split("\t")).hasSize(16);
+        }
+    }
+
     @Test
     public void testNoXForwardedProto()
     {
@@ -239,7 +266,7 @@ public class TestDelimitedRequestLog
             when(request.getConnectionMetaData().getHttpVersion()).thenReturn(HTTP_2);
 
             InMemoryEventClient eventClient = new InMemoryEventClient();
-            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false);
+            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false, false);
             logger.log(request, response, timings(0, 0, 0, 0, 0, new DoubleSummaryStats(new DoubleSummaryStatistics())));
             logger.stop();
 
@@ -263,7 +290,7 @@ public class TestDelimitedRequestLog
             when(request.getConnectionMetaData().getHttpVersion()).thenReturn(HTTP_2);
 
             InMemoryEventClient eventClient = new InMemoryEventClient();
-            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false);
+            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false, false);
             logger.log(request, response, timings(0, 0, 0, 0, 0, new DoubleSummaryStats(new DoubleSummaryStatistics())));
             logger.stop();
 
@@ -288,7 +315,7 @@ public class TestDelimitedRequestLog
             when(request.getConnectionMetaData().getHttpVersion()).thenReturn(HTTP_2);
 
             InMemoryEventClient eventClient = new InMemoryEventClient();
-            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false);
+            DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 256, Long.MAX_VALUE, null, eventClient, false, false);
             logger.log(request, response, timings(0, 0, 0, 0, 0, new DoubleSummaryStats(new DoubleSummaryStatistics())));
             logger.stop();
 
@@ -307,6 +334,18 @@ public class TestDelimitedRequestLog
             long timeToLastByte,
             long timeToCompletion,
             DoubleSummaryStats responseContentInterarrivalStats)
+    {
+        return timings(timeToDispatch, timeToHandle, timeToFirstByte, timeToLastByte, timeToCompletion, responseContentInterarrivalStats, null);
+    }
+
+    private static RequestTiming timings(
+            long timeToDispatch,
+            long timeToHandle,
+            long timeToFirstByte,
+            long timeToLastByte,
+            long timeToCompletion,
+            DoubleSummaryStats responseContentInterarrivalStats,
+            CpuDuration handlingCpuTime)
     {
         return new RequestTiming(
                 Instant.now(),
@@ -315,6 +354,7 @@ public class TestDelimitedRequestLog
                 Duration.succinctDuration(timeToFirstByte, MILLISECONDS),
                 Duration.succinctDuration(timeToLastByte, MILLISECONDS),
                 Duration.succinctDuration(timeToCompletion, MILLISECONDS),
-                responseContentInterarrivalStats);
+                responseContentInterarrivalStats,
+                handlingCpuTime);
     }
 }
@@ -42,6 +42,7 @@ public class TestHttpServerConfig
                 .setHttpAcceptQueueSize(8000)
                 .setHttpsEnabled(false)
                 .setProcessForwarded(false)
+                .setCpuTimeTrackingEnabled(false)
                 .setLogPath("var/log/http-request.log")
                 .setLogEnabled(true)
                 .setLogMaxFileSize(DataSize.of(100, MEGABYTE))
@@ -80,6 +81,7 @@ public class TestHttpServerConfig
                 .put("http-server.accept-queue-size", "1024")
                 .put("http-server.https.enabled", "true")
                 .put("http-server.process-forwarded", "true")
+                .put("http-server.cpu-time-tracking.enabled", "true")
                 .put("http-server.log.path", "/log")
                 .put("http-server.log.enabled", "false")
                 .put("http-server.log.max-size", "1GB")
@@ -115,6 +117,7 @@ public class TestHttpServerConfig
                 .setHttpAcceptQueueSize(1024)
                 .setHttpsEnabled(true)
                 .setProcessForwarded(true)
+                .setCpuTimeTrackingEnabled(true)
                 .setLogPath("/log")
                 .setLogEnabled(false)
                 .setLogMaxFileSize(DataSize.of(1, GIGABYTE))
@@ -10,15 +10,15 @@ import com.google.errorprone.annotations.concurrent.GuardedBy;
 import jakarta.annotation.Nullable;
 import org.weakref.jmx.Managed;
 
+import java.io.IOException;
 import java.time.Duration;
-import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -27,7 +27,6 @@ import java.util.logging.LogRecord;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Comparator.comparing;
@@ -49,8 +48,6 @@ class BufferedHandler
         String formatDropSummary(Multiset<String> dropCountBySource);
     }
 
-    private static final MessageAndSource TERMINAL_MESSAGE = new MessageAndSource(new byte[] {}, "");
-
     private final ExecutorService bufferDrainExecutor = newSingleThreadExecutor(daemonThreadsNamed("log-buffer-drainer"));
     private final AtomicBoolean initialized = new AtomicBoolean();
     private final AtomicBoolean inputClosed = new AtomicBoolean();
@@ -62,14 +59,19 @@ class BufferedHandler
     private final Duration maxCloseTime;
     private final int messageFlushCount;
 
-    // queueDrainLock ensures that queue and dropCountBySource are kept in sync as data is extracted or moved between these structures
-    private final ReentrantLock queueDrainLock = new ReentrantLock();
-    private final Condition recordEnqueued = queueDrainLock.newCondition();
-    private final Deque<MessageAndSource> queue;
-    @GuardedBy("queueDrainLock")
-    private final Multiset<String> dropCountBySource = HashMultiset.create();
-    @GuardedBy("queueDrainLock")
-    private boolean terminalMessageDequeued;
+    // Each message carries the drops of its publishing thread since the previous message of that thread,
+    // so the drop summary is written in the place of the dropped messages
+    private final MessageRingBuffer<Multiset<String>> buffer;
+    private final MessageRingBuffer.MessageConsumer<Multiset<String>> messageWriter;
+    private final ThreadLocal<ThreadDrops> threadDrops = new ThreadLocal<>();
+    // Threads with drops that are not attached to a message yet
+    private final Set<ThreadDrops> threadsWithDrops = ConcurrentHashMap.newKeySet();
+    // Only accessed by the drain thread
+    private final Multiset<String> unsummarizedDrops = HashMultiset.create();
+
+    private volatile Thread drainThread;
+    private volatile boolean drainThreadParked;
+    private volatile boolean closeObserved;
 
     public BufferedHandler(MessageOutput messageOutput, Formatter formatter, ErrorManager errorManager)
     {
@@ -103,7 +105,8 @@ class BufferedHandler
         checkArgument(messageFlushCount > 0, "messageFlushCount must be greater than zero");
         this.messageFlushCount = messageFlushCount;
         checkArgument(maxBufferSize > 0, "maxBufferSize must be greater than zero");
-        queue = new LinkedBlockingDeque<>(maxBufferSize);
+        buffer = new MessageRingBuffer<>(maxBufferSize);
+        messageWriter = this::writeMessage;
     }
 
     private static String defaultFormatDropSummary(Multiset<String> dropCountBySource)
@@ -124,137 +127,79 @@ class BufferedHandler
 
     private void bufferDrainLoop()
     {
+        drainThread = Thread.currentThread();
         int flushCounter = 0;
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                Multiset<String> dropSnapshot = ImmutableMultiset.of();
-                MessageAndSource message = null;
-                try {
-                    // Extract work to do
-                    queueDrainLock.lock();
-                    try {
-                        while (true) {
-                            if (!dropCountBySource.isEmpty()) {
-                                dropSnapshot = ImmutableMultiset.copyOf(dropCountBySource);
-                                dropCountBySource.clear();
-                            }
-
-                            // Always check if there are any messages (even if we have a drop snapshot to process) to ensure that we
-                            // are processing at least some messages during overload conditions, and not just only printing drop summaries.
-                            // Note: queuePollFirst() will return null and set terminalMessageDequeued when encountering TERMINAL_MESSAGE.
-                            message = queuePollFirst();
+                // Observed before looking for work, so everything published before close is written
+                if (inputClosed.get()) {
+                    closeObserved = true;
+                }
 
-                            if (!dropSnapshot.isEmpty() || message != null) {
-                                // Work found
-                                break;
-                            }
+                boolean progress = false;
 
-                            if (terminalMessageDequeued) {
-                                // No more work and terminal message was already located
-                                return; // Graceful way to exit the drain loop (other than via interruption)
+                // Write a batch of messages. A message that fails to be written stays in the buffer and is retried.
+                int written = 0;
+                try {
+                    while (written < messageFlushCount) {
+                        if (!buffer.consumeFirst(messageWriter)) {
+                            // Summarize the drops after the last message of each thread
+                            if (writeDropSummary()) {
+                                written++;
                             }
-
-                            recordEnqueued.await();
+                            break;
                         }
+                        written++;
                     }
-                    finally {
-                        queueDrainLock.unlock();
-                    }
-                    // For safety: dropSnapshot and message will be requeued in the finally block if not explicitly unreferenced
-
-                    // Dropped messages occurred before the current, and so drop snapshot need to be written first
-                    if (!dropSnapshot.isEmpty()) {
-                        if (!writeMessageOutputSafe(formatMessageBytes(createDropSummaryRecord(dropSnapshot)))) {
-                            errorRetryLimiter.acquire();
-                            continue;
-                        }
-                        dropSnapshot = ImmutableMultiset.of();
-                        flushCounter++;
-                    }
-
-                    // Then write the message
-                    if (message != null) {
-                        if (!writeMessageOutputSafe(message.logMessage())) {
-                            errorRetryLimiter.acquire();
-                            continue;
-                        }
-                        message = null;
-                        flushCounter++;
-                    }
-
-                    // Flush after some number of messages or if there is nothing more to process at the moment
-                    if (flushCounter >= messageFlushCount || !hasDrainingWork()) {
-                        flushMessageOutputSafe();
-                        flushCounter = 0;
-                    }
+                }
+                catch (Exception e) {
+                    reportError("Could not write to the MessageOutput", e, WRITE_FAILURE);
+                    errorRetryLimiter.acquire();
+                    continue;
                 }
                 finally {
-                    if (message != null || !dropSnapshot.isEmpty()) {
-                        // Return messages that failed
-                        queueDrainLock.lock();
-                        try {
-                            // Return a failed message to the queue, or drop it if at capacity.
-                            if (message != null) {
-                                // If TERMINAL_MESSAGE has been dequeued, the queue is finished and this message must now become part of the drop summary.
-                                // If dropCountBySource is nonempty, then need to drop the current message because subsequent messages have already been dropped (regardless of the current queue size).
-                                // If the queue is full, then also need to drop the current message. NOTE: this must be the last condition checked.
-                                if (terminalMessageDequeued || !dropCountBySource.isEmpty() || !queue.offerFirst(message)) {
-                                    dropCountBySource.add(message.sourceName());
-                                    droppedMessages.incrementAndGet();
-                                }
-                            }
+                    flushCounter += written;
+                }
+                progress |= written > 0;
 
-                            // Merge back dropped messages snapshot
-                            dropSnapshot.forEachEntry(dropCountBySource::add);
-                        }
-                        finally {
-                            queueDrainLock.unlock();
-                        }
+                // Flush after some number of messages or if there is nothing more to process at the moment
+                if (flushCounter >= messageFlushCount || (flushCounter > 0 && !progress)) {
+                    flushMessageOutputSafe();
+                    flushCounter = 0;
+                }
+
+                if (!progress) {
+                    if (closeObserved && buffer.isEmpty() && !hasPendingDrops()) {
+                        // No more work will arrive (other than via interruption)
+                        return;
                     }
+                    awaitWork();
                 }
             }
-            catch (LogFormatException e) {
-                reportError(null, e, FORMAT_FAILURE);
-            }
-            catch (InterruptedException e) {
-                reportError("Log draining thread interrupted, will exit!", e, GENERIC_FAILURE);
-                Thread.currentThread().interrupt();
-            }
             catch (Exception e) {
                 reportError("Unexpected buffer drain loop exception", e, GENERIC_FAILURE);
             }
         }
     }
 
-    /**
-     * INVARIANT: Once TERMINAL_MESSAGE has been dequeued, no further records will be dequeued.
-     */
-    @Nullable
-    private MessageAndSource queuePollFirst()
+    private void awaitWork()
     {
-        checkState(queueDrainLock.isLocked());
-        if (terminalMessageDequeued) {
-            return null;
+        drainThreadParked = true;
+        try {
+            // Check again after announcing the park, since producers only wake a parked drain thread
+            if (!buffer.hasReadyMessage() && !hasPendingDrops() && (closeObserved || !inputClosed.get())) {
+                LockSupport.park(this);
+            }
         }
-
-        MessageAndSource message = queue.pollFirst();
-
-        if (message == TERMINAL_MESSAGE) {
-            terminalMessageDequeued = true;
-            return null;
+        finally {
+            drainThreadParked = false;
         }
-
-        return message;
     }
 
-    private boolean hasDrainingWork()
+    private void signalDrainThread()
     {
-        queueDrainLock.lock();
-        try {
-            return !dropCountBySource.isEmpty() || !queue.isEmpty();
-        }
-        finally {
-            queueDrainLock.unlock();
+        if (drainThreadParked) {
+            LockSupport.unpark(drainThread);
         }
     }
 
@@ -280,6 +225,55 @@ class BufferedHandler
         }
     }
 
+    /**
+     * The drops of a publishing thread since its last message. They are taken by the thread to be
+     * attached to its next message, or by the drain thread once the earlier messages are written.
+     */
+    private final class ThreadDrops
+    {
+        @GuardedBy("this")
+        private Multiset<String> dropCountBySource = HashMultiset.create();
+        // A buffer position after the last message of the thread
+        @GuardedBy("this")
+        private long position;
+
+        public synchronized void add(@Nullable Multiset<String> drops, String sourceName)
+        {
+            if (dropCountBySource.isEmpty()) {
+                position = buffer.tailPosition();
+                threadsWithDrops.add(this);
+            }
+            if (drops != null) {
+                dropCountBySource.addAll(drops);
+            }
+            dropCountBySource.add(sourceName);
+        }
+
+        @Nullable
+        public synchronized Multiset<String> take()
+        {
+            if (dropCountBySource.isEmpty()) {
+                return null;
+            }
+            Multiset<String> drops = dropCountBySource;
+            dropCountBySource = HashMultiset.create();
+            threadsWithDrops.remove(this);
+            return drops;
+        }
+
+        /**
+         * Must only be called by the drain thread.
+         */
+        @Nullable
+        public synchronized Multiset<String> takeIfWritten()
+        {
+            if (!buffer.isConsumedBefore(position)) {
+                return null;
+            }
+            return take();
+        }
+    }
+
     @Override
     public void publish(LogRecord record)
     {
@@ -293,10 +287,7 @@ class BufferedHandler
             }
 
             // Generate the message on the publishing thread to ensure we get the correct thread name.
-            MessageAndSource message = toMessageAndSource(record);
-
-            // Messages may be inserted after being closed, but they won't be processed if they come after the terminal message
-            queueInsert(message);
+            offerMessage(record);
         }
         catch (LogFormatException e) {
             reportError(null, e, FORMAT_FAILURE);
@@ -306,55 +297,118 @@ class BufferedHandler
         }
     }
 
-    private MessageAndSource toMessageAndSource(LogRecord record)
+    private void offerMessage(LogRecord record)
     {
-        return new MessageAndSource(formatMessageBytes(record), determineSourceName(record));
-    }
+        if (!(getFormatter() instanceof RecordEncoder encoder)) {
+            byte[] message = formatMessageBytes(record);
+            offerMessage(record, message, message.length);
+            return;
+        }
 
-    private byte[] formatMessageBytes(LogRecord logRecord)
-    {
+        // Encode into a buffer reused by this thread, which is copied into the ring
+        MessageBuffer message = MessageBuffer.acquire();
         try {
-            return getFormatter().format(logRecord).getBytes(UTF_8);
+            try {
+                encoder.encode(record, message);
+            }
+            catch (Exception e) {
+                // Wrap exception with the proper classification
+                throw new LogFormatException(e);
+            }
+            offerMessage(record, message.getBuffer(), message.size());
         }
-        catch (Exception e) {
-            // Wrap exception with the proper classification
-            throw new LogFormatException(e);
+        finally {
+            message.release();
         }
     }
 
-    private static String determineSourceName(LogRecord record)
+    private void offerMessage(LogRecord record, byte[] message, int length)
     {
-        return firstNonNull(record.getLoggerName(), "UNKNOWN");
+        // Only look up the drops of this thread while some thread has drops
+        ThreadDrops drops = threadsWithDrops.isEmpty() ? null : threadDrops.get();
+        Multiset<String> dropsBefore = drops == null ? null : drops.take();
+        if (!buffer.offer(message, length, dropsBefore)) {
+            if (drops == null) {
+                drops = threadDrops.get();
+                if (drops == null) {
+                    drops = new ThreadDrops();
+                    threadDrops.set(drops);
+                }
+            }
+            drops.add(dropsBefore, determineSourceName(record));
+            droppedMessages.incrementAndGet();
+        }
+        signalDrainThread();
     }
 
-    private void queueInsert(MessageAndSource message)
+    private boolean hasPendingDrops()
     {
-        while (!queue.offerLast(message)) {
-            queueDrainLock.lock();
-            try {
-                MessageAndSource toDrop = queuePollFirst();
-                if (toDrop == null) {
-                    if (terminalMessageDequeued) {
-                        return; // Queue already terminated
-                    }
-                    continue;
-                }
-                dropCountBySource.add(toDrop.sourceName());
-                droppedMessages.incrementAndGet();
-            }
-            finally {
-                queueDrainLock.unlock();
+        return !threadsWithDrops.isEmpty() || !unsummarizedDrops.isEmpty();
+    }
+
+    /**
+     * Writes the message, after a summary of the drops attached to it. Must only be called by the drain thread.
+     */
+    private void writeMessage(byte[] message, int length, @Nullable Multiset<String> dropsBefore)
+            throws IOException
+    {
+        if (dropsBefore != null) {
+            // Moved out of the message, so a retry of the message does not count the drops again
+            unsummarizedDrops.addAll(dropsBefore);
+            dropsBefore.clear();
+        }
+        writeDropSummary();
+        messageOutput.writeMessage(message, 0, length);
+    }
+
+    /**
+     * Writes a summary of the drops before the message at the head, if there are any. Returns false if
+     * there are no drops to summarize. If the summary fails to be written, the drops remain pending.
+     * Must only be called by the drain thread.
+     */
+    private boolean writeDropSummary()
+            throws IOException
+    {
+        // Include the drops not attached to a message once every earlier message of their thread is written
+        for (ThreadDrops drops : threadsWithDrops) {
+            Multiset<String> dropCountBySource = drops.takeIfWritten();
+            if (dropCountBySource != null) {
+                unsummarizedDrops.addAll(dropCountBySource);
             }
         }
+        if (unsummarizedDrops.isEmpty()) {
+            return false;
+        }
 
-        // Notify drainer about new message
-        queueDrainLock.lock();
+        byte[] dropSummary;
         try {
-            recordEnqueued.signal();
+            dropSummary = formatMessageBytes(createDropSummaryRecord(ImmutableMultiset.copyOf(unsummarizedDrops)));
         }
-        finally {
-            queueDrainLock.unlock();
+        catch (LogFormatException e) {
+            // Retrying would fail the same way, so the summary is lost
+            reportError(null, e, FORMAT_FAILURE);
+            unsummarizedDrops.clear();
+            return true;
+        }
+        messageOutput.writeMessage(dropSummary);
+        unsummarizedDrops.clear();
+        return true;
+    }
+
+    private byte[] formatMessageBytes(LogRecord logRecord)
+    {
+        try {
+            return getFormatter().format(logRecord).getBytes(UTF_8);
         }
+        catch (Exception e) {
+            // Wrap exception with the proper classification
+            throw new LogFormatException(e);
+        }
+    }
+
+    private static String determineSourceName(LogRecord record)
+    {
+        return firstNonNull(record.getLoggerName(), "UNKNOWN");
     }
 
     @Override
@@ -374,7 +428,7 @@ class BufferedHandler
         if (!inputClosed.compareAndSet(false, true)) {
             return;
         }
-        queueInsert(TERMINAL_MESSAGE);
+        signalDrainThread();
 
         try {
             bufferDrainExecutor.shutdown();
@@ -392,15 +446,9 @@ class BufferedHandler
     }
 
     @VisibleForTesting
-    boolean isTerminalMessageDequeued()
+    boolean isCloseObserved()
     {
-        queueDrainLock.lock();
-        try {
-            return terminalMessageDequeued;
-        }
-        finally {
-            queueDrainLock.unlock();
-        }
+        return closeObserved;
     }
 
     @VisibleForTesting
@@ -415,18 +463,6 @@ class BufferedHandler
         return droppedMessages.get();
     }
 
-    private boolean writeMessageOutputSafe(byte[] message)
-    {
-        try {
-            messageOutput.writeMessage(message);
-            return true;
-        }
-        catch (Exception e) {
-            reportError("Could not write to the MessageOutput", e, WRITE_FAILURE);
-            return false;
-        }
-    }
-
     private void flushMessageOutputSafe()
     {
         try {
@@ -446,13 +482,4 @@ class BufferedHandler
             reportError("Could not close the MessageOutput", e, CLOSE_FAILURE);
         }
     }
-
-    private record MessageAndSource(byte[] logMessage, String sourceName)
-    {
-        private MessageAndSource
-        {
-            requireNonNull(logMessage, "logMessage is null");
-            requireNonNull(sourceName, "sourceName is null");
-        }
-    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes each frame as a gzip member, which is what {@link java.util.zip.GZIPOutputStream} produces.
+ */
+final class GzipLogCompressor
+        implements LogCompressor
+{
+    // deflate, no flags, no modification time, unknown operating system
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Override
+    public void compress(byte[] input, int offset, int length, MessageBuffer output)
+    {
+        output.write(HEADER);
+
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int size = deflater.deflate(buffer);
+            output.write(buffer, 0, size);
+        }
+
+        crc.reset();
+        crc.update(input, offset, length);
+        output.writeIntLittleEndian((int) crc.getValue());
+        output.writeIntLittleEndian(length);
+    }
+
+    @Override
+    public void close()
+    {
+        deflater.end();
+    }
+}
@@ -1,69 +1,106 @@
 package io.airlift.log;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonFactoryBuilder;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableMap;
-import io.airlift.json.JsonCodec;
-import io.airlift.json.JsonCodecFactory;
-import io.airlift.json.ObjectMapperProvider;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.context.Context;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
+import static com.google.common.base.Throwables.getStackTraceAsString;
 import static java.util.Objects.requireNonNull;
 
 public class JsonFormatter
         extends Formatter
+        implements RecordEncoder
 {
     private static final Object[] EMPTY_ARRAY = new Object[0];
-    private static final JsonCodec<JsonRecord> CODEC = new JsonCodecFactory(new ObjectMapperProvider()).jsonCodec(JsonRecord.class);
-    private static final JsonFactory jsonFactory = new JsonFactory();
-    private final Map<String, String> logAnnotations;
+    private static final int MAX_CACHED_LOGGER_NAMES = 10_000;
+    // a generator is reused for the records of a thread, so nothing is written between them
+    private static final JsonFactory jsonFactory = new JsonFactoryBuilder()
+            .rootValueSeparator((String) null)
+            .build();
+
+    // the fields of JsonRecord, in the order they were written by the object mapper
+    private static final SerializedString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializedString LEVEL = new SerializedString("level");
+    private static final SerializedString THREAD = new SerializedString("thread");
+    private static final SerializedString LOGGER = new SerializedString("logger");
+    private static final SerializedString MESSAGE = new SerializedString("message");
+    private static final SerializedString PARAMETERS = new SerializedString("parameters");
+    private static final SerializedString STACK_TRACE = new SerializedString("stackTrace");
+    private static final SerializedString THROWABLE_CLASS = new SerializedString("throwableClass");
+    private static final SerializedString THROWABLE_MESSAGE = new SerializedString("throwableMessage");
+    private static final SerializedString TRACE_ID = new SerializedString("traceId");
+    private static final SerializedString SPAN_ID = new SerializedString("spanId");
+    private static final SerializedString TRACE_FLAGS = new SerializedString("traceFlags");
+    private static final SerializedString ANNOTATIONS = new SerializedString("annotations");
+    private static final SerializedString[] LEVEL_NAMES;
+
+    static {
+        Level[] levels = Level.values();
+        LEVEL_NAMES = new SerializedString[levels.length];
+        for (Level level : levels) {
+            LEVEL_NAMES[level.ordinal()] = new SerializedString(level.name());
+        }
+    }
+
+    private final SerializedString[] annotationNames;
+    private final SerializedString[] annotationValues;
+    private final ConcurrentMap<String, SerializedString> loggerNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<RecordWriter> recordWriters = ThreadLocal.withInitial(RecordWriter::new);
 
     public JsonFormatter(Map<String, String> logAnnotations)
     {
-        this.logAnnotations = ImmutableMap.copyOf(requireNonNull(logAnnotations, "logAnnotations is null"));
+        requireNonNull(logAnnotations, "logAnnotations is null");
+        annotationNames = new SerializedString[logAnnotations.size()];
+        annotationValues = new SerializedString[logAnnotations.size()];
+        int index = 0;
+        for (Map.Entry<String, String> entry : logAnnotations.entrySet()) {
+            annotationNames[index] = new SerializedString(entry.getKey());
+            annotationValues[index] = new SerializedString(entry.getValue());
+            index++;
+        }
     }
 
     @Override
     public String format(LogRecord record)
     {
-        JsonRecord jsonRecord = new JsonRecord(
-                record.getInstant(),
-                Level.fromJulLevel(record.getLevel()),
-                Thread.currentThread().getName(),
-                record.getLoggerName(),
-                record.getMessage(),
-                record.getParameters(),
-                record.getThrown(),
-                Context.current(),
-                logAnnotations);
+        MessageBuffer buffer = new MessageBuffer();
+        encode(record, buffer);
+        return buffer.toString();
+    }
 
+    @Override
+    public void encode(LogRecord record, MessageBuffer buffer)
+    {
+        int start = buffer.size();
+        Level level = Level.fromJulLevel(record.getLevel());
+        String thread = Thread.currentThread().getName();
         try {
-            return toString(jsonRecord);
+            writeRecord(buffer, record.getInstant(), level, thread, record.getLoggerName(), record.getMessage(), record.getParameters(), record.getThrown());
         }
-        catch (IllegalArgumentException outer) {
+        catch (IOException outer) {
+            buffer.truncate(start);
             try {
-                return toString(new JsonRecord(
-                        record.getInstant(),
-                        Level.fromJulLevel(record.getLevel()),
-                        Thread.currentThread().getName(),
-                        record.getLoggerName(),
-                        outer.getMessage(),
-                        EMPTY_ARRAY,
-                        outer,
-                        Context.current(),
-                        logAnnotations));
-            }
-            catch (IllegalArgumentException inner) {
+                writeRecord(buffer, record.getInstant(), level, thread, record.getLoggerName(), outer.getMessage(), EMPTY_ARRAY, outer);
+            }
+            catch (IOException inner) {
                 inner.addSuppressed(outer);
-
-                return minimalJsonErrorLogLine(jsonRecord, inner);
+                buffer.truncate(start);
+                writeMinimalJsonErrorLogLine(buffer, record.getInstant(), inner);
             }
         }
     }
@@ -73,26 +110,306 @@ public class JsonFormatter
      */
     @VisibleForTesting
     String minimalJsonErrorLogLine(JsonRecord jsonRecord, Exception exception)
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        writeMinimalJsonErrorLogLine(buffer, jsonRecord.getTimestamp(), exception);
+        return buffer.toString();
+    }
+
+    private static void writeMinimalJsonErrorLogLine(MessageBuffer buffer, Instant timestamp, Exception exception)
     {
         // Emit a log line that is at least json parseable and indicates things are broken
-        StringWriter stringWriter = new StringWriter();
-        try (JsonGenerator jsonGenerator = jsonFactory.createGenerator(stringWriter)) {
+        try (JsonGenerator jsonGenerator = jsonFactory.createGenerator((OutputStream) buffer)) {
             jsonGenerator.writeStartObject();
-            jsonGenerator.writeStringField("timestamp", jsonRecord.getTimestamp().toString());
+            jsonGenerator.writeStringField("timestamp", timestamp.toString());
             jsonGenerator.writeStringField("message", exception.getMessage());
             jsonGenerator.writeStringField("level", Level.ERROR.name());
             jsonGenerator.writeEndObject();
         }
         catch (IOException e) {
             e.addSuppressed(exception);
-            // We're using a StringWriter, so all of the operations should be in-memory, and there shouldn't be a way to throw an IOException, but just in case...
+            // We're writing to memory, so there shouldn't be a way to throw an IOException, but just in case...
             throw new RuntimeException("Unable to generate json logs", e);
         }
-        return stringWriter.append("\n").toString();
+        buffer.write('\n');
+    }
+
+    private void writeRecord(
+            MessageBuffer buffer,
+            Instant timestamp,
+            Level level,
+            String thread,
+            String loggerName,
+            String message,
+            Object[] parameters,
+            Throwable throwable)
+            throws IOException
+    {
+        RecordWriter writer = recordWriters.get();
+        boolean shared = !writer.active;
+        if (!shared) {
+            // a record is already being written further up the stack, for example by a parameter that logs in toString()
+            writer = new RecordWriter();
+        }
+        writer.active = true;
+        writer.output.target = buffer;
+        boolean completed = false;
+        try {
+            JsonGenerator generator = writer.generator;
+            generator.writeStartObject();
+            generator.writeFieldName(TIMESTAMP);
+            writer.writeTimestamp(timestamp);
+            generator.writeFieldName(LEVEL);
+            generator.writeString(LEVEL_NAMES[level.ordinal()]);
+            generator.writeFieldName(THREAD);
+            generator.writeString(thread);
+            if (loggerName != null) {
+                generator.writeFieldName(LOGGER);
+                generator.writeString(serializedLoggerName(loggerName));
+            }
+            if (message != null) {
+                generator.writeFieldName(MESSAGE);
+                generator.writeString(message);
+            }
+            if (parameters != null && parameters.length != 0) {
+                generator.writeFieldName(PARAMETERS);
+                generator.writeStartArray();
+                for (Object parameter : parameters) {
+                    generator.writeString(String.valueOf(parameter));
+                }
+                generator.writeEndArray();
+            }
+            if (annotationNames.length != 0) {
+                generator.writeFieldName(ANNOTATIONS);
+                generator.writeStartObject();
+                for (int i = 0; i < annotationNames.length; i++) {
+                    generator.writeFieldName(annotationNames[i]);
+                    generator.writeString(annotationValues[i]);
+                }
+                generator.writeEndObject();
+            }
+            // fields are written in the order the JsonRecord codec produces them
+            if (throwable != null) {
+                generator.writeFieldName(STACK_TRACE);
+                generator.writeString(getStackTraceAsString(throwable));
+            }
+            SpanContext spanContext = Span.fromContext(Context.current()).getSpanContext();
+            if (spanContext.isValid()) {
+                generator.writeFieldName(TRACE_ID);
+                generator.writeString(spanContext.getTraceId());
+                generator.writeFieldName(SPAN_ID);
+                generator.writeString(spanContext.getSpanId());
+                generator.writeFieldName(TRACE_FLAGS);
+                generator.writeString(spanContext.getTraceFlags().asHex());
+            }
+            if (throwable != null) {
+                if (throwable.getMessage() != null) {
+                    generator.writeFieldName(THROWABLE_MESSAGE);
+                    generator.writeString(throwable.getMessage());
+                }
+                generator.writeFieldName(THROWABLE_CLASS);
+                generator.writeString(throwable.getClass().getName());
+            }
+            generator.writeEndObject();
+            generator.flush();
+            completed = true;
+        }
+        finally {
+            writer.output.target = null;
+            writer.active = false;
+            if (shared && !completed) {
+                // the generator is left inside the failed record
+                recordWriters.remove();
+            }
+        }
+        buffer.write('\n');
+    }
+
+    private SerializedString serializedLoggerName(String loggerName)
+    {
+        SerializedString serialized = loggerNames.get(loggerName);
+        if (serialized == null) {
+            if (loggerNames.size() >= MAX_CACHED_LOGGER_NAMES) {
+                return new SerializedString(loggerName);
+            }
+            serialized = loggerNames.computeIfAbsent(loggerName, SerializedString::new);
+        }
+        return serialized;
     }
 
-    private static String toString(JsonRecord jsonRecord)
+    /**
+     * A generator reused for the records written by a thread, and the timestamp of the
+     * second of the previous record.
+     */
+    private static final class RecordWriter
     {
-        return CODEC.toJson(jsonRecord) + "\n";
+        // large enough for any Instant in ISO-8601
+        private static final int MAX_TIMESTAMP_LENGTH = 40;
+
+        private final Utf8Writer output = new Utf8Writer();
+        private final JsonGenerator generator;
+        private final char[] timestamp = new char[MAX_TIMESTAMP_LENGTH];
+        private long timestampSecond = Long.MIN_VALUE;
+        private int timestampSecondLength;
+        private boolean active;
+
+        private RecordWriter()
+        {
+            try {
+                generator = jsonFactory.createGenerator(output);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Unable to create json generator", e);
+            }
+        }
+
+        /**
+         * Writes the timestamp in the format of {@link Instant#toString()}
+         */
+        private void writeTimestamp(Instant instant)
+                throws IOException
+        {
+            if (instant.getEpochSecond() != timestampSecond) {
+                // the second without the trailing 'Z'
+                String second = Instant.ofEpochSecond(instant.getEpochSecond()).toString();
+                timestampSecondLength = second.length() - 1;
+                second.getChars(0, timestampSecondLength, timestamp, 0);
+                timestampSecond = instant.getEpochSecond();
+            }
+
+            int length = timestampSecondLength;
+            int nanos = instant.getNano();
+            if (nanos != 0) {
+                // the fraction is printed in groups of 3 digits
+                int digits = 9;
+                int fraction = nanos;
+                while (digits > 3 && fraction % 1000 == 0) {
+                    fraction /= 1000;
+                    digits -= 3;
+                }
+                timestamp[length++] = '.';
+                for (int i = digits - 1; i >= 0; i--) {
+                    timestamp[length + i] = (char) ('0' + fraction % 10);
+                    fraction /= 10;
+                }
+                length += digits;
+            }
+            timestamp[length++] = 'Z';
+            generator.writeString(timestamp, 0, length);
+        }
+    }
+
+    /**
+     * Encodes the output of a reused generator into the buffer of the current record as UTF-8.
+     * The generator writes characters rather than UTF-8 so that, as with the object mapper,
+     * characters outside the Basic Multilingual Plane are not escaped.
+     */
+    private static final class Utf8Writer
+            extends Writer
+    {
+        private final CharArraySequence sequence = new CharArraySequence();
+        private final char[] surrogatePair = new char[2];
+        private final char[] scratch = new char[256];
+        private MessageBuffer target;
+        // the high surrogate at the end of the previous write, whose low surrogate is in the next write
+        private char highSurrogate;
+
+        @Override
+        public void write(char[] chars, int offset, int length)
+        {
+            if (length == 0) {
+                return;
+            }
+            if (highSurrogate != 0) {
+                surrogatePair[0] = highSurrogate;
+                surrogatePair[1] = chars[offset];
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(surrogatePair[1])) {
+                    target.writeUtf8(sequence.set(surrogatePair, 0, 2));
+                    offset++;
+                    length--;
+                }
+                else {
+                    target.writeUtf8(sequence.set(surrogatePair, 0, 1));
+                }
+            }
+            if (length > 0 && Character.isHighSurrogate(chars[offset + length - 1])) {
+                highSurrogate = chars[offset + length - 1];
+                length--;
+            }
+            target.writeUtf8(sequence.set(chars, offset, length));
+        }
+
+        @Override
+        public void write(String value, int offset, int length)
+        {
+            while (length > 0) {
+                int chunk = Math.min(length, scratch.length);
+                value.getChars(offset, offset + chunk, scratch, 0);
+                write(scratch, 0, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void write(int value)
+        {
+            scratch[0] = (char) value;
+            write(scratch, 0, 1);
+        }
+
+        @Override
+        public void flush()
+        {
+            if (highSurrogate != 0) {
+                surrogatePair[0] = highSurrogate;
+                highSurrogate = 0;
+                target.writeUtf8(sequence.set(surrogatePair, 0, 1));
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static final class CharArraySequence
+            implements CharSequence
+    {
+        private char[] chars;
+        private int offset;
+        private int length;
+
+        private CharArraySequence set(char[] chars, int offset, int length)
+        {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return chars[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(chars, offset + start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(chars, offset, length);
+        }
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import java.io.Closeable;
+
+/**
+ * Compresses data into self-contained frames of a compression format. Concatenated
+ * frames decompress to the concatenation of their inputs, so a log file can be
+ * compressed in independent chunks, or while it is being written. Instances are
+ * not thread safe.
+ */
+interface LogCompressor
+        extends Closeable
+{
+    /**
+     * Appends a frame containing {@code length} bytes of {@code input} starting at {@code offset} to the output.
+     */
+    void compress(byte[] input, int offset, int length, MessageBuffer output);
+
+    @Override
+    default void close()
+    {
+    }
+}
@@ -15,6 +15,7 @@ package io.airlift.log;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.ComparisonChain;
+import io.airlift.log.RollingFileMessageOutput.CompressionType;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -64,9 +65,14 @@ final class LogFileName
 
         String remainder = historyFileName.substring(masterLogFileName.length() + 1);
 
-        boolean compressed = remainder.endsWith(".gz");
-        if (compressed) {
-            remainder = remainder.substring(0, remainder.length() - ".gz".length());
+        boolean compressed = false;
+        for (CompressionType compressionType : CompressionType.values()) {
+            Optional<String> extension = compressionType.getExtension();
+            if (extension.isPresent() && remainder.endsWith(extension.get())) {
+                remainder = remainder.substring(0, remainder.length() - extension.get().length());
+                compressed = true;
+                break;
+            }
         }
 
         if (remainder.isEmpty()) {
@@ -24,18 +24,21 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
 import io.airlift.log.RollingFileMessageOutput.CompressionType;
 import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 import org.weakref.jmx.MBeanExport;
 import org.weakref.jmx.MBeanExporter;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.LogManager;
@@ -153,10 +156,10 @@ public class Logging
         consoleHandler = null;
     }
 
-    private void logToFile(String logPath, DataSize maxFileSize, DataSize maxTotalSize, CompressionType compressionType, Formatter formatter, List<LogMBeanExport> mBeanExportCollector)
+    private void logToFile(String logPath, DataSize maxFileSize, DataSize maxTotalSize, CompressionType compressionType, boolean inlineCompression, int compressionThreads, Optional<Duration> fsyncInterval, Formatter formatter, List<LogMBeanExport> mBeanExportCollector)
     {
         log.info("Logging to %s", logPath);
-        RollingFileMessageOutput output = new RollingFileMessageOutput(logPath, maxFileSize, maxTotalSize, compressionType);
+        RollingFileMessageOutput output = new RollingFileMessageOutput(logPath, maxFileSize, maxTotalSize, compressionType, inlineCompression, compressionThreads, fsyncInterval);
         BufferedHandler handler = new BufferedHandler(output, formatter, new BufferedHandlerErrorManager(stdErr));
         handler.initialize();
         mBeanExportCollector.add(new LogMBeanExport(handler, BufferedHandler.class, "RollingFileMessageOutput"));
@@ -164,13 +167,13 @@ public class Logging
         ROOT.addHandler(handler);
     }
 
-    private void logToSocket(String logPath, Formatter formatter, List<LogMBeanExport> mBeanExportCollector)
+    private void logToSocket(String logPath, DataSize bufferSize, Optional<Path> spillFile, DataSize maxSpillSize, Formatter formatter, List<LogMBeanExport> mBeanExportCollector)
     {
         if (!logPath.startsWith("tcp://") || logPath.lastIndexOf("/") > 6) {
             throw new IllegalArgumentException("LogPath for sockets must begin with tcp:// and not contain any path component.");
         }
         HostAndPort hostAndPort = HostAndPort.fromString(logPath.replace("tcp://", ""));
-        SocketMessageOutput output = new SocketMessageOutput(hostAndPort);
+        SocketMessageOutput output = new SocketMessageOutput(hostAndPort, bufferSize, spillFile, maxSpillSize);
         BufferedHandler handler = new BufferedHandler(output, formatter, new BufferedHandlerErrorManager(stdErr));
         handler.initialize();
         mBeanExportCollector.add(new LogMBeanExport(handler, BufferedHandler.class, "SocketMessageOutput"));
@@ -263,7 +266,13 @@ public class Logging
 
         if (config.getLogPath() != null) {
             if (config.getLogPath().startsWith("tcp://")) {
-                logToSocket(config.getLogPath(), config.getFormat().createFormatter(logAnnotations), mBeanExportCollector);
+                logToSocket(
+                        config.getLogPath(),
+                        config.getSocketBufferSize(),
+                        Optional.ofNullable(config.getSocketSpillPath()).map(Path::of),
+                        config.getSocketMaxSpillSize(),
+                        config.getFormat().createFormatter(logAnnotations),
+                        mBeanExportCollector);
             }
             else {
                 logToFile(
@@ -271,6 +280,9 @@ public class Logging
                         config.getMaxSize(),
                         config.getMaxTotalSize(),
                         config.getCompression(),
+                        config.isInlineCompression(),
+                        config.getCompressionThreads(),
+                        config.getFsyncInterval(),
                         config.getFormat().createFormatter(logAnnotations),
                         mBeanExportCollector);
             }
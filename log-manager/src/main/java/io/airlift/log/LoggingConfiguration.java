@@ -22,8 +22,14 @@ import io.airlift.configuration.LegacyConfig;
 import io.airlift.configuration.validation.FileExists;
 import io.airlift.log.RollingFileMessageOutput.CompressionType;
 import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.airlift.units.MaxDataSize;
+import io.airlift.units.MinDataSize;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
+import java.util.Optional;
+
 import static io.airlift.units.DataSize.Unit.GIGABYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
@@ -39,6 +45,12 @@ public class LoggingConfiguration
     private DataSize maxSize = DataSize.of(100, MEGABYTE);
     private DataSize maxTotalSize = DataSize.of(1, GIGABYTE);
     private CompressionType compression = CompressionType.GZIP;
+    private boolean inlineCompression;
+    private int compressionThreads = 1;
+    private Optional<Duration> fsyncInterval = Optional.empty();
+    private DataSize socketBufferSize = SocketMessageOutput.DEFAULT_BUFFER_SIZE;
+    private String socketSpillPath;
+    private DataSize socketMaxSpillSize = SocketMessageOutput.DEFAULT_MAX_SPILL_SIZE;
     private String levelsFile;
     private String logAnnotationFile;
     private Format format = Format.TEXT;
@@ -108,6 +120,90 @@ public class LoggingConfiguration
         return this;
     }
 
+    public boolean isInlineCompression()
+    {
+        return inlineCompression;
+    }
+
+    @Config("log.compression.inline")
+    @ConfigDescription("Compress log files while they are written, rather than after they are rolled")
+    public LoggingConfiguration setInlineCompression(boolean inlineCompression)
+    {
+        this.inlineCompression = inlineCompression;
+        return this;
+    }
+
+    @Min(1)
+    public int getCompressionThreads()
+    {
+        return compressionThreads;
+    }
+
+    @Config("log.compression.threads")
+    @ConfigDescription("Number of threads used to compress a rolled log file")
+    public LoggingConfiguration setCompressionThreads(int compressionThreads)
+    {
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
+    @NotNull
+    public Optional<Duration> getFsyncInterval()
+    {
+        return fsyncInterval;
+    }
+
+    @Config("log.fsync-interval")
+    @ConfigDescription("Minimum time between fsyncs of the log file, which are skipped when not set")
+    public LoggingConfiguration setFsyncInterval(Duration fsyncInterval)
+    {
+        this.fsyncInterval = Optional.ofNullable(fsyncInterval);
+        return this;
+    }
+
+    @NotNull
+    @MinDataSize("1kB")
+    @MaxDataSize("1GB")
+    public DataSize getSocketBufferSize()
+    {
+        return socketBufferSize;
+    }
+
+    @Config("log.socket.buffer-size")
+    @ConfigDescription("Maximum size of the log messages buffered in memory while sending to a tcp:// log path")
+    public LoggingConfiguration setSocketBufferSize(DataSize socketBufferSize)
+    {
+        this.socketBufferSize = socketBufferSize;
+        return this;
+    }
+
+    public String getSocketSpillPath()
+    {
+        return socketSpillPath;
+    }
+
+    @Config("log.socket.spill-path")
+    @ConfigDescription("File for the log messages that do not fit in the socket buffer, which are dropped when not set")
+    public LoggingConfiguration setSocketSpillPath(String socketSpillPath)
+    {
+        this.socketSpillPath = socketSpillPath;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getSocketMaxSpillSize()
+    {
+        return socketMaxSpillSize;
+    }
+
+    @Config("log.socket.max-spill-size")
+    @ConfigDescription("Maximum size of the socket spill file")
+    public LoggingConfiguration setSocketMaxSpillSize(DataSize socketMaxSpillSize)
+    {
+        this.socketMaxSpillSize = socketMaxSpillSize;
+        return this;
+    }
+
     public String getLevelsFile()
     {
         return levelsFile;
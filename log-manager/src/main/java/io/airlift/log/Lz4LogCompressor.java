@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import io.airlift.compress.lz4.Lz4Compressor;
+
+import static java.lang.Math.min;
+
+/**
+ * Writes each frame in the LZ4 frame format, which can be read by the {@code lz4} tool,
+ * unlike the raw blocks produced by {@link Lz4Compressor}.
+ */
+final class Lz4LogCompressor
+        implements LogCompressor
+{
+    // magic number, then the descriptor for version 1 with independent blocks of at most 64KB
+    // and no checksums, followed by the checksum of the descriptor
+    private static final byte[] FRAME_HEADER = {0x04, 0x22, 0x4d, 0x18, 0x60, 0x40, (byte) 0x82};
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int UNCOMPRESSED_BLOCK_FLAG = 0x8000_0000;
+    private static final int END_MARK = 0;
+
+    private final Lz4Compressor compressor = new Lz4Compressor();
+    private final byte[] buffer = new byte[compressor.maxCompressedLength(MAX_BLOCK_SIZE)];
+
+    @Override
+    public void compress(byte[] input, int offset, int length, MessageBuffer output)
+    {
+        output.write(FRAME_HEADER);
+        int end = offset + length;
+        for (int position = offset; position < end; position += MAX_BLOCK_SIZE) {
+            int blockSize = min(MAX_BLOCK_SIZE, end - position);
+            int size = compressor.compress(input, position, blockSize, buffer, 0, buffer.length);
+            if (size < blockSize) {
+                output.writeIntLittleEndian(size);
+                output.write(buffer, 0, size);
+            }
+            else {
+                // the block does not compress, so it is stored as is
+                output.writeIntLittleEndian(blockSize | UNCOMPRESSED_BLOCK_FLAG);
+                output.write(input, position, blockSize);
+            }
+        }
+        output.writeIntLittleEndian(END_MARK);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A growable byte buffer that log records are encoded into. Each thread reuses
+ * a single buffer, obtained with {@link #acquire()}, so encoding a record does
+ * not allocate a buffer for it.
+ */
+final class MessageBuffer
+        extends OutputStream
+{
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<MessageBuffer> THREAD_BUFFER = ThreadLocal.withInitial(MessageBuffer::new);
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int size;
+    private boolean acquired;
+
+    /**
+     * Returns the empty buffer of the current thread, which must be released once the
+     * encoded record has been consumed. If the buffer of the thread is already acquired,
+     * for example when a record parameter logs in its {@code toString()}, a new buffer
+     * is returned instead.
+     */
+    public static MessageBuffer acquire()
+    {
+        MessageBuffer buffer = THREAD_BUFFER.get();
+        if (buffer.acquired) {
+            return new MessageBuffer();
+        }
+        buffer.acquired = true;
+        return buffer;
+    }
+
+    public void release()
+    {
+        acquired = false;
+        size = 0;
+        if (buffer.length > MAX_RETAINED_SIZE) {
+            buffer = new byte[INITIAL_SIZE];
+        }
+    }
+
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Discards everything written after the first {@code size} bytes.
+     */
+    public void truncate(int size)
+    {
+        this.size = size;
+    }
+
+    @Override
+    public void write(int value)
+    {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+    {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    public void write(byte[] bytes)
+    {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void writeIntLittleEndian(int value)
+    {
+        ensureCapacity(Integer.BYTES);
+        buffer[size] = (byte) value;
+        buffer[size + 1] = (byte) (value >>> 8);
+        buffer[size + 2] = (byte) (value >>> 16);
+        buffer[size + 3] = (byte) (value >>> 24);
+        size += Integer.BYTES;
+    }
+
+    /**
+     * Writes {@code value} in UTF-8, replacing unpaired surrogates with {@code '?'} like
+     * {@link String#getBytes}. A null value is written as {@code "null"}.
+     */
+    public void writeUtf8(CharSequence value)
+    {
+        if (value == null) {
+            value = "null";
+        }
+        int length = value.length();
+        ensureCapacity(length * 3);
+        byte[] buffer = this.buffer;
+        int position = size;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (!Character.isSurrogate(c)) {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // a surrogate pair takes 4 bytes for 2 chars, so it fits in the capacity reserved above
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else {
+                buffer[position++] = '?';
+            }
+        }
+        size = position;
+    }
+
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(buffer, 0, size, UTF_8);
+    }
+
+    private void ensureCapacity(int length)
+    {
+        int required = size + length;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package io.airlift.log;
 import com.google.errorprone.annotations.ThreadSafe;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 @ThreadSafe
 public interface MessageOutput
@@ -10,6 +11,16 @@ public interface MessageOutput
     void writeMessage(byte[] message)
             throws IOException;
 
+    /**
+     * Writes {@code length} bytes of {@code buffer} starting at {@code offset}. The caller
+     * reuses the buffer once this method returns, so implementations must not retain it.
+     */
+    default void writeMessage(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        writeMessage(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
     void flush()
             throws IOException;
 
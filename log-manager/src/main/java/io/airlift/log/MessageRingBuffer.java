@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import com.google.errorprone.annotations.ThreadSafe;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.max;
+
+/**
+ * A bounded, lock-free queue of messages for many producers and a single consumer.
+ * <p>
+ * Each slot owns a byte buffer that messages are copied into, so buffers are allocated
+ * once and reused on every lap around the ring. Buffers grown for messages larger than
+ * {@link #MAX_RETAINED_SLOT_SIZE} are released once the message has been consumed, so the
+ * ring retains at most {@code capacity * MAX_RETAINED_SLOT_SIZE} bytes between bursts.
+ * A message may carry an attachment, which is passed to the consumer with the message.
+ * <p>
+ * Producers claim a position by advancing the tail, and publish the message by advancing
+ * the sequence of the slot, as in Dmitry Vyukov's bounded queue. The consumer processes
+ * the message at the head in place, and only then releases the slot for the next lap.
+ */
+@ThreadSafe
+final class MessageRingBuffer<T>
+{
+    private static final int INITIAL_SLOT_SIZE = 512;
+    private static final int MAX_RETAINED_SLOT_SIZE = 4 * 1024;
+
+    private final int capacity;
+    // 2 * position while the slot is free for the message at position, and 2 * position + 1 once
+    // that message is published, so a published slot is never mistaken for a free one
+    private final AtomicLongArray sequences;
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final Object[] attachments;
+    private final AtomicLong tail = new AtomicLong();
+    // only accessed by the consumer
+    private long head;
+
+    public MessageRingBuffer(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be greater than zero");
+        this.capacity = capacity;
+        sequences = new AtomicLongArray(capacity);
+        buffers = new byte[capacity][];
+        lengths = new int[capacity];
+        attachments = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, 2L * i);
+            buffers[i] = new byte[INITIAL_SLOT_SIZE];
+        }
+    }
+
+    /**
+     * Copies the message into the ring, or returns false if the ring is full.
+     */
+    public boolean offer(byte[] message)
+    {
+        return offer(message, message.length, null);
+    }
+
+    /**
+     * Copies the first {@code length} bytes of the message into the ring with the
+     * attachment, or returns false if the ring is full.
+     */
+    public boolean offer(byte[] message, int length, @Nullable T attachment)
+    {
+        long position = tail.get();
+        while (true) {
+            int index = index(position);
+            long sequence = sequences.get(index);
+            if (sequence == 2 * position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    byte[] buffer = buffers[index];
+                    if (buffer.length < length) {
+                        buffer = new byte[max(length, buffer.length * 2)];
+                        buffers[index] = buffer;
+                    }
+                    System.arraycopy(message, 0, buffer, 0, length);
+                    lengths[index] = length;
+                    attachments[index] = attachment;
+                    sequences.set(index, 2 * position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (sequence < 2 * position) {
+                // the message in this slot from the previous lap has not been consumed
+                return false;
+            }
+            else {
+                // another producer claimed this position
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Passes the message at the head to the consumer, and removes it once the consumer
+     * returns. If the consumer throws, the message stays at the head. Returns false if
+     * the message at the head has not been published yet. Must only be called by the
+     * consumer thread.
+     */
+    public boolean consumeFirst(MessageConsumer<? super T> consumer)
+            throws IOException
+    {
+        int index = index(head);
+        if (sequences.get(index) != 2 * head + 1) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        T attachment = (T) attachments[index];
+        consumer.accept(buffers[index], lengths[index], attachment);
+        attachments[index] = null;
+        if (buffers[index].length > MAX_RETAINED_SLOT_SIZE) {
+            buffers[index] = new byte[INITIAL_SLOT_SIZE];
+        }
+        sequences.lazySet(index, 2 * (head + capacity));
+        head++;
+        return true;
+    }
+
+    /**
+     * Returns the position that the next offered message will be stored at.
+     */
+    public long tailPosition()
+    {
+        return tail.get();
+    }
+
+    /**
+     * Returns true if every message before the position has been consumed. Must only
+     * be called by the consumer thread.
+     */
+    public boolean isConsumedBefore(long position)
+    {
+        return head >= position;
+    }
+
+    /**
+     * Returns true if the message at the head has been published. Must only be called
+     * by the consumer thread.
+     */
+    public boolean hasReadyMessage()
+    {
+        return sequences.get(index(head)) == 2 * head + 1;
+    }
+
+    /**
+     * Returns true if no position has been claimed since the last consumed message,
+     * including positions whose messages are still being copied. Must only be called
+     * by the consumer thread.
+     */
+    public boolean isEmpty()
+    {
+        return tail.get() == head;
+    }
+
+    private int index(long position)
+    {
+        return (int) (position % capacity);
+    }
+
+    public interface MessageConsumer<T>
+    {
+        void accept(byte[] buffer, int length, @Nullable T attachment)
+                throws IOException;
+    }
+}
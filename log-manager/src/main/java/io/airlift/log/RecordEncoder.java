@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import java.io.IOException;
+import java.util.logging.LogRecord;
+
+/**
+ * A log record formatter that writes the formatted record directly as UTF-8 bytes,
+ * without creating a {@code String} for the record. {@link BufferedHandler} uses this
+ * instead of {@link java.util.logging.Formatter#format} when the formatter supports it.
+ */
+interface RecordEncoder
+{
+    /**
+     * Appends the formatted record to the buffer. Called on the thread that publishes the record.
+     */
+    void encode(LogRecord record, MessageBuffer buffer)
+            throws IOException;
+}
@@ -13,20 +13,23 @@
  */
 package io.airlift.log;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.MoreFiles;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
 import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,33 +38,59 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.ErrorManager;
-import java.util.zip.GZIPOutputStream;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.lang.Math.toIntExact;
 import static java.lang.String.format;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Objects.requireNonNull;
 import static java.util.UUID.randomUUID;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.logging.ErrorManager.GENERIC_FAILURE;
 
+/**
+ * Appends messages to a log file, rolling to a new file when the file reaches its maximum
+ * size. Messages are collected in a batch buffer, which is written to the file with a single
+ * channel write when it fills up, or when the output is flushed. If the write fails, the bytes
+ * that were not written stay in the batch and are written by the next attempt, and a message
+ * that does not fit in the batch is not accepted, so it can be retried. Pruning of old
+ * log files is checked once per batch, and when an fsync interval is configured, the data
+ * written since the previous fsync is forced to disk on the first flush after the interval
+ * has elapsed, and always before a file is rolled or closed.
+ * <p>
+ * Rolled files are compressed in the background. The file is split into chunks, which are
+ * compressed into independent frames of the compression format, in parallel when more than
+ * one compression thread is configured. With inline compression, each batch is instead
+ * compressed into a frame as it is written, and rolled files are not compressed again.
+ * Every flush completes a frame, so the file stays readable up to the last flush.
+ */
 final class RollingFileMessageOutput
         implements MessageOutput
 {
     public enum CompressionType
     {
         NONE(Optional.empty()),
-        GZIP(Optional.of(".gz"));
+        GZIP(Optional.of(".gz")),
+        ZSTD(Optional.of(".zst")),
+        LZ4(Optional.of(".lz4"));
 
         private final Optional<String> extension;
 
@@ -74,10 +103,28 @@ final class RollingFileMessageOutput
         {
             return extension;
         }
+
+        LogCompressor createCompressor()
+        {
+            return switch (this) {
+                case NONE -> throw new IllegalStateException("Compression is disabled");
+                case GZIP -> new GzipLogCompressor();
+                case ZSTD -> new ZstdLogCompressor();
+                case LZ4 -> new Lz4LogCompressor();
+            };
+        }
+    }
+
+    @VisibleForTesting
+    interface ChannelFactory
+    {
+        FileChannel createChannel(Path file)
+                throws IOException;
     }
 
     private static final int MAX_OPEN_NEW_LOG_ATTEMPTS = 100;
     private static final int MAX_BATCH_BYTES = toIntExact(DataSize.of(1, MEGABYTE).toBytes());
+    private static final int COMPRESSION_CHUNK_BYTES = toIntExact(DataSize.of(1, MEGABYTE).toBytes());
     private static final String TEMP_PREFIX = ".tmp.";
     private static final String DELETED_PREFIX = ".deleted.";
 
@@ -86,29 +133,91 @@ final class RollingFileMessageOutput
     private final Path symlink;
     private final long maxFileSize;
     private final CompressionType compressionType;
+    private final int compressionThreads;
+    private final long fsyncIntervalNanos;
+    private final ChannelFactory channelFactory;
 
     @GuardedBy("this")
     private Path currentOutputFile;
     @GuardedBy("this")
     private LogFileName currentOutputFileName;
+    // uncompressed size, including the bytes in the batch that have not been written yet
     @GuardedBy("this")
     private long currentFileSize;
+    // size of the file on disk
+    @GuardedBy("this")
+    private long currentFileWrittenSize;
     @GuardedBy("this")
-    private OutputStream currentOutputStream;
+    private FileChannel currentChannel;
+    @GuardedBy("this")
+    private final ByteBuffer batch;
+    // only used with inline compression
+    @GuardedBy("this")
+    private final LogCompressor batchCompressor;
+    @GuardedBy("this")
+    private final MessageBuffer compressedBatch;
+    @GuardedBy("this")
+    private boolean unsynced;
+    @GuardedBy("this")
+    private long lastFsyncNanos = System.nanoTime();
 
     private final LogHistoryManager historyManager;
 
     private final ExecutorService compressionExecutor;
+    private final ExecutorService chunkCompressionExecutor;
 
     RollingFileMessageOutput(String filename, DataSize maxFileSize, DataSize maxTotalSize, CompressionType compressionType)
+    {
+        this(filename, maxFileSize, maxTotalSize, compressionType, false, 1, Optional.empty());
+    }
+
+    RollingFileMessageOutput(
+            String filename,
+            DataSize maxFileSize,
+            DataSize maxTotalSize,
+            CompressionType compressionType,
+            boolean inlineCompression,
+            int compressionThreads,
+            Optional<Duration> fsyncInterval)
+    {
+        this(filename, maxFileSize, maxTotalSize, compressionType, inlineCompression, compressionThreads, fsyncInterval, file -> FileChannel.open(file, CREATE_NEW, WRITE));
+    }
+
+    @VisibleForTesting
+    RollingFileMessageOutput(
+            String filename,
+            DataSize maxFileSize,
+            DataSize maxTotalSize,
+            CompressionType compressionType,
+            boolean inlineCompression,
+            int compressionThreads,
+            Optional<Duration> fsyncInterval,
+            ChannelFactory channelFactory)
     {
         requireNonNull(filename, "filename is null");
         requireNonNull(maxFileSize, "maxFileSize is null");
         requireNonNull(maxTotalSize, "maxTotalSize is null");
         requireNonNull(compressionType, "compressionType is null");
+        checkArgument(compressionThreads >= 1, "compressionThreads must be at least 1");
+        requireNonNull(fsyncInterval, "fsyncInterval is null");
+        this.channelFactory = requireNonNull(channelFactory, "channelFactory is null");
 
         this.maxFileSize = maxFileSize.toBytes();
         this.compressionType = compressionType;
+        this.compressionThreads = compressionThreads;
+        this.fsyncIntervalNanos = fsyncInterval.map(interval -> interval.roundTo(NANOSECONDS)).orElse(-1L);
+
+        if (inlineCompression && compressionType != CompressionType.NONE) {
+            // the compressor reads the batch from its array
+            batch = ByteBuffer.allocate(MAX_BATCH_BYTES);
+            batchCompressor = compressionType.createCompressor();
+            compressedBatch = new MessageBuffer();
+        }
+        else {
+            batch = ByteBuffer.allocateDirect(MAX_BATCH_BYTES);
+            batchCompressor = null;
+            compressedBatch = null;
+        }
 
         symlink = Paths.get(filename);
 
@@ -160,14 +269,24 @@ final class RollingFileMessageOutput
             throw new UncheckedIOException(e);
         }
 
-        if (compressionType != CompressionType.NONE) {
+        if (compressionType != CompressionType.NONE && batchCompressor == null) {
             compressionExecutor = newSingleThreadExecutor(new ThreadFactoryBuilder()
                     .setDaemon(true)
                     .setNameFormat("log-compression-%d")
                     .build());
+            if (compressionThreads > 1) {
+                chunkCompressionExecutor = newFixedThreadPool(compressionThreads, new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("log-compression-chunk-%d")
+                        .build());
+            }
+            else {
+                chunkCompressionExecutor = newDirectExecutorService();
+            }
         }
         else {
             compressionExecutor = null;
+            chunkCompressionExecutor = null;
         }
     }
 
@@ -175,8 +294,9 @@ final class RollingFileMessageOutput
     public synchronized void flush()
             throws IOException
     {
-        if (currentOutputStream != null) {
-            currentOutputStream.flush();
+        if (currentChannel != null) {
+            writeBatch();
+            syncIfNecessary(false);
         }
     }
 
@@ -186,15 +306,16 @@ final class RollingFileMessageOutput
     {
         IOException exception = new IOException("Exception thrown attempting to close the file output.");
 
-        if (currentOutputStream != null) {
+        if (currentChannel != null) {
             try {
-                currentOutputStream.flush();
+                writeBatch();
+                syncIfNecessary(true);
             }
             catch (IOException e) {
                 exception.addSuppressed(e);
             }
             try {
-                currentOutputStream.close();
+                currentChannel.close();
             }
             catch (IOException e) {
                 exception.addSuppressed(e);
@@ -212,10 +333,18 @@ final class RollingFileMessageOutput
             }
         }
 
-        currentOutputStream = null;
+        if (chunkCompressionExecutor != null) {
+            chunkCompressionExecutor.shutdown();
+        }
+        if (batchCompressor != null) {
+            batchCompressor.close();
+        }
+
+        currentChannel = null;
         currentOutputFile = null;
         currentOutputFileName = null;
         currentFileSize = 0;
+        currentFileWrittenSize = 0;
 
         if (exception.getSuppressed().length > 0) {
             throw exception;
@@ -223,10 +352,17 @@ final class RollingFileMessageOutput
     }
 
     @Override
-    public synchronized void writeMessage(byte[] message)
+    public void writeMessage(byte[] message)
             throws IOException
     {
-        if (currentFileSize > 0 && (currentFileSize + message.length > maxFileSize)) {
+        writeMessage(message, 0, message.length);
+    }
+
+    @Override
+    public synchronized void writeMessage(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        if (currentFileSize > 0 && (currentFileSize + length > maxFileSize)) {
             try {
                 rollFile();
             }
@@ -237,24 +373,141 @@ final class RollingFileMessageOutput
                 throw new IOException("Error rolling log file", e);
             }
         }
-        historyManager.pruneLogFilesIfNecessary(currentFileSize + message.length);
-        currentFileSize += message.length;
-        currentOutputStream.write(message);
+        // a message is only accepted once it is in the batch, so if this throws, the message can be retried
+        if (length > batch.remaining()) {
+            writeBatch();
+        }
+        if (length <= batch.remaining()) {
+            batch.put(buffer, offset, length);
+        }
+        else if (batchCompressor != null) {
+            // too large to batch, so it is compressed after the batch, and written with the next batch
+            batchCompressor.compress(buffer, offset, length, compressedBatch);
+        }
+        else {
+            writeLargeMessage(ByteBuffer.wrap(buffer, offset, length));
+        }
+        currentFileSize += length;
+    }
+
+    /**
+     * Writes the pending batch to the current file. If the write fails, the bytes that were not
+     * written are kept, and written by the next attempt.
+     */
+    @GuardedBy("this")
+    private void writeBatch()
+            throws IOException
+    {
+        if (batchCompressor == null) {
+            if (batch.position() == 0) {
+                return;
+            }
+            batch.flip();
+            try {
+                write(batch);
+            }
+            finally {
+                batch.compact();
+                unsynced = true;
+            }
+            return;
+        }
+
+        // the compressed batch keeps the compressed bytes that have not been written yet
+        if (batch.position() > 0) {
+            batchCompressor.compress(batch.array(), 0, batch.position(), compressedBatch);
+            batch.clear();
+        }
+        if (compressedBatch.size() == 0) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(compressedBatch.getBuffer(), 0, compressedBatch.size());
+        try {
+            write(data);
+        }
+        finally {
+            System.arraycopy(compressedBatch.getBuffer(), data.position(), compressedBatch.getBuffer(), 0, data.remaining());
+            compressedBatch.truncate(data.remaining());
+            unsynced = true;
+        }
+    }
+
+    @GuardedBy("this")
+    private void writeLargeMessage(ByteBuffer message)
+            throws IOException
+    {
+        long position = currentFileWrittenSize;
+        try {
+            write(message);
+        }
+        catch (IOException e) {
+            // the message is retried by the caller, so remove the part of it that was written
+            try {
+                currentChannel.truncate(position);
+                currentFileWrittenSize = position;
+            }
+            catch (IOException truncateException) {
+                e.addSuppressed(truncateException);
+            }
+            throw e;
+        }
+        finally {
+            unsynced = true;
+        }
+    }
+
+    @GuardedBy("this")
+    private void write(ByteBuffer data)
+            throws IOException
+    {
+        // the history is checked once per batch, rather than for every message
+        historyManager.pruneLogFilesIfNecessary(currentFileWrittenSize + data.remaining());
+
+        int start = data.position();
+        try {
+            while (data.hasRemaining()) {
+                currentChannel.write(data);
+            }
+        }
+        finally {
+            currentFileWrittenSize += data.position() - start;
+        }
+    }
+
+    @GuardedBy("this")
+    private void syncIfNecessary(boolean force)
+            throws IOException
+    {
+        if (fsyncIntervalNanos < 0 || !unsynced) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (force || now - lastFsyncNanos >= fsyncIntervalNanos) {
+            // all messages written since the previous fsync are committed together
+            currentChannel.force(false);
+            lastFsyncNanos = now;
+            unsynced = false;
+        }
     }
 
     private synchronized void rollFile()
             throws IOException
     {
-        // carefully update the stream, so if there is a problem logging can continue
+        // carefully update the channel, so if there is a problem logging can continue
 
         LogFileName newFileName = null;
         Path newFile = null;
-        OutputStream newOutputStream = null;
+        FileChannel newChannel = null;
         for (int i = 0; i < MAX_OPEN_NEW_LOG_ATTEMPTS; i++) {
             try {
                 newFileName = LogFileName.generateNextLogFileName(symlink, compressionType.getExtension());
                 newFile = symlink.resolveSibling(newFileName.getFileName());
-                newOutputStream = new BufferedOutputStream(Files.newOutputStream(newFile, CREATE_NEW), MAX_BATCH_BYTES);
+                if (batchCompressor != null) {
+                    // the file is compressed while it is written, so it has the compressed name from the start
+                    newFile = newFile.resolveSibling(newFile.getFileName() + compressionType.getExtension().orElseThrow());
+                    newFileName = newFileName.withCompression(newFile);
+                }
+                newChannel = channelFactory.createChannel(newFile);
                 break;
             }
             catch (FileAlreadyExistsException ignore) {
@@ -262,27 +515,39 @@ final class RollingFileMessageOutput
         }
 
         // If a new file can not be opened, abort and continue using the existing file
-        if (newOutputStream == null) {
+        if (newChannel == null) {
             throw new IOException("Could not create new a unique log file: " + newFile);
         }
 
-        // The new file is open, so we will always switch to this new output stream
+        // The new file is open, so we will always switch to this new channel
         // If any error occurs, with the cleanup steps, we add them to this exception as suppressed and throw at the end
-        IOException exception = new IOException(format("Unable to %s log file", currentOutputStream == null ? "setup initial" : "roll"));
+        IOException exception = new IOException(format("Unable to %s log file", currentChannel == null ? "setup initial" : "roll"));
 
         // close and optionally compress the currently open log (there is no open log during initial setup)
-        if (currentOutputStream != null) {
+        if (currentChannel != null) {
             try {
-                currentOutputStream.close();
+                writeBatch();
+                syncIfNecessary(true);
             }
             catch (IOException e) {
-                exception.addSuppressed(new IOException("Unable to close old output stream: " + currentOutputFile, e));
+                exception.addSuppressed(new IOException("Unable to write pending messages to old log file: " + currentOutputFile, e));
+                if (batchCompressor != null) {
+                    // the rest of a compressed frame can not be written to the new file
+                    exception.addSuppressed(new IOException("Discarded %s compressed bytes of pending messages".formatted(compressedBatch.size())));
+                    compressedBatch.truncate(0);
+                }
+            }
+            try {
+                currentChannel.close();
             }
-            historyManager.addFile(currentOutputFile, currentOutputFileName, currentFileSize);
+            catch (IOException e) {
+                exception.addSuppressed(new IOException("Unable to close old log file: " + currentOutputFile, e));
+            }
+            historyManager.addFile(currentOutputFile, currentOutputFileName, currentFileWrittenSize);
             if (compressionExecutor != null) {
                 Path originalFile = currentOutputFile;
                 LogFileName originalLogFileName = currentOutputFileName;
-                long originalFileSize = currentFileSize;
+                long originalFileSize = currentFileWrittenSize;
                 compressionExecutor.submit(() -> {
                     try {
                         compressInternal(originalFile, originalLogFileName, originalFileSize);
@@ -296,8 +561,10 @@ final class RollingFileMessageOutput
 
         currentOutputFile = newFile;
         currentOutputFileName = newFileName;
-        currentOutputStream = newOutputStream;
-        currentFileSize = 0;
+        currentChannel = newChannel;
+        // messages that could not be written to the old file are written to the new file
+        currentFileSize = batch.position();
+        currentFileWrittenSize = 0;
 
         // update symlink
         try {
@@ -322,16 +589,14 @@ final class RollingFileMessageOutput
 
         // compress file
         Path tempFile = originalFile.resolveSibling(TEMP_PREFIX + originalFile.getFileName() + compressionExtension);
-        try (
-                InputStream input = Files.newInputStream(originalFile);
-                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
-            ByteStreams.copy(input, gzipOutputStream);
+        try {
+            compressFile(originalFile, tempFile);
         }
         catch (IOException e) {
             throw new IOException("Unable to compress log file", e);
         }
 
-        // Size can only be checked after the gzip stream is closed
+        // Size can only be checked after the compressed file is closed
         long compressedSize;
         try {
             compressedSize = Files.size(tempFile);
@@ -392,6 +657,62 @@ final class RollingFileMessageOutput
         }
     }
 
+    private void compressFile(Path originalFile, Path compressedFile)
+            throws IOException
+    {
+        // chunks are compressed into independent frames, and written in order once compressed
+        Deque<Future<MessageBuffer>> chunks = new ArrayDeque<>();
+        try (
+                InputStream input = Files.newInputStream(originalFile);
+                OutputStream output = Files.newOutputStream(compressedFile)) {
+            byte[] chunk;
+            do {
+                // an empty file is compressed into an empty frame
+                chunk = input.readNBytes(COMPRESSION_CHUNK_BYTES);
+                byte[] data = chunk;
+                chunks.add(chunkCompressionExecutor.submit(() -> compressChunk(data)));
+                // bound the number of chunks held in memory
+                if (chunks.size() > compressionThreads) {
+                    writeChunk(chunks.remove(), output);
+                }
+            }
+            while (chunk.length == COMPRESSION_CHUNK_BYTES);
+
+            while (!chunks.isEmpty()) {
+                writeChunk(chunks.remove(), output);
+            }
+        }
+        finally {
+            chunks.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private MessageBuffer compressChunk(byte[] chunk)
+    {
+        MessageBuffer compressed = new MessageBuffer();
+        try (LogCompressor compressor = compressionType.createCompressor()) {
+            compressor.compress(chunk, 0, chunk.length, compressed);
+        }
+        return compressed;
+    }
+
+    private static void writeChunk(Future<MessageBuffer> chunk, OutputStream output)
+            throws IOException
+    {
+        MessageBuffer compressed;
+        try {
+            compressed = chunk.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing log file");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Unable to compress log file chunk", e.getCause());
+        }
+        output.write(compressed.getBuffer(), 0, compressed.size());
+    }
+
     private static void tryCleanupTempFiles(Path masterLogFile)
     {
         try {
@@ -2,138 +2,755 @@ package io.airlift.log;
 
 import com.google.common.net.HostAndPort;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.units.DataSize;
 import org.weakref.jmx.Managed;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.lang.Math.min;
+import static java.lang.Math.toIntExact;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * Sends log messages to a TCP collector without blocking the writer on the network.
+ * Messages are copied into a bounded send buffer, which a sender thread writes to the
+ * socket in batches. While the collector is unavailable, the sender reconnects with
+ * exponential backoff, and messages that do not fit in the send buffer are appended
+ * to the spill file, if one is configured, or dropped otherwise.
+ * <p>
+ * Once a message has been spilled, all later messages are spilled until the spill file
+ * has been sent, so messages are delivered in order. When the output is closed, the
+ * messages that were not sent are moved to the start of the spill file, which is sent
+ * first the next time an output is created with it. The sender thread does this as it
+ * stops, so closing does not wait longer than a bounded time for an unresponsive collector.
+ * <p>
+ * Messages are expected to end with a newline. When a send fails part way through a
+ * message, the sender resumes after the last complete line on the next connection, so
+ * a connection never starts with the rest of a message. If the spill file can not be
+ * read, it is discarded, and each of its lines is counted as a dropped message.
+ */
 public class SocketMessageOutput
         implements MessageOutput
 {
+    static final DataSize DEFAULT_BUFFER_SIZE = DataSize.of(4, MEGABYTE);
+    static final DataSize DEFAULT_MAX_SPILL_SIZE = DataSize.of(1, GIGABYTE);
+
     private static final int CONNECTION_TIMEOUT_MILLIS = 100;
-    private static final int MAX_WRITE_ATTEMPTS_PER_MESSAGE = 5;
+    private static final long MIN_RECONNECT_DELAY_NANOS = MILLISECONDS.toNanos(100);
+    private static final long MAX_RECONNECT_DELAY_NANOS = SECONDS.toNanos(10);
+    private static final long CLOSE_TIMEOUT_NANOS = SECONDS.toNanos(10);
+    // the part of the close timeout left for the sender to stop once it is interrupted
+    private static final long CLOSE_INTERRUPT_TIMEOUT_NANOS = SECONDS.toNanos(1);
+    private static final int SPILL_READ_SIZE = 64 * 1024;
 
     private final InetSocketAddress socketAddress;
     private final AtomicLong failedConnections = new AtomicLong(0);
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final ExecutorService senderExecutor = newSingleThreadExecutor(daemonThreadsNamed("log-socket-sender"));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+
+    // circular send buffer; positions are absolute byte counts, and the bytes between head and tail are unsent
+    private final byte[] buffer;
+    @GuardedBy("lock")
+    private long bufferHead;
+    @GuardedBy("lock")
+    private long bufferTail;
+
+    private final Path spillFile;
+    private final long maxSpillSize;
+    // an interrupt of any thread using the channel closes it, so it is reopened when needed
+    @GuardedBy("lock")
+    private FileChannel spillChannel;
+    @GuardedBy("lock")
+    private boolean spillClosed;
+    @GuardedBy("lock")
+    private long spillReadPosition;
+    @GuardedBy("lock")
+    private long spillWritePosition;
+    // the number of unsent lines in the spill file, which are counted as dropped if the file can not be read
+    @GuardedBy("lock")
+    private long spilledLines;
 
-    @GuardedBy("this")
-    private Socket socket;
-    @GuardedBy("this")
-    private OutputStream currentOutputStream;
+    @GuardedBy("lock")
+    private boolean closed;
+    // set by the sender thread as it stops
+    private volatile IOException closeFailure;
+
+    // only accessed by the sender thread
+    private SocketChannel channel;
+    // the length of the spill file written before this output was created, whose lines are not counted yet
+    private long restoredSpillLength;
+    private long sentBytes;
+    private final ByteBuffer[] bufferViews;
+    private final ByteBuffer spillReadBuffer;
 
     SocketMessageOutput(HostAndPort hostAndPort)
+    {
+        this(hostAndPort, DEFAULT_BUFFER_SIZE, Optional.empty(), DEFAULT_MAX_SPILL_SIZE);
+    }
+
+    SocketMessageOutput(HostAndPort hostAndPort, DataSize bufferSize, Optional<Path> spillFile, DataSize maxSpillSize)
     {
         requireNonNull(hostAndPort, "hostAndPort is null");
+        requireNonNull(bufferSize, "bufferSize is null");
+        requireNonNull(spillFile, "spillFile is null");
+        requireNonNull(maxSpillSize, "maxSpillSize is null");
+        checkArgument(bufferSize.toBytes() > 0 && bufferSize.toBytes() <= Integer.MAX_VALUE, "bufferSize must be between 1 byte and 2GB");
+
         this.socketAddress = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        this.buffer = new byte[toIntExact(bufferSize.toBytes())];
+        this.bufferViews = new ByteBuffer[] {ByteBuffer.wrap(buffer), ByteBuffer.wrap(buffer)};
+        this.maxSpillSize = maxSpillSize.toBytes();
+
+        this.spillFile = spillFile.orElse(null);
+        if (spillFile.isPresent()) {
+            try {
+                Path parent = spillFile.get().toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                this.spillChannel = FileChannel.open(spillFile.get(), CREATE, READ, WRITE);
+                // messages spilled before a restart are sent first
+                this.spillWritePosition = spillChannel.size();
+                this.restoredSpillLength = spillWritePosition;
+                this.spillReadBuffer = ByteBuffer.allocateDirect(SPILL_READ_SIZE);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Unable to open log spill file " + spillFile.get(), e);
+            }
+        }
+        else {
+            this.spillReadBuffer = null;
+        }
+
+        senderExecutor.execute(this::sendMessages);
     }
 
     @Override
-    public synchronized void writeMessage(byte[] message)
+    public void writeMessage(byte[] message)
             throws IOException
     {
-        IOException lastException = null;
-        boolean success = false;
-        int connectionFailures = 0;
-        for (int i = 0; i < MAX_WRITE_ATTEMPTS_PER_MESSAGE; i++) {
-            if (socket == null || socket.isClosed() || currentOutputStream == null) {
-                try {
-                    socket = new Socket();
-                    socket.connect(socketAddress, CONNECTION_TIMEOUT_MILLIS);
-                    currentOutputStream = socket.getOutputStream();
+        writeMessage(message, 0, message.length);
+    }
+
+    @Override
+    public void writeMessage(byte[] message, int offset, int length)
+            throws IOException
+    {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Socket output to %s:%s is closed".formatted(socketAddress.getHostString(), socketAddress.getPort()));
+            }
+
+            if (spillWritePosition == 0 && bufferTail - bufferHead + length <= buffer.length) {
+                int start = (int) (bufferTail % buffer.length);
+                int first = min(length, buffer.length - start);
+                System.arraycopy(message, offset, buffer, start, first);
+                System.arraycopy(message, offset + first, buffer, 0, length - first);
+                bufferTail += length;
+            }
+            else if (spillFile != null && spillWritePosition + length <= maxSpillSize) {
+                ByteBuffer data = ByteBuffer.wrap(message, offset, length);
+                long position = spillWritePosition;
+                updateSpill(file -> writeFully(file, data, position + data.position() - offset));
+                spillWritePosition += length;
+                spilledLines += countLines(message, offset, length);
+            }
+            else {
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            stateChanged.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Messages are sent as soon as they are buffered, so this does not wait for the collector.
+     */
+    @Override
+    public void flush() {}
+
+    /**
+     * Waits a bounded time for the buffered messages to be sent. Messages that could not be
+     * sent are moved to the start of the spill file when one is configured, and discarded
+     * otherwise. If the sender does not stop in time, it moves the messages once it stops.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stateChanged.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        senderExecutor.shutdown();
+        try {
+            if (!senderExecutor.awaitTermination(CLOSE_TIMEOUT_NANOS - CLOSE_INTERRUPT_TIMEOUT_NANOS, NANOSECONDS)) {
+                // interrupting the sender closes the socket channel
+                senderExecutor.shutdownNow();
+                if (!senderExecutor.awaitTermination(CLOSE_INTERRUPT_TIMEOUT_NANOS, NANOSECONDS)) {
+                    throw new IOException("Timed out waiting for the socket sender to stop");
                 }
-                catch (IOException e) {
-                    socket.close();
-                    socket = null;
-                    currentOutputStream = null;
-                    lastException = e;
-                    connectionFailures++;
-                    continue;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            senderExecutor.shutdownNow();
+            throw new InterruptedIOException("Interrupted waiting for the socket sender to stop");
+        }
+
+        IOException failure = closeFailure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Managed
+    public long getFailedConnections()
+    {
+        return failedConnections.get();
+    }
+
+    @Managed
+    public long getDroppedMessages()
+    {
+        return droppedMessages.get();
+    }
+
+    @Managed
+    public long getBufferedBytes()
+    {
+        lock.lock();
+        try {
+            return bufferTail - bufferHead;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Managed
+    public long getSpilledBytes()
+    {
+        lock.lock();
+        try {
+            return spillWritePosition - spillReadPosition;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendMessages()
+    {
+        try {
+            countRestoredSpillLines();
+            sendUntilClosed();
+        }
+        finally {
+            stopSending();
+        }
+    }
+
+    private void sendUntilClosed()
+    {
+        long reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+        while (true) {
+            boolean sendBuffer;
+            lock.lock();
+            try {
+                while (!closed && !hasUnsentMessages()) {
+                    stateChanged.await();
                 }
+                if (!hasUnsentMessages()) {
+                    return;
+                }
+                sendBuffer = bufferTail > bufferHead;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                lock.unlock();
             }
 
+            long sentBefore = sentBytes;
+            boolean failed = false;
             try {
-                currentOutputStream.write(message);
-                success = true;
-                break;
+                if (channel == null) {
+                    channel = SocketChannel.open();
+                    channel.socket().connect(socketAddress, CONNECTION_TIMEOUT_MILLIS);
+                }
+                if (sendBuffer) {
+                    sendBuffer();
+                }
+                else {
+                    sendSpill();
+                }
             }
             catch (IOException e) {
-                socket.close();
-                socket = null;
-                currentOutputStream = null;
-                connectionFailures++;
-                lastException = e;
+                failedConnections.incrementAndGet();
+                closeChannel();
+                failed = true;
             }
-        }
 
-        if (connectionFailures > 0) {
-            failedConnections.addAndGet(connectionFailures);
-            if (!success) {
-                throw new IOException(
-                        "Exception caught connecting via socket to %s:%s. There were %s failures attempting to write the log message.".formatted(
-                                socketAddress.getHostName(),
-                                socketAddress.getPort(),
-                                connectionFailures),
-                        lastException);
+            // a collector that accepts connections but fails every send is backed off like an unreachable one
+            if (sentBytes > sentBefore) {
+                reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+            }
+            if (failed) {
+                // once closed, give up rather than delay the shutdown
+                if (!awaitReconnect(reconnectDelayNanos)) {
+                    return;
+                }
+                reconnectDelayNanos = min(reconnectDelayNanos * 2, MAX_RECONNECT_DELAY_NANOS);
             }
         }
     }
 
-    @Override
-    public synchronized void flush()
+    private void sendBuffer()
             throws IOException
     {
-        if (currentOutputStream != null) {
-            currentOutputStream.flush();
+        int start;
+        int length;
+        lock.lock();
+        try {
+            start = (int) (bufferHead % buffer.length);
+            length = (int) (bufferTail - bufferHead);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // the writer only appends outside the unsent range, so the range can be sent without the lock
+        int first = min(length, buffer.length - start);
+        bufferViews[0].limit(start + first).position(start);
+        bufferViews[1].limit(length - first).position(0);
+        try {
+            while (bufferViews[0].hasRemaining() || bufferViews[1].hasRemaining()) {
+                channel.write(bufferViews);
+            }
+        }
+        finally {
+            int sent = (bufferViews[0].position() - start) + bufferViews[1].position();
+            if (sent < length) {
+                // the collector may have received part of a message, which is sent again from the start of its line
+                sent = completeLinesLength(start, sent);
+            }
+            sentBytes += sent;
+            lock.lock();
+            try {
+                bufferHead += sent;
+            }
+            finally {
+                lock.unlock();
+            }
         }
     }
 
-    @Override
-    public synchronized void close()
+    private void sendSpill()
             throws IOException
     {
-        IOException exception = new IOException("Exception thrown attempting to close the output stream and socket.");
+        FileChannel spill;
+        long position;
+        int length;
+        boolean lastChunk;
+        lock.lock();
+        try {
+            spill = spillChannel();
+            position = spillReadPosition;
+            length = (int) min(spillWritePosition - spillReadPosition, SPILL_READ_SIZE);
+            lastChunk = position + length == spillWritePosition;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        spillReadBuffer.clear().limit(length);
+        try {
+            readFully(spill, spillReadBuffer, position);
+        }
+        catch (ClosedChannelException e) {
+            // the channel was closed by an interrupt, and is reopened for the next attempt
+            return;
+        }
+        catch (IOException e) {
+            // the spilled messages can not be recovered, so discard them rather than retry forever
+            lock.lock();
+            try {
+                droppedMessages.addAndGet(spilledLines);
+                updateSpill(file -> file.truncate(0));
+                spillReadPosition = 0;
+                spillWritePosition = 0;
+                spilledLines = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+            return;
+        }
+        spillReadBuffer.flip();
+        if (!lastChunk) {
+            // end the chunk after a complete line, unless the line is longer than the chunk
+            int end = lastLineEnd(spillReadBuffer, length);
+            if (end > 0) {
+                spillReadBuffer.limit(end);
+            }
+        }
+
+        try {
+            while (spillReadBuffer.hasRemaining()) {
+                channel.write(spillReadBuffer);
+            }
+        }
+        finally {
+            int sent = spillReadBuffer.position();
+            if (spillReadBuffer.hasRemaining()) {
+                // the collector may have received part of a message, which is sent again from the start of its line
+                sent = lastLineEnd(spillReadBuffer, sent);
+            }
+            long sentLines = countLines(spillReadBuffer, sent);
+            sentBytes += sent;
+            lock.lock();
+            try {
+                spillReadPosition += sent;
+                spilledLines -= sentLines;
+                if (spillReadPosition == spillWritePosition) {
+                    // the spill file has been sent, so new messages can use the send buffer again
+                    updateSpill(file -> file.truncate(0));
+                    spillReadPosition = 0;
+                    spillWritePosition = 0;
+                    spilledLines = 0;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Counts the lines of the spill file written before this output was created, so they can be
+     * counted as dropped if the file can not be read later. This runs on the sender thread, so a
+     * large spill file does not delay the creation of the output.
+     */
+    private void countRestoredSpillLines()
+    {
+        long lines = 0;
+        try {
+            FileChannel spill;
+            lock.lock();
+            try {
+                if (restoredSpillLength == 0) {
+                    return;
+                }
+                spill = spillChannel();
+            }
+            finally {
+                lock.unlock();
+            }
+            for (long position = 0; position < restoredSpillLength; position += spillReadBuffer.limit()) {
+                spillReadBuffer.clear().limit((int) min(restoredSpillLength - position, SPILL_READ_SIZE));
+                readFully(spill, spillReadBuffer, position);
+                lines += countLines(spillReadBuffer, spillReadBuffer.limit());
+            }
+        }
+        catch (IOException e) {
+            // the sender discards a spill file it can not read, and only the lines read so far are counted as dropped
+        }
+        finally {
+            lock.lock();
+            try {
+                spilledLines += lines;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
 
-        if (currentOutputStream != null) {
+    /**
+     * Closes the socket and moves the unsent messages to the spill file. This runs on the sender
+     * thread as it stops, since the socket and the unsent range are owned by the sender.
+     */
+    private void stopSending()
+    {
+        IOException exception = new IOException("Exception thrown attempting to close the socket and spill file.");
+        if (channel != null) {
             try {
-                currentOutputStream.flush();
+                channel.close();
             }
             catch (IOException e) {
                 exception.addSuppressed(e);
             }
+            channel = null;
+        }
+        if (spillFile != null) {
+            lock.lock();
+            // the spill file is rewritten even if the sender was interrupted
+            boolean interrupted = Thread.interrupted();
             try {
-                currentOutputStream.close();
+                spillUnsentMessages();
             }
             catch (IOException e) {
                 exception.addSuppressed(e);
             }
+            finally {
+                try {
+                    spillClosed = true;
+                    spillChannel.close();
+                }
+                catch (IOException e) {
+                    exception.addSuppressed(e);
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                lock.unlock();
+            }
+        }
+        if (exception.getSuppressed().length > 0) {
+            closeFailure = exception;
         }
+    }
 
-        currentOutputStream = null;
+    /**
+     * Returns false if the output was closed, in which case the sender should stop.
+     */
+    private boolean awaitReconnect(long delayNanos)
+    {
+        lock.lock();
+        try {
+            long remainingNanos = delayNanos;
+            while (!closed && remainingNanos > 0) {
+                remainingNanos = stateChanged.awaitNanos(remainingNanos);
+            }
+            return !closed;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
 
-        if (socket != null) {
+    private void closeChannel()
+    {
+        if (channel != null) {
             try {
-                socket.close();
+                channel.close();
             }
-            catch (IOException e) {
-                exception.addSuppressed(e);
+            catch (IOException ignored) {
             }
+            channel = null;
         }
+    }
 
-        socket = null;
+    @GuardedBy("lock")
+    private boolean hasUnsentMessages()
+    {
+        return bufferTail > bufferHead || spillWritePosition > spillReadPosition;
+    }
 
-        if (exception.getSuppressed().length > 0) {
-            throw exception;
+    /**
+     * Moves the unsent messages to the start of the spill file, so the next output created with
+     * the file does not send the messages that were already sent. The messages in the send buffer
+     * are older than the spilled messages, so they are written before them.
+     */
+    @GuardedBy("lock")
+    private void spillUnsentMessages()
+            throws IOException
+    {
+        FileChannel spill = spillChannel();
+        long bufferedLength = bufferTail - bufferHead;
+        long spilledLength = spillWritePosition - spillReadPosition;
+        moveSpill(spill, spillReadPosition, bufferedLength, spilledLength);
+
+        int start = (int) (bufferHead % buffer.length);
+        int first = (int) min(bufferedLength, buffer.length - start);
+        writeFully(spill, ByteBuffer.wrap(buffer, start, first), 0);
+        writeFully(spill, ByteBuffer.wrap(buffer, 0, (int) bufferedLength - first), first);
+        spill.truncate(bufferedLength + spilledLength);
+
+        spilledLines += countLines(buffer, start, first) + countLines(buffer, 0, (int) bufferedLength - first);
+        bufferHead = bufferTail;
+        spillReadPosition = 0;
+        spillWritePosition = bufferedLength + spilledLength;
+    }
+
+    /**
+     * Returns the length of the complete lines at the start of the given range of the send buffer.
+     */
+    private int completeLinesLength(int start, int length)
+    {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[(start + i) % buffer.length] == '\n') {
+                return i + 1;
+            }
         }
+        return 0;
     }
 
-    @Managed
-    public long getFailedConnections()
+    /**
+     * Returns the position after the last newline in the first {@code length} bytes of the data, or 0 if there is none.
+     */
+    private static int lastLineEnd(ByteBuffer data, int length)
     {
-        return failedConnections.get();
+        for (int i = length - 1; i >= 0; i--) {
+            if (data.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static long countLines(ByteBuffer data, int length)
+    {
+        long lines = 0;
+        for (int i = 0; i < length; i++) {
+            if (data.get(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static long countLines(byte[] data, int offset, int length)
+    {
+        long lines = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static void moveSpill(FileChannel spill, long source, long target, long length)
+            throws IOException
+    {
+        if (source == target || length == 0) {
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate((int) min(length, SPILL_READ_SIZE));
+        // copy in the direction that does not overwrite bytes that have not been copied yet
+        boolean forward = target < source;
+        long done = 0;
+        while (done < length) {
+            int size = (int) min(length - done, chunk.capacity());
+            long offset = forward ? done : length - done - size;
+            chunk.clear().limit(size);
+            readFully(spill, chunk, source + offset);
+            writeFully(spill, chunk.flip(), target + offset);
+            done += size;
+        }
+    }
+
+    @GuardedBy("lock")
+    private FileChannel spillChannel()
+            throws IOException
+    {
+        if (spillClosed) {
+            throw new IOException("Spill file %s is closed".formatted(spillFile));
+        }
+        if (!spillChannel.isOpen()) {
+            spillChannel = FileChannel.open(spillFile, CREATE, READ, WRITE);
+        }
+        return spillChannel;
+    }
+
+    /**
+     * Runs an operation on the spill file with the interrupt of the calling thread held back.
+     * If another thread closes the channel with an interrupt, the operation is retried on a
+     * reopened channel, so operations must be safe to repeat.
+     */
+    @GuardedBy("lock")
+    private void updateSpill(SpillOperation operation)
+            throws IOException
+    {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    operation.run(spillChannel());
+                    return;
+                }
+                catch (ClosedChannelException e) {
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException
+    {
+        int start = data.position();
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position() - start) < 0) {
+                throw new IOException("Spill file is shorter than expected");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException
+    {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private interface SpillOperation
+    {
+        void run(FileChannel file)
+                throws IOException;
     }
 }
@@ -3,8 +3,7 @@ package io.airlift.log;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.PrintStream;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -13,9 +12,14 @@ import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.SignStyle;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.floorMod;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.temporal.ChronoField.DAY_OF_MONTH;
 import static java.time.temporal.ChronoField.HOUR_OF_DAY;
 import static java.time.temporal.ChronoField.MILLI_OF_SECOND;
@@ -28,9 +32,23 @@ import static java.util.Objects.requireNonNull;
 
 class StaticFormatter
         extends Formatter
+        implements RecordEncoder
 {
     private static final ZoneId SYSTEM_ZONE = ZoneId.systemDefault().normalized();
-    private final Map<String, String> logAnnotations;
+    private static final int MAX_CACHED_LOGGER_NAMES = 10_000;
+    private static final byte[][] LEVEL_NAMES;
+
+    static {
+        Level[] levels = Level.values();
+        LEVEL_NAMES = new byte[levels.length][];
+        for (Level level : levels) {
+            LEVEL_NAMES[level.ordinal()] = level.name().getBytes(UTF_8);
+        }
+    }
+
+    private final byte[] logAnnotations;
+    private final ConcurrentMap<String, byte[]> loggerNames = new ConcurrentHashMap<>();
+    private volatile TimestampSecond timestampSecond = new TimestampSecond(Long.MIN_VALUE, new byte[0], new byte[0]);
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER = new DateTimeFormatterBuilder()
             .parseCaseInsensitive()
@@ -57,7 +75,8 @@ class StaticFormatter
 
     public StaticFormatter(Map<String, String> logAnnotations)
     {
-        this.logAnnotations = ImmutableMap.copyOf(requireNonNull(logAnnotations, "logAnnotations is null"));
+        requireNonNull(logAnnotations, "logAnnotations is null");
+        this.logAnnotations = logAnnotations.isEmpty() ? new byte[0] : ("\t" + Joiner.on(",").withKeyValueSeparator("=").join(logAnnotations)).getBytes(UTF_8);
     }
 
     @Override
@@ -70,36 +89,88 @@ class StaticFormatter
     @Override
     public String format(LogRecord record)
     {
-        ZonedDateTime timestamp = ZonedDateTime.ofInstant(Instant.ofEpochMilli(record.getMillis()), SYSTEM_ZONE);
-
-        StringWriter stringWriter = new StringWriter()
-                .append(TIMESTAMP_FORMATTER.format(timestamp))
-                .append('\t')
-                .append(Level.fromJulLevel(record.getLevel()).name())
-                .append('\t')
-                .append(Thread.currentThread().getName())
-                .append('\t')
-                .append(record.getLoggerName());
-
-        if (!logAnnotations.isEmpty()) {
-            stringWriter.append('\t')
-                    .append(Joiner.on(",").withKeyValueSeparator("=").join(logAnnotations));
-        }
+        MessageBuffer buffer = new MessageBuffer();
+        encode(record, buffer);
+        return buffer.toString();
+    }
 
-        stringWriter.append('\t')
-                .append(record.getMessage());
+    @Override
+    public void encode(LogRecord record, MessageBuffer buffer)
+    {
+        writeTimestamp(record.getMillis(), buffer);
+        buffer.write('\t');
+        buffer.write(LEVEL_NAMES[Level.fromJulLevel(record.getLevel()).ordinal()]);
+        buffer.write('\t');
+        buffer.writeUtf8(Thread.currentThread().getName());
+        buffer.write('\t');
+        writeLoggerName(record.getLoggerName(), buffer);
+        buffer.write(logAnnotations);
+        buffer.write('\t');
+        buffer.writeUtf8(record.getMessage());
 
         if (record.getParameters() != null && record.getParameters().length != 0) {
-            stringWriter.append(" parameters=").append(deepToString(record.getParameters()));
+            buffer.writeUtf8(" parameters=");
+            buffer.writeUtf8(deepToString(record.getParameters()));
         }
 
         if (record.getThrown() != null) {
-            stringWriter.append('\n');
-            record.getThrown().printStackTrace(new PrintWriter(stringWriter));
-            stringWriter.append('\n');
+            buffer.write('\n');
+            PrintStream printStream = new PrintStream(buffer, false, UTF_8);
+            record.getThrown().printStackTrace(printStream);
+            printStream.flush();
+            buffer.write('\n');
         }
 
-        stringWriter.append('\n');
-        return stringWriter.toString();
+        buffer.write('\n');
+    }
+
+    private void writeTimestamp(long epochMillis, MessageBuffer buffer)
+    {
+        long epochSecond = floorDiv(epochMillis, 1000);
+        TimestampSecond second = timestampSecond;
+        if (second.epochSecond() != epochSecond) {
+            second = TimestampSecond.of(epochSecond);
+            timestampSecond = second;
+        }
+        buffer.write(second.prefix());
+        int millis = floorMod(epochMillis, 1000);
+        buffer.write('0' + millis / 100);
+        buffer.write('0' + millis / 10 % 10);
+        buffer.write('0' + millis % 10);
+        buffer.write(second.offset());
+    }
+
+    private void writeLoggerName(String loggerName, MessageBuffer buffer)
+    {
+        if (loggerName == null) {
+            buffer.writeUtf8(null);
+            return;
+        }
+        byte[] bytes = loggerNames.get(loggerName);
+        if (bytes == null) {
+            if (loggerNames.size() >= MAX_CACHED_LOGGER_NAMES) {
+                buffer.writeUtf8(loggerName);
+                return;
+            }
+            bytes = loggerNames.computeIfAbsent(loggerName, name -> name.getBytes(UTF_8));
+        }
+        buffer.write(bytes);
+    }
+
+    /**
+     * The formatted timestamp of a second, split around the milliseconds
+     */
+    private record TimestampSecond(long epochSecond, byte[] prefix, byte[] offset)
+    {
+        public static TimestampSecond of(long epochSecond)
+        {
+            String formatted = TIMESTAMP_FORMATTER.format(ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), SYSTEM_ZONE));
+            // the milliseconds follow the only '.' in the timestamp
+            int millisStart = formatted.indexOf('.') + 1;
+            return new TimestampSecond(
+                    epochSecond,
+                    formatted.substring(0, millisStart).getBytes(UTF_8),
+                    formatted.substring(millisStart + 3).getBytes(UTF_8));
+        }
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Writes each frame as a Zstandard frame.
+ */
+final class ZstdLogCompressor
+        implements LogCompressor
+{
+    private final ZstdCompressor compressor = new ZstdCompressor();
+    private byte[] buffer = new byte[0];
+
+    @Override
+    public void compress(byte[] input, int offset, int length, MessageBuffer output)
+    {
+        int maxCompressedLength = compressor.maxCompressedLength(length);
+        if (buffer.length < maxCompressedLength) {
+            buffer = new byte[maxCompressedLength];
+        }
+        int size = compressor.compress(input, offset, length, buffer, 0, buffer.length);
+        output.write(buffer, 0, size);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+import static java.util.logging.Level.INFO;
+
+/**
+ * Measures the latency of publishing to a {@link BufferedHandler} shared by all benchmark
+ * threads, writing to an output that discards the messages. {@link #main} runs the benchmark
+ * with 1, 2, 4, ... 256 threads.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(3)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class BenchmarkBufferedHandler
+{
+    private static final int MAX_THREADS = 256;
+
+    private BufferedHandler handler;
+    private LogRecord record;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        handler = new BufferedHandler(new DiscardingMessageOutput(), new Formatter()
+        {
+            @Override
+            public String format(LogRecord record)
+            {
+                return record.getLoggerName() + " " + record.getMessage() + "\n";
+            }
+        }, new ErrorManager());
+        handler.initialize();
+
+        record = new LogRecord(INFO, "Processed request for a resource in a reasonable amount of time");
+        record.setLoggerName(BenchmarkBufferedHandler.class.getName());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        handler.close();
+    }
+
+    @Benchmark
+    public void benchmarkPublish()
+    {
+        handler.publish(record);
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .verbosity(VerboseMode.NORMAL)
+                    .threads(threads)
+                    .include(".*" + BenchmarkBufferedHandler.class.getSimpleName() + ".*")
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+    private static class DiscardingMessageOutput
+            implements MessageOutput
+    {
+        @Override
+        public void writeMessage(byte[] message) {}
+
+        @Override
+        public void writeMessage(byte[] buffer, int offset, int length) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
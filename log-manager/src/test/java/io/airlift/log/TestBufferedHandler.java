@@ -27,6 +27,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.IntFunction;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
@@ -38,6 +39,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.Multisets.filter;
 import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -264,11 +266,11 @@ public class TestBufferedHandler
         // Submit the close asynchronously
         Future<?> closeFuture = executor.submit(bufferedHandler::close);
 
-        // Wait for the buffered handler terminal message to be processed, and then for a subsequent write attempt, before allowing writes to proceed
-        while (!bufferedHandler.isTerminalMessageDequeued()) {
+        // Wait for the drain thread to observe the close, and then for a subsequent write attempt, before allowing writes to proceed
+        while (!bufferedHandler.isCloseObserved()) {
             sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
         }
-        // Wait for the next 2 write attempts to ensure there was at least one attempt with the terminal message signal established
+        // Wait for the next 2 write attempts to ensure there was at least one attempt after the close was observed
         testingMessageOutput.getNextWriteAttemptLatch().await(5, TimeUnit.SECONDS);
         testingMessageOutput.getNextWriteAttemptLatch().await(5, TimeUnit.SECONDS);
         testingMessageOutput.setThrowOnWrite(false);
@@ -283,6 +285,48 @@ public class TestBufferedHandler
         assertLogStreamContents(testingMessageOutput.getFlushedMessages(), "B-TestLogger", 1, String::valueOf);
     }
 
+    @Test
+    public void testPublishAfterDrops()
+            throws InterruptedException, TimeoutException
+    {
+        TestingMessageOutput testingMessageOutput = new TestingMessageOutput();
+        BufferedHandler bufferedHandler = new BufferedHandler(
+                testingMessageOutput,
+                testingFormatter(),
+                TestBufferedHandler::serializeMultiset,
+                new ErrorManager(),
+                RateLimiter.create(10),
+                Duration.ofSeconds(5),
+                10,
+                4);
+
+        // Fill the buffer before initializing the handler, so the last message is dropped
+        for (int i = 0; i < 5; i++) {
+            bufferedHandler.publish(logRecord(INFO, "TestLogger", String.valueOf(i)));
+        }
+
+        // Block the drain thread while it writes the third message, which leaves room for two messages
+        testingMessageOutput.blockWrite(testingFormatter().format(logRecord(INFO, "TestLogger", "2")));
+        bufferedHandler.initialize();
+        testingMessageOutput.awaitWriteBlocked(5, TimeUnit.SECONDS);
+
+        // Messages are accepted as soon as there is room, and the drop summary is written before them
+        bufferedHandler.publish(logRecord(INFO, "TestLogger", "5"));
+        bufferedHandler.publish(logRecord(INFO, "TestLogger", "6"));
+        testingMessageOutput.unblockWrite();
+        bufferedHandler.close();
+
+        assertThat(testingMessageOutput.getFlushedMessages()).containsExactly(
+                testingFormatter().format(logRecord(INFO, "TestLogger", "0")),
+                testingFormatter().format(logRecord(INFO, "TestLogger", "1")),
+                testingFormatter().format(logRecord(INFO, "TestLogger", "2")),
+                testingFormatter().format(logRecord(INFO, "TestLogger", "3")),
+                new LogEntry(BufferedHandler.class.getName(), "TestLogger=1").serialize(),
+                testingFormatter().format(logRecord(INFO, "TestLogger", "5")),
+                testingFormatter().format(logRecord(INFO, "TestLogger", "6")));
+        assertThat(bufferedHandler.getDroppedMessages()).isEqualTo(1);
+    }
+
     @Test
     public void testIgnoreWriteAfterClose()
     {
@@ -448,6 +492,9 @@ public class TestBufferedHandler
         private final CountDownLatch firstFlushAttemptLatch = new CountDownLatch(1);
         private final AtomicBoolean throwOnWrite = new AtomicBoolean();
         private final AtomicBoolean throwOnFlush = new AtomicBoolean();
+        private final AtomicReference<String> blockedMessage = new AtomicReference<>();
+        private final CountDownLatch writeBlocked = new CountDownLatch(1);
+        private final CountDownLatch writeUnblocked = new CountDownLatch(1);
 
         public TestingMessageOutput setThrowOnWrite(boolean shouldThrow)
         {
@@ -461,6 +508,25 @@ public class TestBufferedHandler
             return this;
         }
 
+        public TestingMessageOutput blockWrite(String message)
+        {
+            blockedMessage.set(message);
+            return this;
+        }
+
+        public void awaitWriteBlocked(long timeout, TimeUnit timeUnit)
+                throws InterruptedException, TimeoutException
+        {
+            if (!writeBlocked.await(timeout, timeUnit)) {
+                throw new TimeoutException();
+            }
+        }
+
+        public void unblockWrite()
+        {
+            writeUnblocked.countDown();
+        }
+
         public CountDownLatch getNextWriteAttemptLatch()
         {
             CountDownLatch latch = new CountDownLatch(1);
@@ -506,7 +572,12 @@ public class TestBufferedHandler
                     throw new RuntimeException();
                 }
 
-                writeMessages.offer(new String(message, UTF_8));
+                String value = new String(message, UTF_8);
+                if (value.equals(blockedMessage.get())) {
+                    writeBlocked.countDown();
+                    awaitUninterruptibly(writeUnblocked);
+                }
+                writeMessages.offer(value);
             }
             finally {
                 firstWriteAttemptLatch.countDown();
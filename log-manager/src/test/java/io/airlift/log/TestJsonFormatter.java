@@ -1,6 +1,9 @@
 package io.airlift.log;
 
 import com.google.common.collect.ImmutableMap;
+import io.airlift.json.JsonCodec;
+import io.airlift.json.JsonCodecFactory;
+import io.airlift.json.ObjectMapperProvider;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanId;
 import io.opentelemetry.api.trace.TraceId;
@@ -24,6 +27,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class TestJsonFormatter
 {
+    // The codec that JsonFormatter used to serialize records before it encoded them directly
+    private static final JsonCodec<JsonRecord> RECORD_CODEC = new JsonCodecFactory(new ObjectMapperProvider()).jsonCodec(JsonRecord.class);
+
     @Test
     public void testMinimalJsonErrorLogLine()
     {
@@ -158,6 +164,125 @@ public class TestJsonFormatter
         }
     }
 
+    @Test
+    public void testEncode()
+    {
+        JsonFormatter formatter = new JsonFormatter(ImmutableMap.of("foo", "apple"));
+        LogRecord record = new LogRecord(Level.INFO.toJulLevel(), "Test Log Message \uD83D\uDE00 \"quoted\"");
+        record.setLoggerName("TestLogger");
+        record.setParameters(new Object[] {1, "two", null});
+        record.setThrown(new RuntimeException("Test Exception"));
+
+        MessageBuffer buffer = MessageBuffer.acquire();
+        try {
+            buffer.write('x');
+            formatter.encode(record, buffer);
+            assertThat(buffer.toString()).isEqualTo("x" + formatter.format(record));
+        }
+        finally {
+            buffer.release();
+        }
+
+        JsonRecord jsonRecord = jsonCodec(JsonRecord.class).fromJson(formatter.format(record));
+        assertThat(jsonRecord.getMessage()).isEqualTo(record.getMessage());
+        assertThat(jsonRecord.getParameters()).containsExactly("1", "two", "null");
+    }
+
+    @Test
+    public void testEncodeMatchesJsonCodec()
+    {
+        Map<String, String> annotations = ImmutableMap.of("foo", "apple", "bar", "ba\"nana\n");
+        JsonFormatter formatter = new JsonFormatter(annotations);
+
+        LogRecord minimal = new LogRecord(Level.WARN.toJulLevel(), "Test Log Message");
+        minimal.setInstant(Instant.ofEpochSecond(1_700_000_000));
+        assertMatchesJsonCodec(new JsonFormatter(ImmutableMap.of()), ImmutableMap.of(), minimal);
+
+        LogRecord record = new LogRecord(Level.INFO.toJulLevel(), "Test Log Message \uD83D\uDE00 \"quoted\" \\ \u0001\u001f\u007f\u2028\n\t");
+        record.setInstant(Instant.ofEpochSecond(1_700_000_000, 123_456_789));
+        record.setLoggerName("TestLogger");
+        record.setParameters(new Object[] {1, "two \"2\"", 3.5});
+        record.setThrown(new RuntimeException("Test \"Exception\"\n\tline", new IllegalStateException("cause")));
+        assertMatchesJsonCodec(formatter, annotations, record);
+
+        InMemorySpanExporter exporter = InMemorySpanExporter.create();
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                .build();
+        try (tracerProvider) {
+            Span span = tracerProvider.get("test")
+                    .spanBuilder("test-span")
+                    .startSpan();
+            try (var ignored = span.makeCurrent()) {
+                assertMatchesJsonCodec(formatter, annotations, record);
+            }
+            finally {
+                span.end();
+            }
+        }
+    }
+
+    private static void assertMatchesJsonCodec(JsonFormatter formatter, Map<String, String> annotations, LogRecord record)
+    {
+        String expected = RECORD_CODEC.toJson(new JsonRecord(
+                record.getInstant(),
+                Level.fromJulLevel(record.getLevel()),
+                Thread.currentThread().getName(),
+                record.getLoggerName(),
+                record.getMessage(),
+                record.getParameters(),
+                record.getThrown(),
+                Context.current(),
+                annotations)) + "\n";
+        assertThat(formatter.format(record)).isEqualTo(expected);
+
+        MessageBuffer buffer = MessageBuffer.acquire();
+        try {
+            formatter.encode(record, buffer);
+            assertThat(buffer.toString()).isEqualTo(expected);
+        }
+        finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testTimestampPrecision()
+    {
+        JsonFormatter formatter = new JsonFormatter(ImmutableMap.of());
+        LogRecord record = new LogRecord(Level.INFO.toJulLevel(), "Test Log Message");
+        for (int nanos : new int[] {0, 500_000_000, 123_456_000, 123_456_789}) {
+            Instant instant = Instant.ofEpochSecond(1_700_000_000, nanos);
+            record.setInstant(instant);
+            assertThat(mapJsonCodec(String.class, Object.class).fromJson(formatter.format(record)).get("timestamp")).isEqualTo(instant.toString());
+        }
+    }
+
+    @Test
+    public void testNestedFormatting()
+    {
+        JsonFormatter formatter = new JsonFormatter(ImmutableMap.of());
+        LogRecord inner = new LogRecord(Level.INFO.toJulLevel(), "inner");
+        inner.setInstant(Instant.ofEpochSecond(1_700_000_000));
+        String expectedInner = formatter.format(inner);
+
+        // a parameter that is formatted with the same formatter while the outer record is being written
+        LogRecord outer = new LogRecord(Level.INFO.toJulLevel(), "outer");
+        outer.setParameters(new Object[] {new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return formatter.format(inner);
+            }
+        }});
+
+        Map<String, Object> jsonMap = mapJsonCodec(String.class, Object.class).fromJson(formatter.format(outer));
+        assertThat(jsonMap.get("message")).isEqualTo("outer");
+        assertThat(jsonMap.get("parameters")).isEqualTo(List.of(expectedInner));
+        assertThat(formatter.format(inner)).isEqualTo(expectedInner);
+    }
+
     @Test
     public void testLogAnnotations()
     {
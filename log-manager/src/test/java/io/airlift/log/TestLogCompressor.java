@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.log.RollingFileMessageOutput.CompressionType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static io.airlift.log.RollingFileMessageOutput.CompressionType.GZIP;
+import static io.airlift.log.RollingFileMessageOutput.CompressionType.LZ4;
+import static io.airlift.log.RollingFileMessageOutput.CompressionType.ZSTD;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestLogCompressor
+{
+    @Test
+    public void testGzip()
+            throws IOException
+    {
+        assertConcatenatedFrames(GZIP);
+    }
+
+    @Test
+    public void testGzipMatchesGzipOutputStream()
+            throws IOException
+    {
+        byte[] data = logLines(1000);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(expected)) {
+            output.write(data);
+        }
+
+        MessageBuffer compressed = new MessageBuffer();
+        try (LogCompressor compressor = GZIP.createCompressor()) {
+            compressor.compress(data, 0, data.length, compressed);
+        }
+        assertThat(compressed.toByteArray()).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    public void testZstd()
+            throws IOException
+    {
+        assertConcatenatedFrames(ZSTD);
+    }
+
+    @Test
+    public void testLz4()
+            throws IOException
+    {
+        assertConcatenatedFrames(LZ4);
+    }
+
+    private static void assertConcatenatedFrames(CompressionType compressionType)
+            throws IOException
+    {
+        // spans several LZ4 blocks
+        byte[] text = logLines(5000);
+        // does not compress, so LZ4 stores it uncompressed
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+
+        MessageBuffer compressed = new MessageBuffer();
+        try (LogCompressor compressor = compressionType.createCompressor()) {
+            compressor.compress(text, 0, text.length, compressed);
+            compressor.compress(new byte[0], 0, 0, compressed);
+            compressor.compress(random, 10, 50_000, compressed);
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(text);
+        expected.write(random, 10, 50_000);
+        assertThat(decompress(compressionType, compressed.toByteArray())).isEqualTo(expected.toByteArray());
+    }
+
+    private static byte[] logLines(int count)
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("2024-01-01T00:00:00.000Z\tINFO\tmain\tio.airlift.log.TestLogCompressor\tmessage ").append(i).append('\n');
+        }
+        return lines.toString().getBytes(UTF_8);
+    }
+
+    static byte[] decompress(CompressionType compressionType, byte[] compressed)
+            throws IOException
+    {
+        return switch (compressionType) {
+            case NONE -> compressed;
+            case GZIP -> readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+            case ZSTD -> readAll(new ZstdInputStream(new ByteArrayInputStream(compressed)));
+            case LZ4 -> decompressLz4Frames(compressed);
+        };
+    }
+
+    private static byte[] readAll(InputStream input)
+            throws IOException
+    {
+        try (input) {
+            return input.readAllBytes();
+        }
+    }
+
+    private static byte[] decompressLz4Frames(byte[] compressed)
+    {
+        Lz4Decompressor decompressor = new Lz4Decompressor();
+        ByteBuffer input = ByteBuffer.wrap(compressed).order(LITTLE_ENDIAN);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] block = new byte[64 * 1024];
+        while (input.hasRemaining()) {
+            assertThat(input.getInt()).isEqualTo(0x184D2204);
+            // frame descriptor and its checksum
+            input.position(input.position() + 3);
+            while (true) {
+                int size = input.getInt();
+                if (size == 0) {
+                    break;
+                }
+                if (size < 0) {
+                    size &= Integer.MAX_VALUE;
+                    output.write(compressed, input.position(), size);
+                }
+                else {
+                    int length = decompressor.decompress(compressed, input.position(), size, block, 0, block.length);
+                    output.write(block, 0, length);
+                }
+                input.position(input.position() + size);
+            }
+        }
+        return output.toByteArray();
+    }
+}
@@ -18,6 +18,7 @@ import io.airlift.configuration.testing.ConfigAssertions;
 import io.airlift.log.RollingFileMessageOutput.CompressionType;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
 import org.assertj.core.util.Files;
 import org.junit.jupiter.api.Test;
 
@@ -25,6 +26,7 @@ import java.io.File;
 import java.util.Map;
 
 import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 @SuppressWarnings("deprecation")
 public class TestLoggingConfiguration
@@ -38,6 +40,12 @@ public class TestLoggingConfiguration
                 .setMaxSize(DataSize.of(100, DataSize.Unit.MEGABYTE))
                 .setMaxTotalSize(DataSize.of(1, Unit.GIGABYTE))
                 .setCompression(CompressionType.GZIP)
+                .setInlineCompression(false)
+                .setCompressionThreads(1)
+                .setFsyncInterval(null)
+                .setSocketBufferSize(DataSize.of(4, DataSize.Unit.MEGABYTE))
+                .setSocketSpillPath(null)
+                .setSocketMaxSpillSize(DataSize.of(1, Unit.GIGABYTE))
                 .setLevelsFile(null)
                 .setFormat(Format.TEXT)
                 .setLogAnnotationFile(null));
@@ -53,7 +61,13 @@ public class TestLoggingConfiguration
                 .put("log.path", "/tmp/log.log")
                 .put("log.max-size", "1kB")
                 .put("log.max-total-size", "33kB")
-                .put("log.compression", "NONE")
+                .put("log.compression", "ZSTD")
+                .put("log.compression.inline", "true")
+                .put("log.compression.threads", "4")
+                .put("log.fsync-interval", "5s")
+                .put("log.socket.buffer-size", "64kB")
+                .put("log.socket.spill-path", "/tmp/log.spill")
+                .put("log.socket.max-spill-size", "10MB")
                 .put("log.levels-file", "/tmp/levels.txt")
                 .put("log.format", "json")
                 .put("node.annotation-file", annotationFile.getAbsolutePath())
@@ -64,7 +78,13 @@ public class TestLoggingConfiguration
                 .setLogPath("/tmp/log.log")
                 .setMaxSize(DataSize.of(1, KILOBYTE))
                 .setMaxTotalSize(DataSize.of(33, KILOBYTE))
-                .setCompression(CompressionType.NONE)
+                .setCompression(CompressionType.ZSTD)
+                .setInlineCompression(true)
+                .setCompressionThreads(4)
+                .setFsyncInterval(new Duration(5, SECONDS))
+                .setSocketBufferSize(DataSize.of(64, KILOBYTE))
+                .setSocketSpillPath("/tmp/log.spill")
+                .setSocketMaxSpillSize(DataSize.of(10, DataSize.Unit.MEGABYTE))
                 .setLevelsFile("/tmp/levels.txt")
                 .setFormat(Format.JSON)
                 .setLogAnnotationFile(annotationFile.getAbsolutePath());
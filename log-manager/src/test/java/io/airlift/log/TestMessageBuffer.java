@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMessageBuffer
+{
+    @Test
+    public void testWriteUtf8()
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        for (String value : new String[] {"", "ascii", "héllo", "世界", "😀 emoji", "unpaired \uD83D high", "unpaired \uDE00 low", "trailing \uD83D"}) {
+            buffer.truncate(0);
+            buffer.writeUtf8(value);
+            assertThat(buffer.toByteArray()).isEqualTo(value.getBytes(UTF_8));
+        }
+
+        buffer.truncate(0);
+        buffer.writeUtf8(null);
+        assertThat(buffer.toString()).isEqualTo("null");
+    }
+
+    @Test
+    public void testGrowth()
+    {
+        MessageBuffer buffer = new MessageBuffer();
+        String value = "x".repeat(100_000);
+        buffer.write('[');
+        buffer.writeUtf8(value);
+        buffer.write(']');
+        assertThat(buffer.toString()).isEqualTo("[" + value + "]");
+
+        buffer.truncate(1);
+        assertThat(buffer.toString()).isEqualTo("[");
+    }
+
+    @Test
+    public void testAcquire()
+    {
+        MessageBuffer buffer = MessageBuffer.acquire();
+        try {
+            buffer.writeUtf8("outer");
+
+            // the buffer of the thread is in use, so a nested record gets a buffer of its own
+            MessageBuffer nested = MessageBuffer.acquire();
+            assertThat(nested).isNotSameAs(buffer);
+            nested.release();
+
+            assertThat(buffer.toString()).isEqualTo("outer");
+        }
+        finally {
+            buffer.release();
+        }
+
+        MessageBuffer reacquired = MessageBuffer.acquire();
+        try {
+            assertThat(reacquired).isSameAs(buffer);
+            assertThat(reacquired.size()).isZero();
+        }
+        finally {
+            reacquired.release();
+        }
+    }
+}
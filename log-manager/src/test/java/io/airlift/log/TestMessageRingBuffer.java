@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestMessageRingBuffer
+{
+    @Test
+    public void testOfferAndConsume()
+            throws IOException
+    {
+        MessageRingBuffer<String> buffer = new MessageRingBuffer<>(3);
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(buffer.hasReadyMessage()).isFalse();
+
+        assertThat(buffer.offer(bytes("a"))).isTrue();
+        assertThat(buffer.offer(bytes("b"))).isTrue();
+        assertThat(buffer.offer(bytes("c"))).isTrue();
+        assertThat(buffer.offer(bytes("d"))).isFalse();
+        assertThat(buffer.isEmpty()).isFalse();
+
+        List<String> consumed = new ArrayList<>();
+        assertThat(buffer.consumeFirst((message, length, attachment) -> consumed.add(new String(message, 0, length, UTF_8)))).isTrue();
+        assertThat(buffer.offer(bytes("d"))).isTrue();
+        while (buffer.consumeFirst((message, length, attachment) -> consumed.add(new String(message, 0, length, UTF_8)))) {
+            // consume all
+        }
+
+        assertThat(consumed).containsExactly("a", "b", "c", "d");
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testAttachments()
+            throws IOException
+    {
+        MessageRingBuffer<String> buffer = new MessageRingBuffer<>(2);
+        assertThat(buffer.offer(bytes("a"), 1, "x")).isTrue();
+        assertThat(buffer.offer(bytes("b"))).isTrue();
+
+        List<String> attachments = new ArrayList<>();
+        while (buffer.consumeFirst((message, length, attachment) -> attachments.add(new String(message, 0, length, UTF_8) + "=" + attachment))) {
+            // consume all
+        }
+        assertThat(attachments).containsExactly("a=x", "b=null");
+    }
+
+    @Test
+    public void testMessagesOfVaryingSize()
+            throws IOException
+    {
+        MessageRingBuffer<String> buffer = new MessageRingBuffer<>(2);
+        List<String> expected = new ArrayList<>();
+        List<String> consumed = new ArrayList<>();
+        for (int size : new int[] {10, 100_000, 1, 2_000, 0, 70_000, 5}) {
+            String message = "x".repeat(size);
+            expected.add(message);
+            assertThat(buffer.offer(bytes(message))).isTrue();
+            assertThat(buffer.consumeFirst((buffered, length, attachment) -> consumed.add(new String(buffered, 0, length, UTF_8)))).isTrue();
+        }
+        assertThat(consumed).isEqualTo(expected);
+    }
+
+    @Test
+    public void testFailedConsumerRetainsMessage()
+            throws IOException
+    {
+        MessageRingBuffer<String> buffer = new MessageRingBuffer<>(1);
+        assertThat(buffer.offer(bytes("a"))).isTrue();
+
+        assertThatThrownBy(() -> buffer.consumeFirst((message, length, attachment) -> {
+            throw new IOException("failed");
+        }))
+                .isInstanceOf(IOException.class)
+                .hasMessage("failed");
+        assertThat(buffer.offer(bytes("b"))).isFalse();
+
+        List<String> consumed = new ArrayList<>();
+        assertThat(buffer.consumeFirst((message, length, attachment) -> consumed.add(new String(message, 0, length, UTF_8)))).isTrue();
+        assertThat(consumed).containsExactly("a");
+    }
+
+    @Test
+    public void testConcurrentProducers()
+            throws Exception
+    {
+        int producers = 8;
+        int messagesPerProducer = 10_000;
+        MessageRingBuffer<String> buffer = new MessageRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers, daemonThreadsNamed("producer-%s"));
+        for (int producer = 0; producer < producers; producer++) {
+            int id = producer;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < messagesPerProducer; i++) {
+                    byte[] message = bytes(id + ":" + i);
+                    while (!buffer.offer(message)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+        start.countDown();
+
+        // messages of each producer are consumed in the order they were published
+        int[] next = new int[producers];
+        int consumed = 0;
+        while (consumed < producers * messagesPerProducer) {
+            boolean found = buffer.consumeFirst((message, length, attachment) -> {
+                String[] parts = new String(message, 0, length, UTF_8).split(":");
+                int id = Integer.parseInt(parts[0]);
+                assertThat(Integer.parseInt(parts[1])).isEqualTo(next[id]);
+                next[id]++;
+            });
+            if (found) {
+                consumed++;
+            }
+        }
+
+        assertThat(next).containsOnly(messagesPerProducer);
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(shutdownAndAwaitTermination(executor, 10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -16,18 +16,28 @@ package io.airlift.log;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
+import io.airlift.log.RollingFileMessageOutput.CompressionType;
 import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -37,18 +47,27 @@ import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.MoreCollectors.onlyElement;
 import static com.google.common.io.MoreFiles.asByteSource;
 import static com.google.common.io.MoreFiles.deleteRecursively;
 import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
 import static io.airlift.log.Format.TEXT;
 import static io.airlift.log.LogFileName.parseHistoryLogFileName;
 import static io.airlift.log.RollingFileMessageOutput.CompressionType.GZIP;
+import static io.airlift.log.RollingFileMessageOutput.CompressionType.LZ4;
 import static io.airlift.log.RollingFileMessageOutput.CompressionType.NONE;
+import static io.airlift.log.RollingFileMessageOutput.CompressionType.ZSTD;
 import static io.airlift.units.DataSize.Unit.BYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.toIntExact;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.function.Predicate.not;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -99,6 +118,169 @@ public class TestRollingFileMessageOutput
         }
     }
 
+    @Test
+    public void testBatchedWrites()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path masterFile = tempDir.resolve("launcher.log");
+            RollingFileMessageOutput output = new RollingFileMessageOutput(masterFile.toString(), DataSize.of(10, MEGABYTE), DataSize.of(100, MEGABYTE), NONE);
+
+            // small messages are batched until the output is flushed
+            output.writeMessage("apple\n".getBytes(UTF_8));
+            output.writeMessage("xbanana\nx".getBytes(UTF_8), 1, 7);
+            assertThat(masterFile).isEmptyFile();
+            output.flush();
+            assertThat(Files.readAllLines(masterFile, UTF_8)).containsExactly("apple", "banana");
+
+            // a message larger than the batch is written after the pending batch
+            String large = Strings.repeat("x", toIntExact(DataSize.of(2, MEGABYTE).toBytes())) + "\n";
+            output.writeMessage("cherry\n".getBytes(UTF_8));
+            output.writeMessage(large.getBytes(UTF_8));
+            assertThat(Files.readAllLines(masterFile, UTF_8)).containsExactly("apple", "banana", "cherry", large.trim());
+
+            // close writes the pending batch
+            output.writeMessage("date\n".getBytes(UTF_8));
+            output.close();
+            assertThat(Files.readAllLines(masterFile, UTF_8)).containsExactly("apple", "banana", "cherry", large.trim(), "date");
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testFsync()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path masterFile = tempDir.resolve("launcher.log");
+            AtomicInteger forces = new AtomicInteger();
+            RollingFileMessageOutput output = new RollingFileMessageOutput(
+                    masterFile.toString(),
+                    DataSize.of(10, BYTE),
+                    DataSize.of(1, MEGABYTE),
+                    NONE,
+                    false,
+                    1,
+                    Optional.of(new Duration(0, SECONDS)),
+                    file -> new TestingFileChannel(FileChannel.open(file, CREATE_NEW, WRITE), new AtomicInteger(), forces));
+
+            output.writeMessage("apple\n".getBytes(UTF_8));
+            output.flush();
+            assertThat(Files.readAllLines(masterFile, UTF_8)).containsExactly("apple");
+            assertThat(forces.get()).isEqualTo(1);
+
+            // nothing has been written since the previous fsync
+            output.flush();
+            assertThat(forces.get()).isEqualTo(1);
+
+            // the pending batch is written to the old file, and synced, before rolling
+            output.writeMessage("banana\n".getBytes(UTF_8));
+            output.writeMessage("cherry\n".getBytes(UTF_8));
+            assertThat(output.getFiles()).hasSize(3);
+            assertThat(forces.get()).isEqualTo(2);
+            output.close();
+            assertThat(forces.get()).isEqualTo(3);
+            assertThat(Files.readAllLines(masterFile, UTF_8)).containsExactly("cherry");
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testFsyncInterval()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path masterFile = tempDir.resolve("launcher.log");
+            AtomicInteger forces = new AtomicInteger();
+            RollingFileMessageOutput output = new RollingFileMessageOutput(
+                    masterFile.toString(),
+                    DataSize.of(1, MEGABYTE),
+                    DataSize.of(10, MEGABYTE),
+                    NONE,
+                    false,
+                    1,
+                    Optional.of(new Duration(1, TimeUnit.HOURS)),
+                    file -> new TestingFileChannel(FileChannel.open(file, CREATE_NEW, WRITE), new AtomicInteger(), forces));
+
+            // flushes within the interval are not synced
+            for (int i = 0; i < 10; i++) {
+                output.writeMessage("apple\n".getBytes(UTF_8));
+                output.flush();
+            }
+            assertThat(forces.get()).isEqualTo(0);
+
+            // close always syncs
+            output.close();
+            assertThat(forces.get()).isEqualTo(1);
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testWriteFailureRetried()
+            throws Exception
+    {
+        String large = Strings.repeat("x", toIntExact(DataSize.of(2, MEGABYTE).toBytes())) + "\n";
+        for (CompressionType compressionType : List.of(NONE, GZIP, ZSTD, LZ4)) {
+            Path tempDir = Files.createTempDirectory("logging-test");
+            try {
+                Path masterFile = tempDir.resolve("launcher.log");
+                AtomicInteger failingWrites = new AtomicInteger();
+                RollingFileMessageOutput output = new RollingFileMessageOutput(
+                        masterFile.toString(),
+                        DataSize.of(10, MEGABYTE),
+                        DataSize.of(100, MEGABYTE),
+                        compressionType,
+                        compressionType != NONE,
+                        1,
+                        Optional.empty(),
+                        file -> new TestingFileChannel(FileChannel.open(file, CREATE_NEW, WRITE), failingWrites, new AtomicInteger()));
+
+                // the bytes of the batch that were not written are kept for the next attempt
+                output.writeMessage("apple\n".getBytes(UTF_8));
+                output.writeMessage("banana\n".getBytes(UTF_8));
+                failingWrites.set(1);
+                assertThatThrownBy(output::flush).isInstanceOf(IOException.class);
+                output.flush();
+
+                // a message that does not fit in the batch is not accepted when the batch can not be written, so it is retried by the caller
+                output.writeMessage("cherry\n".getBytes(UTF_8));
+                failingWrites.set(1);
+                assertThatThrownBy(() -> output.writeMessage(large.getBytes(UTF_8))).isInstanceOf(IOException.class);
+                output.writeMessage(large.getBytes(UTF_8));
+
+                // a large message is written directly, so the part of it that was written is removed when the write fails
+                output.flush();
+                failingWrites.set(1);
+                if (compressionType == NONE) {
+                    assertThatThrownBy(() -> output.writeMessage(large.getBytes(UTF_8))).isInstanceOf(IOException.class);
+                }
+                output.writeMessage(large.getBytes(UTF_8));
+                failingWrites.set(0);
+                output.writeMessage("date\n".getBytes(UTF_8));
+                output.close();
+
+                byte[] contents = Files.readAllBytes(masterFile);
+                if (compressionType != NONE) {
+                    contents = TestLogCompressor.decompress(compressionType, contents);
+                }
+                assertThat(new String(contents, UTF_8)).isEqualTo("apple\nbanana\ncherry\n" + large + large + "date\n");
+            }
+            finally {
+                deleteRecursively(tempDir, ALLOW_INSECURE);
+            }
+        }
+    }
+
     @Test
     public void testBrokenLink()
             throws Exception
@@ -333,6 +515,142 @@ public class TestRollingFileMessageOutput
         }
     }
 
+    @Test
+    public void testCompressionTypes()
+            throws Exception
+    {
+        for (CompressionType compressionType : List.of(GZIP, ZSTD, LZ4)) {
+            for (int compressionThreads : new int[] {1, 3}) {
+                assertRolledFileCompression(compressionType, compressionThreads);
+            }
+        }
+    }
+
+    private static void assertRolledFileCompression(CompressionType compressionType, int compressionThreads)
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path masterFile = tempDir.resolve("launcher.log");
+            RollingFileMessageOutput output = new RollingFileMessageOutput(
+                    masterFile.toString(),
+                    DataSize.of(3, MEGABYTE),
+                    DataSize.of(100, MEGABYTE),
+                    compressionType,
+                    false,
+                    compressionThreads,
+                    Optional.empty());
+
+            // the rolled file is larger than a compression chunk
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            long maxFileSize = DataSize.of(3, MEGABYTE).toBytes();
+            for (int i = 0; expected.size() + 100 <= maxFileSize; i++) {
+                byte[] line = (Strings.padEnd(String.valueOf(i), 99, 'x') + "\n").getBytes(UTF_8);
+                output.writeMessage(line);
+                expected.write(line);
+            }
+            output.writeMessage((Strings.padEnd("roll", 99, 'x') + "\n").getBytes(UTF_8));
+            output.flush();
+
+            Set<LogFileName> compressedFileNames = waitForCompression(output, 2);
+            LogFileName compressedFileName = compressedFileNames.stream().collect(onlyElement());
+            assertThat(compressedFileName.getFileName()).endsWith(compressionType.getExtension().orElseThrow());
+            byte[] compressed = Files.readAllBytes(masterFile.resolveSibling(compressedFileName.getFileName()));
+            assertThat(TestLogCompressor.decompress(compressionType, compressed)).isEqualTo(expected.toByteArray());
+
+            output.close();
+            assertLogDirectory(masterFile);
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testInlineCompression()
+            throws Exception
+    {
+        for (CompressionType compressionType : List.of(GZIP, ZSTD, LZ4)) {
+            Path tempDir = Files.createTempDirectory("logging-test");
+            try {
+                Path masterFile = tempDir.resolve("launcher.log");
+                RollingFileMessageOutput output = new RollingFileMessageOutput(
+                        masterFile.toString(),
+                        DataSize.of(1, MEGABYTE),
+                        DataSize.of(100, MEGABYTE),
+                        compressionType,
+                        true,
+                        1,
+                        Optional.empty());
+                assertThat(Files.readSymbolicLink(masterFile).toString()).endsWith(compressionType.getExtension().orElseThrow());
+
+                // each flush writes a separate frame
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for (int i = 0; i < 25_000; i++) {
+                    byte[] line = (Strings.padEnd(String.valueOf(i), 99, 'x') + "\n").getBytes(UTF_8);
+                    output.writeMessage(line);
+                    expected.write(line);
+                    if (i % 1000 == 0) {
+                        output.flush();
+                    }
+                }
+
+                // the files are compressed while they are written, so they are not compressed again after rolling
+                List<LogFileName> files = output.getFiles().stream()
+                        .sorted()
+                        .collect(toImmutableList());
+                assertThat(files).hasSize(3);
+                assertThat(files).allMatch(LogFileName::isCompressed);
+                output.close();
+
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                for (LogFileName file : files) {
+                    byte[] compressed = Files.readAllBytes(masterFile.resolveSibling(file.getFileName()));
+                    actual.write(TestLogCompressor.decompress(compressionType, compressed));
+                }
+                assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+                assertLogDirectory(masterFile);
+            }
+            finally {
+                deleteRecursively(tempDir, ALLOW_INSECURE);
+            }
+        }
+    }
+
+    @Test
+    public void testInlineCompressionFlush()
+            throws Exception
+    {
+        for (CompressionType compressionType : List.of(GZIP, ZSTD, LZ4)) {
+            Path tempDir = Files.createTempDirectory("logging-test");
+            try {
+                Path masterFile = tempDir.resolve("launcher.log");
+                RollingFileMessageOutput output = new RollingFileMessageOutput(
+                        masterFile.toString(),
+                        DataSize.of(100, MEGABYTE),
+                        DataSize.of(100, MEGABYTE),
+                        compressionType,
+                        true,
+                        1,
+                        Optional.empty());
+
+                // the file is readable up to the last flush, even when a quiet log flushes after every message
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for (int i = 0; i < 3; i++) {
+                    byte[] line = "request %s completed\n".formatted(i).getBytes(UTF_8);
+                    output.writeMessage(line);
+                    expected.write(line);
+                    output.flush();
+                    assertThat(TestLogCompressor.decompress(compressionType, Files.readAllBytes(masterFile))).isEqualTo(expected.toByteArray());
+                }
+                output.close();
+            }
+            finally {
+                deleteRecursively(tempDir, ALLOW_INSECURE);
+            }
+        }
+    }
+
     @Test
     public void testClosedHandler()
             throws Exception
@@ -583,4 +901,151 @@ public class TestRollingFileMessageOutput
             Thread.sleep(10);
         }
     }
+
+    private static class TestingFileChannel
+            extends FileChannel
+    {
+        private final FileChannel delegate;
+        private final AtomicInteger failingWrites;
+        private final AtomicInteger forces;
+
+        public TestingFileChannel(FileChannel delegate, AtomicInteger failingWrites, AtomicInteger forces)
+        {
+            this.delegate = delegate;
+            this.failingWrites = failingWrites;
+            this.forces = forces;
+        }
+
+        @Override
+        public int write(ByteBuffer source)
+                throws IOException
+        {
+            if (failingWrites.getAndUpdate(count -> max(count - 1, 0)) > 0) {
+                // write part of the data before failing, like a disk that fills up
+                ByteBuffer part = source.slice(source.position(), min(3, source.remaining()));
+                source.position(source.position() + delegate.write(part));
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(source);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length)
+                throws IOException
+        {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(sources[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public void force(boolean metaData)
+                throws IOException
+        {
+            forces.incrementAndGet();
+            delegate.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer destination)
+                throws IOException
+        {
+            return delegate.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length)
+                throws IOException
+        {
+            return delegate.read(destinations, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position)
+                throws IOException
+        {
+            return delegate.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position)
+                throws IOException
+        {
+            return delegate.write(source, position);
+        }
+
+        @Override
+        public long position()
+                throws IOException
+        {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition)
+                throws IOException
+        {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size()
+                throws IOException
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size)
+                throws IOException
+        {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException
+        {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count)
+                throws IOException
+        {
+            return delegate.transferFrom(source, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+                throws IOException
+        {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+                throws IOException
+        {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+                throws IOException
+        {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel()
+                throws IOException
+        {
+            delegate.close();
+        }
+    }
 }
@@ -5,6 +5,7 @@ import com.google.common.collect.Multiset;
 import com.google.common.io.ByteStreams;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.RateLimiter;
+import io.airlift.units.DataSize;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
@@ -12,8 +13,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.ErrorManager;
@@ -21,7 +26,13 @@ import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
 import static io.airlift.log.Format.TEXT;
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Timeout(value = 5, unit = TimeUnit.MINUTES)
@@ -73,6 +84,250 @@ public class TestSocketHandler
         assertThat(((SocketMessageOutput) handler.getMessageOutput()).getFailedConnections()).isGreaterThan(0);
     }
 
+    @Test
+    public void testReconnectWhenCollectorStarts()
+            throws Exception
+    {
+        int port = unallocatedPort();
+        SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", port));
+        output.writeMessage(bytes("first\n"));
+        while (output.getFailedConnections() == 0) {
+            Thread.sleep(10);
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            output.writeMessage(bytes("second\n"));
+            try (Socket listeningSocket = serverSocket.accept();
+                    InputStream inputStream = listeningSocket.getInputStream()) {
+                output.close();
+                assertThat(new String(ByteStreams.toByteArray(inputStream), UTF_8)).isEqualTo("first\nsecond\n");
+            }
+        }
+    }
+
+    @Test
+    public void testDropWhenBufferFull()
+            throws Exception
+    {
+        SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", unallocatedPort()), DataSize.ofBytes(16), Optional.empty(), DataSize.ofBytes(0));
+        for (int i = 0; i < 10; i++) {
+            output.writeMessage(bytes("message-%02d\n".formatted(i)));
+        }
+        assertThat(output.getBufferedBytes()).isEqualTo(11);
+        assertThat(output.getDroppedMessages()).isEqualTo(9);
+        output.close();
+    }
+
+    @Test
+    public void testSpillWhenBufferFull()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            int port = unallocatedPort();
+            SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", port), DataSize.ofBytes(16), Optional.of(tempDir.resolve("log.spill")), DataSize.of(1, MEGABYTE));
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                String message = "message-%02d\n".formatted(i);
+                output.writeMessage(bytes(message));
+                expected.append(message);
+            }
+            assertThat(output.getDroppedMessages()).isEqualTo(0);
+            assertThat(output.getSpilledBytes()).isGreaterThan(0);
+
+            try (ServerSocket serverSocket = new ServerSocket(port);
+                    Socket listeningSocket = serverSocket.accept();
+                    InputStream inputStream = listeningSocket.getInputStream()) {
+                byte[] received = inputStream.readNBytes(expected.length());
+                output.close();
+                assertThat(new String(received, UTF_8)).isEqualTo(expected.toString());
+            }
+            assertThat(Files.size(tempDir.resolve("log.spill"))).isEqualTo(0);
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testSpillFileSentAfterRestart()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path spillFile = tempDir.resolve("log.spill");
+            int port = unallocatedPort();
+            SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", port), DataSize.of(1, MEGABYTE), Optional.of(spillFile), DataSize.of(1, MEGABYTE));
+            output.writeMessage(bytes("before restart\n"));
+            output.close();
+            assertThat(Files.size(spillFile)).isEqualTo(15);
+
+            try (ServerSocket serverSocket = new ServerSocket(port)) {
+                output = new SocketMessageOutput(HostAndPort.fromParts("localhost", port), DataSize.of(1, MEGABYTE), Optional.of(spillFile), DataSize.of(1, MEGABYTE));
+                output.writeMessage(bytes("after restart\n"));
+                try (Socket listeningSocket = serverSocket.accept();
+                        InputStream inputStream = listeningSocket.getInputStream()) {
+                    byte[] received = inputStream.readNBytes(29);
+                    output.close();
+                    assertThat(new String(received, UTF_8)).isEqualTo("before restart\nafter restart\n");
+                }
+            }
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testUnsentMessagesMovedToSpillOnClose()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path spillFile = tempDir.resolve("log.spill");
+            SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", unallocatedPort()), DataSize.ofBytes(16), Optional.of(spillFile), DataSize.of(1, MEGABYTE));
+            // the first message fits in the send buffer, and the rest are spilled after it
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                String message = "message-%02d\n".formatted(i);
+                output.writeMessage(bytes(message));
+                expected.append(message);
+            }
+            assertThat(output.getBufferedBytes()).isEqualTo(11);
+            output.close();
+
+            assertThat(output.getDroppedMessages()).isEqualTo(0);
+            assertThat(Files.readString(spillFile)).isEqualTo(expected.toString());
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testSpillWithInterruptedWriter()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path spillFile = tempDir.resolve("log.spill");
+            SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", unallocatedPort()), DataSize.ofBytes(16), Optional.of(spillFile), DataSize.of(1, MEGABYTE));
+            output.writeMessage(bytes("message-00\n"));
+
+            // an interrupt closes a file channel, which must not lose this or later messages
+            Thread.currentThread().interrupt();
+            output.writeMessage(bytes("message-01\n"));
+            assertThat(Thread.interrupted()).isTrue();
+            output.writeMessage(bytes("message-02\n"));
+            assertThat(output.getSpilledBytes()).isEqualTo(22);
+            output.close();
+
+            assertThat(output.getDroppedMessages()).isEqualTo(0);
+            assertThat(Files.readString(spillFile)).isEqualTo("message-00\nmessage-01\nmessage-02\n");
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testSentSpillNotResentAfterRestart()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path spillFile = tempDir.resolve("log.spill");
+            StringBuilder spilled = new StringBuilder();
+            for (int i = 0; i < 100_000; i++) {
+                spilled.append("message-%07d\n".formatted(i));
+            }
+            Files.writeString(spillFile, spilled);
+
+            SocketMessageOutput output;
+            String received;
+            try (ServerSocket serverSocket = new ServerSocket()) {
+                // a small receive window keeps most of the spill file unsent while the collector is not reading
+                serverSocket.setReceiveBufferSize(16 * 1024);
+                serverSocket.bind(null);
+                output = new SocketMessageOutput(HostAndPort.fromParts("localhost", serverSocket.getLocalPort()), DataSize.of(1, MEGABYTE), Optional.of(spillFile), DataSize.of(1, GIGABYTE));
+                try (Socket listeningSocket = serverSocket.accept();
+                        InputStream inputStream = listeningSocket.getInputStream()) {
+                    received = new String(inputStream.readNBytes(16 * 1024 + 7), UTF_8);
+                    // reset the connection, so the sender fails rather than waits for the collector
+                    listeningSocket.setSoLinger(true, 0);
+                }
+            }
+            output.close();
+
+            // a line cut off by the reset is sent again in full by the next output, and the
+            // bytes that were in flight when the connection was reset are lost
+            received = received.substring(0, received.lastIndexOf('\n') + 1);
+            String remaining = Files.readString(spillFile);
+            assertThat(spilled.toString()).startsWith(received);
+            assertThat(spilled.toString()).endsWith(remaining);
+            assertThat(received.length() + remaining.length()).isLessThanOrEqualTo(spilled.length());
+            if (!remaining.isEmpty()) {
+                assertThat(remaining).startsWith("message-");
+            }
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    public void testUnreadableSpillCountedAsDropped()
+            throws Exception
+    {
+        Path tempDir = Files.createTempDirectory("logging-test");
+        try {
+            Path spillFile = tempDir.resolve("log.spill");
+            int port = unallocatedPort();
+            SocketMessageOutput output = new SocketMessageOutput(HostAndPort.fromParts("localhost", port), DataSize.ofBytes(16), Optional.of(spillFile), DataSize.of(1, MEGABYTE));
+            // the first message fits in the send buffer, and the rest are spilled after it
+            for (int i = 0; i < 5; i++) {
+                output.writeMessage(bytes("message-%02d\n".formatted(i)));
+            }
+            assertThat(output.getSpilledBytes()).isEqualTo(44);
+
+            // the spill file is shorter than the spilled messages, so it can not be read
+            try (FileChannel file = FileChannel.open(spillFile, WRITE)) {
+                file.truncate(0);
+            }
+
+            try (ServerSocket serverSocket = new ServerSocket(port);
+                    Socket listeningSocket = serverSocket.accept();
+                    InputStream inputStream = listeningSocket.getInputStream()) {
+                assertThat(new String(inputStream.readNBytes(11), UTF_8)).isEqualTo("message-00\n");
+                while (output.getDroppedMessages() < 4) {
+                    Thread.sleep(10);
+                }
+                assertThat(output.getSpilledBytes()).isEqualTo(0);
+
+                output.writeMessage(bytes("message-05\n"));
+                assertThat(new String(inputStream.readNBytes(11), UTF_8)).isEqualTo("message-05\n");
+                output.close();
+            }
+            assertThat(output.getDroppedMessages()).isEqualTo(4);
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    private static int unallocatedPort()
+            throws IOException
+    {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static byte[] bytes(String message)
+    {
+        return message.getBytes(UTF_8);
+    }
+
     private static BufferedHandler createSocketHandler(HostAndPort hostAndPort, Formatter formatter, ErrorManager errorManager)
     {
         SocketMessageOutput output = new SocketMessageOutput(hostAndPort);
@@ -18,12 +18,21 @@ package io.airlift.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.errorprone.annotations.ThreadSafe;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
 import io.airlift.stats.DecayCounter.DecayCounterSnapshot;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+import static io.airlift.slice.SizeOf.SIZE_OF_DOUBLE;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -118,8 +127,45 @@ public final class CounterStat
         return new CounterStatSnapshot(getTotalCount(), getOneMinute().snapshot(), getFiveMinute().snapshot(), getFifteenMinute().snapshot());
     }
 
+    /**
+     * Returns a consumer that sees the counts added from now on. Each consumer, for example
+     * each metrics scraper, should use its own interval.
+     */
+    public Interval newInterval()
+    {
+        return new Interval(getTotalCount());
+    }
+
+    @ThreadSafe
+    public final class Interval
+    {
+        private final AtomicLong previousTotal;
+
+        private Interval(long total)
+        {
+            previousTotal = new AtomicLong(total);
+        }
+
+        /**
+         * Returns the count added since the previous call, or since this interval was
+         * created, and starts a new interval. If the counter has been reset in the meantime,
+         * returns the count added since the reset.
+         */
+        public long snapshotAndReset()
+        {
+            long total = getTotalCount();
+            long delta = total - previousTotal.getAndSet(total);
+            return delta < 0 ? total : delta;
+        }
+    }
+
     public static class CounterStatSnapshot
     {
+        private static final byte FORMAT_TAG = 0;
+        private static final int SERIALIZED_SIZE = SIZE_OF_BYTE + // format
+                SIZE_OF_LONG + // total count
+                3 * 2 * SIZE_OF_DOUBLE; // count and rate of each window
+
         private final long totalCount;
         private final DecayCounterSnapshot oneMinute;
         private final DecayCounterSnapshot fiveMinute;
@@ -160,5 +206,50 @@ public final class CounterStat
         {
             return fifteenMinute;
         }
+
+        /**
+         * Returns the sum of both snapshots, e.g. of the same counter on different nodes.
+         */
+        public CounterStatSnapshot mergeWith(CounterStatSnapshot other)
+        {
+            return new CounterStatSnapshot(
+                    totalCount + other.totalCount,
+                    merge(oneMinute, other.oneMinute),
+                    merge(fiveMinute, other.fiveMinute),
+                    merge(fifteenMinute, other.fifteenMinute));
+        }
+
+        public Slice serialize()
+        {
+            Slice result = Slices.allocate(SERIALIZED_SIZE);
+            SliceOutput output = result.getOutput();
+            output.writeByte(FORMAT_TAG);
+            output.writeLong(totalCount);
+            for (DecayCounterSnapshot counter : List.of(oneMinute, fiveMinute, fifteenMinute)) {
+                output.writeDouble(counter.getCount());
+                output.writeDouble(counter.getRate());
+            }
+            return result;
+        }
+
+        public static CounterStatSnapshot deserialize(Slice serialized)
+        {
+            SliceInput input = serialized.getInput();
+
+            byte format = input.readByte();
+            checkArgument(format == FORMAT_TAG, "Invalid format");
+
+            long totalCount = input.readLong();
+            return new CounterStatSnapshot(
+                    totalCount,
+                    new DecayCounterSnapshot(input.readDouble(), input.readDouble()),
+                    new DecayCounterSnapshot(input.readDouble(), input.readDouble()),
+                    new DecayCounterSnapshot(input.readDouble(), input.readDouble()));
+        }
+
+        private static DecayCounterSnapshot merge(DecayCounterSnapshot first, DecayCounterSnapshot second)
+        {
+            return new DecayCounterSnapshot(first.getCount() + second.getCount(), first.getRate() + second.getRate());
+        }
     }
 }
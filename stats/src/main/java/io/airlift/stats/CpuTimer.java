@@ -62,6 +62,18 @@ public class CpuTimer
         intervalUserStart = userStartTime;
     }
 
+    /**
+     * Returns whether the CPU time of the current thread can be measured. This is not the
+     * case for virtual threads, which the JVM does not account CPU time for and which may
+     * move between carrier threads, or when thread CPU time measurement is disabled.
+     */
+    public static boolean isCurrentThreadCpuTimeAvailable()
+    {
+        return !Thread.currentThread().isVirtual() &&
+                THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() &&
+                THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+    }
+
     public long getWallStartTimeNanos()
     {
         return wallStartTime;
@@ -6,11 +6,17 @@ import com.google.common.base.Ticker;
 import com.google.errorprone.annotations.ThreadSafe;
 import org.weakref.jmx.Managed;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.math.IntMath.ceilingPowerOfTwo;
 import static io.airlift.stats.ExponentialDecay.weight;
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
 import static java.util.Objects.requireNonNull;
 
 /*
@@ -20,6 +26,12 @@ import static java.util.Objects.requireNonNull;
  * The implementation is based on the ideas from
  * http://dimacs.rutgers.edu/~graham/pubs/papers/fwddecay.pdf
  * to not have to rely on a timer that decays the value periodically
+ *
+ * Updates are lock-free. The weighted count relative to the current landmark is kept in
+ * an epoch, which accumulates into a single cell until updates contend, and into cells
+ * striped by thread after that. Moving the landmark installs a new epoch and moves the
+ * count of the retired one into it. An update that lands in an epoch after it has been
+ * retired is moved by the updating thread itself, so no update is lost.
  */
 @ThreadSafe
 public final class DecayCounter
@@ -27,11 +39,21 @@ public final class DecayCounter
     // needs to be such that Math.exp(alpha * seconds) does not grow too big
     static final long RESCALE_THRESHOLD_SECONDS = 50;
 
+    private static final VarHandle EPOCH;
+
+    static {
+        try {
+            EPOCH = MethodHandles.lookup().findVarHandle(DecayCounter.class, "epoch", Epoch.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final double alpha;
     private final Ticker ticker;
 
-    private long landmarkInSeconds;
-    private double count;
+    private volatile Epoch epoch;
 
     public DecayCounter(double alpha)
     {
@@ -40,87 +62,120 @@ public final class DecayCounter
 
     public DecayCounter(double alpha, Ticker ticker)
     {
-        this(0, alpha, ticker, TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+        this(alpha, ticker, new Epoch(TimeUnit.NANOSECONDS.toSeconds(ticker.read()), 0));
     }
 
-    private DecayCounter(double count, double alpha, Ticker ticker, long landmarkInSeconds)
+    private DecayCounter(double alpha, Ticker ticker, Epoch epoch)
     {
-        this.count = count;
         this.alpha = alpha;
         this.ticker = ticker;
-        this.landmarkInSeconds = landmarkInSeconds;
+        this.epoch = epoch;
     }
 
     public DecayCounter duplicate()
     {
-        return new DecayCounter(count, alpha, ticker, landmarkInSeconds);
+        Epoch current = epoch;
+        return new DecayCounter(alpha, ticker, new Epoch(current.landmarkInSeconds, current.sum()));
     }
 
-    public synchronized void add(long value)
+    public void add(long value)
     {
         long nowInSeconds = getTickInSeconds();
+        add(value, nowInSeconds, nowInSeconds);
+    }
 
-        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
-            rescaleToNewLandmark(nowInSeconds);
-        }
-        count += value * weight(alpha, nowInSeconds, landmarkInSeconds);
+    /**
+     * Adds a value that was recorded at the given second, rather than now.
+     */
+    void add(double value, long timestampInSeconds)
+    {
+        add(value, timestampInSeconds, getTickInSeconds());
     }
 
-    public synchronized void merge(DecayCounter decayCounter)
+    public void merge(DecayCounter decayCounter)
     {
         requireNonNull(decayCounter, "decayCounter is null");
         checkArgument(decayCounter.alpha == alpha, "Expected decayCounter to have alpha %s, but was %s", alpha, decayCounter.alpha);
 
-        synchronized (decayCounter) {
-            // if the landmark this counter is behind the other counter
-            if (landmarkInSeconds < decayCounter.landmarkInSeconds) {
-                // rescale this counter to the other counter, and add
-                rescaleToNewLandmark(decayCounter.landmarkInSeconds);
-                count += decayCounter.count;
-            }
-            else {
-                // rescale the other counter and add
-                double otherRescaledCount = decayCounter.count / weight(alpha, landmarkInSeconds, decayCounter.landmarkInSeconds);
-                count += otherRescaledCount;
+        // the other count is the value of a single sample recorded at its landmark
+        Epoch other = decayCounter.epoch;
+        add(other.sum(), other.landmarkInSeconds, getTickInSeconds());
+    }
+
+    private void add(double value, long timestampInSeconds, long nowInSeconds)
+    {
+        Epoch current = currentEpoch(nowInSeconds);
+        current.add(value * weight(alpha, timestampInSeconds, current.landmarkInSeconds));
+        if (epoch != current) {
+            moveToCurrentEpoch(current);
+        }
+    }
+
+    private Epoch currentEpoch(long nowInSeconds)
+    {
+        Epoch current = epoch;
+        while (nowInSeconds - current.landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            // rescale the count based on a new landmark to avoid numerical overflow issues
+            Epoch next = new Epoch(nowInSeconds, 0);
+            if (EPOCH.compareAndSet(this, current, next)) {
+                moveToCurrentEpoch(current);
+                return next;
             }
+            current = epoch;
         }
+        return current;
     }
 
-    private void rescaleToNewLandmark(long newLandMarkInSeconds)
+    private void moveToCurrentEpoch(Epoch retired)
     {
-        // rescale the count based on a new landmark to avoid numerical overflow issues
-        count = count / weight(alpha, newLandMarkInSeconds, landmarkInSeconds);
-        landmarkInSeconds = newLandMarkInSeconds;
+        // each cell is drained atomically, so every update is moved exactly once,
+        // either by the thread that retired the epoch or by the thread that updated it late
+        double count = retired.drain();
+        long landmarkInSeconds = retired.landmarkInSeconds;
+        while (count != 0) {
+            Epoch current = epoch;
+            current.add(count * weight(alpha, landmarkInSeconds, current.landmarkInSeconds));
+            if (epoch == current) {
+                return;
+            }
+            count = current.drain();
+            landmarkInSeconds = current.landmarkInSeconds;
+        }
     }
 
     @Managed
-    public synchronized void reset()
+    public void reset()
     {
-        landmarkInSeconds = getTickInSeconds();
-        count = 0;
+        discard(new Epoch(getTickInSeconds(), 0));
     }
 
     /**
      * This is a hack to work around limitations in Jmxutils.
      */
     @Deprecated
-    public synchronized void resetTo(DecayCounter counter)
+    public void resetTo(DecayCounter counter)
     {
-        synchronized (counter) {
-            landmarkInSeconds = counter.landmarkInSeconds;
-            count = counter.count;
-        }
+        Epoch other = counter.epoch;
+        discard(new Epoch(other.landmarkInSeconds, other.sum()));
+    }
+
+    private void discard(Epoch replacement)
+    {
+        Epoch retired = (Epoch) EPOCH.getAndSet(this, replacement);
+        // drain the retired epoch, so that concurrent updates do not move its count to the replacement
+        retired.drain();
     }
 
     @Managed
-    public synchronized double getCount()
+    public double getCount()
     {
         long nowInSeconds = getTickInSeconds();
-        return count / weight(alpha, nowInSeconds, landmarkInSeconds);
+        Epoch current = epoch;
+        return current.sum() / weight(alpha, nowInSeconds, current.landmarkInSeconds);
     }
 
     @Managed
-    public synchronized double getRate()
+    public double getRate()
     {
         // The total time covered by this counter is equivalent to the integral of the weight function from 0 to Infinity,
         // which equals 1/alpha. The count per unit time is, therefore, count / (1/alpha)
@@ -134,7 +189,6 @@ public final class DecayCounter
 
     public DecayCounterSnapshot snapshot()
     {
-        // synchronization on getCount() is sufficient
         double count = getCount();
         return new DecayCounterSnapshot(count, count * alpha);
     }
@@ -153,6 +207,94 @@ public final class DecayCounter
         return alpha;
     }
 
+    /**
+     * The weighted count relative to a landmark. Counts are stored as the raw bits of doubles.
+     */
+    private static final class Epoch
+    {
+        private static final long THREAD_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+        private static final int CELL_COUNT = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+        // one cell per cache line, to avoid false sharing between the cells
+        private static final int CELL_STRIDE = 8;
+
+        private static final VarHandle BASE;
+        private static final VarHandle CELLS;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                BASE = lookup.findVarHandle(Epoch.class, "base", long.class);
+                CELLS = lookup.findVarHandle(Epoch.class, "cells", AtomicLongArray.class);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final long landmarkInSeconds;
+        private volatile long base;
+        // allocated when updates to base contend
+        private volatile AtomicLongArray cells;
+
+        private Epoch(long landmarkInSeconds, double count)
+        {
+            this.landmarkInSeconds = landmarkInSeconds;
+            this.base = doubleToRawLongBits(count);
+        }
+
+        private void add(double value)
+        {
+            AtomicLongArray cells = this.cells;
+            if (cells == null) {
+                long bits = base;
+                if (BASE.compareAndSet(this, bits, doubleToRawLongBits(longBitsToDouble(bits) + value))) {
+                    return;
+                }
+                cells = createCells();
+            }
+
+            int index = (int) ((Thread.currentThread().threadId() * THREAD_HASH_MULTIPLIER) >>> 32) & (CELL_COUNT - 1);
+            index *= CELL_STRIDE;
+            while (true) {
+                long bits = cells.get(index);
+                if (cells.compareAndSet(index, bits, doubleToRawLongBits(longBitsToDouble(bits) + value))) {
+                    return;
+                }
+            }
+        }
+
+        private AtomicLongArray createCells()
+        {
+            AtomicLongArray created = new AtomicLongArray(CELL_COUNT * CELL_STRIDE);
+            AtomicLongArray existing = (AtomicLongArray) CELLS.compareAndExchange(this, null, created);
+            return existing == null ? created : existing;
+        }
+
+        private double sum()
+        {
+            double sum = longBitsToDouble(base);
+            AtomicLongArray cells = this.cells;
+            if (cells != null) {
+                for (int i = 0; i < cells.length(); i += CELL_STRIDE) {
+                    sum += longBitsToDouble(cells.get(i));
+                }
+            }
+            return sum;
+        }
+
+        private double drain()
+        {
+            double sum = longBitsToDouble((long) BASE.getAndSet(this, 0L));
+            AtomicLongArray cells = this.cells;
+            if (cells != null) {
+                for (int i = 0; i < cells.length(); i += CELL_STRIDE) {
+                    sum += longBitsToDouble(cells.getAndSet(i, 0));
+                }
+            }
+            return sum;
+        }
+    }
+
     public static class DecayCounterSnapshot
     {
         private final double count;
@@ -15,11 +15,19 @@ package io.airlift.stats;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+import static io.airlift.slice.SizeOf.SIZE_OF_DOUBLE;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 import static io.airlift.stats.ExponentialDecay.weight;
+import static java.util.Objects.requireNonNull;
 
 public class DecayTDigest
 {
@@ -32,6 +40,11 @@ public class DecayTDigest
     // digest are >= 1.
     private static final double SCALE_FACTOR = 1 / ZERO_WEIGHT_THRESHOLD;
 
+    private static final byte FORMAT_TAG = 0;
+    private static final int HEADER_SIZE = SIZE_OF_BYTE + // format
+            SIZE_OF_DOUBLE + // alpha
+            SIZE_OF_LONG; // landmark age
+
     private final TDigest digest;
 
     private final Ticker ticker;
@@ -112,6 +125,57 @@ public class DecayTDigest
         digest.add(value, weight);
     }
 
+    /**
+     * Merges the other digest into this one. Whichever digest has the older landmark
+     * is rescaled to the newer one first, so the weights of both are comparable.
+     * The other digest is not modified.
+     */
+    public void merge(DecayTDigest other)
+    {
+        checkArgument(other.alpha == alpha, "Expected other digest to have alpha %s, but was %s", alpha, other.alpha);
+
+        if (landmarkInSeconds < other.landmarkInSeconds) {
+            rescale(other.landmarkInSeconds);
+        }
+        else if (other.landmarkInSeconds < landmarkInSeconds) {
+            other = other.duplicate();
+            other.rescale(landmarkInSeconds);
+        }
+
+        digest.mergeWith(other.digest);
+    }
+
+    /**
+     * Merges values that were all recorded during the given second. The weights in
+     * {@code values} are the raw, undecayed weights.
+     */
+    void merge(TDigest values, long timestampInSeconds)
+    {
+        rescaleIfNeeded();
+
+        // the weights are scaled as the centroids are copied in, rather than on a copy of the values
+        double factor = 1;
+        if (alpha > 0.0) {
+            factor = weight(alpha, timestampInSeconds, landmarkInSeconds) * SCALE_FACTOR;
+        }
+        digest.mergeWith(values, factor);
+    }
+
+    /**
+     * Returns a snapshot of the decayed values, together with the given total.
+     */
+    DistributionDigestSnapshot snapshot(double total)
+    {
+        rescaleIfNeeded();
+
+        // weight of a value recorded now, which the underlying weights are relative to
+        double scale = 1;
+        if (alpha > 0.0) {
+            scale = weight(alpha, nowInSeconds(), landmarkInSeconds) * SCALE_FACTOR;
+        }
+        return new DistributionDigestSnapshot(TDigest.copyOf(digest), scale, total);
+    }
+
     private void rescaleIfNeeded()
     {
         if (alpha > 0.0) {
@@ -191,4 +255,50 @@ public class DecayTDigest
     {
         return new DecayTDigest(TDigest.copyOf(digest), alpha, ticker, landmarkInSeconds);
     }
+
+    /**
+     * Serializes the digest together with its decay factor and landmark. Tickers of
+     * different processes are not comparable, so the landmark is written as its age
+     * relative to the time of serialization, and is restored relative to the ticker
+     * of the deserializing process. This allows digests from different nodes to be
+     * merged with {@link #merge(DecayTDigest)}.
+     */
+    public Slice serialize()
+    {
+        Slice serializedDigest = digest.serialize();
+
+        Slice result = Slices.allocate(HEADER_SIZE + serializedDigest.length());
+        SliceOutput output = result.getOutput();
+        output.writeByte(FORMAT_TAG);
+        output.writeDouble(alpha);
+        output.writeLong(nowInSeconds() - landmarkInSeconds);
+        output.writeBytes(serializedDigest);
+        return result;
+    }
+
+    public static DecayTDigest deserialize(Slice serialized)
+    {
+        checkFormat(serialized);
+        double alpha = serialized.getDouble(SIZE_OF_BYTE);
+        return deserialize(serialized, alpha == 0.0 ? noOpTicker() : Ticker.systemTicker());
+    }
+
+    public static DecayTDigest deserialize(Slice serialized, Ticker ticker)
+    {
+        requireNonNull(ticker, "ticker is null");
+        checkFormat(serialized);
+
+        double alpha = serialized.getDouble(SIZE_OF_BYTE);
+        checkArgument(alpha >= 0, "Invalid alpha: %s", alpha);
+        long landmarkAgeInSeconds = serialized.getLong(SIZE_OF_BYTE + SIZE_OF_DOUBLE);
+        checkArgument(landmarkAgeInSeconds >= 0, "Invalid landmark age: %s", landmarkAgeInSeconds);
+        TDigest digest = TDigest.deserialize(serialized.slice(HEADER_SIZE, serialized.length() - HEADER_SIZE));
+        long landmarkInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read()) - landmarkAgeInSeconds;
+        return new DecayTDigest(digest, alpha, ticker, landmarkInSeconds);
+    }
+
+    private static void checkFormat(Slice serialized)
+    {
+        checkArgument(serialized.length() >= HEADER_SIZE && serialized.getByte(0) == FORMAT_TAG, "Invalid format");
+    }
 }
@@ -3,7 +3,6 @@ package io.airlift.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.errorprone.annotations.ThreadSafe;
-import com.google.errorprone.annotations.concurrent.GuardedBy;
 import org.weakref.jmx.Managed;
 
 import java.util.LinkedHashMap;
@@ -27,11 +26,7 @@ public class Distribution
         }
     }
 
-    private final double alpha;
-    @GuardedBy("this")
-    private DecayTDigest digest;
-
-    private final DecayCounter total;
+    private final DistributionState state;
 
     public Distribution()
     {
@@ -40,131 +35,135 @@ public class Distribution
 
     public Distribution(double alpha)
     {
-        this(alpha, new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha), new DecayCounter(alpha));
+        this(alpha, 1);
     }
 
-    private Distribution(double alpha, DecayTDigest digest, DecayCounter total)
+    /**
+     * Creates a distribution whose recording path is split into {@code stripeCount}
+     * independently locked stripes (rounded up to a power of two), which reduces
+     * contention when many threads add values concurrently. Reads merge all stripes,
+     * so they become proportionally more expensive. The merged view is reused by the
+     * reads of the following 100ms, which do not see the values added meanwhile.
+     */
+    public Distribution(double alpha, int stripeCount)
     {
-        this.alpha = alpha;
-        this.digest = requireNonNull(digest, "digest is null");
-        this.total = requireNonNull(total, "total is null");
+        this(new StripedDecayDigest(alpha, stripeCount));
     }
 
-    public synchronized void add(long value)
+    Distribution(DistributionState state)
     {
-        digest.add(value);
-        total.add(value);
+        this.state = requireNonNull(state, "state is null");
     }
 
-    public synchronized void add(long value, long count)
+    public void add(long value)
     {
-        digest.add(value, count);
-        total.add(value * count);
+        state.add(value, 1);
     }
 
-    public synchronized Distribution duplicate()
+    public void add(long value, long count)
     {
-        return new Distribution(alpha, digest.duplicate(), total.duplicate());
+        state.add(value, count);
+    }
+
+    public Distribution duplicate()
+    {
+        return new Distribution(state.duplicate());
     }
 
     @Managed
-    public synchronized void reset()
+    public void reset()
     {
-        total.reset();
-        digest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha);
+        state.reset();
     }
 
     @Managed
-    public synchronized double getCount()
+    public double getCount()
     {
-        return digest.getCount();
+        return state.read((digest, total) -> digest.getCount());
     }
 
     @Managed
-    public synchronized double getTotal()
+    public double getTotal()
     {
-        return total.getCount();
+        return state.read((digest, total) -> total.getCount());
     }
 
     @Managed
-    public synchronized double getP01()
+    public double getP01()
     {
-        return digest.valueAt(0.01);
+        return valueAt(0.01);
     }
 
     @Managed
-    public synchronized double getP05()
+    public double getP05()
     {
-        return digest.valueAt(0.05);
+        return valueAt(0.05);
     }
 
     @Managed
-    public synchronized double getP10()
+    public double getP10()
     {
-        return digest.valueAt(0.10);
+        return valueAt(0.10);
     }
 
     @Managed
-    public synchronized double getP25()
+    public double getP25()
     {
-        return digest.valueAt(0.25);
+        return valueAt(0.25);
     }
 
     @Managed
-    public synchronized double getP50()
+    public double getP50()
     {
-        return digest.valueAt(0.5);
+        return valueAt(0.5);
     }
 
     @Managed
-    public synchronized double getP75()
+    public double getP75()
     {
-        return digest.valueAt(0.75);
+        return valueAt(0.75);
     }
 
     @Managed
-    public synchronized double getP90()
+    public double getP90()
     {
-        return digest.valueAt(0.90);
+        return valueAt(0.90);
     }
 
     @Managed
-    public synchronized double getP95()
+    public double getP95()
     {
-        return digest.valueAt(0.95);
+        return valueAt(0.95);
     }
 
     @Managed
-    public synchronized double getP99()
+    public double getP99()
     {
-        return digest.valueAt(0.99);
+        return valueAt(0.99);
     }
 
     @Managed
-    public synchronized double getMin()
+    public double getMin()
     {
-        return digest.getMin();
+        return state.read((digest, total) -> digest.getMin());
     }
 
     @Managed
-    public synchronized double getMax()
+    public double getMax()
     {
-        return digest.getMax();
+        return state.read((digest, total) -> digest.getMax());
     }
 
     @Managed
-    public synchronized double getAvg()
+    public double getAvg()
     {
-        return getTotal() / getCount();
+        return state.read((digest, total) -> total.getCount() / digest.getCount());
     }
 
     @Managed
     public Map<Double, Double> getPercentiles()
     {
-        double[] values;
-        synchronized (this) {
-            values = digest.valuesAt(PERCENTILES);
-        }
+        double[] values = state.read((digest, total) -> digest.valuesAt(PERCENTILES));
 
         verify(values.length == PERCENTILES.length, "result length mismatch");
 
@@ -176,31 +175,45 @@ public class Distribution
         return result;
     }
 
-    public synchronized List<Double> getPercentiles(List<Double> percentiles)
+    public List<Double> getPercentiles(List<Double> percentiles)
     {
-        return digest.valuesAt(percentiles);
+        return state.read((digest, total) -> digest.valuesAt(percentiles));
     }
 
-    public synchronized double[] getPercentiles(double... percentiles)
+    public double[] getPercentiles(double... percentiles)
     {
-        return digest.valuesAt(percentiles);
+        return state.read((digest, total) -> digest.valuesAt(percentiles));
     }
 
     public DistributionSnapshot snapshot()
     {
-        double totalCount;
-        double digestCount;
-        double min;
-        double max;
-        double[] quantiles;
-        synchronized (this) {
-            totalCount = total.getCount();
-            digestCount = digest.getCount();
-            min = digest.getMin();
-            max = digest.getMax();
-            quantiles = digest.valuesAt(SNAPSHOT_QUANTILES);
-        }
-        double average = totalCount / digestCount;
+        return state.read(Distribution::snapshot);
+    }
+
+    /**
+     * Returns a snapshot that keeps the digest, so it can be merged with snapshots
+     * taken on other nodes, or serialized in a compact binary form.
+     */
+    public DistributionDigestSnapshot digestSnapshot()
+    {
+        return state.read((digest, total) -> digest.snapshot(total.getCount()));
+    }
+
+    /**
+     * Returns a copy of the decaying digest with its decay factor and landmark. Unlike
+     * {@link #digestSnapshot()}, the copy keeps decaying, and it can be serialized and
+     * merged with the digests of the same distribution on other nodes.
+     */
+    public DecayTDigest duplicateDigest()
+    {
+        return state.read((digest, total) -> digest.duplicate());
+    }
+
+    static DistributionSnapshot snapshot(DecayTDigest digest, DecayCounter total)
+    {
+        double totalCount = total.getCount();
+        double digestCount = digest.getCount();
+        double[] quantiles = digest.valuesAt(SNAPSHOT_QUANTILES);
         return new DistributionSnapshot(
                 digestCount,
                 totalCount,
@@ -213,9 +226,14 @@ public class Distribution
                 quantiles[6], // p90
                 quantiles[7], // p95
                 quantiles[8], // p99
-                min,
-                max,
-                average);
+                digest.getMin(),
+                digest.getMax(),
+                totalCount / digestCount);
+    }
+
+    private double valueAt(double quantile)
+    {
+        return state.read((digest, total) -> digest.valueAt(quantile));
     }
 
     public static class DistributionSnapshot
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import io.airlift.stats.TimeDistribution.TimeDistributionSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+import static io.airlift.slice.SizeOf.SIZE_OF_DOUBLE;
+import static java.lang.Math.max;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A snapshot of a {@link Distribution} or {@link TimeDistribution} that keeps the
+ * underlying digest rather than precomputed percentiles. Snapshots taken on different
+ * nodes can be merged without losing accuracy, and have a compact binary form.
+ * <p>
+ * The digest holds the decayed weights of the values, multiplied by a scale factor
+ * that keeps all weights at or above 1.
+ */
+public final class DistributionDigestSnapshot
+{
+    private static final byte FORMAT_TAG = 0;
+    private static final int HEADER_SIZE = SIZE_OF_BYTE + // format
+            SIZE_OF_DOUBLE + // scale
+            SIZE_OF_DOUBLE; // total
+
+    private static final double[] DISTRIBUTION_QUANTILES = new double[] {0.01, 0.05, 0.10, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+    private static final double[] TIME_DISTRIBUTION_QUANTILES = new double[] {0.5, 0.75, 0.9, 0.95, 0.99};
+
+    private final TDigest digest;
+    private final double scale;
+    private final double total;
+
+    DistributionDigestSnapshot(TDigest digest, double scale, double total)
+    {
+        this.digest = requireNonNull(digest, "digest is null");
+        checkArgument(scale > 0, "scale must be positive");
+        this.scale = scale;
+        this.total = total;
+    }
+
+    public static DistributionDigestSnapshot deserialize(Slice serialized)
+    {
+        SliceInput input = serialized.getInput();
+
+        byte format = input.readByte();
+        checkArgument(format == FORMAT_TAG, "Invalid format");
+
+        double scale = input.readDouble();
+        double total = input.readDouble();
+        TDigest digest = TDigest.deserialize(serialized.slice(HEADER_SIZE, serialized.length() - HEADER_SIZE));
+        return new DistributionDigestSnapshot(digest, scale, total);
+    }
+
+    public Slice serialize()
+    {
+        Slice serializedDigest = digest.serialize();
+
+        Slice result = Slices.allocate(HEADER_SIZE + serializedDigest.length());
+        SliceOutput output = result.getOutput();
+        output.writeByte(FORMAT_TAG);
+        output.writeDouble(scale);
+        output.writeDouble(total);
+        output.writeBytes(serializedDigest);
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the values in both snapshots. Neither snapshot is modified.
+     */
+    public DistributionDigestSnapshot mergeWith(DistributionDigestSnapshot other)
+    {
+        // scale up rather than down, so all weights stay at or above 1
+        double mergedScale = max(scale, other.scale);
+        TDigest merged = rescaled(digest, mergedScale / scale);
+        merged.mergeWith(rescaled(other.digest, mergedScale / other.scale));
+        return new DistributionDigestSnapshot(merged, mergedScale, total + other.total);
+    }
+
+    public double getCount()
+    {
+        return digest.getCount() / scale;
+    }
+
+    public double getTotal()
+    {
+        return total;
+    }
+
+    public double getMin()
+    {
+        return digest.getMin();
+    }
+
+    public double getMax()
+    {
+        return digest.getMax();
+    }
+
+    public double valueAt(double quantile)
+    {
+        return digest.valueAt(quantile);
+    }
+
+    public DistributionSnapshot toDistributionSnapshot()
+    {
+        double count = getCount();
+        double[] quantiles = digest.valuesAt(DISTRIBUTION_QUANTILES);
+        return new DistributionSnapshot(
+                count,
+                total,
+                quantiles[0], // p01
+                quantiles[1], // p05
+                quantiles[2], // p10
+                quantiles[3], // p25
+                quantiles[4], // p50
+                quantiles[5], // p75
+                quantiles[6], // p90
+                quantiles[7], // p95
+                quantiles[8], // p99
+                digest.getMin(),
+                digest.getMax(),
+                total / count);
+    }
+
+    /**
+     * Converts a snapshot of a {@link TimeDistribution}, whose values are in nanoseconds.
+     */
+    public TimeDistributionSnapshot toTimeDistributionSnapshot(TimeUnit unit)
+    {
+        double unitNanos = (double) unit.toNanos(1);
+        double count = getCount();
+        double[] quantiles = digest.valuesAt(TIME_DISTRIBUTION_QUANTILES);
+        return new TimeDistributionSnapshot(
+                count,
+                quantiles[0] / unitNanos, // p50
+                quantiles[1] / unitNanos, // p75
+                quantiles[2] / unitNanos, // p90
+                quantiles[3] / unitNanos, // p95
+                quantiles[4] / unitNanos, // p99
+                digest.getMin() / unitNanos,
+                digest.getMax() / unitNanos,
+                total / unitNanos / count,
+                unit);
+    }
+
+    private static TDigest rescaled(TDigest digest, double factor)
+    {
+        TDigest copy = TDigest.copyOf(digest);
+        if (factor != 1) {
+            for (int i = 0; i < copy.centroidCount; i++) {
+                copy.weights[i] *= factor;
+            }
+            copy.totalWeight *= factor;
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("count", getCount())
+                .add("total", total)
+                .add("centroids", digest.centroidCount)
+                .toString();
+    }
+}
@@ -7,9 +7,11 @@ import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
 
 public class DistributionStat
 {
+    private final MultiHorizonDecayDigest digest;
     private final Distribution oneMinute;
     private final Distribution fiveMinutes;
     private final Distribution fifteenMinutes;
@@ -17,26 +19,32 @@ public class DistributionStat
 
     public DistributionStat()
     {
-        oneMinute = new Distribution(ExponentialDecay.oneMinute());
-        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes());
-        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes());
-        allTime = new Distribution();
+        this(1);
+    }
+
+    /**
+     * @see Distribution#Distribution(double, int)
+     */
+    public DistributionStat(int stripeCount)
+    {
+        // all windows share a single digest, so each value is only recorded once
+        digest = new MultiHorizonDecayDigest(
+                new double[] {ExponentialDecay.oneMinute(), ExponentialDecay.fiveMinutes(), ExponentialDecay.fifteenMinutes(), 0},
+                stripeCount);
+        oneMinute = new Distribution(digest.horizon(0));
+        fiveMinutes = new Distribution(digest.horizon(1));
+        fifteenMinutes = new Distribution(digest.horizon(2));
+        allTime = new Distribution(digest.horizon(3));
     }
 
     public void add(long value)
     {
-        oneMinute.add(value);
-        fiveMinutes.add(value);
-        fifteenMinutes.add(value);
-        allTime.add(value);
+        digest.add(value, 1);
     }
 
     public void add(long value, long count)
     {
-        oneMinute.add(value, count);
-        fiveMinutes.add(value, count);
-        fifteenMinutes.add(value, count);
-        allTime.add(value, count);
+        digest.add(value, count);
     }
 
     @Managed
@@ -76,6 +84,41 @@ public class DistributionStat
                 getAllTime().snapshot());
     }
 
+    /**
+     * Returns a consumer that sees the values added from now on. Each consumer, for example
+     * each metrics scraper, should use its own interval.
+     */
+    public Interval newInterval()
+    {
+        return new Interval(digest.newInterval());
+    }
+
+    public static final class Interval
+            implements AutoCloseable
+    {
+        private final MultiHorizonDecayDigest.IntervalDigest digest;
+
+        private Interval(MultiHorizonDecayDigest.IntervalDigest digest)
+        {
+            this.digest = requireNonNull(digest, "digest is null");
+        }
+
+        /**
+         * Returns the exact distribution of the values added since the previous call,
+         * or since this interval was created, and starts a new interval.
+         */
+        public DistributionSnapshot snapshotAndReset()
+        {
+            return digest.snapshotAndReset(Distribution::snapshot);
+        }
+
+        @Override
+        public void close()
+        {
+            digest.close();
+        }
+    }
+
     public static class DistributionStatSnapshot
     {
         private final DistributionSnapshot oneMinute;
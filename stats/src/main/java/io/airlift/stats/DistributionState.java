@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import java.util.function.BiFunction;
+
+/**
+ * The decaying digest and running total behind a {@link Distribution} or
+ * {@link TimeDistribution}.
+ */
+interface DistributionState
+{
+    void add(long value, long count);
+
+    /**
+     * Applies the reader to a consistent view of the digest and the total. The reader
+     * may be called while holding a lock, so it must not block.
+     */
+    <T> T read(BiFunction<DecayTDigest, DecayCounter, T> reader);
+
+    void reset();
+
+    /**
+     * Returns an independent copy of the current state.
+     */
+    DistributionState duplicate();
+}
@@ -36,41 +36,46 @@ Copied from https://github.com/codahale/metrics
 
 package io.airlift.stats;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ConcurrentSkipListMap;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.math.IntMath.ceilingPowerOfTwo;
 import static java.lang.Math.exp;
-import static java.lang.Math.floor;
 import static java.lang.Math.min;
-import static java.lang.Math.random;
+import static java.util.Objects.requireNonNull;
 
 /**
  * An exponentially-decaying random sample of {@code long}s. Uses Cormode et
  * al's forward-decaying priority reservoir sampling method to produce a
  * statistically representative sample, exponentially biased towards newer
  * entries.
+ * <p>
+ * The reservoir is kept in primitive arrays, so updates do not allocate, and
+ * it is split into stripes by thread, so that concurrent updates rarely contend.
  *
  * @see <a href="http://www.research.att.com/people/Cormode_Graham/library/publications/CormodeShkapenyukSrivastavaXu09.pdf">
  * Cormode et al. Forward Decay: A Practical Time Decay Model for Streaming
  * Systems. ICDE '09: Proceedings of the 2009 IEEE International Conference on
  * Data Engineering (2009)</a>
  */
+@ThreadSafe
 final class ExponentiallyDecayingSample
+        implements Sample
 {
-    private static final long RESCALE_THRESHOLD = TimeUnit.HOURS.toNanos(1);
-    private final ConcurrentSkipListMap<Double, Long> values;
-    private final ReentrantReadWriteLock lock;
-    private final double alpha;
+    private static final long RESCALE_THRESHOLD_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    // each stripe may hold a full reservoir, so the stripes are capped to bound the memory
+    private static final int MAX_STRIPE_COUNT = 8;
+
     private final int reservoirSize;
-    private final AtomicLong count = new AtomicLong(0);
-    private volatile long startTime;
-    private final AtomicLong nextScaleTime = new AtomicLong(0);
+    private final double alpha;
+    private final Ticker ticker;
+    private final Stripe[] stripes;
 
     /**
      * Creates a new {@link ExponentiallyDecayingSample}.
@@ -81,26 +86,58 @@ final class ExponentiallyDecayingSample
      */
     public ExponentiallyDecayingSample(int reservoirSize, double alpha)
     {
-        this.values = new ConcurrentSkipListMap<>();
-        this.lock = new ReentrantReadWriteLock();
-        this.alpha = alpha;
+        this(reservoirSize, alpha, min(Runtime.getRuntime().availableProcessors(), MAX_STRIPE_COUNT), Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ExponentiallyDecayingSample(int reservoirSize, double alpha, Ticker ticker)
+    {
+        this(reservoirSize, alpha, 1, ticker);
+    }
+
+    /**
+     * Creates a sample whose updates are split into {@code stripeCount} independently locked
+     * stripes (rounded up to a power of two). Each stripe keeps the values with the highest
+     * priorities among the values recorded into it, in a reservoir that is allocated on the
+     * first update of the stripe. Since the values with the highest priorities overall are
+     * among those of their stripes, merging the stripes yields the same sample as a single
+     * reservoir would hold.
+     */
+    ExponentiallyDecayingSample(int reservoirSize, double alpha, int stripeCount, Ticker ticker)
+    {
+        checkArgument(reservoirSize > 0, "reservoirSize must be positive");
+        checkArgument(stripeCount > 0, "stripeCount must be at least 1");
         this.reservoirSize = reservoirSize;
-        clear();
+        this.alpha = alpha;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        stripes = new Stripe[ceilingPowerOfTwo(stripeCount)];
+        long now = tick();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(now);
+        }
     }
 
+    @Override
     public void clear()
     {
-        values.clear();
-        count.set(0);
-        this.startTime = tick();
-        nextScaleTime.set(System.nanoTime() + RESCALE_THRESHOLD);
+        long now = tick();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.reservoir != null) {
+                    stripe.reservoir.clear();
+                }
+                stripe.startTime = now;
+            }
+        }
     }
 
+    @Override
     public int size()
     {
-        return (int) min(reservoirSize, count.get());
+        return merge().size();
     }
 
+    @Override
     public void update(long value)
     {
         update(value, tick());
@@ -110,54 +147,65 @@ final class ExponentiallyDecayingSample
      * Adds an old value with a fixed timestamp to the sample.
      *
      * @param value the value to be added
-     * @param timestamp the epoch timestamp of {@code value} in seconds
+     * @param timestamp the timestamp of {@code value} in seconds, in the time base of the ticker
      */
     public void update(long value, long timestamp)
     {
-        lockForRegularUsage();
-        try {
-            final double priority = weight(timestamp - startTime) / random();
-            final long newCount = count.incrementAndGet();
-            if (newCount <= reservoirSize) {
-                values.put(priority, value);
+        long now = tick();
+        Stripe stripe = stripes[ThreadStripes.currentStripe(stripes.length)];
+        synchronized (stripe) {
+            if (now - stripe.startTime >= RESCALE_THRESHOLD_SECONDS) {
+                rescale(stripe, now);
             }
-            else {
-                Double first = values.firstKey();
-                if (first < priority) {
-                    if (values.putIfAbsent(priority, value) == null) {
-                        // ensure we always remove an item
-                        while (values.remove(first) == null) {
-                            first = values.firstKey();
-                        }
-                    }
-                }
+            if (stripe.reservoir == null) {
+                stripe.reservoir = new PriorityReservoir(reservoirSize);
             }
-        }
-        finally {
-            unlockForRegularUsage();
-        }
 
-        final long now = System.nanoTime();
-        final long next = nextScaleTime.get();
-        if (now >= next) {
-            rescale(now, next);
+            // 1 - nextDouble() is in (0, 1], so the priority is always finite
+            double priority = weight(timestamp - stripe.startTime) / (1.0 - ThreadLocalRandom.current().nextDouble());
+            stripe.reservoir.offer(priority, value);
         }
     }
 
-    public List<Long> values()
+    @Override
+    public long[] values()
+    {
+        return merge().values();
+    }
+
+    @Override
+    public double[] percentiles(double... percentiles)
+    {
+        return PriorityReservoir.percentiles(values(), percentiles);
+    }
+
+    private PriorityReservoir merge()
     {
-        lockForRegularUsage();
-        try {
-            return new ArrayList<>(values.values());
+        if (stripes.length == 1) {
+            Stripe stripe = stripes[0];
+            synchronized (stripe) {
+                return stripe.reservoir == null ? new PriorityReservoir(reservoirSize) : stripe.reservoir.copy();
+            }
         }
-        finally {
-            unlockForRegularUsage();
+
+        // the priorities of the stripes are relative to different landmarks, so they are
+        // all scaled to the current time before they are compared
+        long now = tick();
+        PriorityReservoir merged = new PriorityReservoir(reservoirSize);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                double factor = exp(-alpha * (now - stripe.startTime));
+                if (stripe.reservoir != null && factor >= Double.MIN_NORMAL) {
+                    merged.offerAll(stripe.reservoir, factor);
+                }
+            }
         }
+        return merged;
     }
 
-    private static long tick()
+    private long tick()
     {
-        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read());
     }
 
     private double weight(long t)
@@ -183,71 +231,32 @@ final class ExponentiallyDecayingSample
      * landmark L′ (and then use this new L′ at query time). This can be done with
      * a linear pass over whatever data structure is being used."
      */
-    private void rescale(long now, long next)
+    @GuardedBy("stripe")
+    private void rescale(Stripe stripe, long now)
     {
-        if (nextScaleTime.compareAndSet(next, now + RESCALE_THRESHOLD)) {
-            lockForRescale();
-            try {
-                final long oldStartTime = startTime;
-                this.startTime = tick();
-                final ArrayList<Double> keys = new ArrayList<>(values.keySet());
-                for (Double key : keys) {
-                    final Long value = values.remove(key);
-                    values.put(key * exp(-alpha * (startTime - oldStartTime)), value);
-                }
+        double factor = exp(-alpha * (now - stripe.startTime));
+        if (stripe.reservoir != null) {
+            if (factor >= Double.MIN_NORMAL) {
+                stripe.reservoir.scalePriorities(factor);
             }
-            finally {
-                unlockForRescale();
+            else {
+                // after a long idle period the old values have no weight left, and the factor underflows
+                stripe.reservoir.clear();
             }
         }
+        stripe.startTime = now;
     }
 
-    private void unlockForRescale()
-    {
-        lock.writeLock().unlock();
-    }
-
-    private void lockForRescale()
-    {
-        lock.writeLock().lock();
-    }
-
-    private void lockForRegularUsage()
+    private static final class Stripe
     {
-        lock.readLock().lock();
-    }
+        @GuardedBy("this")
+        private PriorityReservoir reservoir;
+        @GuardedBy("this")
+        private long startTime;
 
-    private void unlockForRegularUsage()
-    {
-        lock.readLock().unlock();
-    }
-
-    public double[] percentiles(double... percentiles)
-    {
-        final double[] scores = new double[percentiles.length];
-        Arrays.fill(scores, Double.NaN);
-
-        final List<Long> values = this.values();
-        if (!values.isEmpty()) {
-            Collections.sort(values);
-
-            for (int i = 0; i < percentiles.length; i++) {
-                final double p = percentiles[i];
-                final double pos = p * (values.size() + 1);
-                if (pos < 1) {
-                    scores[i] = values.get(0);
-                }
-                else if (pos >= values.size()) {
-                    scores[i] = values.get(values.size() - 1);
-                }
-                else {
-                    final double lower = values.get((int) pos - 1);
-                    final double upper = values.get((int) pos);
-                    scores[i] = lower + (pos - floor(pos)) * (upper - lower);
-                }
-            }
+        private Stripe(long startTime)
+        {
+            this.startTime = startTime;
         }
-
-        return scores;
     }
 }
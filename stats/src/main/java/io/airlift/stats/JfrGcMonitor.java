@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.units.Duration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Monitor GC events and safepoints by streaming Java Flight Recorder events from
+ * the running JVM. Unlike {@link JmxGcMonitor}, this also reports the time it
+ * takes to bring all threads to a safepoint, which shows up as latency that is
+ * not accounted to any GC.
+ * <p>
+ * The events are consumed from an in-process recording that only enables the
+ * events needed here, so it can run alongside other recordings, such as a
+ * continuous recording started with {@code -XX:StartFlightRecording}.
+ */
+public class JfrGcMonitor
+        implements GcMonitor
+{
+    private static final String YOUNG_GC_EVENT = "jdk.YoungGarbageCollection";
+    private static final String OLD_GC_EVENT = "jdk.OldGarbageCollection";
+    private static final String SAFEPOINT_SYNCHRONIZATION_EVENT = "jdk.SafepointStateSynchronization";
+
+    private final AtomicLong majorGcCount = new AtomicLong();
+    private final AtomicLong majorGcTimeNanos = new AtomicLong();
+    private final TimeStat majorGc = new TimeStat();
+    private final TimeStat minorGc = new TimeStat();
+    private final TimeStat timeToSafepoint = new TimeStat();
+
+    @GuardedBy("this")
+    private RecordingStream recordingStream;
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (recordingStream != null) {
+            return;
+        }
+        recordingStream = new RecordingStream();
+        recordingStream.enable(YOUNG_GC_EVENT);
+        recordingStream.enable(OLD_GC_EVENT);
+        recordingStream.enable(SAFEPOINT_SYNCHRONIZATION_EVENT);
+        recordingStream.onEvent(YOUNG_GC_EVENT, event -> minorGc.add(event.getDuration().toNanos(), NANOSECONDS));
+        recordingStream.onEvent(OLD_GC_EVENT, this::onMajorGc);
+        recordingStream.onEvent(SAFEPOINT_SYNCHRONIZATION_EVENT, event -> timeToSafepoint.add(event.getDuration().toNanos(), NANOSECONDS));
+        recordingStream.startAsync();
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        if (recordingStream != null) {
+            recordingStream.close();
+            recordingStream = null;
+        }
+    }
+
+    @Override
+    public long getMajorGcCount()
+    {
+        return majorGcCount.get();
+    }
+
+    @Override
+    public Duration getMajorGcTime()
+    {
+        return new Duration(majorGcTimeNanos.get(), NANOSECONDS);
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getMajorGc()
+    {
+        return majorGc;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getMinorGc()
+    {
+        return minorGc;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getTimeToSafepoint()
+    {
+        return timeToSafepoint;
+    }
+
+    private void onMajorGc(RecordedEvent event)
+    {
+        long nanos = event.getDuration().toNanos();
+        majorGcCount.incrementAndGet();
+        majorGcTimeNanos.addAndGet(nanos);
+        majorGc.add(nanos, NANOSECONDS);
+    }
+}
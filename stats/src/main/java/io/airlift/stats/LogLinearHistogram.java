@@ -0,0 +1,448 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import org.weakref.jmx.Managed;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of non-negative values with log-linear buckets: every power of two range
+ * is split into {@code 2^precisionBits} equally sized buckets, so the width of the bucket
+ * a value falls into is at most {@code value / 2^precisionBits}. Values below
+ * {@code 2^precisionBits} are recorded exactly.
+ * <p>
+ * Recording is lock-free and constant time: it increments one atomic bucket counter
+ * and does not need any compression. The buckets for each power of two are allocated
+ * on first use, so memory is proportional to the range of the recorded values.
+ * <p>
+ * Unlike {@link Distribution}, the histogram does not decay. Use {@link #intervalSnapshot()}
+ * to get the values recorded since the previous interval snapshot.
+ */
+@ThreadSafe
+public class LogLinearHistogram
+{
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    private static final double[] SNAPSHOT_QUANTILES = new double[] {0.01, 0.05, 0.10, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+
+    private final int precisionBits;
+    private final AtomicReferenceArray<AtomicLongArray> groups;
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    @GuardedBy("this")
+    private HistogramSnapshot previousInterval;
+
+    public LogLinearHistogram()
+    {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    public LogLinearHistogram(int precisionBits)
+    {
+        checkArgument(precisionBits >= 1 && precisionBits <= 16, "precisionBits must be between 1 and 16");
+        this.precisionBits = precisionBits;
+        // group 0 holds the values below 2^precisionBits, and each following group one power of two
+        this.groups = new AtomicReferenceArray<>(Long.SIZE - precisionBits);
+        this.previousInterval = HistogramSnapshot.empty(precisionBits);
+    }
+
+    public void add(long value)
+    {
+        add(value, 1);
+    }
+
+    public void add(long value, long count)
+    {
+        checkArgument(value >= 0, "value is negative");
+        checkArgument(count >= 0, "count is negative");
+        if (count == 0) {
+            return;
+        }
+
+        // update the accumulators first, so that a snapshot that counts the value also sees it in them
+        total.add(value * count);
+        min.accumulate(value);
+        max.accumulate(value);
+
+        int group = group(value, precisionBits);
+        AtomicLongArray buckets = groups.get(group);
+        if (buckets == null) {
+            groups.compareAndSet(group, null, new AtomicLongArray(1 << precisionBits));
+            buckets = groups.get(group);
+        }
+        buckets.getAndAdd(offset(value, group, precisionBits), count);
+    }
+
+    /**
+     * Returns all values recorded so far. Values recorded concurrently with the
+     * snapshot may or may not be included.
+     */
+    public HistogramSnapshot snapshot()
+    {
+        int subBucketCount = 1 << precisionBits;
+
+        int nonEmpty = 0;
+        int[] indexes = new int[subBucketCount];
+        long[] counts = new long[subBucketCount];
+        long count = 0;
+        for (int group = 0; group < groups.length(); group++) {
+            AtomicLongArray buckets = groups.get(group);
+            if (buckets == null) {
+                continue;
+            }
+            for (int offset = 0; offset < subBucketCount; offset++) {
+                long bucketCount = buckets.get(offset);
+                if (bucketCount != 0) {
+                    if (nonEmpty == indexes.length) {
+                        indexes = Arrays.copyOf(indexes, nonEmpty * 2);
+                        counts = Arrays.copyOf(counts, nonEmpty * 2);
+                    }
+                    indexes[nonEmpty] = group * subBucketCount + offset;
+                    counts[nonEmpty] = bucketCount;
+                    nonEmpty++;
+                    count += bucketCount;
+                }
+            }
+        }
+
+        return new HistogramSnapshot(
+                precisionBits,
+                Arrays.copyOf(indexes, nonEmpty),
+                Arrays.copyOf(counts, nonEmpty),
+                count,
+                total.sum(),
+                min.get(),
+                max.get());
+    }
+
+    /**
+     * Returns the values recorded since the previous call to this method, or
+     * since the histogram was created for the first call.
+     */
+    public synchronized HistogramSnapshot intervalSnapshot()
+    {
+        HistogramSnapshot current = snapshot();
+        HistogramSnapshot interval = current.minus(previousInterval);
+        previousInterval = current;
+        return interval;
+    }
+
+    @Managed
+    public long getCount()
+    {
+        return snapshot().getCount();
+    }
+
+    @Managed
+    public long getTotal()
+    {
+        return total.sum();
+    }
+
+    @Managed
+    public double getMin()
+    {
+        // the minimum is updated before the maximum, so it is set once the maximum is
+        if (max.get() == Long.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return min.get();
+    }
+
+    @Managed
+    public double getMax()
+    {
+        long value = max.get();
+        if (value == Long.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return value;
+    }
+
+    @Managed
+    public double getP50()
+    {
+        return snapshot().getValueAt(0.5);
+    }
+
+    @Managed
+    public double getP90()
+    {
+        return snapshot().getValueAt(0.90);
+    }
+
+    @Managed
+    public double getP99()
+    {
+        return snapshot().getValueAt(0.99);
+    }
+
+    private static int group(long value, int precisionBits)
+    {
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        return Math.max(0, exponent - precisionBits + 1);
+    }
+
+    private static int offset(long value, int group, int precisionBits)
+    {
+        if (group == 0) {
+            return (int) value;
+        }
+        // the top precisionBits + 1 bits of the value, without the leading one
+        return (int) (value >>> (group - 1)) - (1 << precisionBits);
+    }
+
+    /**
+     * An immutable snapshot of a {@link LogLinearHistogram}. Snapshots with the same
+     * precision can be merged, for example to combine histograms from several nodes.
+     */
+    public static final class HistogramSnapshot
+    {
+        private final int precisionBits;
+        private final int[] indexes;
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        private HistogramSnapshot(int precisionBits, int[] indexes, long[] counts, long count, long total, long min, long max)
+        {
+            this.precisionBits = precisionBits;
+            this.indexes = indexes;
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        private static HistogramSnapshot empty(int precisionBits)
+        {
+            return new HistogramSnapshot(precisionBits, new int[0], new long[0], 0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getTotal()
+        {
+            return total;
+        }
+
+        public double getMin()
+        {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            return min;
+        }
+
+        public double getMax()
+        {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            return max;
+        }
+
+        public double getAvg()
+        {
+            return total / (double) count;
+        }
+
+        /**
+         * Returns the value at the given quantile, which is the middle of the bucket
+         * holding that rank, clamped to the minimum and maximum value.
+         */
+        public double getValueAt(double quantile)
+        {
+            checkArgument(quantile >= 0 && quantile <= 1, "quantile should be in [0, 1] range");
+
+            if (count == 0) {
+                return Double.NaN;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    double value = lowerBound(indexes[i]) + (width(indexes[i]) - 1) / 2.0;
+                    return Math.min(Math.max(value, min), max);
+                }
+            }
+            return max;
+        }
+
+        public double[] getValuesAt(double... quantiles)
+        {
+            double[] values = new double[quantiles.length];
+            for (int i = 0; i < quantiles.length; i++) {
+                values[i] = getValueAt(quantiles[i]);
+            }
+            return values;
+        }
+
+        /**
+         * Returns a snapshot with the values of this snapshot and the other one
+         */
+        public HistogramSnapshot mergeWith(HistogramSnapshot other)
+        {
+            checkArgument(precisionBits == other.precisionBits, "Cannot merge histograms with different precision: %s vs %s", precisionBits, other.precisionBits);
+
+            int[] mergedIndexes = new int[indexes.length + other.indexes.length];
+            long[] mergedCounts = new long[indexes.length + other.indexes.length];
+            int size = 0;
+            int left = 0;
+            int right = 0;
+            while (left < indexes.length || right < other.indexes.length) {
+                if (right == other.indexes.length || (left < indexes.length && indexes[left] < other.indexes[right])) {
+                    mergedIndexes[size] = indexes[left];
+                    mergedCounts[size] = counts[left++];
+                }
+                else if (left == indexes.length || other.indexes[right] < indexes[left]) {
+                    mergedIndexes[size] = other.indexes[right];
+                    mergedCounts[size] = other.counts[right++];
+                }
+                else {
+                    mergedIndexes[size] = indexes[left];
+                    mergedCounts[size] = counts[left++] + other.counts[right++];
+                }
+                size++;
+            }
+
+            return new HistogramSnapshot(
+                    precisionBits,
+                    Arrays.copyOf(mergedIndexes, size),
+                    Arrays.copyOf(mergedCounts, size),
+                    count + other.count,
+                    total + other.total,
+                    Math.min(min, other.min),
+                    Math.max(max, other.max));
+        }
+
+        /**
+         * Returns the values of this snapshot that are not in the given earlier snapshot of
+         * the same histogram. The exact minimum and maximum of the difference are not known,
+         * so they are bounded by the first and last non-empty bucket.
+         */
+        HistogramSnapshot minus(HistogramSnapshot earlier)
+        {
+            int[] deltaIndexes = new int[indexes.length];
+            long[] deltaCounts = new long[indexes.length];
+            int size = 0;
+            int previous = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                while (previous < earlier.indexes.length && earlier.indexes[previous] < indexes[i]) {
+                    previous++;
+                }
+                long delta = counts[i];
+                if (previous < earlier.indexes.length && earlier.indexes[previous] == indexes[i]) {
+                    delta -= earlier.counts[previous];
+                }
+                if (delta > 0) {
+                    deltaIndexes[size] = indexes[i];
+                    deltaCounts[size] = delta;
+                    size++;
+                }
+            }
+
+            if (size == 0) {
+                return new HistogramSnapshot(precisionBits, new int[0], new long[0], 0, total - earlier.total, Long.MAX_VALUE, Long.MIN_VALUE);
+            }
+
+            long deltaCount = 0;
+            for (int i = 0; i < size; i++) {
+                deltaCount += deltaCounts[i];
+            }
+
+            int lastIndex = deltaIndexes[size - 1];
+            return new HistogramSnapshot(
+                    precisionBits,
+                    Arrays.copyOf(deltaIndexes, size),
+                    Arrays.copyOf(deltaCounts, size),
+                    deltaCount,
+                    total - earlier.total,
+                    Math.max(min, lowerBound(deltaIndexes[0])),
+                    Math.min(max, lowerBound(lastIndex) + width(lastIndex) - 1));
+        }
+
+        public DistributionSnapshot toDistributionSnapshot()
+        {
+            double[] quantiles = getValuesAt(SNAPSHOT_QUANTILES);
+            return new DistributionSnapshot(
+                    count,
+                    total,
+                    quantiles[0], // p01
+                    quantiles[1], // p05
+                    quantiles[2], // p10
+                    quantiles[3], // p25
+                    quantiles[4], // p50
+                    quantiles[5], // p75
+                    quantiles[6], // p90
+                    quantiles[7], // p95
+                    quantiles[8], // p99
+                    getMin(),
+                    getMax(),
+                    getAvg());
+        }
+
+        private long lowerBound(int index)
+        {
+            int group = index >>> precisionBits;
+            long offset = index & ((1 << precisionBits) - 1);
+            if (group == 0) {
+                return offset;
+            }
+            return ((1L << precisionBits) + offset) << (group - 1);
+        }
+
+        private long width(int index)
+        {
+            int group = index >>> precisionBits;
+            if (group == 0) {
+                return 1;
+            }
+            return 1L << (group - 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("count", count)
+                    .add("total", total)
+                    .add("min", getMin())
+                    .add("max", getMax())
+                    .add("buckets", indexes.length)
+                    .toString();
+        }
+    }
+}
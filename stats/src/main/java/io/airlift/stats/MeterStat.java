@@ -17,22 +17,36 @@ package io.airlift.stats;
 
 import org.weakref.jmx.Managed;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Deprecated
 public class MeterStat
 {
+    // the decay factor of the reservoir sample this stat used to be based on
+    private static final double SAMPLE_ALPHA = 0.015;
+
     private final AtomicLong sum = new AtomicLong(0);
-    private final ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(1028, 0.015);
+    private final DistributionState sample;
     private final DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute());
     private final DecayCounter fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes());
     private final DecayCounter fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes());
 
+    public MeterStat()
+    {
+        this(1);
+    }
+
+    /**
+     * @see Distribution#Distribution(double, int)
+     */
+    public MeterStat(int stripeCount)
+    {
+        sample = new StripedDecayDigest(SAMPLE_ALPHA, stripeCount);
+    }
+
     public void update(long value)
     {
-        sample.update(value);
+        sample.add(value, 1);
         oneMinute.add(value);
         fiveMinute.add(value);
         fifteenMinute.add(value);
@@ -48,26 +62,19 @@ public class MeterStat
     @Managed
     public long getMin()
     {
-        return Collections.min(sample.values());
+        return sample.read((digest, total) -> (long) digest.getMin());
     }
 
     @Managed
     public long getMax()
     {
-        return Collections.max(sample.values());
+        return sample.read((digest, total) -> (long) digest.getMax());
     }
 
     @Managed
     public double getMean()
     {
-        List<Long> values = sample.values();
-
-        long sum = 0;
-        for (long value : values) {
-            sum += value;
-        }
-
-        return sum * 1.0 / values.size();
+        return sample.read((digest, total) -> total.getCount() / digest.getCount());
     }
 
     public double getStdDev()
@@ -96,24 +103,29 @@ public class MeterStat
     @Managed(description = "50th Percentile Measurement")
     public double getTP50()
     {
-        return sample.percentiles(0.5)[0];
+        return getPercentile(0.5);
     }
 
     @Managed(description = "90th Percentile Measurement")
     public double getTP90()
     {
-        return sample.percentiles(0.9)[0];
+        return getPercentile(0.9);
     }
 
     @Managed(description = "99th Percentile Measurement")
     public double getTP99()
     {
-        return sample.percentiles(0.99)[0];
+        return getPercentile(0.99);
     }
 
     @Managed(description = "99.9th Percentile Measurement")
     public double getTP999()
     {
-        return sample.percentiles(0.999)[0];
+        return getPercentile(0.999);
+    }
+
+    private double getPercentile(double quantile)
+    {
+        return sample.read((digest, total) -> digest.valueAt(quantile));
     }
 }
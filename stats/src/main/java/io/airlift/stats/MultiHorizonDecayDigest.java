@@ -0,0 +1,350 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.math.IntMath.ceilingPowerOfTwo;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decaying digests for several decay factors (horizons) that share a single recording path.
+ * <p>
+ * Each value is recorded once, into an undecayed digest for the current second. When the
+ * second is over, or when a reader needs an up-to-date view, that digest is folded into the
+ * decaying digest of every horizon with the weight of the second it was recorded in. Since
+ * {@link DecayTDigest} assigns the same weight to all values recorded within the same second,
+ * this yields the same weights as recording each value into every horizon separately, while
+ * the per-value cost is that of a single insertion.
+ * <p>
+ * This only saves CPU on the recording path. Every horizon still keeps its own decaying digest,
+ * since each needs its own centroids for accurate quantiles, and the recording digests of the
+ * stripes come on top of those, so the retained memory is not reduced.
+ * <p>
+ * The recording digests are split into stripes by thread, like {@link StripedDecayDigest}.
+ * Each stripe keeps a single recording digest, which is cleared and reused after it has
+ * been folded.
+ */
+@ThreadSafe
+final class MultiHorizonDecayDigest
+{
+    private final Ticker ticker;
+    private final double[] alphas;
+    private final Stripe[] stripes;
+
+    @GuardedBy("this")
+    private final DecayTDigest[] digests;
+    @GuardedBy("this")
+    private final DecayCounter[] totals;
+    @GuardedBy("this")
+    private final List<IntervalDigest> intervals = new ArrayList<>();
+
+    public MultiHorizonDecayDigest(double[] alphas, int stripeCount)
+    {
+        this(alphas, stripeCount, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    MultiHorizonDecayDigest(double[] alphas, int stripeCount, Ticker ticker)
+    {
+        requireNonNull(alphas, "alphas is null");
+        checkArgument(alphas.length > 0, "alphas is empty");
+        checkArgument(stripeCount > 0, "stripeCount must be at least 1");
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.alphas = alphas.clone();
+
+        long nowInSeconds = nowInSeconds();
+        stripes = new Stripe[ceilingPowerOfTwo(stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(nowInSeconds);
+        }
+
+        digests = new DecayTDigest[alphas.length];
+        totals = new DecayCounter[alphas.length];
+        for (int i = 0; i < alphas.length; i++) {
+            digests[i] = newDigest(i);
+            totals[i] = new DecayCounter(alphas[i], ticker);
+        }
+    }
+
+    /**
+     * Returns a view of the given horizon. Values added through the view are only recorded
+     * into that horizon, like values added to an independent decaying digest.
+     */
+    public DistributionState horizon(int index)
+    {
+        checkElementIndex(index, alphas.length);
+        return new Horizon(index);
+    }
+
+    /**
+     * Returns a consumer of the values recorded from now on. Each call to
+     * {@link IntervalDigest#snapshotAndReset} sees the values recorded since
+     * the previous call, without decay.
+     */
+    public synchronized IntervalDigest newInterval()
+    {
+        // values recorded before this point only belong to the existing consumers
+        foldStripes();
+        IntervalDigest interval = new IntervalDigest();
+        intervals.add(interval);
+        return interval;
+    }
+
+    public void add(long value, long count)
+    {
+        long nowInSeconds = nowInSeconds();
+        Stripe stripe = currentStripe();
+
+        synchronized (stripe) {
+            if (stripe.second == nowInSeconds || stripe.isEmpty()) {
+                stripe.second = nowInSeconds;
+                stripe.add(value, count);
+                return;
+            }
+        }
+
+        // the stripe holds the values of an earlier second, which are folded before it is reused;
+        // this lock is always taken before a stripe lock, so the stripe lock is released first
+        synchronized (this) {
+            synchronized (stripe) {
+                foldStripe(stripe);
+                stripe.second = nowInSeconds;
+                stripe.add(value, count);
+            }
+        }
+    }
+
+    public synchronized void reset()
+    {
+        foldStripes();
+        for (int i = 0; i < alphas.length; i++) {
+            resetHorizon(i);
+        }
+        for (IntervalDigest interval : intervals) {
+            interval.clear();
+        }
+    }
+
+    private synchronized <T> T read(int index, BiFunction<DecayTDigest, DecayCounter, T> reader)
+    {
+        foldStripes();
+        return reader.apply(digests[index], totals[index]);
+    }
+
+    private synchronized void add(int index, long value, long count)
+    {
+        digests[index].add(value, count);
+        totals[index].add(value * count);
+    }
+
+    private synchronized void reset(int index)
+    {
+        // values recorded before the reset still count towards the other horizons
+        foldStripes();
+        resetHorizon(index);
+    }
+
+    private synchronized DistributionState duplicate(int index)
+    {
+        foldStripes();
+        return new StripedDecayDigest(alphas[index], digests[index].duplicate(), totals[index].duplicate());
+    }
+
+    @GuardedBy("this")
+    private void foldStripes()
+    {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                foldStripe(stripe);
+            }
+        }
+    }
+
+    /**
+     * Folds the values recorded in the stripe into the horizons and the intervals, and clears
+     * the stripe for reuse. The caller must also hold the stripe lock.
+     */
+    @GuardedBy("this")
+    private void foldStripe(Stripe stripe)
+    {
+        if (stripe.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < alphas.length; i++) {
+            digests[i].merge(stripe.digest, stripe.second);
+            totals[i].add(stripe.total, stripe.second);
+        }
+        for (IntervalDigest interval : intervals) {
+            interval.digest.merge(stripe.digest, stripe.second);
+            interval.total.add(stripe.total, stripe.second);
+        }
+        stripe.clear();
+    }
+
+    @GuardedBy("this")
+    private void resetHorizon(int index)
+    {
+        digests[index] = newDigest(index);
+        totals[index].reset();
+    }
+
+    private DecayTDigest newDigest(int index)
+    {
+        return new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alphas[index], ticker);
+    }
+
+    private Stripe currentStripe()
+    {
+        return stripes[ThreadStripes.currentStripe(stripes.length)];
+    }
+
+    private long nowInSeconds()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
+
+    /**
+     * The values recorded by the threads of a stripe during a single second
+     */
+    private static final class Stripe
+    {
+        @GuardedBy("this")
+        private long second;
+        @GuardedBy("this")
+        private final TDigest digest = new TDigest();
+        @GuardedBy("this")
+        private double total;
+
+        private Stripe(long second)
+        {
+            this.second = second;
+        }
+
+        @GuardedBy("this")
+        private void add(long value, long count)
+        {
+            digest.add(value, count);
+            total += value * count;
+        }
+
+        @GuardedBy("this")
+        private boolean isEmpty()
+        {
+            return digest.getCount() == 0;
+        }
+
+        @GuardedBy("this")
+        private void clear()
+        {
+            digest.clear();
+            total = 0;
+        }
+    }
+
+    /**
+     * The undecayed values recorded since the previous snapshot, for a single consumer
+     */
+    public final class IntervalDigest
+            implements AutoCloseable
+    {
+        @GuardedBy("MultiHorizonDecayDigest.this")
+        private DecayTDigest digest;
+        @GuardedBy("MultiHorizonDecayDigest.this")
+        private DecayCounter total;
+
+        private IntervalDigest()
+        {
+            clear();
+        }
+
+        /**
+         * Applies the reader to the values recorded since the previous call and starts
+         * a new interval. The finished interval is swapped out rather than copied, and
+         * is read after the lock has been released.
+         */
+        public <T> T snapshotAndReset(BiFunction<DecayTDigest, DecayCounter, T> reader)
+        {
+            DecayTDigest finishedDigest;
+            DecayCounter finishedTotal;
+            synchronized (MultiHorizonDecayDigest.this) {
+                foldStripes();
+                finishedDigest = digest;
+                finishedTotal = total;
+                clear();
+            }
+            return reader.apply(finishedDigest, finishedTotal);
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (MultiHorizonDecayDigest.this) {
+                intervals.remove(this);
+            }
+        }
+
+        @GuardedBy("MultiHorizonDecayDigest.this")
+        private void clear()
+        {
+            digest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, 0, ticker);
+            total = new DecayCounter(0, ticker);
+        }
+    }
+
+    private final class Horizon
+            implements DistributionState
+    {
+        private final int index;
+
+        private Horizon(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public void add(long value, long count)
+        {
+            MultiHorizonDecayDigest.this.add(index, value, count);
+        }
+
+        @Override
+        public <T> T read(BiFunction<DecayTDigest, DecayCounter, T> reader)
+        {
+            return MultiHorizonDecayDigest.this.read(index, reader);
+        }
+
+        @Override
+        public void reset()
+        {
+            MultiHorizonDecayDigest.this.reset(index);
+        }
+
+        @Override
+        public DistributionState duplicate()
+        {
+            return MultiHorizonDecayDigest.this.duplicate(index);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.base.Ticker;
+import io.airlift.slice.Slice;
+
+/**
+ * A {@link QuantileDigest} whose nodes are kept in a direct buffer rather than on the heap,
+ * created with {@link QuantileDigest#offHeap(double, double)}. Closing the digest returns the
+ * buffer to a bounded pool, from which it is reused by other off-heap digests. A buffer that
+ * is too large for the pool, or a digest that is not closed, is only freed once the garbage
+ * collector runs the cleaner of the buffer.
+ */
+public final class OffHeapQuantileDigest
+        extends QuantileDigest
+        implements AutoCloseable
+{
+    OffHeapQuantileDigest(double maxError, double alpha, Ticker ticker)
+    {
+        super(maxError, alpha, ticker, true);
+    }
+
+    OffHeapQuantileDigest(Slice serialized)
+    {
+        super(serialized, true);
+    }
+
+    OffHeapQuantileDigest(QuantileDigest other)
+    {
+        super(other, true);
+    }
+
+    /**
+     * Returns the nodes of this digest to the pool. The digest must not be used after it has been closed.
+     */
+    @Override
+    public void close()
+    {
+        release();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.floor;
+
+/**
+ * A fixed-size reservoir that keeps the values offered with the highest priorities.
+ * The reservoir is a binary min-heap on the priorities, stored in primitive arrays
+ * that are allocated up front, so offering a value does not allocate.
+ * <p>
+ * This class is not thread safe.
+ */
+final class PriorityReservoir
+{
+    private final double[] priorities;
+    private final long[] values;
+    private int size;
+
+    public PriorityReservoir(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        priorities = new double[capacity];
+        values = new long[capacity];
+    }
+
+    private PriorityReservoir(PriorityReservoir other)
+    {
+        priorities = other.priorities.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void offer(double priority, long value)
+    {
+        if (size < priorities.length) {
+            siftUp(size, priority, value);
+            size++;
+        }
+        else if (priority > priorities[0]) {
+            // evict the value with the lowest priority
+            siftDown(0, priority, value);
+        }
+    }
+
+    public void offerAll(PriorityReservoir other)
+    {
+        offerAll(other, 1.0);
+    }
+
+    /**
+     * Offers the values of the other reservoir with their priorities multiplied by the given factor.
+     */
+    public void offerAll(PriorityReservoir other, double factor)
+    {
+        checkArgument(factor > 0, "factor must be positive");
+        for (int i = 0; i < other.size; i++) {
+            offer(other.priorities[i] * factor, other.values[i]);
+        }
+    }
+
+    /**
+     * Multiplies all priorities by the given factor. Since the factor is positive,
+     * the order of the priorities, and thus the heap, is preserved.
+     */
+    public void scalePriorities(double factor)
+    {
+        checkArgument(factor > 0, "factor must be positive");
+        for (int i = 0; i < size; i++) {
+            priorities[i] *= factor;
+        }
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public PriorityReservoir copy()
+    {
+        return new PriorityReservoir(this);
+    }
+
+    public long[] values()
+    {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Computes the percentiles of the given values, interpolating between the closest
+     * ranks. The values are sorted in place.
+     */
+    public static double[] percentiles(long[] values, double... percentiles)
+    {
+        double[] scores = new double[percentiles.length];
+        Arrays.fill(scores, Double.NaN);
+
+        if (values.length > 0) {
+            Arrays.sort(values);
+
+            for (int i = 0; i < percentiles.length; i++) {
+                double pos = percentiles[i] * (values.length + 1);
+                if (pos < 1) {
+                    scores[i] = values[0];
+                }
+                else if (pos >= values.length) {
+                    scores[i] = values[values.length - 1];
+                }
+                else {
+                    double lower = values[(int) pos - 1];
+                    double upper = values[(int) pos];
+                    scores[i] = lower + (pos - floor(pos)) * (upper - lower);
+                }
+            }
+        }
+
+        return scores;
+    }
+
+    private void siftUp(int index, double priority, long value)
+    {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            priorities[index] = priorities[parent];
+            values[index] = values[parent];
+            index = parent;
+        }
+        priorities[index] = priority;
+        values[index] = value;
+    }
+
+    private void siftDown(int index, double priority, long value)
+    {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                child++;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            priorities[index] = priorities[child];
+            values[index] = values[child];
+            index = child;
+        }
+        priorities[index] = priority;
+        values[index] = value;
+    }
+}
@@ -17,15 +17,17 @@ import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -33,6 +35,7 @@ import static io.airlift.slice.SizeOf.instanceSize;
 import static io.airlift.stats.ExponentialDecay.weight;
 import static io.airlift.stats.QuantileDigest.MiddleFunction.DEFAULT;
 import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
 
 /**
  * Implements http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.132.7343, a data structure
@@ -51,6 +54,8 @@ import static java.lang.String.format;
  * This class also supports exponential decay. The implementation is based on the ideas laid out
  * in http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.159.3978
  * <p>
+ * The nodes of the digest can be kept in direct memory, see {@link OffHeapQuantileDigest}.
+ * <p>
  * This class is NOT thread safe.
  */
 public class QuantileDigest
@@ -75,14 +80,9 @@ public class QuantileDigest
 
     private int root = -1;
     private int nextNode;
-    private double[] counts;
-    private byte[] levels;
-    private long[] values;
-
-    private int[] lefts;
-    private int[] rights;
+    private final QuantileDigestNodes nodes;
 
-    // We use lefts[] to store a linked list of free slots.
+    // We use the left links to store a linked list of free slots.
     // freeIndex points to the first available slot
     private int freeCount;
     private int firstFree = -1;
@@ -116,6 +116,11 @@ public class QuantileDigest
 
     @VisibleForTesting
     QuantileDigest(double maxError, double alpha, Ticker ticker)
+    {
+        this(maxError, alpha, ticker, false);
+    }
+
+    QuantileDigest(double maxError, double alpha, Ticker ticker, boolean offHeap)
     {
         checkArgument(maxError >= 0 && maxError <= 1, "maxError must be in range [0, 1]");
         checkArgument(alpha >= 0 && alpha < 1, "alpha must be in range [0, 1)");
@@ -126,18 +131,19 @@ public class QuantileDigest
 
         landmarkInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
 
-        counts = new double[INITIAL_CAPACITY];
-        levels = new byte[INITIAL_CAPACITY];
-        values = new long[INITIAL_CAPACITY];
-
-        lefts = new int[INITIAL_CAPACITY];
-        rights = new int[INITIAL_CAPACITY];
-
-        Arrays.fill(lefts, -1);
-        Arrays.fill(rights, -1);
+        nodes = offHeap ? QuantileDigestNodes.direct(INITIAL_CAPACITY) : QuantileDigestNodes.onHeap(INITIAL_CAPACITY);
     }
 
+    /**
+     * Creates a copy of {@code other}, whose nodes are kept on the heap. Use
+     * {@link #offHeap(QuantileDigest)} for a copy that is kept in direct memory.
+     */
     public QuantileDigest(QuantileDigest other)
+    {
+        this(other, false);
+    }
+
+    QuantileDigest(QuantileDigest other, boolean offHeap)
     {
         this.maxError = other.maxError;
         this.alpha = other.alpha;
@@ -150,16 +156,17 @@ public class QuantileDigest
         this.min = other.min;
         this.root = other.root;
         this.nextNode = other.nextNode;
-        this.counts = other.counts.clone();
-        this.levels = other.levels.clone();
-        this.values = other.values.clone();
-        this.lefts = other.lefts.clone();
-        this.rights = other.rights.clone();
+        this.nodes = other.nodes.copy(offHeap);
         this.freeCount = other.freeCount;
         this.firstFree = other.firstFree;
     }
 
     public QuantileDigest(Slice serialized)
+    {
+        this(serialized, false);
+    }
+
+    QuantileDigest(Slice serialized, boolean offHeap)
     {
         SliceInput input = new BasicSliceInput(serialized);
 
@@ -183,17 +190,13 @@ public class QuantileDigest
         int height = MAX_BITS - Long.numberOfLeadingZeros(min ^ max) + 1;
         checkArgument(height >= 64 || nodeCount <= (1L << height) - 1, "Too many nodes in deserialized tree. Possible corruption");
 
-        counts = new double[nodeCount];
-        levels = new byte[nodeCount];
-        values = new long[nodeCount];
+        QuantileDigestNodes nodes = offHeap ? QuantileDigestNodes.direct(nodeCount) : QuantileDigestNodes.onHeap(nodeCount);
 
         int[] stack = new int[(Integer.highestOneBit(nodeCount - 1) << 1) + 1]; // log2 ceiling
         int top = -1;
 
         // The nodes are organized in a left-to-right post-order sequence, so
         // we rebuild the tree (left/right links) bottom up
-        lefts = new int[nodeCount];
-        rights = new int[nodeCount];
         for (int node = 0; node < nodeCount; node++) {
             byte nodeStructure = input.readByte();
             boolean hasRight = (nodeStructure & Flags.HAS_RIGHT) != 0;
@@ -205,35 +208,83 @@ public class QuantileDigest
             if (hasLeft || hasRight) {
                 level++;
             }
-            levels[node] = level;
+            nodes.setLevel(node, level);
 
             if (hasRight) {
-                rights[node] = stack[top--];
+                nodes.setRight(node, stack[top--]);
             }
             else {
-                rights[node] = -1;
+                nodes.setRight(node, -1);
             }
 
             if (hasLeft) {
-                lefts[node] = stack[top--];
+                nodes.setLeft(node, stack[top--]);
             }
             else {
-                lefts[node] = -1;
+                nodes.setLeft(node, -1);
             }
 
             stack[++top] = node;
 
             double count = input.readDouble();
             weightedCount += count;
-            counts[node] = count;
-            values[node] = input.readLong();
+            nodes.setCount(node, count);
+            nodes.setValue(node, input.readLong());
         }
+        this.nodes = nodes;
         checkArgument(nodeCount == 0 || top == 0, "Tree is corrupted. Expected a single root node");
         root = nodeCount - 1; // last node in post-order
 
         nextNode = nodeCount;
     }
 
+    /**
+     * Creates a digest like {@link #QuantileDigest(double, double)}, whose nodes are kept in
+     * direct memory rather than on the heap.
+     */
+    public static OffHeapQuantileDigest offHeap(double maxError, double alpha)
+    {
+        return new OffHeapQuantileDigest(maxError, alpha, alpha == 0.0 ? noOpTicker() : Ticker.systemTicker());
+    }
+
+    /**
+     * Deserializes a digest like {@link #QuantileDigest(Slice)}, keeping its nodes in direct memory.
+     *
+     * @see #offHeap(double, double)
+     */
+    public static OffHeapQuantileDigest offHeap(Slice serialized)
+    {
+        return new OffHeapQuantileDigest(serialized);
+    }
+
+    /**
+     * Creates a copy of {@code other}, like {@link #QuantileDigest(QuantileDigest)}, keeping its nodes in direct memory.
+     *
+     * @see #offHeap(double, double)
+     */
+    public static OffHeapQuantileDigest offHeap(QuantileDigest other)
+    {
+        return new OffHeapQuantileDigest(other);
+    }
+
+    public boolean isOffHeap()
+    {
+        return nodes.isDirect();
+    }
+
+    /**
+     * Drops the nodes of this digest, so their memory can be reclaimed while the digest is
+     * still referenced. The digest must not be used afterwards.
+     */
+    void release()
+    {
+        root = -1;
+        nextNode = 0;
+        freeCount = 0;
+        firstFree = -1;
+        nodes.release();
+    }
+
     public double getMaxError()
     {
         return maxError;
@@ -288,17 +339,53 @@ public class QuantileDigest
     }
 
     public void merge(QuantileDigest other)
+    {
+        // 1. merge other into this (don't modify other)
+        mergeWithoutCompression(other);
+
+        // 2. compress to remove unnecessary nodes
+        compress();
+    }
+
+    /**
+     * Merges the given digests into a new digest with the max error and decay factor of the
+     * first one. The digests are merged by a fork-join tree reduction on the given pool, and
+     * the result is compressed once, at the end. Like {@link #merge(QuantileDigest)}, this
+     * may rescale the given digests to a common landmark.
+     */
+    public static QuantileDigest mergeInParallel(List<QuantileDigest> digests, ForkJoinPool pool)
+    {
+        checkArgument(!digests.isEmpty(), "digests is empty");
+        requireNonNull(pool, "pool is null");
+
+        QuantileDigest result = pool.invoke(new MergeTask(0, digests.size(), index -> new QuantileDigest(digests.get(index)), digests::get, false));
+        result.compress();
+        return result;
+    }
+
+    /**
+     * Deserializes and merges the given digests like {@link #mergeInParallel(List, ForkJoinPool)}.
+     */
+    public static QuantileDigest mergeSerializedInParallel(List<Slice> serialized, ForkJoinPool pool)
+    {
+        checkArgument(!serialized.isEmpty(), "serialized is empty");
+        requireNonNull(pool, "pool is null");
+
+        IntFunction<QuantileDigest> deserialize = index -> new QuantileDigest(serialized.get(index));
+        QuantileDigest result = pool.invoke(new MergeTask(0, serialized.size(), deserialize, deserialize, true));
+        result.compress();
+        return result;
+    }
+
+    @VisibleForTesting
+    void mergeWithoutCompression(QuantileDigest other)
     {
         rescaleToCommonLandmark(this, other);
 
-        // 1. merge other into this (don't modify other)
         root = merge(root, other, other.root);
 
         max = Math.max(max, other.max);
         min = Math.min(min, other.min);
-
-        // 2. compress to remove unnecessary nodes
-        compress();
     }
 
     /**
@@ -326,7 +413,7 @@ public class QuantileDigest
             @Override
             public boolean process(int node)
             {
-                sum += counts[node];
+                sum += nodes.count(node);
 
                 while (iterator.hasNext() && sum > (1.0 - iterator.peek()) * weightedCount) {
                     iterator.next();
@@ -374,7 +461,7 @@ public class QuantileDigest
 
             public boolean process(int node)
             {
-                sum += counts[node];
+                sum += nodes.count(node);
 
                 while (iterator.hasNext() && sum > iterator.peek() * weightedCount) {
                     iterator.next();
@@ -458,7 +545,9 @@ public class QuantileDigest
         double normalizationFactor = weight(alpha, TimeUnit.NANOSECONDS.toSeconds(ticker.read()), landmarkInSeconds);
 
         postOrderTraversal(root, node -> {
-            while (iterator.hasNext() && iterator.peek() <= upperBound(node)) {
+            long upperBound = upperBound(node);
+            double count = nodes.count(node);
+            while (iterator.hasNext() && iterator.peek() <= upperBound) {
                 double bucketCount = holder.sum - holder.lastSum;
 
                 Bucket bucket = new Bucket(bucketCount / normalizationFactor, holder.bucketWeightedSum / bucketCount);
@@ -469,8 +558,8 @@ public class QuantileDigest
                 iterator.next();
             }
 
-            holder.bucketWeightedSum += middleFunction.middle(lowerBound(node), upperBound(node)) * counts[node];
-            holder.sum += counts[node];
+            holder.bucketWeightedSum += middleFunction.middle(lowerBound(node), upperBound) * count;
+            holder.sum += count;
             return iterator.hasNext();
         });
 
@@ -498,7 +587,7 @@ public class QuantileDigest
     {
         final AtomicLong chosen = new AtomicLong(min);
         postOrderTraversal(root, node -> {
-            if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+            if (nodes.count(node) >= ZERO_WEIGHT_THRESHOLD) {
                 chosen.set(lowerBound(node));
                 return false;
             }
@@ -512,7 +601,7 @@ public class QuantileDigest
     {
         final AtomicLong chosen = new AtomicLong(max);
         postOrderTraversal(root, node -> {
-            if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+            if (nodes.count(node) >= ZERO_WEIGHT_THRESHOLD) {
                 chosen.set(upperBound(node));
                 return false;
             }
@@ -524,12 +613,7 @@ public class QuantileDigest
 
     public int estimatedInMemorySizeInBytes()
     {
-        return (int) (QUANTILE_DIGEST_SIZE +
-                SizeOf.sizeOf(counts) +
-                SizeOf.sizeOf(levels) +
-                SizeOf.sizeOf(values) +
-                SizeOf.sizeOf(lefts) +
-                SizeOf.sizeOf(rights));
+        return (int) (QUANTILE_DIGEST_SIZE + nodes.estimatedSizeInBytes());
     }
 
     public int estimatedSerializedSizeInBytes()
@@ -562,7 +646,7 @@ public class QuantileDigest
         output.writeLong(max);
         output.writeInt(getNodeCount());
 
-        int[] nodes = new int[getNodeCount()];
+        int[] postOrder = new int[getNodeCount()];
         postOrderTraversal(root, new Callback()
         {
             int index;
@@ -570,25 +654,25 @@ public class QuantileDigest
             @Override
             public boolean process(int node)
             {
-                nodes[index++] = node;
+                postOrder[index++] = node;
                 return true;
             }
         });
 
-        for (int node : nodes) {
+        for (int node : postOrder) {
             // The max value for a level is 64.  Non-leaf nodes are decremented by 1
             // to save a bit (so max serialized value is 63 (111111, 6 bits needed)).
             // This is shifted 2 bits to give space for left/right child flags.
-            byte nodeStructure = (byte) (Math.max(levels[node] - 1, 0) << 2);
-            if (lefts[node] != -1) {
+            byte nodeStructure = (byte) (Math.max(nodes.level(node) - 1, 0) << 2);
+            if (nodes.left(node) != -1) {
                 nodeStructure |= Flags.HAS_LEFT;
             }
-            if (rights[node] != -1) {
+            if (nodes.right(node) != -1) {
                 nodeStructure |= Flags.HAS_RIGHT;
             }
             output.writeByte(nodeStructure);
-            output.writeDouble(counts[node]);
-            output.writeLong(values[node]);
+            output.writeDouble(nodes.count(node));
+            output.writeLong(nodes.value(node));
         }
 
         return output.slice();
@@ -607,34 +691,34 @@ public class QuantileDigest
 
         postOrderTraversal(root, node -> {
             // if children's weights are 0 remove them and shift the weight to their parent
-            int left = lefts[node];
-            int right = rights[node];
+            int left = nodes.left(node);
+            int right = nodes.right(node);
 
             if (left == -1 && right == -1) {
                 // leaf, nothing to do
                 return true;
             }
 
-            double leftCount = (left == -1) ? 0.0 : counts[left];
-            double rightCount = (right == -1) ? 0.0 : counts[right];
+            double leftCount = (left == -1) ? 0.0 : nodes.count(left);
+            double rightCount = (right == -1) ? 0.0 : nodes.count(right);
 
-            boolean shouldCompress = (counts[node] + leftCount + rightCount) < bound;
+            boolean shouldCompress = (nodes.count(node) + leftCount + rightCount) < bound;
 
             if (left != -1 && (shouldCompress || leftCount < ZERO_WEIGHT_THRESHOLD)) {
-                lefts[node] = tryRemove(left);
-                counts[node] += leftCount;
+                nodes.setLeft(node, tryRemove(left));
+                nodes.setCount(node, nodes.count(node) + leftCount);
             }
 
             if (right != -1 && (shouldCompress || rightCount < ZERO_WEIGHT_THRESHOLD)) {
-                rights[node] = tryRemove(right);
-                counts[node] += rightCount;
+                nodes.setRight(node, tryRemove(right));
+                nodes.setCount(node, nodes.count(node) + rightCount);
             }
 
             return true;
         });
 
         // root's count may have decayed to ~0
-        if (root != -1 && counts[root] < ZERO_WEIGHT_THRESHOLD) {
+        if (root != -1 && nodes.count(root) < ZERO_WEIGHT_THRESHOLD) {
             root = tryRemove(root);
         }
     }
@@ -645,7 +729,7 @@ public class QuantileDigest
         double factor = weight(alpha, newLandmarkInSeconds, landmarkInSeconds);
         weightedCount /= factor;
         for (int i = 0; i < nextNode; i++) {
-            counts[i] /= factor;
+            nodes.setCount(i, nodes.count(i) / factor);
         }
         landmarkInSeconds = newLandmarkInSeconds;
     }
@@ -656,7 +740,7 @@ public class QuantileDigest
             return 1;
         }
 
-        return Math.max((int) ((levels[root] + 1) / maxError), 1);
+        return Math.max((int) ((nodes.level(root) + 1) / maxError), 1);
     }
 
     private void insert(long value, double count)
@@ -675,8 +759,8 @@ public class QuantileDigest
                 return;
             }
 
-            long currentValue = values[current];
-            byte currentLevel = levels[current];
+            long currentValue = nodes.value(current);
+            byte currentLevel = nodes.level(current);
             if (!inSameSubtree(value, currentValue, currentLevel)) {
                 // if value and node.value are not in the same branch given node's level,
                 // insert a parent above them at the point at which branches diverge
@@ -686,7 +770,7 @@ public class QuantileDigest
 
             if (currentLevel == 0 && currentValue == value) {
                 // found the node
-                counts[current] += count;
+                nodes.setCount(current, nodes.count(current) + count);
                 weightedCount += count;
                 return;
             }
@@ -698,10 +782,10 @@ public class QuantileDigest
             lastBranch = branch;
 
             if (branch == 0) {
-                current = lefts[current];
+                current = nodes.left(current);
             }
             else {
-                current = rights[current];
+                current = nodes.right(current);
             }
         }
     }
@@ -712,31 +796,31 @@ public class QuantileDigest
             root = child;
         }
         else if (branch == 0) {
-            lefts[parent] = child;
+            nodes.setLeft(parent, child);
         }
         else {
-            rights[parent] = child;
+            nodes.setRight(parent, child);
         }
     }
 
     private int makeSiblings(int first, int second)
     {
-        long firstValue = values[first];
-        long secondValue = values[second];
+        long firstValue = nodes.value(first);
+        long secondValue = nodes.value(second);
 
         int parentLevel = MAX_BITS - Long.numberOfLeadingZeros(firstValue ^ secondValue);
         int parent = createNode(firstValue, parentLevel, 0);
 
         // the branch is given by the bit at the level one below parent
-        long branch = firstValue & getBranchMask(levels[parent]);
+        long branch = firstValue & getBranchMask(nodes.level(parent));
 
         if (branch == 0) {
-            lefts[parent] = first;
-            rights[parent] = second;
+            nodes.setLeft(parent, first);
+            nodes.setRight(parent, second);
         }
         else {
-            lefts[parent] = second;
-            rights[parent] = first;
+            nodes.setLeft(parent, second);
+            nodes.setRight(parent, first);
         }
 
         return parent;
@@ -752,16 +836,11 @@ public class QuantileDigest
         int node = popFree();
 
         if (node == -1) {
-            if (nextNode == counts.length) {
-                // try to double the array, but don't allocate too much to avoid going over the upper bound of nodes
+            if (nextNode == nodes.capacity()) {
+                // try to double the storage, but don't allocate too much to avoid going over the upper bound of nodes
                 // by a large margin (hence, the heuristic to not allocate more than k / 5 nodes)
-                int newSize = counts.length + Math.min(counts.length, calculateCompressionFactor() / 5 + 1);
-                counts = Arrays.copyOf(counts, newSize);
-                levels = Arrays.copyOf(levels, newSize);
-                values = Arrays.copyOf(values, newSize);
-
-                lefts = Arrays.copyOf(lefts, newSize);
-                rights = Arrays.copyOf(rights, newSize);
+                int capacity = nodes.capacity();
+                nodes.grow(capacity + Math.min(capacity, calculateCompressionFactor() / 5 + 1));
             }
 
             node = nextNode;
@@ -770,12 +849,12 @@ public class QuantileDigest
 
         weightedCount += count;
 
-        values[node] = value;
-        levels[node] = (byte) level;
-        counts[node] = count;
+        nodes.setValue(node, value);
+        nodes.setLevel(node, (byte) level);
+        nodes.setCount(node, count);
 
-        lefts[node] = -1;
-        rights[node] = -1;
+        nodes.setLeft(node, -1);
+        nodes.setRight(node, -1);
 
         return node;
     }
@@ -788,55 +867,55 @@ public class QuantileDigest
         else if (node == -1) {
             return copyRecursive(other, otherNode);
         }
-        else if (!inSameSubtree(values[node], other.values[otherNode], Math.max(levels[node], other.levels[otherNode]))) {
+        else if (!inSameSubtree(nodes.value(node), other.nodes.value(otherNode), Math.max(nodes.level(node), other.nodes.level(otherNode)))) {
             return makeSiblings(node, copyRecursive(other, otherNode));
         }
-        else if (levels[node] > other.levels[otherNode]) {
-            long branch = other.values[otherNode] & getBranchMask(levels[node]);
+        else if (nodes.level(node) > other.nodes.level(otherNode)) {
+            long branch = other.nodes.value(otherNode) & getBranchMask(nodes.level(node));
 
             if (branch == 0) {
                 // variable needed because the array may be re-allocated during merge()
-                int left = merge(lefts[node], other, otherNode);
-                lefts[node] = left;
+                int left = merge(nodes.left(node), other, otherNode);
+                nodes.setLeft(node, left);
             }
             else {
                 // variable needed because the array may be re-allocated during merge()
-                int right = merge(rights[node], other, otherNode);
-                rights[node] = right;
+                int right = merge(nodes.right(node), other, otherNode);
+                nodes.setRight(node, right);
             }
             return node;
         }
-        else if (levels[node] < other.levels[otherNode]) {
-            long branch = values[node] & getBranchMask(other.levels[otherNode]);
+        else if (nodes.level(node) < other.nodes.level(otherNode)) {
+            long branch = nodes.value(node) & getBranchMask(other.nodes.level(otherNode));
 
             // variables needed because the arrays may be re-allocated during merge()
             int left;
             int right;
             if (branch == 0) {
-                left = merge(node, other, other.lefts[otherNode]);
-                right = copyRecursive(other, other.rights[otherNode]);
+                left = merge(node, other, other.nodes.left(otherNode));
+                right = copyRecursive(other, other.nodes.right(otherNode));
             }
             else {
-                left = copyRecursive(other, other.lefts[otherNode]);
-                right = merge(node, other, other.rights[otherNode]);
+                left = copyRecursive(other, other.nodes.left(otherNode));
+                right = merge(node, other, other.nodes.right(otherNode));
             }
 
-            int result = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode]);
-            lefts[result] = left;
-            rights[result] = right;
+            int result = createNode(other.nodes.value(otherNode), other.nodes.level(otherNode), other.nodes.count(otherNode));
+            nodes.setLeft(result, left);
+            nodes.setRight(result, right);
 
             return result;
         }
 
         // else, they must be at the same level and on the same path, so just bump the counts
-        weightedCount += other.counts[otherNode];
-        counts[node] += other.counts[otherNode];
+        weightedCount += other.nodes.count(otherNode);
+        nodes.setCount(node, nodes.count(node) + other.nodes.count(otherNode));
 
         // variables needed because the arrays may be re-allocated during merge()
-        int left = merge(lefts[node], other, other.lefts[otherNode]);
-        int right = merge(rights[node], other, other.rights[otherNode]);
-        lefts[node] = left;
-        rights[node] = right;
+        int left = merge(nodes.left(node), other, other.nodes.left(otherNode));
+        int right = merge(nodes.right(node), other, other.nodes.right(otherNode));
+        nodes.setLeft(node, left);
+        nodes.setRight(node, right);
 
         return node;
     }
@@ -852,18 +931,18 @@ public class QuantileDigest
             return otherNode;
         }
 
-        int node = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode]);
+        int node = createNode(other.nodes.value(otherNode), other.nodes.level(otherNode), other.nodes.count(otherNode));
 
-        if (other.lefts[otherNode] != -1) {
+        if (other.nodes.left(otherNode) != -1) {
             // variable needed because the array may be re-allocated during merge()
-            int left = copyRecursive(other, other.lefts[otherNode]);
-            lefts[node] = left;
+            int left = copyRecursive(other, other.nodes.left(otherNode));
+            nodes.setLeft(node, left);
         }
 
-        if (other.rights[otherNode] != -1) {
+        if (other.nodes.right(otherNode) != -1) {
             // variable needed because the array may be re-allocated during merge()
-            int right = copyRecursive(other, other.rights[otherNode]);
-            rights[node] = right;
+            int right = copyRecursive(other, other.nodes.right(otherNode));
+            nodes.setRight(node, right);
         }
 
         return node;
@@ -877,8 +956,8 @@ public class QuantileDigest
     {
         checkArgument(node != -1, "node is -1");
 
-        int left = lefts[node];
-        int right = rights[node];
+        int left = nodes.left(node);
+        int right = nodes.right(node);
 
         if (left == -1 && right == -1) {
             // leaf, just remove it
@@ -888,7 +967,7 @@ public class QuantileDigest
 
         if (left != -1 && right != -1) {
             // node has both children so we can't physically remove it
-            counts[node] = 0;
+            nodes.setCount(node, 0);
             return node;
         }
 
@@ -919,7 +998,7 @@ public class QuantileDigest
 
     private void pushFree(int node)
     {
-        lefts[node] = firstFree;
+        nodes.setLeft(node, firstFree);
         firstFree = node;
         freeCount++;
     }
@@ -932,7 +1011,7 @@ public class QuantileDigest
             return node;
         }
 
-        firstFree = lefts[firstFree];
+        firstFree = nodes.left(firstFree);
         freeCount--;
 
         return node;
@@ -945,28 +1024,23 @@ public class QuantileDigest
 
     private void postOrderTraversal(int node, Callback callback, TraversalOrder order)
     {
-        if (order == TraversalOrder.FORWARD) {
-            postOrderTraversal(node, callback, lefts, rights);
-        }
-        else {
-            postOrderTraversal(node, callback, rights, lefts);
-        }
+        postOrderTraversal(node, callback, order == TraversalOrder.REVERSE);
     }
 
-    private boolean postOrderTraversal(int node, Callback callback, int[] lefts, int[] rights)
+    private boolean postOrderTraversal(int node, Callback callback, boolean reverse)
     {
         if (node == -1) {
             return false;
         }
 
-        int first = lefts[node];
-        int second = rights[node];
+        int first = reverse ? nodes.right(node) : nodes.left(node);
+        int second = reverse ? nodes.left(node) : nodes.right(node);
 
-        if (first != -1 && !postOrderTraversal(first, callback, lefts, rights)) {
+        if (first != -1 && !postOrderTraversal(first, callback, reverse)) {
             return false;
         }
 
-        if (second != -1 && !postOrderTraversal(second, callback, lefts, rights)) {
+        if (second != -1 && !postOrderTraversal(second, callback, reverse)) {
             return false;
         }
 
@@ -1017,14 +1091,14 @@ public class QuantileDigest
      */
     private double computeMaxPathWeight(int node)
     {
-        if (node == -1 || levels[node] == 0) {
+        if (node == -1 || nodes.level(node) == 0) {
             return 0;
         }
 
-        double leftMaxWeight = computeMaxPathWeight(lefts[node]);
-        double rightMaxWeight = computeMaxPathWeight(rights[node]);
+        double leftMaxWeight = computeMaxPathWeight(nodes.left(node));
+        double rightMaxWeight = computeMaxPathWeight(nodes.right(node));
 
-        return Math.max(leftMaxWeight, rightMaxWeight) + counts[node];
+        return Math.max(leftMaxWeight, rightMaxWeight) + nodes.count(node);
     }
 
     @VisibleForTesting
@@ -1040,7 +1114,7 @@ public class QuantileDigest
             validateStructure(root, freeSlots);
 
             postOrderTraversal(root, node -> {
-                sum.addAndGet(counts[node]);
+                sum.addAndGet(nodes.count(node));
                 nodeCount.incrementAndGet();
                 return true;
             });
@@ -1057,29 +1131,29 @@ public class QuantileDigest
 
     private void validateStructure(int node, Set<Integer> freeNodes)
     {
-        checkState(levels[node] >= 0);
+        checkState(nodes.level(node) >= 0);
 
         checkState(!freeNodes.contains(node), "Node is in list of free slots: %s", node);
-        if (lefts[node] != -1) {
-            validateBranchStructure(node, lefts[node], rights[node], true);
-            validateStructure(lefts[node], freeNodes);
+        if (nodes.left(node) != -1) {
+            validateBranchStructure(node, nodes.left(node), nodes.right(node), true);
+            validateStructure(nodes.left(node), freeNodes);
         }
 
-        if (rights[node] != -1) {
-            validateBranchStructure(node, rights[node], lefts[node], false);
-            validateStructure(rights[node], freeNodes);
+        if (nodes.right(node) != -1) {
+            validateBranchStructure(node, nodes.right(node), nodes.left(node), false);
+            validateStructure(nodes.right(node), freeNodes);
         }
     }
 
     private void validateBranchStructure(int parent, int child, int otherChild, boolean isLeft)
     {
-        checkState(levels[child] < levels[parent], "Child level (%s) should be smaller than parent level (%s)", levels[child], levels[parent]);
+        checkState(nodes.level(child) < nodes.level(parent), "Child level (%s) should be smaller than parent level (%s)", nodes.level(child), nodes.level(parent));
 
-        long branch = values[child] & (1L << (levels[parent] - 1));
+        long branch = nodes.value(child) & (1L << (nodes.level(parent) - 1));
         checkState(branch == 0 && isLeft || branch != 0 && !isLeft, "Value of child node is inconsistent with its branch");
 
-        checkState(counts[parent] > 0 ||
-                        counts[child] > 0 || otherChild != -1,
+        checkState(nodes.count(parent) > 0 ||
+                        nodes.count(child) > 0 || otherChild != -1,
                 "Found a linear chain of zero-weight nodes");
     }
 
@@ -1089,7 +1163,7 @@ public class QuantileDigest
         int index = firstFree;
         while (index != -1) {
             freeSlots.add(index);
-            index = lefts[index];
+            index = nodes.left(index);
         }
         return freeSlots;
     }
@@ -1101,27 +1175,27 @@ public class QuantileDigest
         builder.append("digraph QuantileDigest {\n")
                 .append("\tgraph [ordering=\"out\"];");
 
-        final List<Integer> nodes = new ArrayList<>();
+        final List<Integer> traversed = new ArrayList<>();
         postOrderTraversal(root, node -> {
-            nodes.add(node);
+            traversed.add(node);
             return true;
         });
 
-        Multimap<Byte, Integer> nodesByLevel = Multimaps.index(nodes, input -> levels[input]);
+        Multimap<Byte, Integer> nodesByLevel = Multimaps.index(traversed, input -> nodes.level(input));
 
         for (Map.Entry<Byte, Collection<Integer>> entry : nodesByLevel.asMap().entrySet()) {
             builder.append("\tsubgraph level_" + entry.getKey() + " {\n")
                     .append("\t\trank = same;\n");
 
             for (int node : entry.getValue()) {
-                if (levels[node] == 0) {
+                if (nodes.level(node) == 0) {
                     builder.append(String.format("\t\t%s [label=\"%s:[%s]@%s\\n%s\", shape=rect, style=filled,color=%s];\n",
                             idFor(node),
                             node,
                             lowerBound(node),
-                            levels[node],
-                            counts[node],
-                            counts[node] > 0 ? "salmon2" : "white"));
+                            nodes.level(node),
+                            nodes.count(node),
+                            nodes.count(node) > 0 ? "salmon2" : "white"));
                 }
                 else {
                     builder.append(String.format("\t\t%s [label=\"%s:[%s..%s]@%s\\n%s\", shape=rect, style=filled,color=%s];\n",
@@ -1129,26 +1203,26 @@ public class QuantileDigest
                             node,
                             lowerBound(node),
                             upperBound(node),
-                            levels[node],
-                            counts[node],
-                            counts[node] > 0 ? "salmon2" : "white"));
+                            nodes.level(node),
+                            nodes.count(node),
+                            nodes.count(node) > 0 ? "salmon2" : "white"));
                 }
             }
             builder.append("\t}\n");
         }
 
-        for (int node : nodes) {
-            if (lefts[node] != -1) {
+        for (int node : traversed) {
+            if (nodes.left(node) != -1) {
                 builder.append(format("\t%s -> %s [style=\"%s\"];\n",
                         idFor(node),
-                        idFor(lefts[node]),
-                        levels[node] - levels[lefts[node]] == 1 ? "solid" : "dotted"));
+                        idFor(nodes.left(node)),
+                        nodes.level(node) - nodes.level(nodes.left(node)) == 1 ? "solid" : "dotted"));
             }
-            if (rights[node] != -1) {
+            if (nodes.right(node) != -1) {
                 builder.append(format("\t%s -> %s [style=\"%s\"];\n",
                         idFor(node),
-                        idFor(rights[node]),
-                        levels[node] - levels[rights[node]] == 1 ? "solid" : "dotted"));
+                        idFor(nodes.right(node)),
+                        nodes.level(node) - nodes.level(nodes.right(node)) == 1 ? "solid" : "dotted"));
             }
         }
 
@@ -1188,10 +1262,11 @@ public class QuantileDigest
         // set all lsb below level to 1 (we're looking for the highest value of the range covered by this node)
         long mask = 0;
 
-        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        byte level = nodes.level(node);
+        if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
         }
-        return bitsToLong(values[node] | mask);
+        return bitsToLong(nodes.value(node) | mask);
     }
 
     private long lowerBound(int node)
@@ -1199,11 +1274,12 @@ public class QuantileDigest
         // set all lsb below level to 0 (we're looking for the lowest value of the range covered by this node)
         long mask = 0;
 
-        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        byte level = nodes.level(node);
+        if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
         }
 
-        return bitsToLong(values[node] & (~mask));
+        return bitsToLong(nodes.value(node) & (~mask));
     }
 
     private long middle(int node)
@@ -1287,6 +1363,55 @@ public class QuantileDigest
         }
     }
 
+    private static final class MergeTask
+            extends RecursiveTask<QuantileDigest>
+    {
+        private static final int BATCH_SIZE = 16;
+
+        private final int from;
+        private final int to;
+        // returns a digest that can be modified, for the first digest of a batch
+        private final IntFunction<QuantileDigest> copy;
+        private final IntFunction<QuantileDigest> digest;
+        // whether the digests returned by digest are created for the merge, and are released once merged
+        private final boolean releaseMerged;
+
+        private MergeTask(int from, int to, IntFunction<QuantileDigest> copy, IntFunction<QuantileDigest> digest, boolean releaseMerged)
+        {
+            this.from = from;
+            this.to = to;
+            this.copy = copy;
+            this.digest = digest;
+            this.releaseMerged = releaseMerged;
+        }
+
+        @Override
+        protected QuantileDigest compute()
+        {
+            if (to - from <= BATCH_SIZE) {
+                QuantileDigest result = copy.apply(from);
+                for (int index = from + 1; index < to; index++) {
+                    QuantileDigest merged = digest.apply(index);
+                    result.mergeWithoutCompression(merged);
+                    if (releaseMerged) {
+                        merged.release();
+                    }
+                }
+                return result;
+            }
+
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(from, middle, copy, digest, releaseMerged);
+            left.fork();
+            QuantileDigest right = new MergeTask(middle, to, copy, digest, releaseMerged).compute();
+            QuantileDigest result = left.join();
+            result.mergeWithoutCompression(right);
+            // the intermediate results are always created by the merge
+            right.release();
+            return result;
+        }
+    }
+
     private interface Callback
     {
         /**
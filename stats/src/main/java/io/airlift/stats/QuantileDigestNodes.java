@@ -0,0 +1,448 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.math.IntMath.ceilingPowerOfTwo;
+import static io.airlift.slice.SizeOf.instanceSize;
+import static io.airlift.slice.SizeOf.sizeOf;
+import static java.lang.Integer.numberOfTrailingZeros;
+
+/**
+ * The nodes of a {@link QuantileDigest}. Heap nodes are kept in parallel arrays, one per
+ * field. Direct nodes are packed into a single direct buffer, which is not scanned or
+ * copied by the garbage collector. The buffers that are replaced by a grow or released are
+ * returned to a bounded pool, and reused by the next direct nodes of the same size, so their
+ * memory does not wait for the garbage collector to run the cleaner of the buffer. Buffers
+ * that are too large for the pool, or do not fit in it, are still left to the cleaner.
+ */
+abstract sealed class QuantileDigestNodes
+        permits QuantileDigestNodes.HeapNodes, QuantileDigestNodes.DirectNodes
+{
+    public static QuantileDigestNodes onHeap(int capacity)
+    {
+        return new HeapNodes(capacity);
+    }
+
+    public static QuantileDigestNodes direct(int capacity)
+    {
+        return new DirectNodes(capacity);
+    }
+
+    public abstract QuantileDigestNodes copy();
+
+    /**
+     * Copies the nodes into direct or heap storage.
+     */
+    public QuantileDigestNodes copy(boolean direct)
+    {
+        if (direct == isDirect()) {
+            return copy();
+        }
+        QuantileDigestNodes copy = direct ? direct(capacity()) : onHeap(capacity());
+        for (int node = 0; node < capacity(); node++) {
+            copy.setCount(node, count(node));
+            copy.setValue(node, value(node));
+            copy.setLeft(node, left(node));
+            copy.setRight(node, right(node));
+            copy.setLevel(node, level(node));
+        }
+        return copy;
+    }
+
+    public abstract boolean isDirect();
+
+    public abstract int capacity();
+
+    /**
+     * Grows the storage to hold at least {@code minCapacity} nodes. Heap nodes grow to exactly
+     * {@code minCapacity}, while direct nodes at least double, as every grow allocates a new
+     * direct buffer.
+     */
+    public abstract void grow(int minCapacity);
+
+    public abstract void release();
+
+    public abstract long estimatedSizeInBytes();
+
+    public abstract double count(int node);
+
+    public abstract void setCount(int node, double count);
+
+    public abstract long value(int node);
+
+    public abstract void setValue(int node, long value);
+
+    public abstract int left(int node);
+
+    public abstract void setLeft(int node, int left);
+
+    public abstract int right(int node);
+
+    public abstract void setRight(int node, int right);
+
+    public abstract byte level(int node);
+
+    public abstract void setLevel(int node, byte level);
+
+    static final class HeapNodes
+            extends QuantileDigestNodes
+    {
+        private static final int INSTANCE_SIZE = instanceSize(HeapNodes.class);
+
+        private double[] counts;
+        private byte[] levels;
+        private long[] values;
+
+        private int[] lefts;
+        private int[] rights;
+
+        private HeapNodes(int capacity)
+        {
+            counts = new double[capacity];
+            levels = new byte[capacity];
+            values = new long[capacity];
+
+            lefts = new int[capacity];
+            rights = new int[capacity];
+        }
+
+        private HeapNodes(HeapNodes other)
+        {
+            counts = other.counts.clone();
+            levels = other.levels.clone();
+            values = other.values.clone();
+            lefts = other.lefts.clone();
+            rights = other.rights.clone();
+        }
+
+        @Override
+        public QuantileDigestNodes copy()
+        {
+            return new HeapNodes(this);
+        }
+
+        @Override
+        public boolean isDirect()
+        {
+            return false;
+        }
+
+        @Override
+        public int capacity()
+        {
+            return counts.length;
+        }
+
+        @Override
+        public void grow(int minCapacity)
+        {
+            counts = Arrays.copyOf(counts, minCapacity);
+            levels = Arrays.copyOf(levels, minCapacity);
+            values = Arrays.copyOf(values, minCapacity);
+
+            lefts = Arrays.copyOf(lefts, minCapacity);
+            rights = Arrays.copyOf(rights, minCapacity);
+        }
+
+        @Override
+        public void release()
+        {
+            grow(0);
+        }
+
+        @Override
+        public long estimatedSizeInBytes()
+        {
+            return INSTANCE_SIZE +
+                    sizeOf(counts) +
+                    sizeOf(levels) +
+                    sizeOf(values) +
+                    sizeOf(lefts) +
+                    sizeOf(rights);
+        }
+
+        @Override
+        public double count(int node)
+        {
+            return counts[node];
+        }
+
+        @Override
+        public void setCount(int node, double count)
+        {
+            counts[node] = count;
+        }
+
+        @Override
+        public long value(int node)
+        {
+            return values[node];
+        }
+
+        @Override
+        public void setValue(int node, long value)
+        {
+            values[node] = value;
+        }
+
+        @Override
+        public int left(int node)
+        {
+            return lefts[node];
+        }
+
+        @Override
+        public void setLeft(int node, int left)
+        {
+            lefts[node] = left;
+        }
+
+        @Override
+        public int right(int node)
+        {
+            return rights[node];
+        }
+
+        @Override
+        public void setRight(int node, int right)
+        {
+            rights[node] = right;
+        }
+
+        @Override
+        public byte level(int node)
+        {
+            return levels[node];
+        }
+
+        @Override
+        public void setLevel(int node, byte level)
+        {
+            levels[node] = level;
+        }
+    }
+
+    static final class DirectNodes
+            extends QuantileDigestNodes
+    {
+        private static final int INSTANCE_SIZE = instanceSize(DirectNodes.class);
+        private static final int BUFFER_INSTANCE_SIZE = instanceSize(ByteBuffer.allocateDirect(0).getClass());
+        private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+        private static final int COUNT_OFFSET = 0;
+        private static final int VALUE_OFFSET = COUNT_OFFSET + Double.BYTES;
+        private static final int LEFT_OFFSET = VALUE_OFFSET + Long.BYTES;
+        private static final int RIGHT_OFFSET = LEFT_OFFSET + Integer.BYTES;
+        private static final int LEVEL_OFFSET = RIGHT_OFFSET + Integer.BYTES;
+        private static final int NODE_SIZE = LEVEL_OFFSET + Byte.BYTES;
+
+        // a digest grows one node at a time, so start with room for a small tree
+        private static final int INITIAL_CAPACITY = 64;
+        private static final int MAX_CAPACITY = Integer.MAX_VALUE / NODE_SIZE;
+
+        // pooled buffers have a power of two capacity, so a buffer can be reused by any nodes of the same size class
+        private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+        private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+        private static final ImmutableList<Queue<ByteBuffer>> POOL = IntStream.rangeClosed(0, sizeClass(MAX_POOLED_CAPACITY))
+                .<Queue<ByteBuffer>>mapToObj(sizeClass -> new ConcurrentLinkedQueue<>())
+                .collect(toImmutableList());
+        private static final AtomicLong pooledBytes = new AtomicLong();
+
+        private ByteBuffer buffer;
+        private int capacity;
+
+        private DirectNodes(int capacity)
+        {
+            this.capacity = roundCapacity(Math.max(capacity, INITIAL_CAPACITY));
+            this.buffer = allocate(this.capacity);
+        }
+
+        private DirectNodes(DirectNodes other)
+        {
+            this.capacity = other.capacity;
+            this.buffer = allocate(capacity);
+            buffer.put(0, other.buffer, 0, other.buffer.capacity());
+        }
+
+        @Override
+        public QuantileDigestNodes copy()
+        {
+            return new DirectNodes(this);
+        }
+
+        @Override
+        public boolean isDirect()
+        {
+            return true;
+        }
+
+        @Override
+        public int capacity()
+        {
+            return capacity;
+        }
+
+        @Override
+        public void grow(int minCapacity)
+        {
+            int newCapacity = roundCapacity((int) Math.min(Math.max((long) capacity * 2, minCapacity), MAX_CAPACITY));
+            ByteBuffer grown = allocate(newCapacity);
+            grown.put(0, buffer, 0, Math.min(buffer.capacity(), grown.capacity()));
+            free(buffer);
+            buffer = grown;
+            capacity = newCapacity;
+        }
+
+        @Override
+        public void release()
+        {
+            if (buffer == RELEASED) {
+                return;
+            }
+            free(buffer);
+            buffer = RELEASED;
+            capacity = 0;
+        }
+
+        @Override
+        public long estimatedSizeInBytes()
+        {
+            return INSTANCE_SIZE + BUFFER_INSTANCE_SIZE + (long) capacity * NODE_SIZE;
+        }
+
+        @Override
+        public double count(int node)
+        {
+            return buffer.getDouble(node * NODE_SIZE + COUNT_OFFSET);
+        }
+
+        @Override
+        public void setCount(int node, double count)
+        {
+            buffer.putDouble(node * NODE_SIZE + COUNT_OFFSET, count);
+        }
+
+        @Override
+        public long value(int node)
+        {
+            return buffer.getLong(node * NODE_SIZE + VALUE_OFFSET);
+        }
+
+        @Override
+        public void setValue(int node, long value)
+        {
+            buffer.putLong(node * NODE_SIZE + VALUE_OFFSET, value);
+        }
+
+        @Override
+        public int left(int node)
+        {
+            return buffer.getInt(node * NODE_SIZE + LEFT_OFFSET);
+        }
+
+        @Override
+        public void setLeft(int node, int left)
+        {
+            buffer.putInt(node * NODE_SIZE + LEFT_OFFSET, left);
+        }
+
+        @Override
+        public int right(int node)
+        {
+            return buffer.getInt(node * NODE_SIZE + RIGHT_OFFSET);
+        }
+
+        @Override
+        public void setRight(int node, int right)
+        {
+            buffer.putInt(node * NODE_SIZE + RIGHT_OFFSET, right);
+        }
+
+        @Override
+        public byte level(int node)
+        {
+            return buffer.get(node * NODE_SIZE + LEVEL_OFFSET);
+        }
+
+        @Override
+        public void setLevel(int node, byte level)
+        {
+            buffer.put(node * NODE_SIZE + LEVEL_OFFSET, level);
+        }
+
+        private static int roundCapacity(int capacity)
+        {
+            if (capacity > MAX_POOLED_CAPACITY) {
+                return capacity;
+            }
+            return ceilingPowerOfTwo(capacity);
+        }
+
+        /**
+         * Returns the index of the pool for buffers of the given capacity, or -1 if they are not pooled.
+         */
+        private static int sizeClass(int capacity)
+        {
+            if (capacity < INITIAL_CAPACITY || capacity > MAX_POOLED_CAPACITY || Integer.bitCount(capacity) != 1) {
+                return -1;
+            }
+            return numberOfTrailingZeros(capacity) - numberOfTrailingZeros(INITIAL_CAPACITY);
+        }
+
+        private static ByteBuffer allocate(int capacity)
+        {
+            int sizeClass = sizeClass(capacity);
+            if (sizeClass >= 0) {
+                ByteBuffer buffer = POOL.get(sizeClass).poll();
+                if (buffer != null) {
+                    pooledBytes.addAndGet(-buffer.capacity());
+                    return buffer;
+                }
+            }
+            return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, NODE_SIZE)).order(ByteOrder.nativeOrder());
+        }
+
+        private static void free(ByteBuffer buffer)
+        {
+            int sizeClass = sizeClass(buffer.capacity() / NODE_SIZE);
+            if (sizeClass < 0) {
+                return;
+            }
+            if (pooledBytes.addAndGet(buffer.capacity()) > MAX_POOLED_BYTES) {
+                // the pool is full, so the buffer is left to its cleaner
+                pooledBytes.addAndGet(-buffer.capacity());
+                return;
+            }
+            POOL.get(sizeClass).add(buffer);
+        }
+
+        @VisibleForTesting
+        static long getPooledBytes()
+        {
+            return pooledBytes.get();
+        }
+    }
+}
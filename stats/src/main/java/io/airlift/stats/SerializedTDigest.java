@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.primitives.Doubles;
+import io.airlift.slice.SizeOf;
+import io.airlift.slice.Slice;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-only view over a {@link TDigest} in its serialized form. Estimates are
+ * computed directly from the slice, without copying the centroids, and the view
+ * can be merged into a {@link TDigest} with {@link TDigest#mergeWith(SerializedTDigest)}.
+ * <p>
+ * The view does not copy the slice, so the slice must not be modified while the view is in use.
+ */
+public final class SerializedTDigest
+{
+    private static final int MIN_OFFSET = SizeOf.SIZE_OF_BYTE;
+    private static final int MAX_OFFSET = MIN_OFFSET + SizeOf.SIZE_OF_DOUBLE;
+    private static final int COMPRESSION_OFFSET = MAX_OFFSET + SizeOf.SIZE_OF_DOUBLE;
+    private static final int TOTAL_WEIGHT_OFFSET = COMPRESSION_OFFSET + SizeOf.SIZE_OF_DOUBLE;
+    private static final int CENTROID_COUNT_OFFSET = TOTAL_WEIGHT_OFFSET + SizeOf.SIZE_OF_DOUBLE;
+    private static final int MEANS_OFFSET = CENTROID_COUNT_OFFSET + SizeOf.SIZE_OF_INT;
+
+    private final Slice serialized;
+    private final int centroidCount;
+    private final int weightsOffset;
+    private final TDigest.Centroids centroids = new SliceCentroids();
+
+    private SerializedTDigest(Slice serialized)
+    {
+        this.serialized = requireNonNull(serialized, "serialized is null");
+
+        checkArgument(serialized.length() >= MEANS_OFFSET, "Serialized T-Digest is too short");
+        checkArgument(serialized.getByte(0) == TDigest.FORMAT_TAG, "Invalid format");
+
+        centroidCount = serialized.getInt(CENTROID_COUNT_OFFSET);
+        checkArgument(centroidCount >= 0, "Invalid centroid count: %s", centroidCount);
+        checkArgument((long) MEANS_OFFSET + 2L * SizeOf.SIZE_OF_DOUBLE * centroidCount == serialized.length(), "Serialized T-Digest size does not match the centroid count");
+        weightsOffset = MEANS_OFFSET + SizeOf.SIZE_OF_DOUBLE * centroidCount;
+    }
+
+    public static SerializedTDigest wrap(Slice serialized)
+    {
+        return new SerializedTDigest(serialized);
+    }
+
+    public double getMin()
+    {
+        if (getCount() == 0) {
+            return Double.NaN;
+        }
+        return getRawMin();
+    }
+
+    public double getMax()
+    {
+        if (getCount() == 0) {
+            return Double.NaN;
+        }
+        return getRawMax();
+    }
+
+    public double getCount()
+    {
+        return serialized.getDouble(TOTAL_WEIGHT_OFFSET);
+    }
+
+    public double getCompression()
+    {
+        return serialized.getDouble(COMPRESSION_OFFSET);
+    }
+
+    public double valueAt(double quantile)
+    {
+        return valuesAt(quantile)[0];
+    }
+
+    public List<Double> valuesAt(List<Double> quantiles)
+    {
+        return Doubles.asList(valuesAt(Doubles.toArray(quantiles)));
+    }
+
+    public double[] valuesAt(double... quantiles)
+    {
+        if (quantiles.length == 0) {
+            return new double[0];
+        }
+
+        TDigest.validateQuantilesArgument(quantiles);
+
+        // serialized digests are always merged, so the centroids can be used as they are
+        return TDigest.valuesAt(quantiles, getRawMin(), getRawMax(), getCount(), centroidCount, centroids);
+    }
+
+    /**
+     * Returns a mutable copy of this digest
+     */
+    public TDigest toTDigest()
+    {
+        return TDigest.deserialize(serialized);
+    }
+
+    int getCentroidCount()
+    {
+        return centroidCount;
+    }
+
+    double getRawMin()
+    {
+        return serialized.getDouble(MIN_OFFSET);
+    }
+
+    double getRawMax()
+    {
+        return serialized.getDouble(MAX_OFFSET);
+    }
+
+    void copyCentroids(double[] means, double[] weights, int offset)
+    {
+        for (int i = 0; i < centroidCount; i++) {
+            means[offset + i] = centroids.mean(i);
+            weights[offset + i] = centroids.weight(i);
+        }
+    }
+
+    private class SliceCentroids
+            implements TDigest.Centroids
+    {
+        @Override
+        public double mean(int index)
+        {
+            return serialized.getDouble(MEANS_OFFSET + index * SizeOf.SIZE_OF_DOUBLE);
+        }
+
+        @Override
+        public double weight(int index)
+        {
+            return serialized.getDouble(weightsOffset + index * SizeOf.SIZE_OF_DOUBLE);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.units.Duration;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.floorMod;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A uniform random sample of the {@code long}s recorded within a sliding time window.
+ * <p>
+ * The window is split into {@value #BUCKET_COUNT} buckets. Each bucket keeps the values
+ * with the highest of a uniformly random priority, which is a uniform sample of the values
+ * recorded in that bucket. Since such samples can be merged by keeping the highest priorities
+ * overall, merging the buckets of the window yields a uniform sample of all values in the
+ * window. The window covers the current bucket and the {@code BUCKET_COUNT - 1} preceding
+ * ones, so values leave the sample between {@code (1 - 1 / BUCKET_COUNT) * window} and
+ * {@code window} after they were recorded.
+ * <p>
+ * All buckets are allocated up front and reused, so updates do not allocate. Reads
+ * allocate the merged sample.
+ *
+ * @see ExponentiallyDecayingSample
+ */
+@ThreadSafe
+final class SlidingWindowSample
+        implements Sample
+{
+    private static final int BUCKET_COUNT = 8;
+
+    private final int reservoirSize;
+    private final Ticker ticker;
+    private final long bucketNanos;
+
+    @GuardedBy("this")
+    private final PriorityReservoir[] buckets = new PriorityReservoir[BUCKET_COUNT];
+    // the time slice, in units of bucketNanos, that each bucket holds values for
+    @GuardedBy("this")
+    private final long[] bucketSlices = new long[BUCKET_COUNT];
+
+    /**
+     * @param reservoirSize the number of samples to keep for the whole window
+     * @param window the duration after which values are no longer part of the sample
+     */
+    public SlidingWindowSample(int reservoirSize, Duration window)
+    {
+        this(reservoirSize, window, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SlidingWindowSample(int reservoirSize, Duration window, Ticker ticker)
+    {
+        requireNonNull(window, "window is null");
+        this.reservoirSize = reservoirSize;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.bucketNanos = window.roundTo(NANOSECONDS) / BUCKET_COUNT;
+        checkArgument(bucketNanos > 0, "window is too short");
+
+        // each bucket may hold all values of the window
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new PriorityReservoir(reservoirSize);
+        }
+        clear();
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        for (PriorityReservoir bucket : buckets) {
+            bucket.clear();
+        }
+        // no slice is old enough to be mistaken for a current one
+        Arrays.fill(bucketSlices, Long.MIN_VALUE);
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return mergeWindow().size();
+    }
+
+    @Override
+    public synchronized void update(long value)
+    {
+        long slice = currentSlice();
+        int index = floorMod(slice, BUCKET_COUNT);
+        if (bucketSlices[index] != slice) {
+            // the bucket holds values of a slice that has left the window
+            buckets[index].clear();
+            bucketSlices[index] = slice;
+        }
+        buckets[index].offer(ThreadLocalRandom.current().nextDouble(), value);
+    }
+
+    @Override
+    public synchronized long[] values()
+    {
+        return mergeWindow().values();
+    }
+
+    @Override
+    public double[] percentiles(double... percentiles)
+    {
+        return PriorityReservoir.percentiles(values(), percentiles);
+    }
+
+    @GuardedBy("this")
+    private PriorityReservoir mergeWindow()
+    {
+        long oldestSlice = currentSlice() - BUCKET_COUNT + 1;
+        PriorityReservoir window = new PriorityReservoir(reservoirSize);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (bucketSlices[i] >= oldestSlice) {
+                window.offerAll(buckets[i]);
+            }
+        }
+        return window;
+    }
+
+    private long currentSlice()
+    {
+        return ticker.read() / bucketNanos;
+    }
+}
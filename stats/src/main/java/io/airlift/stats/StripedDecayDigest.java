@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import java.util.function.BiFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.math.IntMath.ceilingPowerOfTwo;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A decaying digest and running total split into independently locked stripes.
+ * Writers only lock the stripe assigned to the current thread, so concurrent
+ * writers rarely contend. Readers merge the stripes into a fresh digest on demand,
+ * which is reused by the reads of the following {@value #MERGE_REUSE_MILLIS}ms, so that
+ * reading all attributes of a stat in one scrape only merges once. Values added in that
+ * time are not seen by these reads. With a single stripe, reads operate on the stripe
+ * directly and no merge happens.
+ */
+@ThreadSafe
+final class StripedDecayDigest
+        implements DistributionState
+{
+    private static final long MERGE_REUSE_MILLIS = 100;
+
+    private final double alpha;
+    private final Ticker ticker;
+    private final Stripe[] stripes;
+
+    @GuardedBy("this")
+    private DecayTDigest mergedDigest;
+    @GuardedBy("this")
+    private DecayCounter mergedTotal;
+    @GuardedBy("this")
+    private long mergedAtNanos;
+
+    public StripedDecayDigest(double alpha, int stripeCount)
+    {
+        this(alpha, stripeCount, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    StripedDecayDigest(double alpha, int stripeCount, Ticker ticker)
+    {
+        checkArgument(stripeCount > 0, "stripeCount must be at least 1");
+        this.alpha = alpha;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.stripes = new Stripe[ceilingPowerOfTwo(stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha, ticker), new DecayCounter(alpha, ticker));
+        }
+    }
+
+    public StripedDecayDigest(double alpha, DecayTDigest digest, DecayCounter total)
+    {
+        this(alpha, Ticker.systemTicker(), new Stripe[] {new Stripe(digest, total)});
+    }
+
+    private StripedDecayDigest(double alpha, Ticker ticker, Stripe[] stripes)
+    {
+        this.alpha = alpha;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.stripes = requireNonNull(stripes, "stripes is null");
+    }
+
+    @Override
+    public void add(long value, long count)
+    {
+        Stripe stripe = currentStripe();
+        synchronized (stripe) {
+            stripe.digest.add(value, count);
+            stripe.total.add(value * count);
+        }
+    }
+
+    @Override
+    public <T> T read(BiFunction<DecayTDigest, DecayCounter, T> reader)
+    {
+        if (stripes.length == 1) {
+            Stripe stripe = stripes[0];
+            synchronized (stripe) {
+                return reader.apply(stripe.digest, stripe.total);
+            }
+        }
+
+        synchronized (this) {
+            long now = ticker.read();
+            if (mergedDigest == null || now - mergedAtNanos >= MILLISECONDS.toNanos(MERGE_REUSE_MILLIS)) {
+                mergeStripes();
+                mergedAtNanos = now;
+            }
+            return reader.apply(mergedDigest, mergedTotal);
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.total.reset();
+                stripe.digest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha, ticker);
+            }
+        }
+        synchronized (this) {
+            // the values before the reset must not be read again
+            mergedDigest = null;
+            mergedTotal = null;
+        }
+    }
+
+    @Override
+    public StripedDecayDigest duplicate()
+    {
+        Stripe[] copies = new Stripe[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            synchronized (stripe) {
+                copies[i] = new Stripe(stripe.digest.duplicate(), stripe.total.duplicate());
+            }
+        }
+        return new StripedDecayDigest(alpha, ticker, copies);
+    }
+
+    @GuardedBy("this")
+    private void mergeStripes()
+    {
+        mergedDigest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha, ticker);
+        mergedTotal = new DecayCounter(alpha, ticker);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                mergedDigest.merge(stripe.digest);
+                mergedTotal.merge(stripe.total);
+            }
+        }
+    }
+
+    private Stripe currentStripe()
+    {
+        return stripes[ThreadStripes.currentStripe(stripes.length)];
+    }
+
+    private static final class Stripe
+    {
+        @GuardedBy("this")
+        private DecayTDigest digest;
+        @GuardedBy("this")
+        private final DecayCounter total;
+
+        private Stripe(DecayTDigest digest, DecayCounter total)
+        {
+            this.digest = requireNonNull(digest, "digest is null");
+            this.total = requireNonNull(total, "total is null");
+        }
+    }
+}
@@ -25,8 +25,11 @@ import io.airlift.slice.Slices;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.slice.SizeOf.instanceSize;
 import static java.lang.Double.isInfinite;
@@ -40,7 +43,7 @@ public class TDigest
 {
     public static final double DEFAULT_COMPRESSION = 100;
 
-    private static final int FORMAT_TAG = 0;
+    static final int FORMAT_TAG = 0;
     private static final int T_DIGEST_SIZE = instanceSize(TDigest.class);
     private static final int INITIAL_CAPACITY = 1;
     private static final int FUDGE_FACTOR = 10;
@@ -63,6 +66,8 @@ public class TDigest
     private double[] tempMeans;
     private double[] tempWeights;
 
+    private final Centroids centroids = new ArrayCentroids();
+
     public TDigest()
     {
         this(DEFAULT_COMPRESSION);
@@ -190,15 +195,7 @@ public class TDigest
         checkArgument(!isInfinite(weight), "weight must be finite");
 
         if (centroidCount == means.length) {
-            if (means.length < maxSize) {
-                ensureCapacity(Math.min(Math.max(means.length * 2, INITIAL_CAPACITY), maxSize));
-            }
-            else {
-                merge(internalCompressionFactor(compression));
-                if (centroidCount >= means.length) {
-                    throw new AssertionError("Invalid size estimation for T-Digest: " + Base64.getEncoder().encodeToString(serializeInternal().getBytes()));
-                }
-            }
+            makeRoom(1);
         }
 
         means[centroidCount] = value;
@@ -212,7 +209,110 @@ public class TDigest
         needsMerge = true;
     }
 
+    /**
+     * Adds {@code length} values starting at {@code offset}, each with a weight of 1.
+     * This is equivalent to calling {@link #add(double)} for each value, but avoids
+     * the per-value bookkeeping.
+     */
+    public void add(double[] values, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, values.length);
+
+        int end = offset + length;
+        // validate the whole range first, so an invalid value leaves the digest unchanged
+        for (int i = offset; i < end; i++) {
+            checkArgument(!isNaN(values[i]), "value is NaN");
+            checkArgument(!isInfinite(values[i]), "value must be finite");
+        }
+
+        int position = offset;
+        while (position < end) {
+            if (centroidCount == means.length) {
+                makeRoom(end - position);
+            }
+
+            int batchEnd = Math.min(end, position + means.length - centroidCount);
+            for (; position < batchEnd; position++) {
+                double value = values[position];
+                means[centroidCount] = value;
+                weights[centroidCount] = 1;
+                centroidCount++;
+
+                totalWeight += 1;
+                min = Math.min(value, min);
+                max = Math.max(value, max);
+            }
+            needsMerge = true;
+        }
+    }
+
+    /**
+     * Adds {@code length} values starting at {@code offset}, with the weights at the same
+     * positions. This is equivalent to calling {@link #add(double, double)} for each value,
+     * but avoids the per-value bookkeeping.
+     */
+    public void add(double[] values, double[] weights, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, values.length);
+        checkPositionIndexes(offset, offset + length, weights.length);
+
+        int end = offset + length;
+        // validate the whole range first, so an invalid value leaves the digest unchanged
+        for (int i = offset; i < end; i++) {
+            checkArgument(!isNaN(values[i]), "value is NaN");
+            checkArgument(!isNaN(weights[i]), "weight is NaN");
+            checkArgument(!isInfinite(values[i]), "value must be finite");
+            checkArgument(!isInfinite(weights[i]), "weight must be finite");
+        }
+
+        int position = offset;
+        while (position < end) {
+            if (centroidCount == means.length) {
+                makeRoom(end - position);
+            }
+
+            int batchEnd = Math.min(end, position + means.length - centroidCount);
+            for (; position < batchEnd; position++) {
+                double value = values[position];
+                double weight = weights[position];
+                this.means[centroidCount] = value;
+                this.weights[centroidCount] = weight;
+                centroidCount++;
+
+                totalWeight += weight;
+                min = Math.min(value, min);
+                max = Math.max(value, max);
+            }
+            needsMerge = true;
+        }
+    }
+
+    /**
+     * Makes room in the buffer for at least one more value, growing the buffer
+     * towards {@code needed} free slots or merging when it has reached its maximum size.
+     */
+    private void makeRoom(int needed)
+    {
+        if (means.length < maxSize) {
+            ensureCapacity(Math.min(Math.max(Math.max(means.length * 2, centroidCount + needed), INITIAL_CAPACITY), maxSize));
+        }
+        else {
+            merge(internalCompressionFactor(compression));
+            if (centroidCount >= means.length) {
+                throw new AssertionError("Invalid size estimation for T-Digest: " + Base64.getEncoder().encodeToString(serializeInternal().getBytes()));
+            }
+        }
+    }
+
     public void mergeWith(TDigest other)
+    {
+        mergeWith(other, 1);
+    }
+
+    /**
+     * Merges the other digest into this one with each of its weights multiplied by the given factor.
+     */
+    void mergeWith(TDigest other, double weightFactor)
     {
         if (centroidCount + other.centroidCount > means.length) {
             // first, try to compact the digests to make room
@@ -225,9 +325,14 @@ public class TDigest
 
         System.arraycopy(other.means, 0, means, centroidCount, other.centroidCount);
         System.arraycopy(other.weights, 0, weights, centroidCount, other.centroidCount);
+        if (weightFactor != 1) {
+            for (int i = centroidCount; i < centroidCount + other.centroidCount; i++) {
+                weights[i] *= weightFactor;
+            }
+        }
 
         centroidCount += other.centroidCount;
-        totalWeight += other.totalWeight;
+        totalWeight += other.totalWeight * weightFactor;
 
         min = Math.min(min, other.min);
         max = Math.max(max, other.max);
@@ -235,6 +340,169 @@ public class TDigest
         needsMerge = true;
     }
 
+    /**
+     * Merges a serialized digest into this one, reading its centroids directly from the serialized form.
+     */
+    public void mergeWith(SerializedTDigest other)
+    {
+        int otherCentroidCount = other.getCentroidCount();
+        if (centroidCount + otherCentroidCount > means.length) {
+            merge(internalCompressionFactor(compression));
+            ensureCapacity(centroidCount + otherCentroidCount);
+        }
+
+        other.copyCentroids(means, weights, centroidCount);
+
+        centroidCount += otherCentroidCount;
+        totalWeight += other.getCount();
+
+        min = Math.min(min, other.getRawMin());
+        max = Math.max(max, other.getRawMax());
+
+        needsMerge = true;
+    }
+
+    /**
+     * Merges all the given digests into this one. The centroids of all digests are
+     * combined with a single k-way merge and compressed once, instead of once per digest
+     * as with repeated calls to {@link #mergeWith(TDigest)}. Like {@link #mergeWith(TDigest)},
+     * this may compress the given digests.
+     */
+    public void mergeAll(List<TDigest> others)
+    {
+        // each digest must have its centroids sorted for the k-way merge
+        mergeIfNeeded(internalCompressionFactor(compression));
+        int capacity = means.length;
+        int[] runEnds = appendSortedRuns(others);
+
+        if (centroidCount == 0) {
+            return;
+        }
+
+        ensureIndexesCapacity();
+        mergeSortedRuns(runEnds);
+        compress(internalCompressionFactor(compression));
+
+        // drop the arrays sized for all the merged centroids, like fromSortedRun
+        if (means.length > capacity) {
+            int newSize = Math.max(capacity, centroidCount);
+            means = Arrays.copyOf(means, newSize);
+            weights = Arrays.copyOf(weights, newSize);
+            indexes = null;
+        }
+    }
+
+    /**
+     * Merges the given digests into a new digest with the compression of the first one.
+     * The digests are split into batches that are merged with a k-way merge, and the sorted
+     * batches are merged pairwise by a fork-join tree reduction on the given pool. The
+     * centroids are compressed once, at the end. Like {@link #mergeAll(List)}, this may
+     * compress the given digests.
+     */
+    public static TDigest mergeInParallel(List<TDigest> digests, ForkJoinPool pool)
+    {
+        checkArgument(!digests.isEmpty(), "digests is empty");
+        requireNonNull(pool, "pool is null");
+
+        double compression = digests.get(0).compression;
+        SortedRun run = pool.invoke(new MergeTask(0, digests.size(), (from, to) -> {
+            TDigest batch = new TDigest(compression);
+            return batch.toSortedRun(batch.appendSortedRuns(digests.subList(from, to)));
+        }));
+        return fromSortedRun(compression, run);
+    }
+
+    /**
+     * Merges the given serialized digests like {@link #mergeInParallel(List, ForkJoinPool)},
+     * reading their centroids directly from the serialized form.
+     */
+    public static TDigest mergeSerializedInParallel(List<Slice> serialized, ForkJoinPool pool)
+    {
+        checkArgument(!serialized.isEmpty(), "serialized is empty");
+        requireNonNull(pool, "pool is null");
+
+        double compression = SerializedTDigest.wrap(serialized.get(0)).getCompression();
+        SortedRun run = pool.invoke(new MergeTask(0, serialized.size(), (from, to) -> {
+            TDigest batch = new TDigest(compression);
+            int[] runEnds = new int[to - from];
+            for (int i = from; i < to; i++) {
+                SerializedTDigest digest = SerializedTDigest.wrap(serialized.get(i));
+                batch.ensureCapacity(batch.centroidCount + digest.getCentroidCount());
+                digest.copyCentroids(batch.means, batch.weights, batch.centroidCount);
+
+                batch.centroidCount += digest.getCentroidCount();
+                batch.totalWeight += digest.getCount();
+
+                batch.min = Math.min(batch.min, digest.getRawMin());
+                batch.max = Math.max(batch.max, digest.getRawMax());
+
+                runEnds[i - from] = batch.centroidCount;
+            }
+            return batch.toSortedRun(runEnds);
+        }));
+        return fromSortedRun(compression, run);
+    }
+
+    /**
+     * Appends the centroids of the given digests to this digest, sorting them first if needed.
+     * Returns the end of each sorted run, starting with the centroids already in this digest,
+     * which must be sorted.
+     */
+    private int[] appendSortedRuns(List<TDigest> others)
+    {
+        int count = centroidCount;
+        for (TDigest other : others) {
+            other.mergeIfNeeded(internalCompressionFactor(compression));
+            count += other.centroidCount;
+        }
+        ensureCapacity(count);
+
+        int[] runEnds = new int[others.size() + 1];
+        runEnds[0] = centroidCount;
+        for (int i = 0; i < others.size(); i++) {
+            TDigest other = others.get(i);
+            System.arraycopy(other.means, 0, means, centroidCount, other.centroidCount);
+            System.arraycopy(other.weights, 0, weights, centroidCount, other.centroidCount);
+
+            centroidCount += other.centroidCount;
+            totalWeight += other.totalWeight;
+
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+
+            runEnds[i + 1] = centroidCount;
+        }
+        return runEnds;
+    }
+
+    private SortedRun toSortedRun(int[] runEnds)
+    {
+        double[] sortedMeans = new double[centroidCount];
+        double[] sortedWeights = new double[centroidCount];
+        if (centroidCount > 0) {
+            ensureIndexesCapacity();
+            mergeSortedRuns(runEnds);
+            for (int i = 0; i < centroidCount; i++) {
+                sortedMeans[i] = means[indexes[i]];
+                sortedWeights[i] = weights[indexes[i]];
+            }
+        }
+        return new SortedRun(sortedMeans, sortedWeights, totalWeight, min, max);
+    }
+
+    private static TDigest fromSortedRun(double compression, SortedRun run)
+    {
+        if (run.means().length == 0) {
+            return new TDigest(compression);
+        }
+
+        TDigest result = new TDigest(compression, run.min(), run.max(), run.totalWeight(), run.means().length, run.means(), run.weights(), false, false);
+        result.initializeIndexes();
+        result.compress(internalCompressionFactor(compression));
+        // drop the arrays sized for all the merged centroids
+        return copyOf(result);
+    }
+
     public double valueAt(double quantile)
     {
         return valuesAt(quantile)[0];
@@ -253,6 +521,19 @@ public class TDigest
 
         validateQuantilesArgument(quantiles);
 
+        if (centroidCount > 0) {
+            mergeIfNeeded(internalCompressionFactor(compression));
+        }
+
+        return valuesAt(quantiles, min, max, totalWeight, centroidCount, centroids);
+    }
+
+    /**
+     * Computes the quantiles of a digest with sorted and compressed centroids. This is shared
+     * with {@link SerializedTDigest}, which reads the centroids directly from the serialized form.
+     */
+    static double[] valuesAt(double[] quantiles, double min, double max, double totalWeight, int centroidCount, Centroids centroids)
+    {
         double[] result = new double[quantiles.length];
 
         if (centroidCount == 0) {
@@ -260,10 +541,8 @@ public class TDigest
             return result;
         }
 
-        mergeIfNeeded(internalCompressionFactor(compression));
-
         if (centroidCount == 1) {
-            Arrays.fill(result, means[0]);
+            Arrays.fill(result, centroids.mean(0));
             return result;
         }
 
@@ -279,14 +558,14 @@ public class TDigest
             index++;
         }
         // between bottom and first centroid
-        while (index < result.length && result[index] < weights[0] / 2) {
-            result[index] = (min + interpolate(result[index], 1, min, weights[0] / 2, means[0]));
+        while (index < result.length && result[index] < centroids.weight(0) / 2) {
+            result[index] = (min + interpolate(result[index], 1, min, centroids.weight(0) / 2, centroids.mean(0)));
             index++;
         }
         // between last centroid and top, but not the greatest value
-        while (index < result.length && result[index] <= totalWeight - 1 && totalWeight - result[index] <= weights[centroidCount - 1] / 2 && weights[centroidCount - 1] / 2 > 1) {
+        while (index < result.length && result[index] <= totalWeight - 1 && totalWeight - result[index] <= centroids.weight(centroidCount - 1) / 2 && centroids.weight(centroidCount - 1) / 2 > 1) {
             // we interpolate back from the end, so the value is negative
-            result[index] = (max + interpolate(totalWeight - result[index], 1, max, weights[centroidCount - 1] / 2, means[centroidCount - 1]));
+            result[index] = (max + interpolate(totalWeight - result[index], 1, max, centroids.weight(centroidCount - 1) / 2, centroids.mean(centroidCount - 1)));
             index++;
         }
         // greatest value
@@ -295,23 +574,23 @@ public class TDigest
             return result;
         }
 
-        double weightSoFar = weights[0] / 2;
+        double weightSoFar = centroids.weight(0) / 2;
         int currentCentroid = 0;
         while (index < result.length) {
-            double delta = (weights[currentCentroid] + weights[currentCentroid + 1]) / 2;
+            double delta = (centroids.weight(currentCentroid) + centroids.weight(currentCentroid + 1)) / 2;
             while (currentCentroid < centroidCount - 1 && weightSoFar + delta <= result[index]) {
                 weightSoFar += delta;
                 currentCentroid++;
                 if (currentCentroid < centroidCount - 1) {
-                    delta = (weights[currentCentroid] + weights[currentCentroid + 1]) / 2;
+                    delta = (centroids.weight(currentCentroid) + centroids.weight(currentCentroid + 1)) / 2;
                 }
             }
             // past the last centroid
             if (currentCentroid == centroidCount - 1) {
                 // between last centroid and top, but not the greatest value
-                while (index < result.length && result[index] <= totalWeight - 1 && weights[centroidCount - 1] / 2 > 1) {
+                while (index < result.length && result[index] <= totalWeight - 1 && centroids.weight(centroidCount - 1) / 2 > 1) {
                     // we interpolate back from the end, so the value is negative
-                    result[index] = (max + interpolate(totalWeight - result[index], 1, max, weights[centroidCount - 1] / 2, means[centroidCount - 1]));
+                    result[index] = (max + interpolate(totalWeight - result[index], 1, max, centroids.weight(centroidCount - 1) / 2, centroids.mean(centroidCount - 1)));
                     index++;
                 }
                 // greatest value
@@ -322,25 +601,25 @@ public class TDigest
             }
             else {
                 // single-sample cluster on the left (current centroid) and the quantile falls within that cluster
-                if (weights[currentCentroid] == 1 && result[index] - weightSoFar < weights[currentCentroid] / 2) {
-                    result[index] = means[currentCentroid];
+                if (centroids.weight(currentCentroid) == 1 && result[index] - weightSoFar < centroids.weight(currentCentroid) / 2) {
+                    result[index] = centroids.mean(currentCentroid);
                 }
                 // single-sample cluster on the right (next centroid) and the quantile falls within that cluster
-                else if (weights[currentCentroid + 1] == 1 && result[index] - weightSoFar >= weights[currentCentroid] / 2) {
-                    result[index] = means[currentCentroid + 1];
+                else if (centroids.weight(currentCentroid + 1) == 1 && result[index] - weightSoFar >= centroids.weight(currentCentroid) / 2) {
+                    result[index] = centroids.mean(currentCentroid + 1);
                 }
                 // the quantile falls within a multi-sample cluster. If the other cluster is single-sample, we can exclude it from interpolation
                 else {
                     double interpolationOffset = result[index] - weightSoFar;
                     double interpolationSectionLength = delta;
-                    if (weights[currentCentroid] == 1) {
-                        interpolationOffset -= weights[currentCentroid] / 2;
-                        interpolationSectionLength = weights[currentCentroid + 1] / 2;
+                    if (centroids.weight(currentCentroid) == 1) {
+                        interpolationOffset -= centroids.weight(currentCentroid) / 2;
+                        interpolationSectionLength = centroids.weight(currentCentroid + 1) / 2;
                     }
-                    else if (weights[currentCentroid + 1] == 1) {
-                        interpolationSectionLength = weights[currentCentroid] / 2;
+                    else if (centroids.weight(currentCentroid + 1) == 1) {
+                        interpolationSectionLength = centroids.weight(currentCentroid) / 2;
                     }
-                    result[index] = (means[currentCentroid] + interpolate(interpolationOffset, 0, means[currentCentroid], interpolationSectionLength, means[currentCentroid + 1]));
+                    result[index] = (centroids.mean(currentCentroid) + interpolate(interpolationOffset, 0, centroids.mean(currentCentroid), interpolationSectionLength, centroids.mean(currentCentroid + 1)));
                 }
                 index++;
             }
@@ -349,7 +628,7 @@ public class TDigest
         return result;
     }
 
-    private static void validateQuantilesArgument(double[] quantiles)
+    static void validateQuantilesArgument(double[] quantiles)
     {
         for (int i = 0; i < quantiles.length; i++) {
             double quantile = quantiles[i];
@@ -422,6 +701,16 @@ public class TDigest
         initializeIndexes();
 
         DoubleArrays.quickSortIndirect(indexes, means, 0, centroidCount);
+
+        compress(compression);
+    }
+
+    /**
+     * Compresses the centroids, visiting them in the order given by {@code indexes},
+     * which must be sorted by ascending mean.
+     */
+    private void compress(double compression)
+    {
         if (backwards) {
             Ints.reverse(indexes, 0, centroidCount);
         }
@@ -485,6 +774,19 @@ public class TDigest
         System.arraycopy(tempWeights, 0, weights, 0, centroidCount);
     }
 
+    /**
+     * Removes all values, but keeps the arrays for reuse.
+     */
+    void clear()
+    {
+        centroidCount = 0;
+        totalWeight = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        needsMerge = false;
+        backwards = false;
+    }
+
     @VisibleForTesting
     void forceMerge()
     {
@@ -522,12 +824,165 @@ public class TDigest
     }
 
     private void initializeIndexes()
+    {
+        ensureIndexesCapacity();
+        for (int i = 0; i < centroidCount; i++) {
+            indexes[i] = i;
+        }
+    }
+
+    private void ensureIndexesCapacity()
     {
         if (indexes == null || indexes.length != means.length) {
             indexes = new int[means.length];
         }
-        for (int i = 0; i < centroidCount; i++) {
-            indexes[i] = i;
+    }
+
+    /**
+     * Fills {@code indexes} with the order of the centroids by ascending mean, given that
+     * the centroids consist of consecutive runs that are each already sorted. The runs are
+     * merged with a binary heap, which takes O(n log k) for k runs.
+     */
+    private void mergeSortedRuns(int[] runEnds)
+    {
+        int[] positions = new int[runEnds.length];
+        int[] heap = new int[runEnds.length];
+        int heapSize = 0;
+
+        int runStart = 0;
+        for (int run = 0; run < runEnds.length; run++) {
+            positions[run] = runStart;
+            if (runStart < runEnds[run]) {
+                heap[heapSize++] = run;
+            }
+            runStart = runEnds[run];
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, positions);
+        }
+
+        int output = 0;
+        while (heapSize > 0) {
+            int run = heap[0];
+            indexes[output++] = positions[run]++;
+            if (positions[run] == runEnds[run]) {
+                heapSize--;
+                heap[0] = heap[heapSize];
+            }
+            if (heapSize > 0) {
+                siftDown(heap, heapSize, 0, positions);
+            }
+        }
+    }
+
+    private void siftDown(int[] heap, int heapSize, int index, int[] positions)
+    {
+        int run = heap[index];
+        double mean = means[positions[run]];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && means[positions[heap[child + 1]]] < means[positions[heap[child]]]) {
+                child++;
+            }
+            if (mean <= means[positions[heap[child]]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = run;
+    }
+
+    private record SortedRun(double[] means, double[] weights, double totalWeight, double min, double max)
+    {
+        public static SortedRun merge(SortedRun left, SortedRun right)
+        {
+            double[] means = new double[left.means.length + right.means.length];
+            double[] weights = new double[means.length];
+
+            int leftIndex = 0;
+            int rightIndex = 0;
+            for (int i = 0; i < means.length; i++) {
+                if (rightIndex == right.means.length || (leftIndex < left.means.length && left.means[leftIndex] <= right.means[rightIndex])) {
+                    means[i] = left.means[leftIndex];
+                    weights[i] = left.weights[leftIndex];
+                    leftIndex++;
+                }
+                else {
+                    means[i] = right.means[rightIndex];
+                    weights[i] = right.weights[rightIndex];
+                    rightIndex++;
+                }
+            }
+
+            return new SortedRun(
+                    means,
+                    weights,
+                    left.totalWeight + right.totalWeight,
+                    Math.min(left.min, right.min),
+                    Math.max(left.max, right.max));
+        }
+    }
+
+    private interface BatchMerger
+    {
+        SortedRun merge(int from, int to);
+    }
+
+    private static final class MergeTask
+            extends RecursiveTask<SortedRun>
+    {
+        private static final int BATCH_SIZE = 16;
+
+        private final int from;
+        private final int to;
+        private final BatchMerger batchMerger;
+
+        private MergeTask(int from, int to, BatchMerger batchMerger)
+        {
+            this.from = from;
+            this.to = to;
+            this.batchMerger = batchMerger;
+        }
+
+        @Override
+        protected SortedRun compute()
+        {
+            if (to - from <= BATCH_SIZE) {
+                return batchMerger.merge(from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(from, middle, batchMerger);
+            left.fork();
+            SortedRun right = new MergeTask(middle, to, batchMerger).compute();
+            return SortedRun.merge(left.join(), right);
+        }
+    }
+
+    interface Centroids
+    {
+        double mean(int index);
+
+        double weight(int index);
+    }
+
+    private class ArrayCentroids
+            implements Centroids
+    {
+        @Override
+        public double mean(int index)
+        {
+            return means[index];
+        }
+
+        @Override
+        public double weight(int index)
+        {
+            return weights[index];
         }
     }
 
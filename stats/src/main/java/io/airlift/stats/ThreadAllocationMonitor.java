@@ -0,0 +1,256 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Samples the bytes allocated by each live platform thread, and attributes them to
+ * groups of threads by thread name, so that GC pressure can be traced back to the
+ * subsystem causing it. For each group, the allocated bytes are exported as a counter,
+ * and the allocation rate in bytes per second observed in each sampling interval is
+ * exported as a distribution. Threads that do not belong to any of the known groups
+ * are accounted to {@link #getOther()}.
+ * <p>
+ * Virtual threads are not visible to {@link java.lang.management.ThreadMXBean}, so their
+ * allocations are not accounted for.
+ */
+public class ThreadAllocationMonitor
+{
+    private static final Logger log = Logger.get(ThreadAllocationMonitor.class);
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final Ticker ticker;
+    private final long samplingIntervalNanos;
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("thread-allocation-monitor")
+            .build());
+
+    private final ThreadGroupAllocation httpWorker = new ThreadGroupAllocation("http-worker");
+    private final ThreadGroupAllocation httpClient = new ThreadGroupAllocation("http-client-");
+    private final ThreadGroupAllocation logBufferDrainer = new ThreadGroupAllocation("log-buffer-drainer");
+    private final ThreadGroupAllocation other = new ThreadGroupAllocation("");
+    // matched by thread name in order, before falling back to other
+    private final List<ThreadGroupAllocation> namedGroups = List.of(httpWorker, httpClient, logBufferDrainer);
+    private final List<ThreadGroupAllocation> allGroups = List.of(httpWorker, httpClient, logBufferDrainer, other);
+
+    @GuardedBy("this")
+    private final Map<Long, ThreadState> threads = new HashMap<>();
+    @GuardedBy("this")
+    private long lastSampleNanos;
+    @GuardedBy("this")
+    private boolean sampled;
+
+    public ThreadAllocationMonitor()
+    {
+        this(new Duration(1, SECONDS));
+    }
+
+    public ThreadAllocationMonitor(Duration samplingInterval)
+    {
+        this(samplingInterval, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ThreadAllocationMonitor(Duration samplingInterval, Ticker ticker)
+    {
+        this.samplingIntervalNanos = requireNonNull(samplingInterval, "samplingInterval is null").roundTo(NANOSECONDS);
+        checkArgument(samplingIntervalNanos > 0, "samplingInterval must be positive");
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            log.warn("Thread allocated memory measurement is not supported by this JVM, allocation rates will not be reported");
+            return;
+        }
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                sample();
+            }
+            catch (Throwable e) {
+                log.warn(e, "Unexpected error sampling thread allocations");
+            }
+        }, 0, samplingIntervalNanos, NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    @Managed
+    @Nested
+    public ThreadGroupAllocation getHttpWorker()
+    {
+        return httpWorker;
+    }
+
+    @Managed
+    @Nested
+    public ThreadGroupAllocation getHttpClient()
+    {
+        return httpClient;
+    }
+
+    @Managed
+    @Nested
+    public ThreadGroupAllocation getLogBufferDrainer()
+    {
+        return logBufferDrainer;
+    }
+
+    @Managed
+    @Nested
+    public ThreadGroupAllocation getOther()
+    {
+        return other;
+    }
+
+    @VisibleForTesting
+    synchronized void sample()
+    {
+        if (!threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+
+        long now = ticker.read();
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        long[] allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadIds);
+
+        Map<ThreadGroupAllocation, Long> allocatedByGroup = new HashMap<>();
+        Map<Long, ThreadState> liveThreads = new HashMap<>();
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 if the thread is no longer alive
+            if (allocatedBytes[i] < 0) {
+                continue;
+            }
+            ThreadState state = threads.get(threadIds[i]);
+            long delta;
+            if (state == null) {
+                ThreadGroupAllocation group = groupOf(threadIds[i]);
+                if (group == null) {
+                    continue;
+                }
+                state = new ThreadState(group);
+                // a thread started since the previous sample has allocated everything within this interval
+                delta = sampled ? allocatedBytes[i] : 0;
+            }
+            else {
+                delta = allocatedBytes[i] - state.allocatedBytes;
+            }
+            state.allocatedBytes = allocatedBytes[i];
+            liveThreads.put(threadIds[i], state);
+            allocatedByGroup.merge(state.group, delta, Long::sum);
+        }
+        threads.clear();
+        threads.putAll(liveThreads);
+
+        if (sampled) {
+            double elapsedSeconds = (now - lastSampleNanos) / (double) SECONDS.toNanos(1);
+            for (ThreadGroupAllocation group : allGroups) {
+                group.record(allocatedByGroup.getOrDefault(group, 0L), elapsedSeconds);
+            }
+        }
+        lastSampleNanos = now;
+        sampled = true;
+    }
+
+    private ThreadGroupAllocation groupOf(long threadId)
+    {
+        ThreadInfo info = threadMXBean.getThreadInfo(threadId, 0);
+        if (info == null) {
+            // the thread has exited
+            return null;
+        }
+        for (ThreadGroupAllocation group : namedGroups) {
+            if (info.getThreadName().startsWith(group.threadNamePrefix)) {
+                return group;
+            }
+        }
+        return other;
+    }
+
+    public static class ThreadGroupAllocation
+    {
+        private final String threadNamePrefix;
+        private final CounterStat allocatedBytes = new CounterStat();
+        private final DistributionStat allocationRate = new DistributionStat();
+
+        private ThreadGroupAllocation(String threadNamePrefix)
+        {
+            this.threadNamePrefix = requireNonNull(threadNamePrefix, "threadNamePrefix is null");
+        }
+
+        @Managed
+        @Nested
+        public CounterStat getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        @Managed(description = "Bytes allocated per second, one value per sampling interval")
+        @Nested
+        public DistributionStat getAllocationRate()
+        {
+            return allocationRate;
+        }
+
+        private void record(long bytes, double elapsedSeconds)
+        {
+            allocatedBytes.update(bytes);
+            if (elapsedSeconds > 0) {
+                allocationRate.add((long) (bytes / elapsedSeconds));
+            }
+        }
+    }
+
+    private static class ThreadState
+    {
+        private final ThreadGroupAllocation group;
+        private long allocatedBytes;
+
+        private ThreadState(ThreadGroupAllocation group)
+        {
+            this.group = requireNonNull(group, "group is null");
+        }
+    }
+}
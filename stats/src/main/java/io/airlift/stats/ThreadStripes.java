@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+/**
+ * Assigns threads to the stripes of the striped stats, so that concurrent
+ * writers rarely lock the same stripe.
+ */
+final class ThreadStripes
+{
+    private static final long THREAD_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private ThreadStripes() {}
+
+    /**
+     * Returns the stripe of the current thread, given a power of two number of stripes.
+     */
+    public static int currentStripe(int stripeCount)
+    {
+        if (stripeCount == 1) {
+            return 0;
+        }
+        // spread sequential thread ids across the stripes
+        long hash = Thread.currentThread().threadId() * THREAD_HASH_MULTIPLIER;
+        return (int) (hash >>> 32) & (stripeCount - 1);
+    }
+}
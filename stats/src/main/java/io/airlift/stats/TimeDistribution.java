@@ -2,7 +2,6 @@ package io.airlift.stats;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.errorprone.annotations.concurrent.GuardedBy;
 import org.weakref.jmx.Managed;
 
 import java.util.LinkedHashMap;
@@ -26,11 +25,7 @@ public class TimeDistribution
         }
     }
 
-    private final double alpha;
-    @GuardedBy("this")
-    private DecayTDigest digest;
-    @GuardedBy("this")
-    private final DecayCounter total;
+    private final DistributionState state;
     private final TimeUnit unit;
 
     public TimeDistribution()
@@ -50,71 +45,83 @@ public class TimeDistribution
 
     public TimeDistribution(double alpha, TimeUnit unit)
     {
-        requireNonNull(unit, "unit is null");
-        this.alpha = alpha;
-        digest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha);
-        total = new DecayCounter(alpha);
-        this.unit = unit;
+        this(alpha, unit, 1);
     }
 
-    public synchronized void add(long value)
+    /**
+     * Creates a distribution whose recording path is split into {@code stripeCount}
+     * independently locked stripes (rounded up to a power of two).
+     *
+     * @see Distribution#Distribution(double, int)
+     */
+    public TimeDistribution(double alpha, TimeUnit unit, int stripeCount)
     {
-        digest.add(value);
-        total.add(value);
+        this(new StripedDecayDigest(alpha, stripeCount), unit);
+    }
+
+    TimeDistribution(DistributionState state, TimeUnit unit)
+    {
+        this.state = requireNonNull(state, "state is null");
+        this.unit = requireNonNull(unit, "unit is null");
+    }
+
+    public void add(long value)
+    {
+        state.add(value, 1);
     }
 
     @Managed
-    public synchronized double getCount()
+    public double getCount()
     {
-        return digest.getCount();
+        return state.read((digest, total) -> digest.getCount());
     }
 
     @Managed
-    public synchronized double getP50()
+    public double getP50()
     {
-        return convertToUnit(digest.valueAt(0.5));
+        return convertToUnit(valueAt(0.5));
     }
 
     @Managed
-    public synchronized double getP75()
+    public double getP75()
     {
-        return convertToUnit(digest.valueAt(0.75));
+        return convertToUnit(valueAt(0.75));
     }
 
     @Managed
-    public synchronized double getP90()
+    public double getP90()
     {
-        return convertToUnit(digest.valueAt(0.90));
+        return convertToUnit(valueAt(0.90));
     }
 
     @Managed
-    public synchronized double getP95()
+    public double getP95()
     {
-        return convertToUnit(digest.valueAt(0.95));
+        return convertToUnit(valueAt(0.95));
     }
 
     @Managed
-    public synchronized double getP99()
+    public double getP99()
     {
-        return convertToUnit(digest.valueAt(0.99));
+        return convertToUnit(valueAt(0.99));
     }
 
     @Managed
-    public synchronized double getMin()
+    public double getMin()
     {
-        return convertToUnit(digest.getMin());
+        return state.read((digest, total) -> convertToUnit(digest.getMin()));
     }
 
     @Managed
-    public synchronized double getMax()
+    public double getMax()
     {
-        return convertToUnit(digest.getMax());
+        return state.read((digest, total) -> convertToUnit(digest.getMax()));
     }
 
     @Managed
-    public synchronized double getAvg()
+    public double getAvg()
     {
-        return convertToUnit(total.getCount()) / getCount();
+        return state.read((digest, total) -> convertToUnit(total.getCount()) / digest.getCount());
     }
 
     @Managed
@@ -126,10 +133,7 @@ public class TimeDistribution
     @Managed
     public Map<Double, Double> getPercentiles()
     {
-        double[] values;
-        synchronized (this) {
-            values = digest.valuesAt(PERCENTILES);
-        }
+        double[] values = state.read((digest, total) -> digest.valuesAt(PERCENTILES));
         verify(values.length == PERCENTILES.length, "values length mismatch");
 
         Map<Double, Double> result = new LinkedHashMap<>(values.length);
@@ -160,20 +164,35 @@ public class TimeDistribution
 
     public TimeDistributionSnapshot snapshot()
     {
-        double totalCount;
-        double digestCount;
-        double min;
-        double max;
-        double[] quantiles;
-        synchronized (this) {
-            totalCount = total.getCount();
-            digestCount = digest.getCount();
-            min = digest.getMin();
-            max = digest.getMax();
-            quantiles = digest.valuesAt(SNAPSHOT_QUANTILES);
-        }
+        return state.read((digest, total) -> snapshot(digest, total, unit));
+    }
+
+    /**
+     * Returns a snapshot that keeps the digest of the durations in nanoseconds.
+     *
+     * @see Distribution#digestSnapshot()
+     * @see DistributionDigestSnapshot#toTimeDistributionSnapshot(TimeUnit)
+     */
+    public DistributionDigestSnapshot digestSnapshot()
+    {
+        return state.read((digest, total) -> digest.snapshot(total.getCount()));
+    }
+
+    /**
+     * Returns a copy of the decaying digest with its decay factor and landmark. Unlike
+     * {@link #digestSnapshot()}, the copy keeps decaying, and it can be serialized and
+     * merged with the digests of the same distribution on other nodes.
+     */
+    public DecayTDigest duplicateDigest()
+    {
+        return state.read((digest, total) -> digest.duplicate());
+    }
+
+    static TimeDistributionSnapshot snapshot(DecayTDigest digest, DecayCounter total, TimeUnit unit)
+    {
         double unitNanos = (double) unit.toNanos(1);
-        double average = convertToUnit(totalCount, unitNanos) / digestCount;
+        double digestCount = digest.getCount();
+        double[] quantiles = digest.valuesAt(SNAPSHOT_QUANTILES);
         return new TimeDistributionSnapshot(
                 digestCount,
                 convertToUnit(quantiles[0], unitNanos), // p50
@@ -181,17 +200,21 @@ public class TimeDistribution
                 convertToUnit(quantiles[2], unitNanos), // p90
                 convertToUnit(quantiles[3], unitNanos), // p95
                 convertToUnit(quantiles[4], unitNanos), // p99
-                convertToUnit(min, unitNanos),
-                convertToUnit(max, unitNanos),
-                average,
+                convertToUnit(digest.getMin(), unitNanos),
+                convertToUnit(digest.getMax(), unitNanos),
+                convertToUnit(total.getCount(), unitNanos) / digestCount,
                 unit);
     }
 
     @Managed
-    public synchronized void reset()
+    public void reset()
+    {
+        state.reset();
+    }
+
+    private double valueAt(double quantile)
     {
-        total.reset();
-        digest = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha);
+        return state.read((digest, total) -> digest.valueAt(quantile));
     }
 
     public static class TimeDistributionSnapshot
@@ -31,11 +31,13 @@ import static java.util.Objects.requireNonNull;
 
 public class TimeStat
 {
+    private final MultiHorizonDecayDigest digest;
     private final TimeDistribution oneMinute;
     private final TimeDistribution fiveMinutes;
     private final TimeDistribution fifteenMinutes;
     private final TimeDistribution allTime;
     private final Ticker ticker;
+    private final TimeUnit unit;
 
     public TimeStat()
     {
@@ -53,12 +55,25 @@ public class TimeStat
     }
 
     public TimeStat(Ticker ticker, TimeUnit unit)
+    {
+        this(ticker, unit, 1);
+    }
+
+    /**
+     * @see Distribution#Distribution(double, int)
+     */
+    public TimeStat(Ticker ticker, TimeUnit unit, int stripeCount)
     {
         this.ticker = ticker;
-        oneMinute = new TimeDistribution(ExponentialDecay.oneMinute(), unit);
-        fiveMinutes = new TimeDistribution(ExponentialDecay.fiveMinutes(), unit);
-        fifteenMinutes = new TimeDistribution(ExponentialDecay.fifteenMinutes(), unit);
-        allTime = new TimeDistribution(unit);
+        this.unit = unit;
+        // all windows share a single digest, so each value is only recorded once
+        digest = new MultiHorizonDecayDigest(
+                new double[] {ExponentialDecay.oneMinute(), ExponentialDecay.fiveMinutes(), ExponentialDecay.fifteenMinutes(), 0},
+                stripeCount);
+        oneMinute = new TimeDistribution(digest.horizon(0), unit);
+        fiveMinutes = new TimeDistribution(digest.horizon(1), unit);
+        fifteenMinutes = new TimeDistribution(digest.horizon(2), unit);
+        allTime = new TimeDistribution(digest.horizon(3), unit);
     }
 
     public void add(double value, TimeUnit timeUnit)
@@ -83,10 +98,7 @@ public class TimeStat
         if (nanos < 0) {
             throw new IllegalArgumentException("value is negative: " + nanos);
         }
-        oneMinute.add(nanos);
-        fiveMinutes.add(nanos);
-        fifteenMinutes.add(nanos);
-        allTime.add(nanos);
+        digest.add(nanos, 1);
     }
 
     public <T> T time(Callable<T> callable)
@@ -155,13 +167,47 @@ public class TimeStat
                 getAllTime().snapshot());
     }
 
+    /**
+     * Returns a consumer that sees the values added from now on. Each consumer, for example
+     * each metrics scraper, should use its own interval.
+     */
+    public Interval newInterval()
+    {
+        return new Interval(digest.newInterval(), unit);
+    }
+
     @Managed
     public void reset()
     {
-        oneMinute.reset();
-        fiveMinutes.reset();
-        fifteenMinutes.reset();
-        allTime.reset();
+        digest.reset();
+    }
+
+    public static final class Interval
+            implements AutoCloseable
+    {
+        private final MultiHorizonDecayDigest.IntervalDigest digest;
+        private final TimeUnit unit;
+
+        private Interval(MultiHorizonDecayDigest.IntervalDigest digest, TimeUnit unit)
+        {
+            this.digest = requireNonNull(digest, "digest is null");
+            this.unit = requireNonNull(unit, "unit is null");
+        }
+
+        /**
+         * Returns the exact distribution of the times added since the previous call,
+         * or since this interval was created, and starts a new interval.
+         */
+        public TimeDistributionSnapshot snapshotAndReset()
+        {
+            return digest.snapshotAndReset((intervalDigest, total) -> TimeDistribution.snapshot(intervalDigest, total, unit));
+        }
+
+        @Override
+        public void close()
+        {
+            digest.close();
+        }
     }
 
     public static class TimeDistributionStatSnapshot
@@ -15,24 +15,51 @@
  */
 package io.airlift.stats;
 
+import com.google.common.primitives.Longs;
 import io.airlift.units.Duration;
 import org.weakref.jmx.Managed;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * @deprecated Replaced by {@link TimeStat}
  */
 @Deprecated
 public class TimedStat
 {
+    private static final int SAMPLE_SIZE = 1028;
+
     private final AtomicLong sum = new AtomicLong(0);
     private final AtomicLong count = new AtomicLong(0);
-    private final ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(1028, 0.015);
+    private final Sample sample;
+
+    /**
+     * Creates a stat whose min, max, mean and percentiles are computed from a random sample
+     * that is exponentially biased towards recent values.
+     */
+    public TimedStat()
+    {
+        this(new ExponentiallyDecayingSample(SAMPLE_SIZE, 0.015));
+    }
+
+    /**
+     * Creates a stat whose min, max, mean and percentiles are computed from a uniform sample
+     * of the values recorded within the given window. Values leave the sample between 7/8 of
+     * the window and the window after they were recorded.
+     */
+    public TimedStat(Duration window)
+    {
+        this(new SlidingWindowSample(SAMPLE_SIZE, window));
+    }
+
+    private TimedStat(Sample sample)
+    {
+        this.sample = requireNonNull(sample, "sample is null");
+    }
 
     @Managed
     public long getCount()
@@ -49,9 +76,9 @@ public class TimedStat
     @Managed
     public double getMin()
     {
-        List<Long> values = sample.values();
-        if (!values.isEmpty()) {
-            return Collections.min(values);
+        long[] values = sample.values();
+        if (values.length > 0) {
+            return Longs.min(values);
         }
 
         return Double.NaN;
@@ -60,9 +87,9 @@ public class TimedStat
     @Managed
     public double getMax()
     {
-        List<Long> values = sample.values();
-        if (!values.isEmpty()) {
-            return Collections.max(values);
+        long[] values = sample.values();
+        if (values.length > 0) {
+            return Longs.max(values);
         }
 
         return Double.NaN;
@@ -71,15 +98,15 @@ public class TimedStat
     @Managed
     public double getMean()
     {
-        List<Long> values = sample.values();
+        long[] values = sample.values();
 
-        if (!values.isEmpty()) {
+        if (values.length > 0) {
             long sum = 0;
             for (long value : values) {
                 sum += value;
             }
 
-            return sum * 1.0 / values.size();
+            return sum * 1.0 / values.length;
         }
 
         return Double.NaN;
@@ -20,7 +20,11 @@ import io.airlift.slice.BasicSliceInput;
 import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -46,6 +50,15 @@ final class DenseHll
     private static final int MAX_DELTA = (1 << BITS_PER_BUCKET) - 1;
     private static final int BUCKET_MASK = (1 << BITS_PER_BUCKET) - 1;
 
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long BYTE_LOW_BITS = 0x0101_0101_0101_0101L;
+    private static final long BYTE_HIGH_BITS = 0x8080_8080_8080_8080L;
+    private static final long LOW_NIBBLES = 0x0F0F_0F0F_0F0F_0F0FL;
+    private static final long NIBBLE_LOW_BITS = 0x1111_1111_1111_1111L;
+
+    // format tag, index bit length and baseline precede the packed deltas
+    private static final int DELTAS_OFFSET = 3;
+
     private static final int DENSE_INSTANCE_SIZE = instanceSize(DenseHll.class);
     private static final int OVERFLOW_GROW_INCREMENT = 5;
 
@@ -123,12 +136,7 @@ final class DenseHll
             throw new IllegalArgumentException(String.format("Invalid format tag: %d", formatTag));
         }
 
-        baselineCount = 0;
-        for (int i = 0; i < numberOfBuckets; i++) {
-            if (getDelta(i) == 0) {
-                baselineCount++;
-            }
-        }
+        baselineCount = countZeroDeltas(deltas);
 
         checkArgument(!input.isReadable(), "input is too big");
     }
@@ -172,19 +180,54 @@ final class DenseHll
             return Math.round(linearCounting(baselineCount, numberOfBuckets));
         }
 
-        double sum = 0;
-        for (int i = 0; i < numberOfBuckets; i++) {
-            int value = getValue(i);
-            sum += 1.0 / (1L << value);
+        return estimate(indexBitLength, packedBuckets().harmonicSum(countDeltas(Slices.wrappedBuffer(deltas))));
+    }
+
+    /**
+     * Estimates the cardinality of a serialized dense HLL without deserializing it.
+     */
+    static long cardinality(Slice serialized)
+    {
+        int indexBitLength = serialized.getByte(1);
+        int numberOfBuckets = numberOfBuckets(indexBitLength);
+
+        PackedBuckets buckets = packedBuckets(serialized);
+        int[] deltaCounts = countDeltas(buckets.deltas());
+
+        // deltaCounts[0] is the number of buckets at the baseline, i.e., baselineCount
+        if ((buckets.baseline() == 0) && (deltaCounts[0] > (LINEAR_COUNTING_MIN_EMPTY_BUCKETS * numberOfBuckets))) {
+            return Math.round(linearCounting(deltaCounts[0], numberOfBuckets));
         }
 
-        double estimate = (alpha(indexBitLength) * numberOfBuckets * numberOfBuckets) / sum;
-        estimate = correctBias(estimate);
+        return estimate(indexBitLength, buckets.harmonicSum(deltaCounts));
+    }
+
+    private static long estimate(int indexBitLength, double harmonicSum)
+    {
+        int numberOfBuckets = numberOfBuckets(indexBitLength);
+
+        double estimate = (alpha(indexBitLength) * numberOfBuckets * numberOfBuckets) / harmonicSum;
+        estimate = correctBias(indexBitLength, estimate);
 
         return Math.round(estimate);
     }
 
-    private double correctBias(double rawEstimate)
+    /**
+     * Histogram of the packed deltas, so the harmonic sum needs one term
+     * per distinct delta rather than one per bucket.
+     */
+    private static int[] countDeltas(Slice deltas)
+    {
+        int[] deltaCounts = new int[MAX_DELTA + 1];
+        for (int i = 0; i < deltas.length(); i++) {
+            byte slot = deltas.getByte(i);
+            deltaCounts[(slot >> 4) & BUCKET_MASK]++;
+            deltaCounts[slot & BUCKET_MASK]++;
+        }
+        return deltaCounts;
+    }
+
+    private static double correctBias(int indexBitLength, double rawEstimate)
     {
         double[] estimates = BiasCorrection.RAW_ESTIMATES[indexBitLength - 4];
         if (rawEstimate < estimates[0] || rawEstimate > estimates[estimates.length - 1]) {
@@ -214,7 +257,7 @@ final class DenseHll
         return rawEstimate - bias;
     }
 
-    private int search(double rawEstimate, double[] estimateCurve)
+    private static int search(double rawEstimate, double[] estimateCurve)
     {
         int low = 0;
         int high = estimateCurve.length - 1;
@@ -422,54 +465,79 @@ final class DenseHll
                     numberOfBuckets(other.indexBitLength)));
         }
 
-        int newBaseline = Math.max(this.baseline, other.baseline);
-        int baselineCount = 0;
-
-        int bucket = 0;
-        for (int i = 0; i < deltas.length; i++) {
-            int newSlot = 0;
-
-            byte slot1 = deltas[i];
-            byte slot2 = other.deltas[i];
-
-            for (int shift = 4; shift >= 0; shift -= 4) {
-                int delta1 = (slot1 >>> shift) & 0b1111;
-                int delta2 = (slot2 >>> shift) & 0b1111;
+        return mergeWith(other.packedBuckets());
+    }
 
-                int value1 = this.baseline + delta1;
-                int value2 = other.baseline + delta2;
+    /**
+     * Merges a serialized HLL into this one, reading its buckets directly from the serialized form.
+     * Returns "this" for chaining
+     */
+    DenseHll mergeWith(Slice serialized)
+    {
+        int otherIndexBitLength = serialized.getByte(1);
+        if (indexBitLength != otherIndexBitLength) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot merge HLLs with different number of buckets: %s vs %s",
+                    numberOfBuckets(indexBitLength),
+                    numberOfBuckets(otherIndexBitLength)));
+        }
 
-                int overflowEntry = -1;
-                if (delta1 == MAX_DELTA) {
-                    overflowEntry = findOverflowEntry(bucket);
-                    if (overflowEntry != -1) {
-                        value1 += overflowValues[overflowEntry];
-                    }
-                }
+        if (SparseHll.canDeserialize(serialized)) {
+            SparseHll.eachBucket(serialized, this::insert);
+            return this;
+        }
 
-                if (delta2 == MAX_DELTA) {
-                    value2 += other.getOverflow(bucket);
-                }
+        return mergeWith(packedBuckets(serialized));
+    }
 
-                int newValue = Math.max(value1, value2);
-                int newDelta = newValue - newBaseline;
+    private DenseHll mergeWith(PackedBuckets other)
+    {
+        int newBaseline = Math.max(this.baseline, other.baseline());
+
+        // The packed deltas only hold values up to MAX_DELTA, so capture the merged
+        // values of the buckets that have an overflow entry in either HLL up front
+        int[] overflowedBuckets = Arrays.copyOf(overflowBuckets, overflows + other.overflows());
+        int overflowedCount = overflows;
+        for (int i = 0; i < other.overflows(); i++) {
+            if (findOverflowEntry(other.overflowBuckets()[i]) == -1) {
+                overflowedBuckets[overflowedCount++] = other.overflowBuckets()[i];
+            }
+        }
+        int[] overflowedValues = new int[overflowedCount];
+        for (int i = 0; i < overflowedCount; i++) {
+            overflowedValues[i] = Math.max(getValue(overflowedBuckets[i]), other.getValue(overflowedBuckets[i]));
+        }
 
-                if (newDelta == 0) {
-                    baselineCount++;
-                }
+        // Rebase the deltas of the HLL with the lower baseline. Deltas that fall below
+        // the new baseline are clamped to zero, which is fine since the other side is >= 0.
+        long shift1 = broadcast(Math.min(newBaseline - this.baseline, MAX_DELTA));
+        long shift2 = broadcast(Math.min(newBaseline - other.baseline(), MAX_DELTA));
+
+        Slice otherDeltas = other.deltas();
+        int wordsEnd = deltas.length - (deltas.length % Long.BYTES);
+        for (int i = 0; i < wordsEnd; i += Long.BYTES) {
+            long slots1 = (long) LONG_VIEW.get(deltas, i);
+            long slots2 = otherDeltas.getLong(i);
+            LONG_VIEW.set(deltas, i, mergeSlots(slots1, slots2, shift1, shift2));
+        }
+        for (int i = wordsEnd; i < deltas.length; i++) {
+            deltas[i] = (byte) mergeSlots(deltas[i] & 0xFF, otherDeltas.getByte(i) & 0xFF, shift1, shift2);
+        }
 
-                newDelta = updateOverflow(bucket, overflowEntry, newDelta);
+        this.baseline = (byte) newBaseline;
 
-                newSlot <<= 4;
-                newSlot |= newDelta;
-                bucket++;
+        overflows = 0;
+        for (int i = 0; i < overflowedCount; i++) {
+            int bucket = overflowedBuckets[i];
+            int delta = overflowedValues[i] - newBaseline;
+            if (delta > MAX_DELTA) {
+                addOverflow(bucket, (byte) (delta - MAX_DELTA));
+                delta = MAX_DELTA;
             }
-
-            this.deltas[i] = (byte) newSlot;
+            setDelta(bucket, delta);
         }
 
-        this.baseline = (byte) newBaseline;
-        this.baselineCount = baselineCount;
+        this.baselineCount = countZeroDeltas(deltas);
 
         // all baseline values in one of the HLLs lost to the values
         // in the other HLL, so we need to adjust the final baseline
@@ -515,38 +583,11 @@ final class DenseHll
         return 0;
     }
 
-    private int updateOverflow(int bucket, int overflowEntry, int delta)
-    {
-        if (delta > MAX_DELTA) {
-            if (overflowEntry != -1) {
-                // update existing overflow
-                setOverflow(overflowEntry, (byte) (delta - MAX_DELTA));
-            }
-            else {
-                addOverflow(bucket, (byte) (delta - MAX_DELTA));
-            }
-            delta = MAX_DELTA;
-        }
-        else if (overflowEntry != -1) {
-            removeOverflow(overflowEntry);
-        }
-
-        return delta;
-    }
-
     private void setOverflow(int overflowEntry, byte overflow)
     {
         overflowValues[overflowEntry] = overflow;
     }
 
-    private void removeOverflow(int overflowEntry)
-    {
-        // remove existing overflow
-        overflowBuckets[overflowEntry] = overflowBuckets[overflows - 1];
-        overflowValues[overflowEntry] = overflowValues[overflows - 1];
-        overflows--;
-    }
-
     private void addOverflow(int bucket, byte overflow)
     {
         // add new delta
@@ -565,6 +606,133 @@ final class DenseHll
         return (int) (DENSE_INSTANCE_SIZE + SizeOf.sizeOfByteArray(numberOfBuckets(indexBitLength) / 2));
     }
 
+    /**
+     * Merges 16 packed buckets at a time. Each nibble is widened into its own byte
+     * lane so lanes can be compared and subtracted without carries between them.
+     */
+    private static long mergeSlots(long slots1, long slots2, long shift1, long shift2)
+    {
+        long low = maxBytes(
+                subtractBytesSaturated(slots1 & LOW_NIBBLES, shift1),
+                subtractBytesSaturated(slots2 & LOW_NIBBLES, shift2));
+        long high = maxBytes(
+                subtractBytesSaturated((slots1 >>> 4) & LOW_NIBBLES, shift1),
+                subtractBytesSaturated((slots2 >>> 4) & LOW_NIBBLES, shift2));
+        return low | (high << 4);
+    }
+
+    /**
+     * Lane-wise maximum of byte lanes holding values in [0, 127]
+     */
+    private static long maxBytes(long left, long right)
+    {
+        // the high bit of a lane is set iff left >= right, and no lane borrows from its neighbor
+        long greaterOrEqual = (((left | BYTE_HIGH_BITS) - right) & BYTE_HIGH_BITS) >>> 7;
+        long mask = greaterOrEqual * 0xFF;
+        return (left & mask) | (right & ~mask);
+    }
+
+    /**
+     * Lane-wise max(left - right, 0) of byte lanes holding values in [0, 127]
+     */
+    private static long subtractBytesSaturated(long left, long right)
+    {
+        return maxBytes(left, right) - right;
+    }
+
+    private static long broadcast(int value)
+    {
+        return value * BYTE_LOW_BITS;
+    }
+
+    private static int countZeroDeltas(byte[] deltas)
+    {
+        int nonZero = 0;
+
+        int wordsEnd = deltas.length - (deltas.length % Long.BYTES);
+        for (int i = 0; i < wordsEnd; i += Long.BYTES) {
+            long slots = (long) LONG_VIEW.get(deltas, i);
+            // fold each nibble into its lowest bit
+            nonZero += Long.bitCount((slots | (slots >>> 1) | (slots >>> 2) | (slots >>> 3)) & NIBBLE_LOW_BITS);
+        }
+        for (int i = wordsEnd; i < deltas.length; i++) {
+            int slot = deltas[i] & 0xFF;
+            nonZero += Integer.bitCount((slot | (slot >>> 1) | (slot >>> 2) | (slot >>> 3)) & 0x11);
+        }
+
+        return deltas.length * 2 - nonZero;
+    }
+
+    private PackedBuckets packedBuckets()
+    {
+        return new PackedBuckets(baseline, Slices.wrappedBuffer(deltas), overflows, overflowBuckets, overflowValues);
+    }
+
+    private static PackedBuckets packedBuckets(Slice serialized)
+    {
+        int numberOfBuckets = numberOfBuckets(serialized.getByte(1));
+        int deltasLength = numberOfBuckets / 2;
+        int overflowsOffset = DELTAS_OFFSET + deltasLength;
+
+        int overflows;
+        int[] overflowBuckets;
+        byte[] overflowValues;
+        if (serialized.getByte(0) == Format.DENSE_V1.getTag()) {
+            int bucket = serialized.getShort(overflowsOffset);
+            byte value = serialized.getByte(overflowsOffset + SizeOf.SIZE_OF_SHORT);
+            if (bucket >= 0 && value > 0) {
+                checkArgument(bucket < numberOfBuckets, "Overflow bucket index is out of range");
+                overflows = 1;
+                overflowBuckets = new int[] {bucket};
+                overflowValues = new byte[] {value};
+            }
+            else {
+                overflows = 0;
+                overflowBuckets = new int[0];
+                overflowValues = new byte[0];
+            }
+        }
+        else {
+            overflows = serialized.getUnsignedShort(overflowsOffset);
+            overflowBuckets = new int[overflows];
+            overflowValues = new byte[overflows];
+            int bucketsOffset = overflowsOffset + SizeOf.SIZE_OF_SHORT;
+            int valuesOffset = bucketsOffset + SizeOf.SIZE_OF_SHORT * overflows;
+            for (int i = 0; i < overflows; i++) {
+                overflowBuckets[i] = serialized.getUnsignedShort(bucketsOffset + SizeOf.SIZE_OF_SHORT * i);
+                checkArgument(overflowBuckets[i] < numberOfBuckets, "Overflow bucket index is out of range");
+                overflowValues[i] = serialized.getByte(valuesOffset + i);
+                checkArgument(overflowValues[i] > 0, "Overflow bucket value must be > 0");
+            }
+        }
+
+        return new PackedBuckets(serialized.getByte(2), serialized.slice(DELTAS_OFFSET, deltasLength), overflows, overflowBuckets, overflowValues);
+    }
+
+    /**
+     * Validates that the serialized form is a dense HLL whose size matches its header,
+     * so it can be read in place
+     */
+    static void checkSerialized(Slice serialized)
+    {
+        checkArgument(serialized.length() > DELTAS_OFFSET, "Serialized dense HLL is too short");
+        byte formatTag = serialized.getByte(0);
+        checkArgument(formatTag == Format.DENSE_V1.getTag() || formatTag == Format.DENSE_V2.getTag(), "Invalid format tag");
+        validatePrefixLength(serialized.getByte(1));
+
+        int overflowsOffset = DELTAS_OFFSET + numberOfBuckets(serialized.getByte(1)) / 2;
+        int expectedLength;
+        if (formatTag == Format.DENSE_V1.getTag()) {
+            expectedLength = overflowsOffset + SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_BYTE;
+        }
+        else {
+            checkArgument(serialized.length() >= overflowsOffset + SizeOf.SIZE_OF_SHORT, "Serialized dense HLL is too short");
+            int overflows = serialized.getUnsignedShort(overflowsOffset);
+            expectedLength = overflowsOffset + SizeOf.SIZE_OF_SHORT + (SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_BYTE) * overflows;
+        }
+        checkArgument(serialized.length() == expectedLength, "Serialized dense HLL size does not match its header");
+    }
+
     private static int bucketToSlot(int bucket)
     {
         return bucket >> 1;
@@ -608,4 +776,38 @@ final class DenseHll
         checkState(overflows.size() == this.overflows, "Duplicate overflow buckets: %s",
                 Ints.asList(Arrays.copyOf(overflowBuckets, this.overflows)));
     }
+
+    /**
+     * The buckets of a dense HLL, either in memory or read in place from the serialized form
+     */
+    private record PackedBuckets(int baseline, Slice deltas, int overflows, int[] overflowBuckets, byte[] overflowValues)
+    {
+        public int getValue(int bucket)
+        {
+            int delta = (deltas.getByte(bucketToSlot(bucket)) >> shiftForBucket(bucket)) & BUCKET_MASK;
+
+            if (delta == MAX_DELTA) {
+                for (int i = 0; i < overflows; i++) {
+                    if (overflowBuckets[i] == bucket) {
+                        delta += overflowValues[i];
+                        break;
+                    }
+                }
+            }
+
+            return baseline + delta;
+        }
+
+        public double harmonicSum(int[] deltaCounts)
+        {
+            double sum = 0;
+            for (int delta = 0; delta <= MAX_DELTA; delta++) {
+                sum += deltaCounts[delta] * Math.scalb(1.0, -(baseline + delta));
+            }
+            for (int i = 0; i < overflows; i++) {
+                sum += Math.scalb(1.0, -(baseline + MAX_DELTA + overflowValues[i])) - Math.scalb(1.0, -(baseline + MAX_DELTA));
+            }
+            return sum;
+        }
+    }
 }
@@ -18,7 +18,8 @@ enum Format
     SPARSE_V1(0),
     DENSE_V1(1),
     SPARSE_V2(2),
-    DENSE_V2(3);
+    DENSE_V2(3),
+    THETA_V1(4);
 
     private byte tag;
 
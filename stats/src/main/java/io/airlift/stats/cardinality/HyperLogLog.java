@@ -18,6 +18,7 @@ import io.airlift.slice.Murmur3Hash128;
 import io.airlift.slice.Slice;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static io.airlift.slice.SizeOf.instanceSize;
 import static io.airlift.stats.cardinality.Utils.indexBitLength;
 
@@ -78,6 +79,31 @@ public class HyperLogLog
         }
     }
 
+    /**
+     * Adds a batch of values that have already been hashed, as in {@link #addHash(long)}.
+     * While sparse, the batch is sorted and merged into the existing entries at once.
+     * If the merged entries would exceed the size of the dense representation, this instance
+     * is converted to dense before inserting, which is where {@link #addHash(long)} would
+     * have converted it as well.
+     */
+    public void addHashes(long[] hashes, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, hashes.length);
+
+        if (instance instanceof SparseHll) {
+            SparseHll sparse = (SparseHll) instance;
+            if (sparse.insertHashes(hashes, offset, length, DenseHll.estimatedInMemorySize(sparse.getIndexBitLength()))) {
+                return;
+            }
+            instance = sparse.toDense();
+        }
+
+        DenseHll dense = (DenseHll) instance;
+        for (int i = offset; i < offset + length; i++) {
+            dense.insertHash(hashes[i]);
+        }
+    }
+
     public void mergeWith(HyperLogLog other)
     {
         if (instance instanceof SparseHll && other.instance instanceof SparseHll) {
@@ -95,6 +121,26 @@ public class HyperLogLog
         }
     }
 
+    /**
+     * Merges a serialized HyperLogLog into this one. The buckets of a dense serialized
+     * HyperLogLog are read in place, without deserializing it.
+     */
+    public void mergeWith(SerializedHyperLogLog other)
+    {
+        Slice serialized = other.getSerialized();
+        if (instance instanceof SparseHll && SparseHll.canDeserialize(serialized)) {
+            // sparse instances are small, so there is little to gain from merging in place
+            ((SparseHll) instance).mergeWith(new SparseHll(serialized));
+            instance = makeDenseIfNecessary((SparseHll) instance);
+        }
+        else {
+            DenseHll dense = instance.toDense();
+            dense.mergeWith(serialized);
+
+            instance = dense;
+        }
+    }
+
     public long cardinality()
     {
         return instance.cardinality();
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats.cardinality;
+
+import io.airlift.slice.Slice;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-only view over a {@link HyperLogLog} in its serialized form. The cardinality
+ * is estimated directly from the slice, and the view can be merged into a {@link HyperLogLog}
+ * with {@link HyperLogLog#mergeWith(SerializedHyperLogLog)}.
+ * <p>
+ * The view does not copy the slice, so the slice must not be modified while the view is in use.
+ */
+public final class SerializedHyperLogLog
+{
+    private final Slice serialized;
+    private final boolean sparse;
+
+    private SerializedHyperLogLog(Slice serialized)
+    {
+        this.serialized = requireNonNull(serialized, "serialized is null");
+
+        checkArgument(serialized.length() > 0, "serialized is empty");
+        checkArgument(serialized.getByte(0) != Format.SPARSE_V1.getTag(), "Sparse v1 encoding no longer supported");
+
+        if (SparseHll.canDeserialize(serialized)) {
+            SparseHll.checkSerialized(serialized);
+            sparse = true;
+        }
+        else if (DenseHll.canDeserialize(serialized)) {
+            DenseHll.checkSerialized(serialized);
+            sparse = false;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot deserialize HyperLogLog");
+        }
+    }
+
+    public static SerializedHyperLogLog wrap(Slice serialized)
+    {
+        return new SerializedHyperLogLog(serialized);
+    }
+
+    public long cardinality()
+    {
+        if (sparse) {
+            return SparseHll.cardinality(serialized);
+        }
+        return DenseHll.cardinality(serialized);
+    }
+
+    /**
+     * Returns a mutable copy of this HyperLogLog
+     */
+    public HyperLogLog toHyperLogLog()
+    {
+        return HyperLogLog.newInstance(serialized);
+    }
+
+    Slice getSerialized()
+    {
+        return serialized;
+    }
+}
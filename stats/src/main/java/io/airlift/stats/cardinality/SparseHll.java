@@ -24,9 +24,11 @@ import io.airlift.slice.Slice;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.slice.SizeOf.instanceSize;
 import static io.airlift.slice.SizeOf.sizeOf;
+import static io.airlift.slice.SizeOf.sizeOfIntArray;
 import static io.airlift.stats.cardinality.Utils.computeIndex;
 import static io.airlift.stats.cardinality.Utils.linearCounting;
 import static io.airlift.stats.cardinality.Utils.numberOfBuckets;
@@ -48,6 +50,12 @@ final class SparseHll
     private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
     private static final int EXTENDED_PREFIX_BITS = Integer.SIZE - VALUE_BITS;
 
+    // format tag and index bit length precede the number of entries
+    private static final int NUMBER_OF_ENTRIES_OFFSET = 2;
+    private static final int ENTRIES_OFFSET = NUMBER_OF_ENTRIES_OFFSET + SizeOf.SIZE_OF_SHORT;
+
+    private static final int ENTRIES_GROW_INCREMENT = 10;
+
     private final byte indexBitLength;
     private short numberOfEntries;
     private int[] entries;
@@ -95,7 +103,7 @@ final class SparseHll
         if (position < 0) {
             // ensure capacity
             if (numberOfEntries + 1 > entries.length) {
-                entries = Arrays.copyOf(entries, entries.length + 10);
+                entries = Arrays.copyOf(entries, entries.length + ENTRIES_GROW_INCREMENT);
             }
 
             // shift right
@@ -117,6 +125,49 @@ final class SparseHll
         }
     }
 
+    /**
+     * Inserts a batch of hashes with a single sort and merge, instead of a search and
+     * shift per hash. The entries grow as if the hashes were inserted one at a time, so the
+     * resulting size matches that of {@link #insertHash(long)}. If that size would exceed
+     * {@code maxSizeInBytes}, nothing is inserted and false is returned.
+     */
+    public boolean insertHashes(long[] hashes, int offset, int length, int maxSizeInBytes)
+    {
+        checkPositionIndexes(offset, offset + length, hashes.length);
+
+        // flip the sign bit so the signed sort orders the entries by unsigned bucket index
+        int[] batch = new int[length];
+        for (int i = 0; i < length; i++) {
+            batch[i] = encode(hashes[offset + i]) ^ Integer.MIN_VALUE;
+        }
+        Arrays.sort(batch);
+
+        // for duplicate buckets, the last entry has the largest value
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            int entry = batch[i] ^ Integer.MIN_VALUE;
+            if (count > 0 && decodeBucketIndex(batch[count - 1]) == decodeBucketIndex(entry)) {
+                batch[count - 1] = entry;
+            }
+            else {
+                batch[count++] = entry;
+            }
+        }
+
+        int[] merged = mergeEntries(entries, numberOfEntries, batch, count);
+        int capacity = entries.length;
+        if (merged.length > capacity) {
+            capacity += Math.ceilDiv(merged.length - capacity, ENTRIES_GROW_INCREMENT) * ENTRIES_GROW_INCREMENT;
+        }
+        if (SPARSE_INSTANCE_SIZE + sizeOfIntArray(capacity) > maxSizeInBytes) {
+            return false;
+        }
+
+        entries = Arrays.copyOf(merged, capacity);
+        numberOfEntries = (short) merged.length;
+        return true;
+    }
+
     private int encode(long hash)
     {
         return encode(computeIndex(hash, EXTENDED_PREFIX_BITS), numberOfLeadingZeros(hash, EXTENDED_PREFIX_BITS));
@@ -144,7 +195,7 @@ final class SparseHll
 
     public void mergeWith(SparseHll other)
     {
-        entries = mergeEntries(other);
+        entries = mergeEntries(entries, numberOfEntries, other.entries, other.numberOfEntries);
         numberOfEntries = (short) entries.length;
     }
 
@@ -158,25 +209,40 @@ final class SparseHll
     public void eachBucket(BucketListener listener)
     {
         for (int i = 0; i < numberOfEntries; i++) {
-            int entry = entries[i];
-
-            // The leading EXTENDED_BITS_LENGTH are a proper subset of the original hash.
-            // Since we're guaranteed that indexBitLength is <= EXTENDED_BITS_LENGTH,
-            // the value stored in those bits corresponds to the bucket index in the dense HLL
-            int bucket = decodeBucketIndex(indexBitLength, entry);
-
-            // compute the number of zeros between indexBitLength and EXTENDED_BITS_LENGTH
-            int zeros = Integer.numberOfLeadingZeros(entry << indexBitLength);
+            visitEntry(indexBitLength, entries[i], listener);
+        }
+    }
 
-            // if zeros > EXTENDED_BITS_LENGTH - indexBits, it means all those bits were zeros,
-            // so look at the entry value, which contains the number of leading 0 *after* EXTENDED_BITS_LENGTH
-            int bits = EXTENDED_PREFIX_BITS - indexBitLength;
-            if (zeros >= bits) {
-                zeros = bits + decodeBucketValue(entry);
-            }
+    /**
+     * Visits the buckets of a serialized sparse HLL without deserializing it.
+     */
+    static void eachBucket(Slice serialized, BucketListener listener)
+    {
+        int indexBitLength = serialized.getByte(1);
+        int numberOfEntries = serialized.getShort(NUMBER_OF_ENTRIES_OFFSET);
+        for (int i = 0; i < numberOfEntries; i++) {
+            visitEntry(indexBitLength, serialized.getInt(ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * i), listener);
+        }
+    }
 
-            listener.visit(bucket, zeros + 1);
+    private static void visitEntry(int indexBitLength, int entry, BucketListener listener)
+    {
+        // The leading EXTENDED_BITS_LENGTH are a proper subset of the original hash.
+        // Since we're guaranteed that indexBitLength is <= EXTENDED_BITS_LENGTH,
+        // the value stored in those bits corresponds to the bucket index in the dense HLL
+        int bucket = decodeBucketIndex(indexBitLength, entry);
+
+        // compute the number of zeros between indexBitLength and EXTENDED_BITS_LENGTH
+        int zeros = Integer.numberOfLeadingZeros(entry << indexBitLength);
+
+        // if zeros > EXTENDED_BITS_LENGTH - indexBits, it means all those bits were zeros,
+        // so look at the entry value, which contains the number of leading 0 *after* EXTENDED_BITS_LENGTH
+        int bits = EXTENDED_PREFIX_BITS - indexBitLength;
+        if (zeros >= bits) {
+            zeros = bits + decodeBucketValue(entry);
         }
+
+        listener.visit(bucket, zeros + 1);
     }
 
     @Override
@@ -185,12 +251,40 @@ final class SparseHll
         // Estimate the cardinality using linear counting over the theoretical 2^EXTENDED_BITS_LENGTH buckets available due
         // to the fact that we're recording the raw leading EXTENDED_BITS_LENGTH of the hash. This produces much better precision
         // while in the sparse regime.
+        return cardinality(numberOfEntries);
+    }
+
+    /**
+     * Estimates the cardinality of a serialized sparse HLL without deserializing it.
+     */
+    static long cardinality(Slice serialized)
+    {
+        return cardinality(serialized.getShort(NUMBER_OF_ENTRIES_OFFSET));
+    }
+
+    private static long cardinality(int numberOfEntries)
+    {
         int totalBuckets = numberOfBuckets(EXTENDED_PREFIX_BITS);
         int zeroBuckets = totalBuckets - numberOfEntries;
 
         return Math.round(linearCounting(zeroBuckets, totalBuckets));
     }
 
+    /**
+     * Validates that the serialized form is a sparse HLL whose size matches its header,
+     * so it can be read in place
+     */
+    static void checkSerialized(Slice serialized)
+    {
+        checkArgument(serialized.length() >= ENTRIES_OFFSET, "Serialized sparse HLL is too short");
+        checkArgument(serialized.getByte(0) == Format.SPARSE_V2.getTag(), "invalid format tag");
+        validatePrefixLength(serialized.getByte(1));
+
+        int numberOfEntries = serialized.getShort(NUMBER_OF_ENTRIES_OFFSET);
+        checkArgument(numberOfEntries >= 0, "Invalid number of entries: %s", numberOfEntries);
+        checkArgument(serialized.length() == ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * numberOfEntries, "Serialized sparse HLL size does not match its header");
+    }
+
     @Override
     public int estimatedInMemorySize()
     {
@@ -230,37 +324,37 @@ final class SparseHll
         return -(low + 1); // not found... return insertion point
     }
 
-    private int[] mergeEntries(SparseHll other)
+    private static int[] mergeEntries(int[] left, int leftCount, int[] right, int rightCount)
     {
-        int[] result = new int[numberOfEntries + other.numberOfEntries];
+        int[] result = new int[leftCount + rightCount];
         int leftIndex = 0;
         int rightIndex = 0;
 
         int index = 0;
-        while (leftIndex < numberOfEntries && rightIndex < other.numberOfEntries) {
-            int left = decodeBucketIndex(entries[leftIndex]);
-            int right = decodeBucketIndex(other.entries[rightIndex]);
+        while (leftIndex < leftCount && rightIndex < rightCount) {
+            int leftBucket = decodeBucketIndex(left[leftIndex]);
+            int rightBucket = decodeBucketIndex(right[rightIndex]);
 
-            if (left < right) {
-                result[index++] = entries[leftIndex++];
+            if (leftBucket < rightBucket) {
+                result[index++] = left[leftIndex++];
             }
-            else if (left > right) {
-                result[index++] = other.entries[rightIndex++];
+            else if (leftBucket > rightBucket) {
+                result[index++] = right[rightIndex++];
             }
             else {
-                int value = Math.max(decodeBucketValue(entries[leftIndex]), decodeBucketValue(other.entries[rightIndex]));
-                result[index++] = encode(left, value);
+                int value = Math.max(decodeBucketValue(left[leftIndex]), decodeBucketValue(right[rightIndex]));
+                result[index++] = encode(leftBucket, value);
                 leftIndex++;
                 rightIndex++;
             }
         }
 
-        while (leftIndex < numberOfEntries) {
-            result[index++] = entries[leftIndex++];
+        while (leftIndex < leftCount) {
+            result[index++] = left[leftIndex++];
         }
 
-        while (rightIndex < other.numberOfEntries) {
-            result[index++] = other.entries[rightIndex++];
+        while (rightIndex < rightCount) {
+            result[index++] = right[rightIndex++];
         }
 
         return Arrays.copyOf(result, index);
@@ -0,0 +1,351 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats.cardinality;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.slice.BasicSliceInput;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Murmur3Hash128;
+import io.airlift.slice.SizeOf;
+import io.airlift.slice.Slice;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.instanceSize;
+import static io.airlift.slice.SizeOf.sizeOf;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.toIntExact;
+
+/**
+ * A K-minimum-values (theta) sketch that estimates the number of distinct values in a set.
+ * <p>
+ * The sketch retains the hashes of the values that fall below a threshold, theta. Until more
+ * than the nominal number of entries are seen, theta admits all hashes and the count is exact.
+ * After that, theta is lowered to keep only the {@code nominalEntries} smallest hashes, and the
+ * cardinality is estimated as the number of retained hashes divided by theta, as a fraction of
+ * the hash space. The relative standard error of the estimate is about
+ * {@code 1 / sqrt(nominalEntries)}.
+ * <p>
+ * Unlike {@link HyperLogLog}, which only supports union, the retained hashes of sketches of the
+ * same values can be combined into the union, intersection or difference of the sets, using
+ * the lower theta of both sketches. The values must be hashed the same way as for
+ * {@link HyperLogLog}.
+ */
+public class ThetaSketch
+{
+    public static final int DEFAULT_NOMINAL_ENTRIES = 4096;
+
+    private static final int INSTANCE_SIZE = instanceSize(ThetaSketch.class);
+    private static final int MIN_NOMINAL_ENTRIES = 16;
+    private static final int MAX_NOMINAL_ENTRIES = 1 << 26;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // hashes are shifted right by one bit, so theta and the retained hashes are non-negative
+    private static final long MAX_THETA = Long.MAX_VALUE;
+
+    private static final int ENTRIES_OFFSET = SizeOf.SIZE_OF_BYTE + // format tag
+            SizeOf.SIZE_OF_INT + // nominal entries
+            SizeOf.SIZE_OF_LONG + // theta
+            SizeOf.SIZE_OF_INT; // number of entries
+
+    private final int nominalEntries;
+    // all hashes below theta that were added are retained
+    private long theta = MAX_THETA;
+    private long[] entries;
+    private int numberOfEntries;
+    // whether the entries are sorted, distinct, and no more than the nominal entries
+    private boolean compact = true;
+
+    private ThetaSketch(int nominalEntries, long theta, long[] entries, int numberOfEntries)
+    {
+        this.nominalEntries = nominalEntries;
+        this.theta = theta;
+        this.entries = entries;
+        this.numberOfEntries = numberOfEntries;
+    }
+
+    public static ThetaSketch newInstance()
+    {
+        return newInstance(DEFAULT_NOMINAL_ENTRIES);
+    }
+
+    public static ThetaSketch newInstance(int nominalEntries)
+    {
+        validateNominalEntries(nominalEntries);
+
+        return new ThetaSketch(nominalEntries, MAX_THETA, new long[INITIAL_CAPACITY], 0);
+    }
+
+    public static ThetaSketch newInstance(Slice serialized)
+    {
+        checkArgument(serialized.length() >= ENTRIES_OFFSET, "Serialized theta sketch is too short");
+        BasicSliceInput input = serialized.getInput();
+
+        checkArgument(input.readByte() == Format.THETA_V1.getTag(), "invalid format tag");
+
+        int nominalEntries = input.readInt();
+        validateNominalEntries(nominalEntries);
+
+        long theta = input.readLong();
+        checkArgument(theta > 0, "Invalid theta: %s", theta);
+
+        int numberOfEntries = input.readInt();
+        checkArgument(numberOfEntries >= 0 && numberOfEntries <= nominalEntries, "Invalid number of entries: %s", numberOfEntries);
+        checkArgument(serialized.length() == ENTRIES_OFFSET + SizeOf.SIZE_OF_LONG * numberOfEntries, "Serialized theta sketch size does not match its header");
+
+        long[] entries = new long[numberOfEntries];
+        long previous = -1;
+        for (int i = 0; i < numberOfEntries; i++) {
+            entries[i] = input.readLong();
+            checkArgument(entries[i] > previous && entries[i] < theta, "Entries must be distinct, sorted and below theta");
+            previous = entries[i];
+        }
+
+        return new ThetaSketch(nominalEntries, theta, entries, numberOfEntries);
+    }
+
+    public static boolean canDeserialize(Slice serialized)
+    {
+        return serialized.getByte(0) == Format.THETA_V1.getTag();
+    }
+
+    public void add(long value)
+    {
+        addHash(Murmur3Hash128.hash64(value));
+    }
+
+    public void add(Slice value)
+    {
+        addHash(Murmur3Hash128.hash64(value));
+    }
+
+    /**
+     * Adds a value that has already been hashed to the set of values tracked by this sketch.
+     *
+     * @param hash The hash should be the 64 least significant bits of the murmur3_128 hash of the value.
+     * For example: io.airlift.slice.Murmur3.hash64(value).
+     */
+    public void addHash(long hash)
+    {
+        addEntry(hash >>> 1);
+    }
+
+    /**
+     * Makes this sketch represent the union of both sets.
+     */
+    public void mergeWith(ThetaSketch other)
+    {
+        lowerTheta(other.theta);
+
+        // the entries of the other sketch need not be compact, since adding them drops duplicates
+        for (int i = 0; i < other.numberOfEntries; i++) {
+            if (other.entries[i] < theta) {
+                addEntry(other.entries[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes this sketch represent the intersection of both sets.
+     */
+    public void intersectWith(ThetaSketch other)
+    {
+        // compacting may lower the theta of the other sketch, so it must happen first
+        other.compact();
+        lowerTheta(other.theta);
+        compact();
+
+        int count = 0;
+        int otherIndex = 0;
+        for (int i = 0; i < numberOfEntries; i++) {
+            long entry = entries[i];
+            while (otherIndex < other.numberOfEntries && other.entries[otherIndex] < entry) {
+                otherIndex++;
+            }
+            if (otherIndex < other.numberOfEntries && other.entries[otherIndex] == entry) {
+                entries[count] = entry;
+                count++;
+            }
+        }
+        numberOfEntries = count;
+    }
+
+    /**
+     * Makes this sketch represent the values in this set that are not in the other set.
+     */
+    public void subtract(ThetaSketch other)
+    {
+        // compacting may lower the theta of the other sketch, so it must happen first
+        other.compact();
+        lowerTheta(other.theta);
+        compact();
+
+        int count = 0;
+        int otherIndex = 0;
+        for (int i = 0; i < numberOfEntries; i++) {
+            long entry = entries[i];
+            while (otherIndex < other.numberOfEntries && other.entries[otherIndex] < entry) {
+                otherIndex++;
+            }
+            if (otherIndex == other.numberOfEntries || other.entries[otherIndex] != entry) {
+                entries[count] = entry;
+                count++;
+            }
+        }
+        numberOfEntries = count;
+    }
+
+    public long cardinality()
+    {
+        compact();
+
+        if (theta == MAX_THETA) {
+            return numberOfEntries;
+        }
+        return Math.round(numberOfEntries / getTheta());
+    }
+
+    /**
+     * Returns theta as a fraction of the hash space, which is 1 while the count is exact.
+     */
+    public double getTheta()
+    {
+        return theta / (double) MAX_THETA;
+    }
+
+    public int getNominalEntries()
+    {
+        return nominalEntries;
+    }
+
+    public int estimatedInMemorySize()
+    {
+        return INSTANCE_SIZE + toIntExact(sizeOf(entries));
+    }
+
+    public int estimatedSerializedSize()
+    {
+        return ENTRIES_OFFSET + SizeOf.SIZE_OF_LONG * numberOfEntries;
+    }
+
+    public Slice serialize()
+    {
+        compact();
+
+        DynamicSliceOutput out = new DynamicSliceOutput(estimatedSerializedSize())
+                .appendByte(Format.THETA_V1.getTag())
+                .appendInt(nominalEntries)
+                .appendLong(theta)
+                .appendInt(numberOfEntries);
+
+        for (int i = 0; i < numberOfEntries; i++) {
+            out.appendLong(entries[i]);
+        }
+
+        return out.slice();
+    }
+
+    @VisibleForTesting
+    void verify()
+    {
+        compact();
+
+        checkState(numberOfEntries <= nominalEntries, "Number of entries (%s) exceeds nominal entries (%s)", numberOfEntries, nominalEntries);
+        for (int i = 0; i < numberOfEntries; i++) {
+            checkState(entries[i] < theta, "Entry %s is not below theta", i);
+            checkState(i == 0 || entries[i - 1] < entries[i], "Entries are not sorted and distinct at %s", i);
+        }
+    }
+
+    private void addEntry(long entry)
+    {
+        if (entry >= theta) {
+            return;
+        }
+
+        if (numberOfEntries == entries.length) {
+            // duplicates and entries above the nominal number are only dropped when compacting,
+            // so the buffer may hold up to twice the nominal entries
+            if (entries.length >= 2 * nominalEntries) {
+                compact();
+                if (entry >= theta) {
+                    return;
+                }
+            }
+            else {
+                entries = Arrays.copyOf(entries, min(max(entries.length * 2, INITIAL_CAPACITY), 2 * nominalEntries));
+            }
+        }
+
+        entries[numberOfEntries] = entry;
+        numberOfEntries++;
+        compact = false;
+    }
+
+    private void lowerTheta(long newTheta)
+    {
+        if (newTheta >= theta) {
+            return;
+        }
+
+        theta = newTheta;
+        int count = 0;
+        for (int i = 0; i < numberOfEntries; i++) {
+            if (entries[i] < theta) {
+                entries[count] = entries[i];
+                count++;
+            }
+        }
+        numberOfEntries = count;
+    }
+
+    /**
+     * Sorts the entries, drops duplicates, and lowers theta to retain no more than
+     * the nominal number of entries.
+     */
+    private void compact()
+    {
+        if (compact) {
+            return;
+        }
+
+        Arrays.sort(entries, 0, numberOfEntries);
+
+        int count = 0;
+        for (int i = 0; i < numberOfEntries; i++) {
+            if (count == 0 || entries[count - 1] != entries[i]) {
+                entries[count] = entries[i];
+                count++;
+            }
+        }
+
+        if (count > nominalEntries) {
+            // the smallest entry that is not retained
+            theta = entries[nominalEntries];
+            count = nominalEntries;
+        }
+
+        numberOfEntries = count;
+        compact = true;
+    }
+
+    private static void validateNominalEntries(int nominalEntries)
+    {
+        checkArgument(nominalEntries >= MIN_NOMINAL_ENTRIES && nominalEntries <= MAX_NOMINAL_ENTRIES,
+                "nominalEntries must be between %s and %s, actual: %s", MIN_NOMINAL_ENTRIES, MAX_NOMINAL_ENTRIES, nominalEntries);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.base.Ticker;
+import io.airlift.json.JsonCodec;
+import io.airlift.stats.CounterStat.CounterStatSnapshot;
+import io.airlift.stats.DistributionStat.DistributionStatSnapshot;
+import io.airlift.stats.TimeStat.TimeDistributionStatSnapshot;
+import io.airlift.units.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.json.JsonCodec.jsonCodec;
+
+/**
+ * Measures the recording path of the stats, and the cost of taking and serializing
+ * snapshots of them. All benchmark threads share the same stats.
+ * {@link #main} runs the benchmarks with 1, 2, 4, ... threads, up to the number of processors.
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(3)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class BenchmarkStats
+{
+    private static final JsonCodec<CounterStatSnapshot> COUNTER_STAT_CODEC = jsonCodec(CounterStatSnapshot.class);
+    private static final JsonCodec<TimeDistributionStatSnapshot> TIME_STAT_CODEC = jsonCodec(TimeDistributionStatSnapshot.class);
+    private static final JsonCodec<DistributionStatSnapshot> DISTRIBUTION_STAT_CODEC = jsonCodec(DistributionStatSnapshot.class);
+
+    private static final int MAX_VALUE = 1_000_000;
+
+    @Param({"1", "8"})
+    public int stripeCount;
+
+    private final CounterStat counterStat = new CounterStat();
+    private final SlidingWindowSample slidingWindowSample = new SlidingWindowSample(1028, new Duration(1, TimeUnit.MINUTES));
+    private ExponentiallyDecayingSample sample;
+    private MeterStat meterStat;
+    private TimeStat timeStat;
+    private DistributionStat distributionStat;
+
+    @Setup
+    public void setup()
+    {
+        timeStat = new TimeStat(Ticker.systemTicker(), TimeUnit.MILLISECONDS, stripeCount);
+        distributionStat = new DistributionStat(stripeCount);
+        meterStat = new MeterStat(stripeCount);
+        sample = new ExponentiallyDecayingSample(1028, 0.015, stripeCount, Ticker.systemTicker());
+
+        // populate the stats, so snapshots summarize realistic digests
+        for (int i = 0; i < 100_000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(MAX_VALUE);
+            counterStat.update(1);
+            timeStat.addNanos(value);
+            distributionStat.add(value);
+            meterStat.update(value);
+            sample.update(value);
+            slidingWindowSample.update(value);
+        }
+    }
+
+    @Benchmark
+    public void benchmarkCounterStatUpdate()
+    {
+        counterStat.update(1);
+    }
+
+    @Benchmark
+    public void benchmarkTimeStatAdd()
+    {
+        timeStat.addNanos(ThreadLocalRandom.current().nextLong(MAX_VALUE));
+    }
+
+    @Benchmark
+    public void benchmarkDistributionStatAdd()
+    {
+        distributionStat.add(ThreadLocalRandom.current().nextLong(MAX_VALUE));
+    }
+
+    @Benchmark
+    public void benchmarkMeterStatUpdate()
+    {
+        meterStat.update(ThreadLocalRandom.current().nextLong(MAX_VALUE));
+    }
+
+    @Benchmark
+    public void benchmarkExponentiallyDecayingSampleUpdate()
+    {
+        sample.update(ThreadLocalRandom.current().nextLong(MAX_VALUE));
+    }
+
+    @Benchmark
+    public void benchmarkSlidingWindowSampleUpdate()
+    {
+        slidingWindowSample.update(ThreadLocalRandom.current().nextLong(MAX_VALUE));
+    }
+
+    @Benchmark
+    public double benchmarkMeterStatPercentile()
+    {
+        return meterStat.getTP99();
+    }
+
+    @Benchmark
+    public double[] benchmarkExponentiallyDecayingSamplePercentile()
+    {
+        return sample.percentiles(0.99);
+    }
+
+    @Benchmark
+    public CounterStatSnapshot benchmarkCounterStatSnapshot()
+    {
+        return counterStat.snapshot();
+    }
+
+    @Benchmark
+    public TimeDistributionStatSnapshot benchmarkTimeStatSnapshot()
+    {
+        return timeStat.snapshot();
+    }
+
+    @Benchmark
+    public DistributionStatSnapshot benchmarkDistributionStatSnapshot()
+    {
+        return distributionStat.snapshot();
+    }
+
+    @Benchmark
+    public byte[] benchmarkCounterStatSnapshotJson()
+    {
+        return COUNTER_STAT_CODEC.toJsonBytes(counterStat.snapshot());
+    }
+
+    @Benchmark
+    public byte[] benchmarkTimeStatSnapshotJson()
+    {
+        return TIME_STAT_CODEC.toJsonBytes(timeStat.snapshot());
+    }
+
+    @Benchmark
+    public byte[] benchmarkDistributionStatSnapshotJson()
+    {
+        return DISTRIBUTION_STAT_CODEC.toJsonBytes(distributionStat.snapshot());
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .verbosity(VerboseMode.NORMAL)
+                    .threads(threads)
+                    .include(".*" + BenchmarkStats.class.getSimpleName() + ".*")
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.VerboseMode;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
@@ -33,18 +34,21 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 public class BenchmarkTDigest
 {
     private static final int NUMBER_OF_ENTRIES = 100_000;
+    private static final int NUMBER_OF_DIGESTS = 100;
 
     @State(Scope.Thread)
     public static class Data
     {
         private long[] values1;
         private long[] values2;
+        private double[] doubleValues;
 
         @Setup
         public void setup()
         {
             values1 = makeValues(NUMBER_OF_ENTRIES);
             values2 = makeValues(NUMBER_OF_ENTRIES);
+            doubleValues = Arrays.stream(values1).asDoubleStream().toArray();
         }
 
         private long[] makeValues(int size)
@@ -70,12 +74,14 @@ public class BenchmarkTDigest
         private int quantileCount;
         private double[] quantilesArray;
         private List<Double> quantilesList;
+        private List<TDigest> digests;
 
         @Setup
         public void setup(Data data)
         {
             digest1 = makeDigest(data.values1);
             digest2 = makeDigest(data.values2);
+            digests = makeDigests(data.values1, NUMBER_OF_DIGESTS);
             serializedDigest = digest1.serialize();
             quantilesArray = makeQuantiles(quantileCount);
             quantilesList = Arrays.stream(quantilesArray).boxed()
@@ -91,6 +97,16 @@ public class BenchmarkTDigest
             return result;
         }
 
+        private List<TDigest> makeDigests(long[] values, int count)
+        {
+            List<TDigest> result = new ArrayList<>(count);
+            int valuesPerDigest = values.length / count;
+            for (int i = 0; i < count; i++) {
+                result.add(makeDigest(Arrays.copyOfRange(values, i * valuesPerDigest, (i + 1) * valuesPerDigest)));
+            }
+            return result;
+        }
+
         private static double[] makeQuantiles(int quantileCount)
         {
             double[] quantiles = new double[quantileCount];
@@ -115,6 +131,15 @@ public class BenchmarkTDigest
         return digest;
     }
 
+    @Benchmark
+    @OperationsPerInvocation(NUMBER_OF_ENTRIES)
+    public TDigest benchmarkBatchInserts(Data data)
+    {
+        TDigest digest = new TDigest();
+        digest.add(data.doubleValues, 0, data.doubleValues.length);
+        return digest;
+    }
+
     @Benchmark
     public TDigest benchmarkCopy(Digest data)
     {
@@ -129,6 +154,24 @@ public class BenchmarkTDigest
         return merged;
     }
 
+    @Benchmark
+    public TDigest benchmarkPairwiseMergeMany(Digest data)
+    {
+        TDigest merged = new TDigest();
+        for (TDigest digest : data.digests) {
+            merged.mergeWith(digest);
+        }
+        return merged;
+    }
+
+    @Benchmark
+    public TDigest benchmarkMergeAll(Digest data)
+    {
+        TDigest merged = new TDigest();
+        merged.mergeAll(data.digests);
+        return merged;
+    }
+
     @Benchmark
     public TDigest benchmarkDeserialize(Digest data)
     {
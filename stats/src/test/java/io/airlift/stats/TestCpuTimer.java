@@ -3,6 +3,8 @@ package io.airlift.stats;
 import io.airlift.testing.TestingTicker;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static io.airlift.units.Duration.succinctDuration;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -42,6 +44,17 @@ public class TestCpuTimer
         assertThat(withoutUser.subtract(withUser).hasUser()).isFalse();
     }
 
+    @Test
+    public void testCpuTimeAvailability()
+            throws InterruptedException
+    {
+        assertThat(CpuTimer.isCurrentThreadCpuTimeAvailable()).isTrue();
+
+        AtomicBoolean availableOnVirtualThread = new AtomicBoolean(true);
+        Thread.ofVirtual().start(() -> availableOnVirtualThread.set(CpuTimer.isCurrentThreadCpuTimeAvailable())).join();
+        assertThat(availableOnVirtualThread.get()).isFalse();
+    }
+
     @Test
     public void testNullTicker()
     {
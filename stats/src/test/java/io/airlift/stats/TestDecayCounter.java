@@ -48,4 +48,48 @@ public class TestDecayCounter
         assertThat(copy.getCount()).isEqualTo(counter.getCount());
         assertThat(copy.getAlpha()).isEqualTo(counter.getAlpha());
     }
+
+    @Test
+    public void testMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+
+        DecayCounter counter = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        counter.add(1);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        DecayCounter other = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        other.add(2);
+        counter.merge(other);
+
+        double expected = 2 + 1 / Math.E;
+        assertThat(Math.abs(counter.getCount() - expected)).isLessThan(1e-9);
+    }
+
+    @Test
+    public void testConcurrentAddsWithRescale()
+            throws InterruptedException
+    {
+        TestingTicker ticker = new TestingTicker();
+        // no decay, so the count is exact while the landmark keeps moving
+        DecayCounter counter = new DecayCounter(0, ticker);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int value = 0; value < 100_000; value++) {
+                    counter.add(1);
+                    if (value % 1000 == 0) {
+                        ticker.increment(DecayCounter.RESCALE_THRESHOLD_SECONDS, TimeUnit.SECONDS);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counter.getCount()).isEqualTo(400_000.0);
+    }
 }
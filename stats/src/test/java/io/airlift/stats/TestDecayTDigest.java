@@ -1,5 +1,7 @@
 package io.airlift.stats;
 
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import io.airlift.testing.TestingTicker;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
@@ -9,6 +11,7 @@ import java.util.concurrent.TimeUnit;
 import static io.airlift.stats.DecayTDigest.RESCALE_THRESHOLD_SECONDS;
 import static io.airlift.stats.DecayTDigest.ZERO_WEIGHT_THRESHOLD;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class TestDecayTDigest
 {
@@ -68,4 +71,125 @@ public class TestDecayTDigest
         assertThat(digest.getCount())
                 .isCloseTo(2.0, Offset.offset(ZERO_WEIGHT_THRESHOLD));
     }
+
+    @Test
+    public void testMergeWithDifferentLandmarks()
+    {
+        TestingTicker ticker = new TestingTicker();
+
+        double decayFactor = 0.1;
+        DecayTDigest older = new DecayTDigest(100, decayFactor, ticker);
+        older.add(1);
+
+        ticker.increment(RESCALE_THRESHOLD_SECONDS, TimeUnit.SECONDS);
+
+        DecayTDigest newer = new DecayTDigest(100, decayFactor, ticker);
+        newer.add(2);
+
+        older.merge(newer);
+
+        double expected = 1 + Math.exp(-decayFactor * RESCALE_THRESHOLD_SECONDS);
+        assertThat(older.getCount())
+                .isCloseTo(expected, Offset.offset(ZERO_WEIGHT_THRESHOLD));
+        assertThat(older.getMin()).isEqualTo(1.0);
+        assertThat(older.getMax()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void testMergeDoesNotModifyOther()
+    {
+        TestingTicker ticker = new TestingTicker();
+
+        double decayFactor = 0.1;
+        DecayTDigest older = new DecayTDigest(100, decayFactor, ticker);
+        older.add(1);
+
+        ticker.increment(RESCALE_THRESHOLD_SECONDS, TimeUnit.SECONDS);
+
+        DecayTDigest newer = new DecayTDigest(100, decayFactor, ticker);
+        newer.add(2);
+
+        newer.merge(older);
+
+        assertThat(older.getCount())
+                .isCloseTo(Math.exp(-decayFactor * RESCALE_THRESHOLD_SECONDS), Offset.offset(ZERO_WEIGHT_THRESHOLD));
+        assertThat(newer.getMin()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testSerializeAcrossTickers()
+    {
+        // tickers of different processes have unrelated origins
+        TestingTicker firstTicker = new TestingTicker();
+        TestingTicker secondTicker = new TestingTicker();
+        secondTicker.increment(100_000, TimeUnit.SECONDS);
+        TestingTicker aggregatorTicker = new TestingTicker();
+
+        double decayFactor = 0.1;
+        DecayTDigest first = new DecayTDigest(100, decayFactor, firstTicker);
+        DecayTDigest second = new DecayTDigest(100, decayFactor, secondTicker);
+        DecayTDigest expected = new DecayTDigest(100, decayFactor, aggregatorTicker);
+
+        for (int i = 0; i < 1000; i++) {
+            first.add(i);
+            expected.add(i);
+        }
+        for (TestingTicker ticker : new TestingTicker[] {firstTicker, secondTicker, aggregatorTicker}) {
+            ticker.increment(RESCALE_THRESHOLD_SECONDS + 10, TimeUnit.SECONDS);
+        }
+        for (int i = 1000; i < 2000; i++) {
+            second.add(i);
+            expected.add(i);
+        }
+
+        DecayTDigest merged = DecayTDigest.deserialize(first.serialize(), aggregatorTicker);
+        merged.merge(DecayTDigest.deserialize(second.serialize(), aggregatorTicker));
+
+        assertThat(merged.getCount())
+                .isCloseTo(expected.getCount(), Offset.offset(ZERO_WEIGHT_THRESHOLD));
+        assertThat(merged.getMin()).isEqualTo(expected.getMin());
+        assertThat(merged.getMax()).isEqualTo(expected.getMax());
+        assertThat(merged.valueAt(0.5)).isCloseTo(expected.valueAt(0.5), Offset.offset(1e-6));
+    }
+
+    @Test
+    public void testSerializeWithoutDecay()
+    {
+        DecayTDigest digest = new DecayTDigest(100, 0);
+        digest.add(1);
+        digest.add(2);
+
+        DecayTDigest deserialized = DecayTDigest.deserialize(digest.serialize());
+
+        assertThat(deserialized.getCount()).isEqualTo(2.0);
+        assertThat(deserialized.valueAt(0.5)).isEqualTo(digest.valueAt(0.5));
+    }
+
+    @Test
+    public void testDeserializeInvalid()
+    {
+        assertThatThrownBy(() -> DecayTDigest.deserialize(Slices.wrappedBuffer(new byte[] {0, 1, 2})))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid format");
+
+        Slice serialized = new DecayTDigest(100, 0.1).serialize();
+
+        Slice invalidFormat = Slices.copyOf(serialized);
+        invalidFormat.setByte(0, 1);
+        assertThatThrownBy(() -> DecayTDigest.deserialize(invalidFormat))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid format");
+
+        Slice invalidAlpha = Slices.copyOf(serialized);
+        invalidAlpha.setDouble(1, Double.NaN);
+        assertThatThrownBy(() -> DecayTDigest.deserialize(invalidAlpha))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid alpha: NaN");
+
+        Slice invalidLandmark = Slices.copyOf(serialized);
+        invalidLandmark.setLong(9, -1);
+        assertThatThrownBy(() -> DecayTDigest.deserialize(invalidLandmark))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid landmark age: -1");
+    }
 }
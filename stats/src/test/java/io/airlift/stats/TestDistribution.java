@@ -1,8 +1,14 @@
 package io.airlift.stats;
 
+import io.airlift.testing.TestingTicker;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 public class TestDistribution
 {
@@ -33,4 +39,74 @@ public class TestDistribution
         assertThat(copy.getCount()).isEqualTo(distribution.getCount());
         assertThat(copy.getTotal()).isEqualTo(distribution.getTotal());
     }
+
+    @Test
+    public void testStripedMatchesUnstriped()
+    {
+        Distribution striped = new Distribution(0, 8);
+        Distribution unstriped = new Distribution(0);
+
+        for (int i = 0; i < 1000; i++) {
+            striped.add(i);
+            unstriped.add(i);
+        }
+
+        assertThat(striped.getCount()).isEqualTo(unstriped.getCount());
+        assertThat(striped.getTotal()).isEqualTo(unstriped.getTotal());
+        assertThat(striped.getMin()).isEqualTo(unstriped.getMin());
+        assertThat(striped.getMax()).isEqualTo(unstriped.getMax());
+        assertThat(striped.getP50()).isCloseTo(unstriped.getP50(), within(1.0));
+    }
+
+    @Test
+    public void testStripedReadsReuseMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(new StripedDecayDigest(0, 4, ticker));
+
+        distribution.add(1);
+        assertThat(distribution.getCount()).isEqualTo(1D);
+
+        // reads shortly after a merge see the merged values
+        distribution.add(2);
+        assertThat(distribution.getCount()).isEqualTo(1D);
+        assertThat(distribution.getMax()).isEqualTo(1D);
+
+        ticker.increment(100, MILLISECONDS);
+        assertThat(distribution.getCount()).isEqualTo(2D);
+        assertThat(distribution.getMax()).isEqualTo(2D);
+
+        distribution.reset();
+        assertThat(distribution.getCount()).isEqualTo(0D);
+    }
+
+    @Test
+    public void testStripedConcurrentAdds()
+            throws InterruptedException
+    {
+        Distribution distribution = new Distribution(0, 4);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int value = 0; value < 1000; value++) {
+                    distribution.add(value);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(distribution.getCount()).isEqualTo(8000D);
+        assertThat(distribution.getTotal()).isEqualTo(8 * 499_500D);
+        assertThat(distribution.getMin()).isEqualTo(0D);
+        assertThat(distribution.getMax()).isEqualTo(999D);
+
+        Distribution copy = distribution.duplicate();
+        distribution.reset();
+
+        assertThat(distribution.getCount()).isEqualTo(0D);
+        assertThat(copy.getCount()).isEqualTo(8000D);
+    }
 }
@@ -0,0 +1,96 @@
+package io.airlift.stats;
+
+import io.airlift.stats.CounterStat.CounterStatSnapshot;
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import io.airlift.stats.TimeDistribution.TimeDistributionSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestDistributionDigestSnapshot
+{
+    @Test
+    public void testRoundTrip()
+    {
+        Distribution distribution = new Distribution(ExponentialDecay.oneMinute());
+        for (int i = 0; i < 1000; i++) {
+            distribution.add(i);
+        }
+
+        DistributionDigestSnapshot snapshot = DistributionDigestSnapshot.deserialize(distribution.digestSnapshot().serialize());
+
+        assertThat(snapshot.getCount()).isCloseTo(distribution.getCount(), within(1e-6));
+        assertThat(snapshot.getTotal()).isCloseTo(distribution.getTotal(), within(1e-6));
+        assertThat(snapshot.getMin()).isEqualTo(0D);
+        assertThat(snapshot.getMax()).isEqualTo(999D);
+        assertThat(snapshot.valueAt(0.5)).isCloseTo(distribution.getP50(), within(1.0));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        DistributionDigestSnapshot snapshot = DistributionDigestSnapshot.deserialize(new Distribution(0.1).digestSnapshot().serialize());
+
+        assertThat(snapshot.getCount()).isEqualTo(0D);
+        assertThat(snapshot.toDistributionSnapshot().getP50()).isNaN();
+    }
+
+    @Test
+    public void testMerge()
+    {
+        Distribution first = new Distribution(ExponentialDecay.oneMinute());
+        Distribution second = new Distribution(ExponentialDecay.oneMinute());
+        Distribution all = new Distribution(ExponentialDecay.oneMinute());
+        for (int i = 0; i < 10_000; i++) {
+            (i % 3 == 0 ? first : second).add(i);
+            all.add(i);
+        }
+
+        DistributionSnapshot merged = first.digestSnapshot()
+                .mergeWith(second.digestSnapshot())
+                .toDistributionSnapshot();
+        DistributionSnapshot expected = all.snapshot();
+
+        assertThat(merged.getCount()).isCloseTo(expected.getCount(), within(1e-3));
+        assertThat(merged.getTotal()).isCloseTo(expected.getTotal(), within(1e-3));
+        assertThat(merged.getMin()).isEqualTo(expected.getMin());
+        assertThat(merged.getMax()).isEqualTo(expected.getMax());
+        assertThat(merged.getP50()).isCloseTo(expected.getP50(), within(100.0));
+        assertThat(merged.getP99()).isCloseTo(expected.getP99(), within(100.0));
+    }
+
+    @Test
+    public void testTimeDistribution()
+    {
+        TimeDistribution distribution = new TimeDistribution(ExponentialDecay.oneMinute(), MILLISECONDS);
+        for (int i = 1; i <= 1000; i++) {
+            distribution.add(MILLISECONDS.toNanos(i));
+        }
+
+        TimeDistributionSnapshot snapshot = distribution.digestSnapshot().toTimeDistributionSnapshot(MILLISECONDS);
+        TimeDistributionSnapshot expected = distribution.snapshot();
+
+        assertThat(snapshot.getCount()).isCloseTo(expected.getCount(), within(1e-6));
+        assertThat(snapshot.getMin()).isEqualTo(expected.getMin());
+        assertThat(snapshot.getMax()).isEqualTo(expected.getMax());
+        assertThat(snapshot.getAvg()).isCloseTo(expected.getAvg(), within(1e-6));
+        assertThat(snapshot.getP90()).isCloseTo(expected.getP90(), within(1e-6));
+    }
+
+    @Test
+    public void testCounterStatSnapshot()
+    {
+        CounterStat counter = new CounterStat();
+        counter.update(5);
+
+        CounterStatSnapshot snapshot = CounterStatSnapshot.deserialize(counter.snapshot().serialize());
+        assertThat(snapshot.getTotalCount()).isEqualTo(5);
+        assertThat(snapshot.getOneMinute().getCount()).isCloseTo(counter.getOneMinute().getCount(), within(1e-6));
+
+        CounterStatSnapshot merged = snapshot.mergeWith(counter.snapshot());
+        assertThat(merged.getTotalCount()).isEqualTo(10);
+        assertThat(merged.getFifteenMinute().getCount()).isCloseTo(2 * counter.getFifteenMinute().getCount(), within(1e-6));
+    }
+}
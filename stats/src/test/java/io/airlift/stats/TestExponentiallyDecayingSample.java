@@ -0,0 +1,148 @@
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestExponentiallyDecayingSample
+{
+    @Test
+    public void testSize()
+    {
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(100, 0.015);
+        for (int i = 0; i < 10; i++) {
+            sample.update(i);
+        }
+        assertThat(sample.size()).isEqualTo(10);
+        assertThat(sample.values()).containsExactlyInAnyOrder(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+
+        for (int i = 0; i < 1000; i++) {
+            sample.update(i);
+        }
+        assertThat(sample.size()).isEqualTo(100);
+
+        sample.clear();
+        assertThat(sample.size()).isEqualTo(0);
+        assertThat(sample.percentiles(0.5)[0]).isNaN();
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(1028, 0.015, new TestingTicker());
+        for (int i = 0; i < 100_000; i++) {
+            sample.update(i % 1000);
+        }
+
+        double[] percentiles = sample.percentiles(0.5, 0.9);
+        assertThat(percentiles[0]).isCloseTo(500, within(100.0));
+        assertThat(percentiles[1]).isCloseTo(900, within(50.0));
+    }
+
+    @Test
+    public void testBiasedTowardsNewerValues()
+    {
+        TestingTicker ticker = new TestingTicker();
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(100, 0.015, ticker);
+        for (int i = 0; i < 1000; i++) {
+            sample.update(1);
+        }
+
+        // beyond the rescale threshold
+        ticker.increment(2, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++) {
+            sample.update(2);
+        }
+
+        assertThat(sample.size()).isEqualTo(100);
+        assertThat(sample.values()).containsOnly(2L);
+    }
+
+    @Test
+    public void testRescaleAfterLongIdlePeriod()
+    {
+        TestingTicker ticker = new TestingTicker();
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(100, 0.015, ticker);
+        for (int i = 0; i < 1000; i++) {
+            sample.update(1);
+        }
+
+        // the rescale factor underflows to zero, so the old values are discarded
+        ticker.increment(14, TimeUnit.HOURS);
+        sample.update(2);
+        assertThat(sample.values()).containsExactly(2L);
+
+        for (int i = 0; i < 1000; i++) {
+            sample.update(3);
+        }
+        assertThat(sample.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void testStripedConcurrentUpdates()
+            throws InterruptedException
+    {
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(100, 0.015, 4, new TestingTicker());
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int value = i;
+            threads.add(Thread.ofPlatform().start(() -> sample.update(value)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(sample.values()).containsExactlyInAnyOrder(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L);
+
+        threads.clear();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int value = 0; value < 1000; value++) {
+                    sample.update(value);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(sample.size()).isEqualTo(100);
+
+        sample.clear();
+        assertThat(sample.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStripesWithDifferentLandmarks()
+            throws InterruptedException
+    {
+        TestingTicker ticker = new TestingTicker();
+        ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(100, 0.015, 8, ticker);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    sample.update(1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // only the stripe of this thread is rescaled, so the merge has to scale the others
+        ticker.increment(2, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++) {
+            sample.update(2);
+        }
+
+        assertThat(sample.size()).isEqualTo(100);
+        assertThat(sample.values()).containsOnly(2L);
+    }
+}
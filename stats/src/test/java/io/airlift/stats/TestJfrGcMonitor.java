@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.units.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestJfrGcMonitor
+{
+    @Test
+    @Timeout(60)
+    public void test()
+            throws Exception
+    {
+        JfrGcMonitor gcMonitor = new JfrGcMonitor();
+        assertThat(gcMonitor.getMajorGcCount()).isEqualTo(0);
+        assertThat(gcMonitor.getMajorGcTime()).isEqualTo(new Duration(0, NANOSECONDS));
+        try {
+            gcMonitor.start();
+            // the events are streamed asynchronously, and the collector decides whether a collection is a major one
+            while (gcMonitor.getMajorGc().getAllTime().getCount() + gcMonitor.getMinorGc().getAllTime().getCount() == 0) {
+                System.gc();
+                Thread.sleep(100);
+            }
+        }
+        finally {
+            gcMonitor.stop();
+        }
+    }
+}
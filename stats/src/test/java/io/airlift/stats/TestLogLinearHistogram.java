@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import io.airlift.stats.LogLinearHistogram.HistogramSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestLogLinearHistogram
+{
+    @Test
+    public void testEmpty()
+    {
+        HistogramSnapshot snapshot = new LogLinearHistogram().snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(0);
+        assertThat(snapshot.getMin()).isNaN();
+        assertThat(snapshot.getMax()).isNaN();
+        assertThat(snapshot.getAvg()).isNaN();
+        assertThat(snapshot.getValueAt(0.5)).isNaN();
+    }
+
+    @Test
+    public void testZeroCount()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.add(100, 0);
+
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMin()).isNaN();
+        assertThat(histogram.getMax()).isNaN();
+        assertThat(histogram.snapshot().getMin()).isNaN();
+
+        histogram.add(10);
+        histogram.add(20);
+        assertThat(histogram.getMin()).isEqualTo(10);
+        assertThat(histogram.getMax()).isEqualTo(20);
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram(7);
+        for (int value = 0; value < 100; value++) {
+            histogram.add(value);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(100);
+        assertThat(snapshot.getTotal()).isEqualTo(4950);
+        assertThat(snapshot.getMin()).isEqualTo(0.0);
+        assertThat(snapshot.getMax()).isEqualTo(99.0);
+        assertThat(snapshot.getValueAt(0.5)).isEqualTo(49.0);
+        assertThat(snapshot.getValueAt(0.9)).isEqualTo(89.0);
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        for (int precisionBits : new int[] {3, 7, 10}) {
+            LogLinearHistogram histogram = new LogLinearHistogram(precisionBits);
+            long[] values = new long[10_000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (long) Math.exp(ThreadLocalRandom.current().nextDouble() * 40);
+                histogram.add(values[i]);
+            }
+            Arrays.sort(values);
+
+            HistogramSnapshot snapshot = histogram.snapshot();
+            assertThat(snapshot.getMin()).isEqualTo(values[0]);
+            assertThat(snapshot.getMax()).isEqualTo(values[values.length - 1]);
+
+            for (double quantile = 0; quantile <= 1; quantile += 0.01) {
+                long expected = values[(int) Math.max(0, Math.ceil(quantile * values.length) - 1)];
+                assertThat(snapshot.getValueAt(quantile)).isCloseTo(expected, within(expected * Math.scalb(1.0, -precisionBits)));
+            }
+        }
+    }
+
+    @Test
+    public void testIntervalSnapshot()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int value = 0; value < 1000; value++) {
+            histogram.add(value);
+        }
+
+        HistogramSnapshot first = histogram.intervalSnapshot();
+        assertThat(first.getCount()).isEqualTo(1000);
+        assertThat(first.getTotal()).isEqualTo(499_500);
+
+        histogram.add(5000, 10);
+        HistogramSnapshot second = histogram.intervalSnapshot();
+        assertThat(second.getCount()).isEqualTo(10);
+        assertThat(second.getTotal()).isEqualTo(50_000);
+        assertThat(second.getValueAt(0.5)).isCloseTo(5000, within(5000 / 128.0));
+        assertThat(second.getMax()).isEqualTo(5000.0);
+
+        assertThat(histogram.intervalSnapshot().getCount()).isEqualTo(0);
+
+        // cumulative view is unaffected
+        assertThat(histogram.snapshot().getCount()).isEqualTo(1010);
+    }
+
+    @Test
+    public void testMerge()
+    {
+        LogLinearHistogram first = new LogLinearHistogram();
+        LogLinearHistogram second = new LogLinearHistogram();
+        LogLinearHistogram expected = new LogLinearHistogram();
+        for (int i = 0; i < 1000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(1_000_000_000);
+            (i % 2 == 0 ? first : second).add(value);
+            expected.add(value);
+        }
+
+        HistogramSnapshot merged = first.snapshot().mergeWith(second.snapshot());
+        assertThat(merged.getCount()).isEqualTo(1000);
+        assertThat(merged.toDistributionSnapshot()).usingRecursiveComparison().isEqualTo(expected.snapshot().toDistributionSnapshot());
+
+        assertThatThrownBy(() -> merged.mergeWith(new LogLinearHistogram(3).snapshot()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testDistributionSnapshot()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.add(value);
+        }
+
+        DistributionSnapshot snapshot = histogram.snapshot().toDistributionSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(100.0);
+        assertThat(snapshot.getTotal()).isEqualTo(5050.0);
+        assertThat(snapshot.getP50()).isEqualTo(50.0);
+        assertThat(snapshot.getP99()).isEqualTo(99.0);
+        assertThat(snapshot.getMin()).isEqualTo(1.0);
+        assertThat(snapshot.getMax()).isEqualTo(100.0);
+        assertThat(snapshot.getAvg()).isEqualTo(50.5);
+    }
+
+    @Test
+    public void testConcurrentAdds()
+            throws InterruptedException
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int value = 0; value < 100_000; value++) {
+                    histogram.add(value);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(400_000);
+        assertThat(histogram.getTotal()).isEqualTo(4 * (99_999L * 100_000 / 2));
+    }
+
+    @Test
+    public void testNegativeValue()
+    {
+        assertThatThrownBy(() -> new LogLinearHistogram().add(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("value is negative");
+    }
+}
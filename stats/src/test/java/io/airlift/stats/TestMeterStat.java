@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@SuppressWarnings("deprecation")
+public class TestMeterStat
+{
+    @Test
+    public void testEmpty()
+    {
+        MeterStat stat = new MeterStat();
+        assertThat(stat.getSum()).isEqualTo(0);
+        assertThat(stat.getMean()).isNaN();
+        assertThat(stat.getTP50()).isNaN();
+        assertThat(stat.getTP999()).isNaN();
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        for (int stripeCount : new int[] {1, 8}) {
+            MeterStat stat = new MeterStat(stripeCount);
+            for (int value = 1; value <= 10_000; value++) {
+                stat.update(value);
+            }
+
+            assertThat(stat.getSum()).isEqualTo(50_005_000);
+            assertThat(stat.getMin()).isEqualTo(1);
+            assertThat(stat.getMax()).isEqualTo(10_000);
+            // values recorded in later seconds weigh slightly more
+            assertThat(stat.getMean()).isCloseTo(5000, within(50.0));
+            assertThat(stat.getTP50()).isCloseTo(5000, within(50.0));
+            assertThat(stat.getTP90()).isCloseTo(9000, within(50.0));
+            assertThat(stat.getTP99()).isCloseTo(9900, within(20.0));
+            assertThat(stat.getTP999()).isCloseTo(9990, within(5.0));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestMultiHorizonDecayDigest
+{
+    @Test
+    public void testMatchesIndependentDigests()
+    {
+        TestingTicker ticker = new TestingTicker();
+        double alpha = ExponentialDecay.oneMinute();
+
+        MultiHorizonDecayDigest shared = new MultiHorizonDecayDigest(new double[] {alpha, 0}, 1, ticker);
+        DecayTDigest decaying = new DecayTDigest(TDigest.DEFAULT_COMPRESSION, alpha, ticker);
+        DecayCounter decayingTotal = new DecayCounter(alpha, ticker);
+
+        Random random = new Random(1);
+        for (int second = 0; second < 300; second++) {
+            for (int i = 0; i < 50; i++) {
+                long value = random.nextInt(1000) + second * 10L;
+                shared.add(value, 1);
+                decaying.add(value);
+                decayingTotal.add(value);
+            }
+            ticker.increment(1, TimeUnit.SECONDS);
+        }
+
+        DistributionState oneMinute = shared.horizon(0);
+        assertThat(oneMinute.<Double>read((digest, total) -> digest.getCount())).isCloseTo(decaying.getCount(), within(1e-6));
+        assertThat(oneMinute.<Double>read((digest, total) -> total.getCount())).isCloseTo(decayingTotal.getCount(), within(1e-3));
+        assertThat(oneMinute.<Double>read((digest, total) -> digest.valueAt(0.5))).isCloseTo(decaying.valueAt(0.5), within(10.0));
+        assertThat(oneMinute.<Double>read((digest, total) -> digest.valueAt(0.99))).isCloseTo(decaying.valueAt(0.99), within(10.0));
+
+        DistributionState allTime = shared.horizon(1);
+        assertThat(allTime.<Double>read((digest, total) -> digest.getCount())).isEqualTo(15000.0);
+    }
+
+    @Test
+    public void testResetHorizon()
+    {
+        TestingTicker ticker = new TestingTicker();
+        MultiHorizonDecayDigest shared = new MultiHorizonDecayDigest(new double[] {ExponentialDecay.oneMinute(), 0}, 4, ticker);
+
+        shared.add(10, 1);
+        shared.add(20, 1);
+
+        DistributionState oneMinute = shared.horizon(0);
+        DistributionState copy = oneMinute.duplicate();
+        oneMinute.reset();
+
+        assertThat(oneMinute.<Double>read((digest, total) -> digest.getCount())).isEqualTo(0.0);
+        assertThat(shared.horizon(1).<Double>read((digest, total) -> digest.getCount())).isEqualTo(2.0);
+        assertThat(copy.<Double>read((digest, total) -> digest.getCount())).isEqualTo(2.0);
+
+        shared.add(30, 1);
+        assertThat(oneMinute.<Double>read((digest, total) -> digest.getCount())).isEqualTo(1.0);
+        assertThat(shared.horizon(1).<Double>read((digest, total) -> digest.getCount())).isEqualTo(3.0);
+
+        shared.reset();
+        assertThat(shared.horizon(1).<Double>read((digest, total) -> digest.getCount())).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testAddToHorizon()
+    {
+        TestingTicker ticker = new TestingTicker();
+        MultiHorizonDecayDigest shared = new MultiHorizonDecayDigest(new double[] {ExponentialDecay.oneMinute(), 0}, 4, ticker);
+        MultiHorizonDecayDigest.IntervalDigest interval = shared.newInterval();
+
+        shared.add(10, 1);
+        // values added to a horizon are not recorded into the other horizons or the intervals
+        shared.horizon(0).add(20, 2);
+
+        assertThat(shared.horizon(0).<Double>read((digest, total) -> digest.getCount())).isEqualTo(3.0);
+        assertThat(shared.horizon(0).<Double>read((digest, total) -> total.getCount())).isEqualTo(50.0);
+        assertThat(shared.horizon(1).<Double>read((digest, total) -> digest.getCount())).isEqualTo(1.0);
+        assertThat(shared.horizon(1).<Double>read((digest, total) -> digest.getMax())).isEqualTo(10.0);
+        assertThat(interval.<Double>snapshotAndReset((digest, total) -> digest.getCount())).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testIntervals()
+    {
+        TestingTicker ticker = new TestingTicker();
+        MultiHorizonDecayDigest shared = new MultiHorizonDecayDigest(new double[] {ExponentialDecay.oneMinute()}, 4, ticker);
+
+        shared.add(10, 1);
+        MultiHorizonDecayDigest.IntervalDigest first = shared.newInterval();
+        shared.add(20, 1);
+        MultiHorizonDecayDigest.IntervalDigest second = shared.newInterval();
+        ticker.increment(10, TimeUnit.MINUTES);
+        shared.add(30, 2);
+
+        // intervals are not decayed, and only see values added after they were created
+        assertThat(first.<Double>snapshotAndReset((digest, total) -> digest.getCount())).isEqualTo(3.0);
+        assertThat(first.<Double>snapshotAndReset((digest, total) -> digest.getCount())).isEqualTo(0.0);
+        assertThat(second.<Double>snapshotAndReset((digest, total) -> total.getCount())).isEqualTo(60.0);
+
+        shared.add(40, 1);
+        second.close();
+        shared.add(50, 1);
+        assertThat(first.<Double>snapshotAndReset((digest, total) -> digest.getMin())).isEqualTo(40.0);
+        assertThat(second.<Double>snapshotAndReset((digest, total) -> digest.getCount())).isEqualTo(0.0);
+
+        shared.add(60, 1);
+        shared.reset();
+        assertThat(first.<Double>snapshotAndReset((digest, total) -> digest.getCount())).isEqualTo(0.0);
+    }
+}
@@ -0,0 +1,85 @@
+package io.airlift.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestPriorityReservoir
+{
+    @Test
+    public void testKeepsHighestPriorities()
+    {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values);
+
+        PriorityReservoir reservoir = new PriorityReservoir(10);
+        for (int value : values) {
+            reservoir.offer(value, value);
+        }
+
+        assertThat(reservoir.size()).isEqualTo(10);
+        assertThat(reservoir.values()).containsExactlyInAnyOrder(990, 991, 992, 993, 994, 995, 996, 997, 998, 999);
+    }
+
+    @Test
+    public void testOfferAll()
+    {
+        PriorityReservoir first = new PriorityReservoir(3);
+        PriorityReservoir second = new PriorityReservoir(3);
+        for (int i = 0; i < 6; i++) {
+            (i % 2 == 0 ? first : second).offer(i, i);
+        }
+
+        PriorityReservoir merged = new PriorityReservoir(3);
+        merged.offerAll(first);
+        merged.offerAll(second);
+
+        assertThat(merged.values()).containsExactlyInAnyOrder(3L, 4L, 5L);
+    }
+
+    @Test
+    public void testOfferAllScaled()
+    {
+        PriorityReservoir first = new PriorityReservoir(2);
+        first.offer(10, 1);
+        first.offer(20, 2);
+        PriorityReservoir second = new PriorityReservoir(2);
+        second.offer(3, 3);
+        second.offer(4, 4);
+
+        // the first reservoir weighs less after scaling
+        PriorityReservoir merged = second.copy();
+        merged.offerAll(first, 0.1);
+
+        assertThat(merged.values()).containsExactlyInAnyOrder(3L, 4L);
+        assertThat(second.values()).containsExactlyInAnyOrder(3L, 4L);
+    }
+
+    @Test
+    public void testScalePrioritiesPreservesOrder()
+    {
+        PriorityReservoir reservoir = new PriorityReservoir(2);
+        reservoir.offer(10, 1);
+        reservoir.offer(20, 2);
+        reservoir.scalePriorities(0.1);
+
+        // higher than 1, but lower than 2 after scaling
+        reservoir.offer(1.5, 3);
+
+        assertThat(reservoir.values()).containsExactlyInAnyOrder(2L, 3L);
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        assertThat(PriorityReservoir.percentiles(new long[0], 0.5)[0]).isNaN();
+        assertThat(PriorityReservoir.percentiles(new long[] {4, 1, 3, 2}, 0.0, 0.5, 1.0)).containsExactly(1.0, 2.5, 4.0);
+    }
+}
@@ -10,6 +10,8 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -19,6 +21,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 public class TestQuantileDigest
 {
@@ -788,6 +791,116 @@ public class TestQuantileDigest
         assertThat(digest.equivalent(deserialize(digest.serialize()))).as(format("Serialization roundtrip failed for input: %s", values)).isTrue();
     }
 
+    @Test
+    public void testMergeInParallel()
+    {
+        Random random = new Random(1);
+        List<QuantileDigest> digests = new ArrayList<>();
+        QuantileDigest expected = new QuantileDigest(0.01);
+        // the parallel merge compresses once, like merging all digests before compressing
+        QuantileDigest compressedOnce = new QuantileDigest(0.01);
+        for (int i = 0; i < 50; i++) {
+            QuantileDigest digest = new QuantileDigest(0.01);
+            for (int j = 0; j < 1000; j++) {
+                digest.add(random.nextLong(1_000_000));
+            }
+            digests.add(digest);
+            expected.merge(digest);
+            compressedOnce.mergeWithoutCompression(digest);
+        }
+        compressedOnce.compress();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            QuantileDigest actual = QuantileDigest.mergeInParallel(digests, pool);
+            actual.validate();
+            QuantileDigest deserialized = QuantileDigest.mergeSerializedInParallel(digests.stream().map(QuantileDigest::serialize).collect(toImmutableList()), pool);
+            deserialized.validate();
+
+            assertThat(actual.getCount()).isEqualTo(expected.getCount());
+            assertThat(actual.equivalent(compressedOnce)).isTrue();
+            assertThat(actual.getMin()).isEqualTo(compressedOnce.getMin());
+            assertThat(actual.getMax()).isEqualTo(compressedOnce.getMax());
+            assertThat(deserialized.equivalent(actual)).isTrue();
+
+            List<Double> quantiles = asList(0.01, 0.1, 0.5, 0.9, 0.99);
+            List<Long> actualValues = actual.getQuantiles(quantiles);
+            List<Long> expectedValues = expected.getQuantiles(quantiles);
+            for (int i = 0; i < quantiles.size(); i++) {
+                // both are within 1% of the rank of the exact quantile
+                assertThat(actualValues.get(i)).isCloseTo(expectedValues.get(i), within(20_000L));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffHeap()
+    {
+        QuantileDigest onHeap = new QuantileDigest(0.01);
+        QuantileDigest other = new QuantileDigest(0.01);
+        try (OffHeapQuantileDigest offHeap = QuantileDigest.offHeap(0.01, 0)) {
+            assertThat(offHeap.isOffHeap()).isTrue();
+            for (int i = 0; i < 10_000; i++) {
+                long value = ThreadLocalRandom.current().nextLong(1_000_000);
+                onHeap.add(value);
+                offHeap.add(value);
+                other.add(value / 2);
+            }
+            onHeap.merge(other);
+            offHeap.merge(other);
+            offHeap.validate();
+
+            assertThat(offHeap.serialize()).isEqualTo(onHeap.serialize());
+            assertThat(offHeap.getQuantiles(asList(0.1, 0.5, 0.9))).isEqualTo(onHeap.getQuantiles(asList(0.1, 0.5, 0.9)));
+
+            try (OffHeapQuantileDigest copy = QuantileDigest.offHeap(offHeap)) {
+                assertThat(copy.isOffHeap()).isTrue();
+                assertThat(copy.equivalent(onHeap)).isTrue();
+            }
+            QuantileDigest offHeapToHeapCopy = new QuantileDigest(offHeap);
+            assertThat(offHeapToHeapCopy.isOffHeap()).isFalse();
+            assertThat(offHeapToHeapCopy.equivalent(onHeap)).isTrue();
+            try (OffHeapQuantileDigest heapToOffHeapCopy = QuantileDigest.offHeap(onHeap)) {
+                assertThat(heapToOffHeapCopy.isOffHeap()).isTrue();
+                assertThat(heapToOffHeapCopy.equivalent(onHeap)).isTrue();
+            }
+
+            QuantileDigest heapCopy = new QuantileDigest(onHeap);
+            assertThat(heapCopy.isOffHeap()).isFalse();
+            assertThat(heapCopy.equivalent(offHeap)).isTrue();
+
+            OffHeapQuantileDigest deserialized = QuantileDigest.offHeap(onHeap.serialize());
+            int size = deserialized.estimatedInMemorySizeInBytes();
+            try (deserialized) {
+                deserialized.validate();
+                assertThat(deserialized.isOffHeap()).isTrue();
+                assertThat(deserialized.equivalent(onHeap)).isTrue();
+            }
+            // closing returns the nodes to the pool
+            assertThat(deserialized.estimatedInMemorySizeInBytes()).isLessThan(size);
+        }
+    }
+
+    @Test
+    public void testOffHeapBuffersReused()
+    {
+        OffHeapQuantileDigest first = QuantileDigest.offHeap(0.01, 0);
+        first.add(1);
+        long pooledBytes = QuantileDigestNodes.DirectNodes.getPooledBytes();
+        first.close();
+        assertThat(QuantileDigestNodes.DirectNodes.getPooledBytes()).isGreaterThan(pooledBytes);
+
+        // the next digest of the same size reuses the closed buffer
+        try (OffHeapQuantileDigest second = QuantileDigest.offHeap(0.01, 0)) {
+            second.add(2);
+            assertThat(QuantileDigestNodes.DirectNodes.getPooledBytes()).isEqualTo(pooledBytes);
+            assertThat(second.getQuantile(0.5)).isEqualTo(2);
+        }
+    }
+
     private QuantileDigest deserialize(Slice serialized)
     {
         QuantileDigest result = new QuantileDigest(serialized);
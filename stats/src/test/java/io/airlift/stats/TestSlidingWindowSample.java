@@ -0,0 +1,72 @@
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import io.airlift.units.Duration;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestSlidingWindowSample
+{
+    @Test
+    public void testUniformWithinWindow()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowSample sample = new SlidingWindowSample(1000, new Duration(80, SECONDS), ticker);
+
+        for (int i = 0; i < 10_000; i++) {
+            sample.update(1);
+        }
+        ticker.increment(40, SECONDS);
+        for (int i = 0; i < 30_000; i++) {
+            sample.update(2);
+        }
+
+        long[] values = sample.values();
+        assertThat(values).hasSize(1000);
+
+        // a quarter of the values in the window are old
+        long old = 0;
+        for (long value : values) {
+            if (value == 1) {
+                old++;
+            }
+        }
+        assertThat(old / 1000.0).isCloseTo(0.25, within(0.1));
+    }
+
+    @Test
+    public void testExpiry()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowSample sample = new SlidingWindowSample(100, new Duration(80, SECONDS), ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            sample.update(1);
+        }
+        ticker.increment(40, SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            sample.update(2);
+        }
+
+        ticker.increment(50, SECONDS);
+        assertThat(sample.values()).containsOnly(2L);
+
+        ticker.increment(50, SECONDS);
+        assertThat(sample.size()).isEqualTo(0);
+        assertThat(sample.percentiles(0.5)[0]).isNaN();
+    }
+
+    @Test
+    public void testClear()
+    {
+        SlidingWindowSample sample = new SlidingWindowSample(100, new Duration(1, SECONDS), new TestingTicker());
+        sample.update(1);
+        assertThat(sample.size()).isEqualTo(1);
+
+        sample.clear();
+        assertThat(sample.size()).isEqualTo(0);
+    }
+}
@@ -17,6 +17,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
 import com.google.common.primitives.Doubles;
+import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.RepeatedTest;
@@ -26,6 +27,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.IntStream;
 
@@ -243,6 +245,51 @@ public class TestTDigest
         }
     }
 
+    @Test
+    public void testSerializedView()
+    {
+        TDigest digest = new TDigest();
+        for (int i = 0; i < 10_000; i++) {
+            digest.add(ThreadLocalRandom.current().nextGaussian());
+        }
+
+        // read from the middle of a larger buffer to ensure offsets are handled
+        Slice serialized = digest.serialize();
+        Slice buffer = Slices.allocate(serialized.length() + 20);
+        buffer.setBytes(10, serialized);
+        SerializedTDigest view = SerializedTDigest.wrap(buffer.slice(10, serialized.length()));
+
+        assertThat(view.getMin()).isEqualTo(digest.getMin());
+        assertThat(view.getMax()).isEqualTo(digest.getMax());
+        assertThat(view.getCount()).isEqualTo(digest.getCount());
+        for (double quantile = 0; quantile <= 1; quantile += 0.1) {
+            assertThat(view.valueAt(quantile)).isEqualTo(digest.valueAt(quantile));
+        }
+
+        TDigest other = new TDigest();
+        addAll(other, asList(-10, 10));
+        other.mergeWith(view);
+
+        assertThat(other.getMin()).isEqualTo(-10.0);
+        assertThat(other.getMax()).isEqualTo(10.0);
+        assertThat(other.getCount()).isEqualTo(digest.getCount() + 2);
+        assertThat(other.valueAt(0.5)).isCloseTo(digest.valueAt(0.5), within(0.01));
+    }
+
+    @Test
+    public void testSerializedViewEmpty()
+    {
+        SerializedTDigest view = SerializedTDigest.wrap(new TDigest().serialize());
+
+        assertThat(view.getMin()).isNaN();
+        assertThat(view.getMax()).isNaN();
+        assertThat(view.getCount()).isEqualTo(0.0);
+        assertThat(view.valueAt(0.5)).isNaN();
+
+        assertThatThrownBy(() -> SerializedTDigest.wrap(Slices.wrappedBuffer(new byte[] {0, 1, 2})))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void testAddNaN()
     {
@@ -304,6 +351,162 @@ public class TestTDigest
         assertThat(merged.valueAt(1)).isEqualTo(8.0);
     }
 
+    @Test
+    public void testBatchAdd()
+    {
+        double[] values = new double[10_000];
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextGaussian() * 1000;
+            weights[i] = 1 + (i % 3);
+        }
+
+        TDigest expected = new TDigest();
+        TDigest expectedWeighted = new TDigest();
+        for (int i = 0; i < values.length; i++) {
+            expected.add(values[i]);
+            expectedWeighted.add(values[i], weights[i]);
+        }
+
+        TDigest actual = new TDigest();
+        actual.add(values, 0, 10);
+        actual.add(values, 10, values.length - 10);
+
+        TDigest actualWeighted = new TDigest();
+        actualWeighted.add(values, weights, 0, values.length);
+
+        double[] quantiles = {0.01, 0.1, 0.5, 0.9, 0.99};
+        assertSimilar(actual, expected);
+        assertThat(actual.valuesAt(quantiles)).isEqualTo(expected.valuesAt(quantiles));
+        assertSimilar(actualWeighted, expectedWeighted);
+        assertThat(actualWeighted.valuesAt(quantiles)).isEqualTo(expectedWeighted.valuesAt(quantiles));
+
+        assertThatThrownBy(() -> new TDigest().add(new double[] {1, Double.NaN}, 0, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TDigest().add(new double[] {1, 2}, 1, 2))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void testBatchAddInvalidValue()
+    {
+        TDigest digest = new TDigest();
+        for (int i = 0; i < 1000; i++) {
+            digest.add(i);
+        }
+        Slice serialized = digest.serialize();
+
+        double[] values = new double[10_000];
+        double[] weights = new double[values.length];
+        Arrays.fill(values, 1);
+        Arrays.fill(weights, 1);
+        values[values.length / 2] = Double.NaN;
+        assertThatThrownBy(() -> digest.add(values, 0, values.length))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("value is NaN");
+        assertThatThrownBy(() -> digest.add(values, weights, 0, values.length))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("value is NaN");
+
+        values[values.length / 2] = 1;
+        weights[values.length / 2] = Double.POSITIVE_INFINITY;
+        assertThatThrownBy(() -> digest.add(values, weights, 0, values.length))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("weight must be finite");
+
+        assertThat(digest.getCount()).isEqualTo(1000);
+        assertThat(digest.serialize()).isEqualTo(serialized);
+    }
+
+    @Test
+    public void testMergeAll()
+    {
+        List<TDigest> digests = new ArrayList<>();
+        List<TDigest> copies = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            TDigest digest = new TDigest();
+            for (int j = 0; j < 1000; j++) {
+                digest.add(ThreadLocalRandom.current().nextGaussian() * 1000 + i);
+            }
+            digests.add(digest);
+            copies.add(TDigest.copyOf(digest));
+        }
+
+        TDigest expected = new TDigest();
+        for (TDigest digest : copies) {
+            expected.mergeWith(digest);
+        }
+
+        TDigest actual = new TDigest();
+        actual.add(5);
+        expected.add(5);
+        actual.mergeAll(digests);
+
+        assertSimilar(actual, expected);
+        // the arrays that held the centroids of all the digests are not kept
+        assertThat(actual.estimatedInMemorySizeInBytes()).isLessThanOrEqualTo(expected.estimatedInMemorySizeInBytes());
+        double[] quantiles = {0.01, 0.1, 0.5, 0.9, 0.99};
+        double[] actualValues = actual.valuesAt(quantiles);
+        double[] expectedValues = expected.valuesAt(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            assertThat(actualValues[i]).isCloseTo(expectedValues[i], within(50.0));
+        }
+        for (int i = 1; i < quantiles.length; i++) {
+            assertThat(actualValues[i]).isGreaterThanOrEqualTo(actualValues[i - 1]);
+        }
+    }
+
+    @Test
+    public void testMergeInParallel()
+    {
+        List<TDigest> digests = new ArrayList<>();
+        TDigest expected = new TDigest();
+        for (int i = 0; i < 50; i++) {
+            TDigest digest = new TDigest();
+            for (int j = 0; j < 1000; j++) {
+                digest.add(ThreadLocalRandom.current().nextGaussian() * 1000 + i);
+            }
+            digests.add(digest);
+            expected.mergeWith(digest);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TDigest actual = TDigest.mergeInParallel(digests, pool);
+            TDigest deserialized = TDigest.mergeSerializedInParallel(digests.stream().map(TDigest::serialize).collect(toImmutableList()), pool);
+
+            assertThat(actual.getCount()).isEqualTo(expected.getCount());
+            assertThat(actual.getMin()).isEqualTo(expected.getMin());
+            assertThat(actual.getMax()).isEqualTo(expected.getMax());
+            assertSimilar(deserialized, actual);
+
+            double[] quantiles = {0.01, 0.1, 0.5, 0.9, 0.99};
+            double[] actualValues = actual.valuesAt(quantiles);
+            double[] expectedValues = expected.valuesAt(quantiles);
+            for (int i = 0; i < quantiles.length; i++) {
+                assertThat(actualValues[i]).isCloseTo(expectedValues[i], within(50.0));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergeAllEmpty()
+    {
+        TDigest digest = new TDigest();
+        digest.mergeAll(ImmutableList.of(new TDigest(), new TDigest()));
+        assertThat(digest.getCount()).isEqualTo(0.0);
+        assertThat(digest.getMin()).isNaN();
+
+        TDigest other = new TDigest();
+        other.add(10);
+        digest.mergeAll(ImmutableList.of(new TDigest(), other));
+        assertThat(digest.getCount()).isEqualTo(1.0);
+        assertThat(digest.valueAt(0.5)).isEqualTo(10.0);
+    }
+
     @Test
     public void testUnmergeable()
             throws IOException
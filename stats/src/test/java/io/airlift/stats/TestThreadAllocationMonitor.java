@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.units.Duration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestThreadAllocationMonitor
+{
+    // public to make it less likely for the VM to optimize the allocations out
+    public static volatile Object allocatedObject;
+
+    @Test
+    public void testAttributesAllocationsByThreadName()
+            throws InterruptedException
+    {
+        ThreadAllocationMonitor monitor = new ThreadAllocationMonitor(new Duration(1, SECONDS));
+        monitor.sample();
+
+        CountDownLatch allocated = new CountDownLatch(1);
+        CountDownLatch sampled = new CountDownLatch(1);
+        Thread worker = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                allocatedObject = new byte[10_000];
+            }
+            allocated.countDown();
+            try {
+                // stay alive until the allocations have been sampled
+                sampled.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "http-worker-test");
+        worker.start();
+        allocated.await();
+
+        monitor.sample();
+        sampled.countDown();
+        worker.join();
+
+        assertThat(monitor.getHttpWorker().getAllocatedBytes().getTotalCount()).isGreaterThanOrEqualTo(10_000_000);
+        assertThat(monitor.getHttpWorker().getAllocationRate().getAllTime().getCount()).isEqualTo(1.0);
+        assertThat(monitor.getHttpClient().getAllocatedBytes().getTotalCount()).isEqualTo(0);
+        assertThat(monitor.getLogBufferDrainer().getAllocatedBytes().getTotalCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStartStop()
+    {
+        ThreadAllocationMonitor monitor = new ThreadAllocationMonitor();
+        monitor.start();
+        monitor.stop();
+    }
+}
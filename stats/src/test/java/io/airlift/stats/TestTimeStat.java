@@ -15,6 +15,7 @@
  */
 package io.airlift.stats;
 
+import io.airlift.stats.TimeDistribution.TimeDistributionSnapshot;
 import io.airlift.stats.TimeStat.BlockTimer;
 import io.airlift.testing.TestingTicker;
 import org.junit.jupiter.api.BeforeEach;
@@ -225,4 +226,25 @@ public class TestTimeStat
 
         fail(String.format("%s expected:<%s> to be between <%s> and <%s>", name, value, minValue, maxValue));
     }
+
+    @Test
+    public void testInterval()
+    {
+        TimeStat stat = new TimeStat(TimeUnit.MILLISECONDS);
+        stat.add(5, TimeUnit.SECONDS);
+        try (TimeStat.Interval interval = stat.newInterval()) {
+            stat.add(10, TimeUnit.MILLISECONDS);
+            stat.add(30, TimeUnit.MILLISECONDS);
+
+            TimeDistributionSnapshot snapshot = interval.snapshotAndReset();
+            assertThat(snapshot.getCount()).isEqualTo(2.0);
+            assertThat(snapshot.getMin()).isEqualTo(10.0);
+            assertThat(snapshot.getMax()).isEqualTo(30.0);
+            assertThat(snapshot.getAvg()).isEqualTo(20.0);
+            assertThat(snapshot.unit()).isEqualTo(TimeUnit.MILLISECONDS);
+
+            assertThat(interval.snapshotAndReset().getCount()).isEqualTo(0.0);
+        }
+        assertThat(stat.getAllTime().getCount()).isEqualTo(3.0);
+    }
 }
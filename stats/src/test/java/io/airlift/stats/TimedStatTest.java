@@ -15,6 +15,7 @@
  */
 package io.airlift.stats;
 
+import io.airlift.units.Duration;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
@@ -26,6 +27,7 @@ import java.util.concurrent.locks.LockSupport;
 
 import static io.airlift.testing.Assertions.assertGreaterThanOrEqual;
 import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
@@ -38,7 +40,17 @@ public class TimedStatTest
     @Test
     public void testBasic()
     {
-        TimedStat stat = new TimedStat();
+        assertBasic(new TimedStat());
+    }
+
+    @Test
+    public void testWindow()
+    {
+        assertBasic(new TimedStat(new Duration(1, MINUTES)));
+    }
+
+    private void assertBasic(TimedStat stat)
+    {
         List<Double> values = new ArrayList<>(VALUES);
         for (int i = 0; i < VALUES; i++) {
             values.add((double) i);
@@ -66,6 +66,18 @@ public class BenchmarkDenseHll
         return data.base.mergeWith(data.toMerge);
     }
 
+    @Benchmark
+    public DenseHll benchmarkMergeLargeWithDense(MergeLargeWithDenseData data)
+    {
+        return data.base.mergeWith(data.toMerge);
+    }
+
+    @Benchmark
+    public long benchmarkCardinality(MergeLargeWithDenseData data)
+    {
+        return data.base.cardinality();
+    }
+
     @State(Scope.Thread)
     public static class InsertData
     {
@@ -105,6 +117,24 @@ public class BenchmarkDenseHll
         }
     }
 
+    @State(Scope.Thread)
+    public static class MergeLargeWithDenseData
+    {
+        public DenseHll base;
+        public DenseHll toMerge;
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            base = new DenseHll(12);
+            toMerge = new DenseHll(12);
+            for (int i = 0; i < LARGE_CARDINALITY; i++) {
+                base.insertHash(ThreadLocalRandom.current().nextLong());
+                toMerge.insertHash(ThreadLocalRandom.current().nextLong());
+            }
+        }
+    }
+
     @State(Scope.Thread)
     public static class MergeWithSparseData
     {
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats.cardinality;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(5)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class BenchmarkHyperLogLog
+{
+    @Benchmark
+    public HyperLogLog benchmarkAddHash(Data data)
+    {
+        HyperLogLog instance = HyperLogLog.newInstance(data.numberOfBuckets);
+        for (long hash : data.hashes) {
+            instance.addHash(hash);
+        }
+
+        return instance;
+    }
+
+    @Benchmark
+    public HyperLogLog benchmarkAddHashes(Data data)
+    {
+        HyperLogLog instance = HyperLogLog.newInstance(data.numberOfBuckets);
+        instance.addHashes(data.hashes, 0, data.hashes.length);
+
+        return instance;
+    }
+
+    @State(Scope.Thread)
+    public static class Data
+    {
+        @Param({"2048", "65536"})
+        public int numberOfBuckets;
+
+        @Param({"100", "1000", "100000"})
+        public int batchSize;
+
+        public long[] hashes;
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            hashes = new long[batchSize];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = ThreadLocalRandom.current().nextLong();
+            }
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkHyperLogLog.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
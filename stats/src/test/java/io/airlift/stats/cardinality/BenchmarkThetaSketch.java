@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats.cardinality;
+
+import io.airlift.slice.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ThetaSketch} with a {@link HyperLogLog} of a similar standard error.
+ * The relative standard error is about {@code 1 / sqrt(nominalEntries)} for the former,
+ * and {@code 1.04 / sqrt(numberOfBuckets)} for the latter.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(5)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class BenchmarkThetaSketch
+{
+    @Benchmark
+    public ThetaSketch benchmarkThetaSketchAddHash(Data data)
+    {
+        ThetaSketch instance = ThetaSketch.newInstance(data.size);
+        for (long hash : data.hashes) {
+            instance.addHash(hash);
+        }
+
+        return instance;
+    }
+
+    @Benchmark
+    public HyperLogLog benchmarkHyperLogLogAddHash(Data data)
+    {
+        HyperLogLog instance = HyperLogLog.newInstance(data.size);
+        for (long hash : data.hashes) {
+            instance.addHash(hash);
+        }
+
+        return instance;
+    }
+
+    @Benchmark
+    public long benchmarkThetaSketchUnion(Data data)
+    {
+        ThetaSketch instance = ThetaSketch.newInstance(data.serializedThetaSketch);
+        instance.mergeWith(data.otherThetaSketch);
+        return instance.cardinality();
+    }
+
+    @Benchmark
+    public long benchmarkHyperLogLogUnion(Data data)
+    {
+        HyperLogLog instance = HyperLogLog.newInstance(data.serializedHyperLogLog);
+        instance.mergeWith(data.otherHyperLogLog);
+        return instance.cardinality();
+    }
+
+    @Benchmark
+    public long benchmarkThetaSketchIntersection(Data data)
+    {
+        ThetaSketch instance = ThetaSketch.newInstance(data.serializedThetaSketch);
+        instance.intersectWith(data.otherThetaSketch);
+        return instance.cardinality();
+    }
+
+    @Benchmark
+    public long benchmarkThetaSketchDifference(Data data)
+    {
+        ThetaSketch instance = ThetaSketch.newInstance(data.serializedThetaSketch);
+        instance.subtract(data.otherThetaSketch);
+        return instance.cardinality();
+    }
+
+    @State(Scope.Thread)
+    public static class Data
+    {
+        // nominal entries of the theta sketch and number of buckets of the HyperLogLog
+        @Param({"2048", "65536"})
+        public int size;
+
+        @Param({"100", "1000", "100000"})
+        public int batchSize;
+
+        public long[] hashes;
+
+        public Slice serializedThetaSketch;
+        public ThetaSketch otherThetaSketch;
+        public Slice serializedHyperLogLog;
+        public HyperLogLog otherHyperLogLog;
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            hashes = new long[batchSize];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = ThreadLocalRandom.current().nextLong();
+            }
+
+            // two sets that overlap in half of their values
+            ThetaSketch thetaSketch = ThetaSketch.newInstance(size);
+            otherThetaSketch = ThetaSketch.newInstance(size);
+            HyperLogLog hyperLogLog = HyperLogLog.newInstance(size);
+            otherHyperLogLog = HyperLogLog.newInstance(size);
+            for (int i = 0; i < hashes.length; i++) {
+                if (i < hashes.length * 3 / 4) {
+                    thetaSketch.addHash(hashes[i]);
+                    hyperLogLog.addHash(hashes[i]);
+                }
+                if (i >= hashes.length / 4) {
+                    otherThetaSketch.addHash(hashes[i]);
+                    otherHyperLogLog.addHash(hashes[i]);
+                }
+            }
+            serializedThetaSketch = thetaSketch.serialize();
+            serializedHyperLogLog = hyperLogLog.serialize();
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkThetaSketch.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -113,6 +113,38 @@ public class TestDenseHll
         assertSameBuckets(testingHll, hll1);
     }
 
+    @Test
+    public void testMergeWithDifferentBaselines()
+    {
+        for (int prefixBitLength : new int[] {1, 2, 3, 4, 8, 12, 16}) {
+            TestingHll testingHll = new TestingHll(prefixBitLength);
+            DenseHll large = new DenseHll(prefixBitLength);
+            DenseHll small = new DenseHll(prefixBitLength);
+
+            for (int i = 0; i < 5_000_000; i++) {
+                long hash = XxHash64.hash(i);
+                large.insertHash(hash);
+                testingHll.insertHash(hash);
+            }
+
+            // a few hashes with many leading zeros after the index bits force overflows
+            for (int i = 0; i < 100; i++) {
+                long hash = (XxHash64.hash(-i) >>> (prefixBitLength + 20)) | ((long) i << (Long.SIZE - prefixBitLength));
+                small.insertHash(hash);
+                testingHll.insertHash(hash);
+            }
+
+            DenseHll merged = new DenseHll(prefixBitLength).mergeWith(small).mergeWith(large);
+            merged.verify();
+            assertSameBuckets(testingHll, merged);
+
+            large.mergeWith(small);
+            large.verify();
+            assertSameBuckets(testingHll, large);
+            assertSlicesEqual(large.serialize(), merged.serialize());
+        }
+    }
+
     @Test
     public void testMerge()
     {
@@ -121,6 +121,102 @@ public class TestHyperLogLog
         assertThat(hll1.serialize()).isEqualTo(expected.serialize());
     }
 
+    @Test
+    public void testAddHashes()
+    {
+        for (int size : new int[] {0, 1, 10, 100, 1_000, 100_000}) {
+            long[] hashes = new long[size + 20];
+            for (int i = 0; i < hashes.length; i++) {
+                // include duplicate buckets within the batch
+                hashes[i] = ThreadLocalRandom.current().nextLong() & (i % 3 == 0 ? 0xFFFF_0000_0000_0000L : -1L);
+            }
+
+            HyperLogLog expected = HyperLogLog.newInstance(2048);
+            HyperLogLog actual = HyperLogLog.newInstance(2048);
+
+            for (int i = 10; i < size + 10; i++) {
+                expected.addHash(hashes[i]);
+            }
+
+            // in two batches, to merge into existing entries
+            actual.addHashes(hashes, 10, size / 2);
+            actual.verify();
+            actual.addHashes(hashes, 10 + size / 2, size - size / 2);
+            actual.verify();
+
+            assertThat(actual.cardinality()).isEqualTo(expected.cardinality());
+
+            expected.makeDense();
+            actual.makeDense();
+            assertThat(actual.serialize()).isEqualTo(expected.serialize());
+        }
+    }
+
+    @Test
+    public void testAddHashesWithDuplicates()
+    {
+        // around 250 distinct hashes is where a 2048 bucket instance becomes dense
+        for (int distinct : new int[] {1, 50, 200, 240, 245, 250, 255, 260, 300, 5_000}) {
+            long[] distinctHashes = new long[distinct];
+            for (int i = 0; i < distinct; i++) {
+                // limit the number of leading zeros, so dense buckets never overflow and
+                // do not depend on the order in which the buckets are set
+                distinctHashes[i] = ThreadLocalRandom.current().nextLong() | (1L << 40);
+            }
+            long[] hashes = new long[20_000];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = distinctHashes[ThreadLocalRandom.current().nextInt(distinct)];
+            }
+
+            HyperLogLog expected = HyperLogLog.newInstance(2048);
+            for (long hash : hashes) {
+                expected.addHash(hash);
+            }
+
+            HyperLogLog actual = HyperLogLog.newInstance(2048);
+            actual.addHashes(hashes, 0, hashes.length);
+            actual.verify();
+
+            assertThat(actual.estimatedInMemorySize()).isEqualTo(expected.estimatedInMemorySize());
+            assertThat(actual.serialize()).isEqualTo(expected.serialize());
+        }
+    }
+
+    @Test
+    public void testSerializedView()
+    {
+        // sparse and dense
+        verifySerializedView(sequence(0, 100), sequence(50, 150));
+        verifySerializedView(sequence(0, 100), sequence(0, 2_000_000));
+        verifySerializedView(sequence(0, 2_000_000), sequence(0, 100));
+        verifySerializedView(sequence(0, 2_000_000), sequence(1_000_000, 3_000_000));
+    }
+
+    private void verifySerializedView(List<Long> one, List<Long> two)
+    {
+        HyperLogLog hll1 = HyperLogLog.newInstance(2048);
+        HyperLogLog hll2 = HyperLogLog.newInstance(2048);
+
+        for (long value : one) {
+            hll1.add(value);
+        }
+        for (long value : two) {
+            hll2.add(value);
+        }
+
+        SerializedHyperLogLog view = SerializedHyperLogLog.wrap(hll2.serialize());
+        assertThat(view.cardinality()).isEqualTo(hll2.cardinality());
+
+        HyperLogLog expected = HyperLogLog.newInstance(hll1.serialize());
+        expected.mergeWith(hll2);
+
+        hll1.mergeWith(view);
+        hll1.verify();
+
+        assertThat(hll1.cardinality()).isEqualTo(expected.cardinality());
+        assertThat(hll1.serialize()).isEqualTo(expected.serialize());
+    }
+
     @Test
     public void testRoundtrip()
     {
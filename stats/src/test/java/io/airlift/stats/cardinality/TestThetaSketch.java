@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats.cardinality;
+
+import io.airlift.slice.Slices;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.airlift.stats.cardinality.TestUtils.sequence;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestThetaSketch
+{
+    private static final int NOMINAL_ENTRIES = 4096;
+    // about 5 standard errors
+    private static final double MAX_RELATIVE_ERROR = 5 / Math.sqrt(NOMINAL_ENTRIES);
+
+    @Test
+    public void testExact()
+    {
+        ThetaSketch sketch = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        for (long value : sequence(0, NOMINAL_ENTRIES)) {
+            sketch.add(value);
+            // duplicates do not count
+            sketch.add(value);
+        }
+        sketch.verify();
+
+        assertThat(sketch.cardinality()).isEqualTo(NOMINAL_ENTRIES);
+        assertThat(sketch.getTheta()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testEstimates()
+    {
+        for (int cardinality : new int[] {10_000, 100_000, 1_000_000}) {
+            ThetaSketch sketch = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+            for (int i = 0; i < cardinality; i++) {
+                sketch.add(ThreadLocalRandom.current().nextLong());
+            }
+            sketch.verify();
+
+            assertEstimate(sketch, cardinality);
+            assertThat(sketch.getTheta()).isLessThan(1.0);
+        }
+    }
+
+    @Test
+    public void testSetOperations()
+    {
+        // exact
+        verifySetOperations(0, 100, 50, 150);
+
+        // exact vs estimated
+        verifySetOperations(0, 100, 50, 500_000);
+
+        // estimated vs estimated
+        verifySetOperations(0, 1_000_000, 600_000, 2_000_000);
+    }
+
+    private static void verifySetOperations(int firstStart, int firstEnd, int secondStart, int secondEnd)
+    {
+        ThetaSketch first = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        ThetaSketch second = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        for (long value : sequence(firstStart, firstEnd)) {
+            first.add(value);
+        }
+        for (long value : sequence(secondStart, secondEnd)) {
+            second.add(value);
+        }
+
+        long firstSize = firstEnd - firstStart;
+        long overlap = Math.max(0, Math.min(firstEnd, secondEnd) - Math.max(firstStart, secondStart));
+        long union = firstSize + (secondEnd - secondStart) - overlap;
+
+        ThetaSketch merged = ThetaSketch.newInstance(first.serialize());
+        merged.mergeWith(second);
+        merged.verify();
+        assertEstimate(merged, union);
+
+        ThetaSketch intersection = ThetaSketch.newInstance(first.serialize());
+        intersection.intersectWith(second);
+        intersection.verify();
+        // the error of an intersection is relative to the union it is sampled from
+        assertThat((double) Math.abs(intersection.cardinality() - overlap)).isLessThanOrEqualTo(union * MAX_RELATIVE_ERROR);
+
+        ThetaSketch difference = ThetaSketch.newInstance(first.serialize());
+        difference.subtract(second);
+        difference.verify();
+        assertThat((double) Math.abs(difference.cardinality() - (firstSize - overlap))).isLessThanOrEqualTo(union * MAX_RELATIVE_ERROR);
+    }
+
+    @Test
+    public void testIntersectionOfExactSketchesIsExact()
+    {
+        ThetaSketch first = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        ThetaSketch second = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        for (long value : sequence(0, 1000)) {
+            first.add(value);
+        }
+        for (long value : sequence(500, 1500)) {
+            second.add(value);
+        }
+
+        first.intersectWith(second);
+        assertThat(first.cardinality()).isEqualTo(500);
+
+        first.subtract(second);
+        assertThat(first.cardinality()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRoundtrip()
+    {
+        verifyRoundtrip(sequence(0, 100));
+        verifyRoundtrip(sequence(0, 100_000));
+    }
+
+    private static void verifyRoundtrip(List<Long> sequence)
+    {
+        ThetaSketch sketch = ThetaSketch.newInstance(NOMINAL_ENTRIES);
+        for (long value : sequence) {
+            sketch.add(value);
+        }
+
+        ThetaSketch deserialized = ThetaSketch.newInstance(sketch.serialize());
+        deserialized.verify();
+
+        assertThat(deserialized.cardinality()).isEqualTo(sketch.cardinality());
+        assertThat(deserialized.getNominalEntries()).isEqualTo(sketch.getNominalEntries());
+        assertThat(deserialized.serialize()).isEqualTo(sketch.serialize());
+        assertThat(sketch.serialize().length()).isEqualTo(sketch.estimatedSerializedSize());
+
+        // the deserialized sketch keeps accepting values
+        deserialized.add(-1);
+        deserialized.verify();
+    }
+
+    @Test
+    public void testInvalidSerialization()
+    {
+        assertThat(ThetaSketch.canDeserialize(HyperLogLog.newInstance(2048).serialize())).isFalse();
+
+        assertThatThrownBy(() -> ThetaSketch.newInstance(HyperLogLog.newInstance(2048).serialize()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ThetaSketch.newInstance(Slices.wrappedBuffer(new byte[] {4, 0, 0, 0, 16})))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void assertEstimate(ThetaSketch sketch, long expected)
+    {
+        double error = Math.abs(sketch.cardinality() - expected) * 1.0 / expected;
+        assertThat(error).isLessThanOrEqualTo(MAX_RELATIVE_ERROR);
+    }
+}